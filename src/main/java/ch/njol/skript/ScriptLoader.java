@@ -73,6 +73,8 @@ import ch.njol.skript.registrations.Classes;
 import ch.njol.skript.registrations.Converters;
 import ch.njol.skript.util.Date;
 import ch.njol.skript.util.ExceptionUtils;
+import ch.njol.skript.variables.Continuations;
+import ch.njol.skript.variables.LocalVariables;
 import ch.njol.skript.variables.Variables;
 import ch.njol.util.Callback;
 import ch.njol.util.Kleenean;
@@ -120,12 +122,32 @@ final public class ScriptLoader {
 		currentEventName = name;
 		currentEvents = events;
 		hasDelayBefore = Kleenean.FALSE;
+		currentLocalVariables = new LocalVariables.Slots();
 	}
 	
+	/**
+	 * Also discards the persistent delays of the trigger if it could not be loaded, i.e. if {@link Continuations#registerPending()} has not been called.
+	 */
 	public static void deleteCurrentEvent() {
+		Continuations.discardPending();
 		currentEventName = null;
 		currentEvents = null;
 		hasDelayBefore = Kleenean.FALSE;
+		currentLocalVariables = null;
+	}
+	
+	/**
+	 * The slots of the local variables of the trigger that is currently parsed. Created by {@link #setCurrentEvent(String, Class...)}, thus every trigger gets its own slots.
+	 */
+	@Nullable
+	private static LocalVariables.Slots currentLocalVariables = null;
+	
+	/**
+	 * @return The slots of the local variables of the trigger that is currently parsed, or null if no trigger is being parsed
+	 */
+	@Nullable
+	public static LocalVariables.Slots getLocalVariableSlots() {
+		return currentLocalVariables;
 	}
 	
 	public static List<TriggerSection> currentSections = new ArrayList<TriggerSection>();
@@ -462,6 +484,7 @@ final public class ScriptLoader {
 						final ScriptCommand c = Commands.loadCommand(node);
 						if (c != null) {
 							numCommands++;
+							Continuations.registerPending();
 //							script.commands.add(c);
 						}
 						
@@ -487,6 +510,7 @@ final public class ScriptLoader {
 					
 					setCurrentEvent("" + parsedEvent.first.getName().toLowerCase(Locale.ENGLISH), parsedEvent.first.events);
 					final Trigger trigger = new Trigger(config.getFile(), event, parsedEvent.second, loadItems(node));
+					Continuations.registerPending();
 					deleteCurrentEvent();
 					
 					if (parsedEvent.second instanceof SelfRegisteringSkriptEvent) {
@@ -572,6 +596,7 @@ final public class ScriptLoader {
 	 */
 	final static ScriptInfo unloadScript(final File script) {
 		final ScriptInfo info = SkriptEventHandler.removeTriggers(script);
+		Continuations.unregister(script);
 		synchronized (loadedScripts) {
 			loadedScripts.subtract(info);
 		}
@@ -108,6 +108,7 @@ import ch.njol.skript.util.Getter;
 import ch.njol.skript.util.Task;
 import ch.njol.skript.util.Utils;
 import ch.njol.skript.util.Version;
+import ch.njol.skript.variables.Continuations;
 import ch.njol.skript.variables.Variables;
 import ch.njol.util.Closeable;
 import ch.njol.util.Kleenean;
@@ -377,6 +378,8 @@ public final class Skript extends JavaPlugin implements Listener {
 				
 				ScriptLoader.loadScripts();
 				
+				Continuations.load(new File(getDataFolder(), "continuations.dat"));
+				
 				Skript.info(m_finished_loading.toString());
 				
 				EvtSkript.onSkriptStart();
@@ -536,6 +539,7 @@ public final class Skript extends JavaPlugin implements Listener {
 		VariableString.variableNames.clear();
 		SkriptEventHandler.removeAllTriggers();
 		Commands.clearCommands();
+		Continuations.unregisterAll();
 	}
 	
 	/**
@@ -3,6 +3,7 @@ package ch.njol.skript;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Map.Entry;
 
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
@@ -25,6 +26,7 @@ import ch.njol.skript.util.Color;
 import ch.njol.skript.util.ExceptionUtils;
 import ch.njol.skript.util.FileUtils;
 import ch.njol.skript.util.Utils;
+import ch.njol.skript.variables.Variables;
 import ch.njol.util.StringUtils;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
@@ -78,7 +80,8 @@ public class SkriptCommand implements CommandExecutor {
 //					.add("set", "Creates a new variable or changes an existing one")
 //					.add("delete", "Deletes a variable")
 //					.add("find", "Find variables")
-			).add("help");
+			).add("variables")
+			.add("help");
 	
 	private final static ArgsMessage m_reloading = new ArgsMessage(NODE + ".reload.reloading");
 	
@@ -397,6 +400,10 @@ public class SkriptCommand implements CommandExecutor {
 				} finally {
 					Updater.stateLock.writeLock().unlock();
 				}
+			} else if (args[0].equalsIgnoreCase("variables")) {
+				info(sender, "variables.count", Variables.numVariables());
+				for (final Entry<String, String> e : Variables.getStorageStatus().entrySet())
+					message(sender, "variables.database", e.getKey(), e.getValue());
 			} else if (args[0].equalsIgnoreCase("help")) {
 				skriptCommandHelp.showHelp(sender);
 			}
@@ -162,6 +162,12 @@ public abstract class SkriptConfig {
 	
 	public final static Option<Boolean> disableVariableConflictWarnings = new Option<Boolean>("disable variable conflict warnings", false);
 	
+	/**
+	 * A regex of the global list variables whose values are indexed, or the empty string if no lists are indexed. Only read when the variables are loaded.
+	 */
+	public final static Option<String> indexedListVariables = new Option<String>("indexed list variables", "")
+			.optional(true);
+	
 	public final static Option<Boolean> enableScriptCaching = new Option<Boolean>("enable script caching", false)
 			.optional(true);
 	
@@ -65,6 +65,8 @@ public class ClassInfo<T> implements Debuggable {
 	private Serializer<? super T> serializer = null;
 	@Nullable
 	private Class<?> serializeAs = null;
+	@Nullable
+	private Codec<T> codec = null;
 	
 	@Nullable
 	private Arithmetic<? super T, ?> math = null;
@@ -141,6 +143,18 @@ public class ClassInfo<T> implements Debuggable {
 		return this;
 	}
 	
+	/**
+	 * Sets a codec that is used instead of Yggdrasil to serialise values of exactly this class. Requires a {@link #serializer(Serializer) serializer} as well.
+	 * 
+	 * @param codec
+	 * @return This ClassInfo object
+	 */
+	public ClassInfo<T> codec(final Codec<T> codec) {
+		assert this.codec == null;
+		this.codec = codec;
+		return this;
+	}
+	
 	public ClassInfo<T> serializeAs(final Class<?> serializeAs) {
 		assert this.serializeAs == null;
 		if (serializer != null)
@@ -271,6 +285,11 @@ public class ClassInfo<T> implements Debuggable {
 		return serializer;
 	}
 	
+	@Nullable
+	public Codec<T> getCodec() {
+		return codec;
+	}
+	
 	@Nullable
 	public Class<?> getSerializeAs() {
 		return serializeAs;
@@ -0,0 +1,286 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.classes;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.skript.registrations.Classes;
+import ch.njol.yggdrasil.Tag;
+
+/**
+ * A fast alternative to Yggdrasil for serialising the values of a single class, which writes and reads the value's data directly without creating any streams.
+ * <p>
+ * A codec must produce exactly the same data as Yggdrasil (excluding the stream header and the value's tag, which are never saved), so that variables saved with a codec
+ * can be loaded without it and vice versa. {@link Classes} verifies this with the first value of each {@link #variant(byte[]) variant} that is serialised or deserialised
+ * and ignores variants that don't match. Data that a codec cannot decode is deserialised by Yggdrasil instead.
+ * 
+ * @author Peter Güttinger
+ * @see ClassInfo#codec(Codec)
+ */
+public abstract class Codec<T> {
+	
+	/**
+	 * This method must be thread-safe.
+	 * 
+	 * @return The value's data
+	 */
+	public abstract byte[] encode(T o);
+	
+	/**
+	 * This method must be thread-safe.
+	 * 
+	 * @return The value, or null if the data is invalid
+	 */
+	@Nullable
+	public abstract T decode(byte[] data);
+	
+	/**
+	 * Codecs that write values in different ways, e.g. depending on their length, must override this and {@link #variant(byte[])} so that each way is verified.
+	 * 
+	 * @return The number of variants of this codec's data
+	 */
+	public int variants() {
+		return 1;
+	}
+	
+	/**
+	 * This method must be thread-safe.
+	 * 
+	 * @return The variant of the given data, between 0 (inclusive) and {@link #variants()} (exclusive)
+	 */
+	public int variant(final byte[] data) {
+		return 0;
+	}
+	
+	/**
+	 * Writes the lowest <tt>bytes</tt> bytes of a number in big-endian byte order like Yggdrasil.
+	 */
+	protected final static byte[] encodeNumber(final long n, final int bytes) {
+		final byte[] r = new byte[bytes];
+		for (int i = 0; i < bytes; i++)
+			r[i] = (byte) (n >>> (8 * (bytes - 1 - i)));
+		return r;
+	}
+	
+	/**
+	 * @return The number, or null if the data doesn't have the given length
+	 */
+	@Nullable
+	protected final static Long decodeNumber(final byte[] data, final int bytes) {
+		if (data.length != bytes)
+			return null;
+		long n = 0;
+		for (int i = 0; i < bytes; i++)
+			n = n << 8 | data[i] & 0xFF;
+		return n;
+	}
+	
+	/**
+	 * Writes a field's ID followed by the tag of its value like Yggdrasil does before writing the value itself. The ID must be at most 4 bytes long in UTF-8 or not have
+	 * been written before in the same value, as Yggdrasil writes longer IDs as references when they are repeated.
+	 * 
+	 * @return The field's header
+	 */
+	protected final static byte[] field(final String id, final Tag tag) {
+		final byte[] d = id.getBytes(StandardCharsets.UTF_8);
+		assert d.length < 0xFF : id;
+		final byte[] r = new byte[d.length + 2];
+		r[0] = (byte) d.length;
+		System.arraycopy(d, 0, r, 1, d.length);
+		r[r.length - 1] = tag.tag;
+		return r;
+	}
+	
+	/**
+	 * Moves the buffer's position past the given bytes if the buffer's remaining data starts with them.
+	 * 
+	 * @return Whether the bytes were found
+	 */
+	protected final static boolean skip(final ByteBuffer buf, final byte[] bytes) {
+		if (buf.remaining() < bytes.length)
+			return false;
+		final int p = buf.position();
+		for (int i = 0; i < bytes.length; i++) {
+			if (buf.get(p + i) != bytes[i])
+				return false;
+		}
+		buf.position(p + bytes.length);
+		return true;
+	}
+	
+	public final static Codec<Byte> BYTE = new Codec<Byte>() {
+		@Override
+		public byte[] encode(final Byte b) {
+			return encodeNumber(b, 1);
+		}
+		
+		@Override
+		@Nullable
+		public Byte decode(final byte[] data) {
+			final Long n = decodeNumber(data, 1);
+			return n == null ? null : (byte) n.longValue();
+		}
+	};
+	
+	public final static Codec<Short> SHORT = new Codec<Short>() {
+		@Override
+		public byte[] encode(final Short s) {
+			return encodeNumber(s, 2);
+		}
+		
+		@Override
+		@Nullable
+		public Short decode(final byte[] data) {
+			final Long n = decodeNumber(data, 2);
+			return n == null ? null : (short) n.longValue();
+		}
+	};
+	
+	public final static Codec<Integer> INTEGER = new Codec<Integer>() {
+		@Override
+		public byte[] encode(final Integer i) {
+			return encodeNumber(i, 4);
+		}
+		
+		@Override
+		@Nullable
+		public Integer decode(final byte[] data) {
+			final Long n = decodeNumber(data, 4);
+			return n == null ? null : (int) n.longValue();
+		}
+	};
+	
+	public final static Codec<Long> LONG = new Codec<Long>() {
+		@Override
+		public byte[] encode(final Long l) {
+			return encodeNumber(l, 8);
+		}
+		
+		@Override
+		@Nullable
+		public Long decode(final byte[] data) {
+			return decodeNumber(data, 8);
+		}
+	};
+	
+	public final static Codec<Float> FLOAT = new Codec<Float>() {
+		@Override
+		public byte[] encode(final Float f) {
+			return encodeNumber(Float.floatToIntBits(f), 4);
+		}
+		
+		@Override
+		@Nullable
+		public Float decode(final byte[] data) {
+			final Long n = decodeNumber(data, 4);
+			return n == null ? null : Float.intBitsToFloat((int) n.longValue());
+		}
+	};
+	
+	public final static Codec<Double> DOUBLE = new Codec<Double>() {
+		@Override
+		public byte[] encode(final Double d) {
+			return encodeNumber(Double.doubleToLongBits(d), 8);
+		}
+		
+		@Override
+		@Nullable
+		public Double decode(final byte[] data) {
+			final Long n = decodeNumber(data, 8);
+			return n == null ? null : Double.longBitsToDouble(n);
+		}
+	};
+	
+	public final static Codec<Boolean> BOOLEAN = new Codec<Boolean>() {
+		private final byte[] TRUE = {1}, FALSE = {0};
+		
+		@Override
+		public byte[] encode(final Boolean b) {
+			return (b ? TRUE : FALSE).clone();
+		}
+		
+		@Override
+		@Nullable
+		public Boolean decode(final byte[] data) {
+			if (data.length != 1 || (data[0] & 0xFE) != 0)
+				return null;
+			return data[0] == 1;
+		}
+	};
+	
+	/**
+	 * Writes the string's length in UTF-8 as an unsigned int like Yggdrasil, i.e. in two bytes with the highest bit set if it's at most 0x7FFF, or in four bytes otherwise,
+	 * followed by the UTF-8 bytes.
+	 */
+	public final static Codec<String> STRING = new Codec<String>() {
+		@SuppressWarnings("null")
+		@Override
+		public byte[] encode(final String s) {
+			final byte[] d = s.getBytes(StandardCharsets.UTF_8);
+			final int l = d.length <= 0x7FFF ? 2 : 4;
+			final byte[] r = new byte[l + d.length];
+			if (l == 2) {
+				r[0] = (byte) (0x80 | d.length >>> 8);
+				r[1] = (byte) d.length;
+			} else {
+				for (int i = 0; i < 4; i++)
+					r[i] = (byte) (d.length >>> (8 * (3 - i)));
+			}
+			System.arraycopy(d, 0, r, l, d.length);
+			return r;
+		}
+		
+		@Override
+		public int variants() {
+			return 2;
+		}
+		
+		@Override
+		public int variant(final byte[] data) {
+			return (data[0] & 0x80) != 0 ? 0 : 1;
+		}
+		
+		@Override
+		@Nullable
+		public String decode(final byte[] data) {
+			if (data.length < 2)
+				return null;
+			final int l, length;
+			if ((data[0] & 0x80) != 0) {
+				l = 2;
+				length = (data[0] & 0x7F) << 8 | data[1] & 0xFF;
+			} else {
+				if (data.length < 4)
+					return null;
+				l = 4;
+				length = (data[0] & 0xFF) << 24 | (data[1] & 0xFF) << 16 | (data[2] & 0xFF) << 8 | data[3] & 0xFF;
+			}
+			if (data.length != l + length)
+				return null;
+			return new String(data, l, length, StandardCharsets.UTF_8);
+		}
+	};
+	
+}
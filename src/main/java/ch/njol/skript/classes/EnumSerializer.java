@@ -55,6 +55,11 @@ public class EnumSerializer<T extends Enum<T>> extends Serializer<T> {
 		return false;
 	}
 	
+	@Override
+	public boolean mustSyncSerialization() {
+		return false;
+	}
+	
 	@Override
 	public boolean canBeInstantiated(final Class<? extends T> c) {
 		assert false;
@@ -105,12 +105,22 @@ public abstract class Serializer<T> extends YggdrasilSerializer<T> {
 	public abstract void deserialize(T o, Fields f) throws StreamCorruptedException, NotSerializableException;
 	
 	/**
-	 * Not currently used (everything happens on Bukkit's main thread).
-	 * 
 	 * @return Whether deserialisation must be done on Bukkit's main thread.
 	 */
 	public abstract boolean mustSyncDeserialization();
 	
+	/**
+	 * Values of serialisers that return false are serialised by the thread that writes them to a database, thus such values must not be modified after they were stored in a
+	 * variable. Should only be overridden for immutable types.
+	 * <p>
+	 * Returns true by default.
+	 * 
+	 * @return Whether serialisation must be done on Bukkit's main thread.
+	 */
+	public boolean mustSyncSerialization() {
+		return true;
+	}
+	
 	/**
 	 * You must override and use {@link #deserialize(Fields)} if this method returns false.
 	 */
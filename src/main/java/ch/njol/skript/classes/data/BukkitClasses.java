@@ -874,6 +874,11 @@ public class BukkitClasses {
 					public boolean mustSyncDeserialization() {
 						return false;
 					}
+					
+					@Override
+					public boolean mustSyncSerialization() {
+						return false; // only the type's name is saved
+					}
 				}));
 		
 		// REMIND make my own damage cause class (that e.g. stores the attacker entity, the projectile, or the attacking block)
@@ -1074,6 +1079,11 @@ public class BukkitClasses {
 					public boolean mustSyncDeserialization() {
 						return false;
 					}
+					
+					@Override
+					public boolean mustSyncSerialization() {
+						return false; // Enchantments are saved by name
+					}
 				}));
 		
 	}
@@ -27,6 +27,7 @@ import org.eclipse.jdt.annotation.Nullable;
 
 import ch.njol.skript.SkriptConfig;
 import ch.njol.skript.classes.ClassInfo;
+import ch.njol.skript.classes.Codec;
 import ch.njol.skript.classes.NumberArithmetic;
 import ch.njol.skript.classes.Parser;
 import ch.njol.skript.classes.Serializer;
@@ -131,6 +132,11 @@ public class JavaClasses {
 					public boolean mustSyncDeserialization() {
 						return false;
 					}
+					
+					@Override
+					public boolean mustSyncSerialization() {
+						return false;
+					}
 				}).math(Number.class, new NumberArithmetic()));
 		
 		Classes.registerClass(new ClassInfo<Long>(Long.class, "long")
@@ -163,7 +169,8 @@ public class JavaClasses {
 					public String getVariableNamePattern() {
 						return "-?\\d+";
 					}
-				}).serializer(new Serializer<Long>() {
+				}).codec(Codec.LONG)
+				.serializer(new Serializer<Long>() {
 					@Override
 					@Nullable
 					public Fields serialize(final Long n) {
@@ -196,6 +203,11 @@ public class JavaClasses {
 					public boolean mustSyncDeserialization() {
 						return false;
 					}
+					
+					@Override
+					public boolean mustSyncSerialization() {
+						return false;
+					}
 				}).math(Number.class, new NumberArithmetic()));
 		
 		Classes.registerClass(new ClassInfo<Integer>(Integer.class, "integer")
@@ -226,7 +238,8 @@ public class JavaClasses {
 					public String getVariableNamePattern() {
 						return "-?\\d+";
 					}
-				}).serializer(new Serializer<Integer>() {
+				}).codec(Codec.INTEGER)
+				.serializer(new Serializer<Integer>() {
 					@Override
 					@Nullable
 					public Fields serialize(final Integer n) {
@@ -259,6 +272,11 @@ public class JavaClasses {
 					public boolean mustSyncDeserialization() {
 						return false;
 					}
+					
+					@Override
+					public boolean mustSyncSerialization() {
+						return false;
+					}
 				}).math(Number.class, new NumberArithmetic()));
 		
 		Classes.registerClass(new ClassInfo<Double>(Double.class, "double")
@@ -291,7 +309,8 @@ public class JavaClasses {
 					public String getVariableNamePattern() {
 						return "-?\\d+(\\.\\d+)?";
 					}
-				}).serializer(new Serializer<Double>() {
+				}).codec(Codec.DOUBLE)
+				.serializer(new Serializer<Double>() {
 					@Override
 					@Nullable
 					public Fields serialize(final Double n) {
@@ -324,6 +343,11 @@ public class JavaClasses {
 					public boolean mustSyncDeserialization() {
 						return false;
 					}
+					
+					@Override
+					public boolean mustSyncSerialization() {
+						return false;
+					}
 				}).math(Number.class, new NumberArithmetic()));
 		
 		Classes.registerClass(new ClassInfo<Float>(Float.class, "float")
@@ -354,7 +378,8 @@ public class JavaClasses {
 					public String getVariableNamePattern() {
 						return "-?\\d+(\\.\\d+)?";
 					}
-				}).serializer(new Serializer<Float>() {
+				}).codec(Codec.FLOAT)
+				.serializer(new Serializer<Float>() {
 					@Override
 					@Nullable
 					public Fields serialize(final Float n) {
@@ -387,6 +412,11 @@ public class JavaClasses {
 					public boolean mustSyncDeserialization() {
 						return false;
 					}
+					
+					@Override
+					public boolean mustSyncSerialization() {
+						return false;
+					}
 				}).math(Number.class, new NumberArithmetic()));
 		
 		Classes.registerClass(new ClassInfo<Boolean>(Boolean.class, "boolean")
@@ -427,7 +457,8 @@ public class JavaClasses {
 					public String getVariableNamePattern() {
 						return "(true|false)";
 					}
-				}).serializer(new Serializer<Boolean>() {
+				}).codec(Codec.BOOLEAN)
+				.serializer(new Serializer<Boolean>() {
 					@Override
 					@Nullable
 					public Fields serialize(final Boolean n) {
@@ -460,6 +491,11 @@ public class JavaClasses {
 					public boolean mustSyncDeserialization() {
 						return false;
 					}
+					
+					@Override
+					public boolean mustSyncSerialization() {
+						return false;
+					}
 				}));
 		
 		Classes.registerClass(new ClassInfo<Short>(Short.class, "short")
@@ -490,7 +526,8 @@ public class JavaClasses {
 					public String getVariableNamePattern() {
 						return "-?\\d+";
 					}
-				}).serializer(new Serializer<Short>() {
+				}).codec(Codec.SHORT)
+				.serializer(new Serializer<Short>() {
 					@Override
 					@Nullable
 					public Fields serialize(final Short n) {
@@ -523,6 +560,11 @@ public class JavaClasses {
 					public boolean mustSyncDeserialization() {
 						return false;
 					}
+					
+					@Override
+					public boolean mustSyncSerialization() {
+						return false;
+					}
 				}).math(Number.class, new NumberArithmetic()));
 		
 		Classes.registerClass(new ClassInfo<Byte>(Byte.class, "byte")
@@ -553,7 +595,8 @@ public class JavaClasses {
 					public String getVariableNamePattern() {
 						return "-?\\d+";
 					}
-				}).serializer(new Serializer<Byte>() {
+				}).codec(Codec.BYTE)
+				.serializer(new Serializer<Byte>() {
 					@Override
 					@Nullable
 					public Fields serialize(final Byte n) {
@@ -586,6 +629,11 @@ public class JavaClasses {
 					public boolean mustSyncDeserialization() {
 						return false;
 					}
+					
+					@Override
+					public boolean mustSyncSerialization() {
+						return false;
+					}
 				}).math(Number.class, new NumberArithmetic()));
 		
 		Classes.registerClass(new ClassInfo<String>(String.class, "string")
@@ -651,7 +699,8 @@ public class JavaClasses {
 					public String getVariableNamePattern() {
 						return ".*";
 					}
-				}).serializer(new Serializer<String>() {
+				}).codec(Codec.STRING)
+				.serializer(new Serializer<String>() {
 					@Override
 					@Nullable
 					public Fields serialize(final String n) {
@@ -679,6 +728,11 @@ public class JavaClasses {
 					public boolean mustSyncDeserialization() {
 						return false;
 					}
+					
+					@Override
+					public boolean mustSyncSerialization() {
+						return false;
+					}
 				}));
 	}
 }
@@ -22,6 +22,7 @@
 package ch.njol.skript.classes.data;
 
 import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -39,6 +40,7 @@ import ch.njol.skript.aliases.ItemType;
 import ch.njol.skript.classes.Arithmetic;
 import ch.njol.skript.classes.Changer;
 import ch.njol.skript.classes.ClassInfo;
+import ch.njol.skript.classes.Codec;
 import ch.njol.skript.classes.ConfigurationSerializer;
 import ch.njol.skript.classes.EnumSerializer;
 import ch.njol.skript.classes.Parser;
@@ -64,6 +66,7 @@ import ch.njol.skript.util.Utils;
 import ch.njol.skript.util.VisualEffect;
 import ch.njol.skript.util.WeatherType;
 import ch.njol.yggdrasil.Fields;
+import ch.njol.yggdrasil.Tag;
 
 /**
  * @author Peter Güttinger
@@ -153,6 +156,11 @@ public class SkriptClasses {
 					public boolean mustSyncDeserialization() {
 						return false;
 					}
+					
+					@Override
+					public boolean mustSyncSerialization() {
+						return false; // only the ClassInfo's code name is saved
+					}
 				}));
 		
 		Classes.registerClass(new ClassInfo<WeatherType>(WeatherType.class, "weathertype")
@@ -413,6 +421,24 @@ public class SkriptClasses {
 					public String getVariableNamePattern() {
 						return "timespan:\\d+";
 					}
+				}).codec(new Codec<Timespan>() {
+					// Yggdrasil saves the number of fields followed by the only field 'millis'
+					private final byte[] millis = field("millis", Tag.T_LONG);
+					
+					@SuppressWarnings("null")
+					@Override
+					public byte[] encode(final Timespan t) {
+						return ByteBuffer.allocate(2 + millis.length + 8).putShort((short) 1).put(millis).putLong(t.getMilliSeconds()).array();
+					}
+					
+					@Override
+					@Nullable
+					public Timespan decode(final byte[] data) {
+						final ByteBuffer buf = ByteBuffer.wrap(data);
+						if (data.length != 2 + millis.length + 8 || buf.getShort() != 1 || !skip(buf, millis))
+							return null;
+						return new Timespan(buf.getLong());
+					}
 				}).serializer(new YggdrasilSerializer<Timespan>() {
 //						return "" + t.getMilliSeconds();
 					@Override
@@ -429,6 +455,11 @@ public class SkriptClasses {
 					public boolean mustSyncDeserialization() {
 						return false;
 					}
+					
+					@Override
+					public boolean mustSyncSerialization() {
+						return false; // Timespans are immutable
+					}
 				})
 				.math(Timespan.class, new Arithmetic<Timespan, Timespan>() {
 					@Override
@@ -21,6 +21,8 @@
 
 package ch.njol.skript.conditions;
 
+import java.util.List;
+
 import org.bukkit.event.Event;
 import org.bukkit.inventory.Inventory;
 import org.eclipse.jdt.annotation.Nullable;
@@ -97,6 +99,18 @@ public class CondContains extends Condition {
 	
 	@Override
 	public boolean check(final Event e) {
+		if (containers instanceof Variable && !containers.isSingle() && items.isSingle()) {
+			final Object item = items.getSingle(e);
+			if (item != null) {
+				final Variable<?> list = (Variable<?>) containers;
+				final List<String> indices = list.getIndicesOf(e, item);
+				if (indices != null) {
+					// same as below: 'contains' checks whether all values of the list are equal to the item, and 'doesn't contain' whether none is
+					final int size = list.size(e);
+					return size != 0 && (isNegated() ? indices.isEmpty() : indices.size() == size);
+				}
+			}
+		}
 		return containers.check(e, new Checker<Object>() {
 			@Override
 			public boolean check(final Object container) {
@@ -39,13 +39,14 @@ import ch.njol.skript.lang.Expression;
 import ch.njol.skript.lang.SkriptParser.ParseResult;
 import ch.njol.skript.lang.TriggerItem;
 import ch.njol.skript.util.Timespan;
+import ch.njol.skript.variables.LocalVariables;
 import ch.njol.util.Kleenean;
 
 /**
  * @author Peter Güttinger
  */
 @Name("Delay")
-@Description("Delays the script's execution by a given timespan. Please note that delays are not persistent, e.g. trying to create a tempban script with <code>ban player → wait 7 days → unban player</code> will not work if you restart your server anytime within these 7 days. You also have to be careful even when using small delays! ")
+@Description("Delays the script's execution by a given timespan. Please note that delays are not persistent, e.g. trying to create a tempban script with <code>ban player → wait 7 days → unban player</code> will not work if you restart your server anytime within these 7 days. Use a persistent delay (<code>wait 7 days persistently as \"unban\"</code>) for this. You also have to be careful even when using small delays! ")
 @Examples({"wait 2 minutes",
 		"halt for 5 minecraft hours",
 		"wait a tick"})
@@ -77,12 +78,14 @@ public class Delay extends Effect {
 			final Timespan d = duration.getSingle(e);
 			if (d == null)
 				return null;
+			final LocalVariables current = LocalVariables.current();
+			final LocalVariables localVariables = current != null ? current : new LocalVariables(null);
 			Bukkit.getScheduler().scheduleSyncDelayedTask(Skript.getInstance(), new Runnable() {
 				@Override
 				public void run() {
 					if (Skript.debug())
 						Skript.info(getIndentation() + "... continuing after " + (System.nanoTime() - start) / 1000000000. + "s");
-					TriggerItem.walk(next, e);
+					TriggerItem.walk(next, e, localVariables);
 				}
 			}, d.getTicks());
 		}
@@ -90,7 +93,7 @@ public class Delay extends Effect {
 	}
 	
 	@SuppressWarnings("null")
-	private final static Set<Event> delayed = Collections.newSetFromMap(new WeakHashMap<Event, Boolean>());
+	final static Set<Event> delayed = Collections.newSetFromMap(new WeakHashMap<Event, Boolean>());
 	
 	public final static boolean isDelayed(final Event e) {
 		return delayed.contains(e);
@@ -0,0 +1,117 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.effects;
+
+import org.bukkit.event.Event;
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.skript.Skript;
+import ch.njol.skript.classes.Changer.ChangeMode;
+import ch.njol.skript.doc.Description;
+import ch.njol.skript.doc.Examples;
+import ch.njol.skript.doc.Name;
+import ch.njol.skript.doc.Since;
+import ch.njol.skript.lang.Effect;
+import ch.njol.skript.lang.Expression;
+import ch.njol.skript.lang.SkriptParser.ParseResult;
+import ch.njol.skript.lang.Variable;
+import ch.njol.skript.log.ErrorQuality;
+import ch.njol.skript.util.Timespan;
+import ch.njol.skript.variables.VariableExpiry;
+import ch.njol.util.Kleenean;
+
+/**
+ * @author Peter Güttinger
+ */
+@Name("Expiring Variables")
+@Description({"Sets a global variable that is deleted automatically after some time, or makes an existing variable or a whole list variable expire after some time. "
+		+ "This is much faster than deleting old variables with a periodical event, e.g. for cooldowns or temporary bans.",
+		"The variable is only deleted if it is not set or deleted again in the meantime. Variables expire even if the server is stopped, "
+				+ "i.e. if the server was stopped when a variable expired it is deleted when the server starts."})
+@Examples({"command /kit:",
+		"	trigger:",
+		"		{kit cooldown::%player%} is not set",
+		"		give a diamond sword to the player",
+		"		set {kit cooldown::%player%} to true expiring in 1 day",
+		"set {tempban::%arg-1%::*} to arg-2 and now expiring in 2 hours",
+		"make {players in lobby::*} expire in 10 minutes"})
+@Since("2.2")
+public class EffExpire extends Effect {
+	static {
+		Skript.registerEffect(EffExpire.class, "set %~objects% to %objects% expiring (in|after) %timespan%", "make %~objects% expire (in|after) %timespan%");
+	}
+	
+	@SuppressWarnings("null")
+	private Variable<?> var;
+	@Nullable
+	private Expression<?> value;
+	@SuppressWarnings("null")
+	private Expression<Timespan> time;
+	
+	@SuppressWarnings({"unchecked", "null"})
+	@Override
+	public boolean init(final Expression<?>[] exprs, final int matchedPattern, final Kleenean isDelayed, final ParseResult parseResult) {
+		if (!(exprs[0] instanceof Variable) || ((Variable<?>) exprs[0]).isLocal()) {
+			Skript.error("Only global variables can expire", ErrorQuality.SEMANTIC_ERROR);
+			return false;
+		}
+		var = (Variable<?>) exprs[0];
+		if (matchedPattern == 0) {
+			final Expression<?> value = exprs[1].getConvertedExpression(Object.class);
+			if (value == null) {
+				Skript.error("Can't understand this expression: " + exprs[1], ErrorQuality.NOT_AN_EXPRESSION);
+				return false;
+			}
+			if (!var.isList() && !value.isSingle()) {
+				Skript.error(var + " can only be set to one object, not more", ErrorQuality.SEMANTIC_ERROR);
+				return false;
+			}
+			this.value = value;
+		}
+		time = (Expression<Timespan>) exprs[matchedPattern == 0 ? 2 : 1];
+		return true;
+	}
+	
+	@Override
+	protected void execute(final Event e) {
+		final Timespan t = time.getSingle(e);
+		if (t == null)
+			return;
+		final Expression<?> value = this.value;
+		if (value != null) {
+			final Object[] delta = value.getArray(e);
+			if (delta.length == 0)
+				return;
+			var.change(e, delta, ChangeMode.SET);
+		}
+		VariableExpiry.expire(var.getName(e), t.getMilliSeconds());
+	}
+	
+	@Override
+	public String toString(final @Nullable Event e, final boolean debug) {
+		final Expression<?> value = this.value;
+		if (value == null)
+			return "make " + var.toString(e, debug) + " expire in " + time.toString(e, debug);
+		return "set " + var.toString(e, debug) + " to " + value.toString(e, debug) + " expiring in " + time.toString(e, debug);
+	}
+	
+}
@@ -0,0 +1,149 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+
+package ch.njol.skript.effects;
+
+import java.io.File;
+import java.util.List;
+
+import org.bukkit.event.Event;
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.skript.ScriptLoader;
+import ch.njol.skript.Skript;
+import ch.njol.skript.config.Config;
+import ch.njol.skript.doc.Description;
+import ch.njol.skript.doc.Examples;
+import ch.njol.skript.doc.Name;
+import ch.njol.skript.doc.Since;
+import ch.njol.skript.events.bukkit.ContinuationEvent;
+import ch.njol.skript.lang.Expression;
+import ch.njol.skript.lang.SkriptParser.ParseResult;
+import ch.njol.skript.lang.Trigger;
+import ch.njol.skript.lang.TriggerItem;
+import ch.njol.skript.lang.VariableString;
+import ch.njol.skript.util.Timespan;
+import ch.njol.skript.variables.Continuations;
+import ch.njol.skript.variables.LocalVariables;
+import ch.njol.util.Kleenean;
+import ch.njol.util.StringUtils;
+
+/**
+ * @author Peter Güttinger
+ */
+@Name("Persistent Delay")
+@Description({"Delays the script's execution like the <a href='#Delay'>delay</a>, but the script is also continued if the server is restarted while it waits. "
+		+ "The delay is measured in real time, and delays that ended while the server was stopped are continued right after the server has started.",
+		"Every persistent delay needs a name that is unique in its script, which is used to find the delay again after a restart. Renaming the delay or its script thus loses all of its pending delays.",
+		"If the server was restarted, only the local variables that can be saved like global variables are set after the delay, and event values like the player or the arguments of a command are not available anymore. "
+				+ "Put everything that is needed after the delay into local variables, e.g. an offline player instead of the player."})
+@Examples({"command /tempban <offline player> <timespan>:",
+		"	trigger:",
+		"		set {_player} to arg-1",
+		"		ban {_player}",
+		"		wait arg-2 persistently as \"unban\"",
+		"		unban {_player}"})
+@Since("2.2")
+public class EffPersistentDelay extends Delay implements Continuations.Point {
+	
+	static {
+		Skript.registerEffect(EffPersistentDelay.class, "(wait|halt) [for] %timespan% persistent[ly] (as|named) %string%");
+	}
+	
+	@SuppressWarnings("null")
+	private Expression<Timespan> duration;
+	@SuppressWarnings("null")
+	private String name;
+	@SuppressWarnings("null")
+	private File script;
+	
+	/**
+	 * Whether a warning about local variables that cannot be saved has been printed
+	 */
+	private boolean warned = false;
+	
+	@SuppressWarnings({"unchecked", "null"})
+	@Override
+	public boolean init(final Expression<?>[] exprs, final int matchedPattern, final Kleenean isDelayed, final ParseResult parseResult) {
+		duration = (Expression<Timespan>) exprs[0];
+		if (!(exprs[1] instanceof VariableString) || !((VariableString) exprs[1]).isSimple()) {
+			Skript.error("The name of a persistent delay must be a simple text without any expressions, e.g. \"unban\"");
+			return false;
+		}
+		name = ((VariableString) exprs[1]).getDefaultVariableName();
+		final Config c = ScriptLoader.currentScript;
+		final File script = c == null ? null : c.getFile();
+		if (script == null || ScriptLoader.getLocalVariableSlots() == null) {
+			Skript.error("Persistent delays can only be used in triggers of scripts");
+			return false;
+		}
+		this.script = script;
+		if (!Continuations.register(script, name, this)) {
+			Skript.error("There is already a persistent delay named \"" + name + "\" in this script or in another script with the same file name");
+			return false;
+		}
+		return true;
+	}
+	
+	@Override
+	@Nullable
+	protected TriggerItem walk(final Event e) {
+		debug(e, true);
+		if (getNext() != null) {
+			delayed.add(e);
+			final Timespan d = duration.getSingle(e);
+			if (d == null)
+				return null;
+			final LocalVariables current = LocalVariables.current();
+			final List<String> unsaved = Continuations.schedule(script, name, d.getMilliSeconds(), e, current != null ? current : new LocalVariables(null));
+			if (!unsaved.isEmpty() && !warned) {
+				warned = true;
+				Skript.warning("The local variable" + (unsaved.size() == 1 ? "" : "s") + " {_" + StringUtils.join(unsaved, "}, {_") + "} of the persistent delay \"" + name + "\" in " + script.getName()
+						+ " cannot be saved and will thus not be set if the server is restarted before the delay ends");
+			}
+		}
+		return null;
+	}
+	
+	@Override
+	@Nullable
+	public LocalVariables.Slots getLocalVariableSlots() {
+		final Trigger t = getTrigger();
+		return t == null ? null : t.getLocalVariableSlots();
+	}
+	
+	@Override
+	public void resume(final @Nullable Event e, final LocalVariables frame) {
+		final TriggerItem next = getNext();
+		if (next == null)
+			return;
+		final Event event = e != null ? e : new ContinuationEvent(name);
+		delayed.add(event);
+		TriggerItem.walk(next, event, frame);
+	}
+	
+	@Override
+	public String toString(final @Nullable Event e, final boolean debug) {
+		return "wait for " + duration.toString(e, debug) + " persistently as \"" + name + "\"" + (e == null ? "" : "...");
+	}
+	
+}
@@ -0,0 +1,122 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.events;
+
+import java.util.Locale;
+
+import org.bukkit.event.Event;
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.skript.Skript;
+import ch.njol.skript.SkriptEventHandler;
+import ch.njol.skript.events.bukkit.VariableChangeEvent;
+import ch.njol.skript.lang.Literal;
+import ch.njol.skript.lang.SelfRegisteringSkriptEvent;
+import ch.njol.skript.lang.SkriptParser.ParseResult;
+import ch.njol.skript.lang.Trigger;
+import ch.njol.skript.lang.Variable;
+import ch.njol.skript.variables.VariableSubscriptions;
+
+/**
+ * @author Peter Güttinger
+ */
+public class EvtVariableChange extends SelfRegisteringSkriptEvent implements VariableSubscriptions.Listener {
+	static {
+		Skript.registerEvent("Variable Change", EvtVariableChange.class, VariableChangeEvent.class, "[global] variable change (of|in) <.+>")
+				.description("Called when a global variable or any variable of a list variable is changed, which is a lot faster than checking variables periodically.",
+						"The event is called in the tick after the change, and only once per tick and variable, even if the variable is changed several times during the tick. "
+								+ "Use the <a href='../expressions/#ExprVariableChange'>old and new variable value</a> expressions to get the variable's values before and after the change.")
+				.examples("on variable change of {arena::players::*}:",
+						"	broadcast \"%changed variable's name%: %old variable value% -> %new variable value%\"",
+						"on variable change of {game state}:",
+						"	new variable value is \"running\"",
+						"	broadcast \"The game has started!\"")
+				.since("2.2");
+	}
+	
+	@SuppressWarnings("null")
+	private String name;
+	
+	@Nullable
+	private Trigger t;
+	
+	@SuppressWarnings({"unchecked", "null"})
+	@Override
+	public boolean init(final Literal<?>[] args, final int matchedPattern, final ParseResult parser) {
+		String name = "" + parser.regexes.get(0).group().trim();
+		if (!name.startsWith("{") || !name.endsWith("}")) {
+			Skript.error("The variable must be written in braces, e.g. 'on variable change of {list::*}'");
+			return false;
+		}
+		name = "" + name.substring(1, name.length() - 1).trim();
+		if (name.startsWith(Variable.LOCAL_VARIABLE_TOKEN)) {
+			Skript.error("Only changes of global variables can be listened to");
+			return false;
+		}
+		if (name.contains("%")) {
+			Skript.error("The name of a variable whose changes are listened to must not contain expressions, use a list variable instead");
+			return false;
+		}
+		if (Variable.newInstance(name, new Class[] {Object.class}) == null)
+			return false;
+		this.name = "" + name.toLowerCase(Locale.ENGLISH);
+		return true;
+	}
+	
+	@Override
+	public void changed(final String name, final @Nullable Object oldValue, final @Nullable Object newValue) {
+		final Trigger t = this.t;
+		if (t == null)
+			return;
+		final VariableChangeEvent e = new VariableChangeEvent(name, oldValue, newValue);
+		SkriptEventHandler.logEventStart(e);
+		SkriptEventHandler.logTriggerStart(t);
+		t.execute(e);
+		SkriptEventHandler.logTriggerEnd(t);
+		SkriptEventHandler.logEventEnd();
+	}
+	
+	@Override
+	public void register(final Trigger t) {
+		this.t = t;
+		VariableSubscriptions.subscribe(name, this);
+	}
+	
+	@Override
+	public void unregister(final Trigger t) {
+		assert t == this.t;
+		this.t = null;
+		VariableSubscriptions.unsubscribe(this);
+	}
+	
+	@Override
+	public void unregisterAll() {
+		t = null;
+		VariableSubscriptions.unsubscribe(this);
+	}
+	
+	@Override
+	public String toString(final @Nullable Event e, final boolean debug) {
+		return "variable change of {" + name + "}";
+	}
+	
+}
@@ -0,0 +1,61 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+
+package ch.njol.skript.events.bukkit;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+
+/**
+ * The event a trigger is continued with after a persistent wait if the server was restarted while it waited, as the original event is lost. This event is never called.
+ * 
+ * @author Peter Güttinger
+ * @see ch.njol.skript.variables.Continuations
+ */
+public class ContinuationEvent extends Event {
+	
+	private final String name;
+	
+	public ContinuationEvent(final String name) {
+		this.name = name;
+	}
+	
+	/**
+	 * @return The name of the wait the trigger is continued after
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	// Bukkit stuff
+	private final static HandlerList handlers = new HandlerList();
+	
+	@Override
+	public HandlerList getHandlers() {
+		return handlers;
+	}
+	
+	public static HandlerList getHandlerList() {
+		return handlers;
+	}
+	
+}
@@ -0,0 +1,81 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.events.bukkit;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Called in the tick after a global variable was changed, see {@link ch.njol.skript.variables.VariableSubscriptions}.
+ * 
+ * @author Peter Güttinger
+ */
+public class VariableChangeEvent extends Event {
+	
+	private final String name;
+	
+	@Nullable
+	private final Object oldValue, newValue;
+	
+	public VariableChangeEvent(final String name, final @Nullable Object oldValue, final @Nullable Object newValue) {
+		this.name = name;
+		this.oldValue = oldValue;
+		this.newValue = newValue;
+	}
+	
+	/**
+	 * @return The name of the changed variable
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * @return The variable's value before it was changed, or null if it was not set
+	 */
+	@Nullable
+	public Object getOldValue() {
+		return oldValue;
+	}
+	
+	/**
+	 * @return The variable's value after it was changed, or null if it was deleted
+	 */
+	@Nullable
+	public Object getNewValue() {
+		return newValue;
+	}
+	
+	// Bukkit stuff
+	private final static HandlerList handlers = new HandlerList();
+	
+	@Override
+	public HandlerList getHandlers() {
+		return handlers;
+	}
+	
+	public static HandlerList getHandlerList() {
+		return handlers;
+	}
+	
+}
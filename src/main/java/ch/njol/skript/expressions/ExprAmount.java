@@ -33,6 +33,7 @@ import ch.njol.skript.lang.Expression;
 import ch.njol.skript.lang.ExpressionType;
 import ch.njol.skript.lang.Literal;
 import ch.njol.skript.lang.SkriptParser.ParseResult;
+import ch.njol.skript.lang.Variable;
 import ch.njol.skript.lang.util.SimpleExpression;
 import ch.njol.util.Kleenean;
 
@@ -84,6 +85,8 @@ public class ExprAmount extends SimpleExpression<Integer> {
 	
 	@Override
 	protected Integer[] get(final Event e) {
+		if (expr instanceof Variable)
+			return new Integer[] {((Variable<?>) expr).size(e)};
 		return new Integer[] {expr.getArray(e).length};
 	}
 	
@@ -0,0 +1,119 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.expressions;
+
+import org.bukkit.event.Event;
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.skript.ScriptLoader;
+import ch.njol.skript.Skript;
+import ch.njol.skript.classes.Converter;
+import ch.njol.skript.doc.Description;
+import ch.njol.skript.doc.Examples;
+import ch.njol.skript.doc.Name;
+import ch.njol.skript.doc.Since;
+import ch.njol.skript.events.bukkit.VariableChangeEvent;
+import ch.njol.skript.lang.Expression;
+import ch.njol.skript.lang.ExpressionType;
+import ch.njol.skript.lang.SkriptParser.ParseResult;
+import ch.njol.skript.lang.util.ConvertedExpression;
+import ch.njol.skript.lang.util.SimpleExpression;
+import ch.njol.skript.registrations.Classes;
+import ch.njol.skript.registrations.Converters;
+import ch.njol.skript.util.Utils;
+import ch.njol.util.Kleenean;
+
+/**
+ * @author Peter Güttinger
+ */
+@Name("Variable Change")
+@Description({"The value of the changed variable before and after the change in a <a href='../events/#variable_change'>variable change</a> event, or the name of the changed variable.",
+		"The old value is not set if the variable was created, and the new value is not set if the variable was deleted."})
+@Examples({"on variable change of {money::*}:",
+		"	new variable value is less than old variable value",
+		"	broadcast \"%changed variable's name% lost %difference between old variable value and new variable value%\""})
+@Since("2.2")
+public class ExprVariableChange extends SimpleExpression<Object> {
+	static {
+		Skript.registerExpression(ExprVariableChange.class, Object.class, ExpressionType.SIMPLE, "[the] (old|previous|former) variable value", "[the] new variable value", "[the] [name of the] changed variable['s name]");
+	}
+	
+	private final static int OLD = 0, NEW = 1, NAME = 2;
+	
+	private int what;
+	
+	@Override
+	public boolean init(final Expression<?>[] exprs, final int matchedPattern, final Kleenean isDelayed, final ParseResult parseResult) {
+		if (!ScriptLoader.isCurrentEvent(VariableChangeEvent.class)) {
+			Skript.error("The " + (matchedPattern == NAME ? "changed variable" : (matchedPattern == OLD ? "old" : "new") + " variable value") + " can only be used in variable change events");
+			return false;
+		}
+		what = matchedPattern;
+		return true;
+	}
+	
+	@Override
+	@Nullable
+	protected Object[] get(final Event e) {
+		if (!(e instanceof VariableChangeEvent))
+			return null;
+		final VariableChangeEvent c = (VariableChangeEvent) e;
+		if (what == NAME)
+			return new String[] {c.getName()};
+		final Object value = what == OLD ? c.getOldValue() : c.getNewValue();
+		return value == null ? null : new Object[] {value};
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	@Nullable
+	protected <R> ConvertedExpression<Object, ? extends R> getConvertedExpr(final Class<R>... to) {
+		if (what == NAME)
+			return super.getConvertedExpr(to);
+		// the type of a variable is only known when the event is called
+		return new ConvertedExpression<Object, R>(this, (Class<R>) Utils.getSuperType(to), new Converter<Object, R>() {
+			@Override
+			@Nullable
+			public R convert(final Object o) {
+				return Converters.convert(o, to);
+			}
+		});
+	}
+	
+	@Override
+	public boolean isSingle() {
+		return true;
+	}
+	
+	@Override
+	public Class<? extends Object> getReturnType() {
+		return what == NAME ? String.class : Object.class;
+	}
+	
+	@Override
+	public String toString(final @Nullable Event e, final boolean debug) {
+		if (e == null || debug)
+			return what == NAME ? "the changed variable's name" : what == OLD ? "the old variable value" : "the new variable value";
+		return Classes.getDebugMessage(getSingle(e));
+	}
+	
+}
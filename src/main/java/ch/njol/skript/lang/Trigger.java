@@ -27,6 +27,9 @@ import java.util.List;
 import org.bukkit.event.Event;
 import org.eclipse.jdt.annotation.Nullable;
 
+import ch.njol.skript.ScriptLoader;
+import ch.njol.skript.variables.LocalVariables;
+
 /**
  * @author Peter Güttinger
  */
@@ -38,11 +41,18 @@ public class Trigger extends TriggerSection {
 	@Nullable
 	private final File script;
 	
+	@Nullable
+	private final LocalVariables.Slots localVariables;
+	
+	/**
+	 * Must be called before {@link ScriptLoader#deleteCurrentEvent()} to get the slots of the trigger's local variables.
+	 */
 	public Trigger(final @Nullable File script, final String name, final SkriptEvent event, final List<TriggerItem> items) {
 		super(items);
 		this.script = script;
 		this.name = name;
 		this.event = event;
+		localVariables = ScriptLoader.getLocalVariableSlots();
 	}
 	
 	/**
@@ -77,4 +87,12 @@ public class Trigger extends TriggerSection {
 		return script;
 	}
 	
+	/**
+	 * @return The slots of the local variables used in this trigger
+	 */
+	@Nullable
+	public LocalVariables.Slots getLocalVariableSlots() {
+		return localVariables;
+	}
+	
 }
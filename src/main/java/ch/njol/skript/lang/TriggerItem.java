@@ -27,6 +27,7 @@ import org.bukkit.event.Event;
 import org.eclipse.jdt.annotation.Nullable;
 
 import ch.njol.skript.Skript;
+import ch.njol.skript.variables.LocalVariables;
 import ch.njol.util.StringUtils;
 
 /**
@@ -79,12 +80,28 @@ public abstract class TriggerItem implements Debuggable {
 	protected abstract boolean run(Event e);
 	
 	/**
+	 * Executes the given item and all items following it with new {@link LocalVariables local variables}.
+	 * 
 	 * @param start
 	 * @param e
 	 * @return false iff an exception occurred
 	 */
 	public final static boolean walk(final TriggerItem start, final Event e) {
+		final Trigger t = start.getTrigger();
+		return walk(start, e, new LocalVariables(t == null ? null : t.getLocalVariableSlots()));
+	}
+	
+	/**
+	 * Executes the given item and all items following it with the given local variables, e.g. to continue a trigger after a delay.
+	 * 
+	 * @param start
+	 * @param e
+	 * @param localVariables
+	 * @return false iff an exception occurred
+	 */
+	public final static boolean walk(final TriggerItem start, final Event e, final LocalVariables localVariables) {
 		assert start != null && e != null;
+		final LocalVariables previous = LocalVariables.enter(localVariables);
 		TriggerItem i = start;
 		try {
 			while (i != null)
@@ -99,6 +116,8 @@ public abstract class TriggerItem implements Debuggable {
 		} catch (final Exception ex) {
 			if (ex.getStackTrace().length != 0)// empty exceptions have already been printed
 				Skript.exception(ex, i);
+		} finally {
+			LocalVariables.enter(previous);
 		}
 		return false;
 	}
@@ -24,17 +24,18 @@ package ch.njol.skript.lang;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
-import java.util.TreeMap;
 
 import org.bukkit.event.Event;
 import org.eclipse.jdt.annotation.Nullable;
 
+import ch.njol.skript.ScriptLoader;
 import ch.njol.skript.Skript;
 import ch.njol.skript.SkriptAPIException;
 import ch.njol.skript.classes.Arithmetic;
@@ -50,6 +51,7 @@ import ch.njol.skript.registrations.Comparators;
 import ch.njol.skript.registrations.Converters;
 import ch.njol.skript.util.StringMode;
 import ch.njol.skript.util.Utils;
+import ch.njol.skript.variables.LocalVariables;
 import ch.njol.skript.variables.Variables;
 import ch.njol.util.Checker;
 import ch.njol.util.Kleenean;
@@ -70,6 +72,11 @@ public class Variable<T> implements Expression<T> {
 	 * The name of this variable, excluding the local variable token, but including the list variable token '::*'.
 	 */
 	private final VariableString name;
+	/**
+	 * {@link #name} compiled into segments, and the split lowercase name used if this variable is not set
+	 */
+	private final VariableName compiledName;
+	private final String[] defaultName;
 	
 	private final Class<T> superType;
 	final Class<? extends T>[] types;
@@ -77,6 +84,18 @@ public class Variable<T> implements Expression<T> {
 	final boolean local;
 	private final boolean list;
 	
+	/**
+	 * The slots of the trigger this variable was parsed in if this is a local variable with a slot, i.e. with a constant name that is not a list.
+	 */
+	@Nullable
+	private final LocalVariables.Slots slots;
+	/**
+	 * This variable's slot in {@link #slots} and its lowercase name
+	 */
+	private final int slot;
+	@Nullable
+	private final String slotName;
+	
 	@Nullable
 	private final Variable<?> source;
 	
@@ -95,6 +114,28 @@ public class Variable<T> implements Expression<T> {
 		this.superType = (Class<T>) Utils.getSuperType(types);
 		
 		this.source = source;
+		
+		if (source != null) {
+			compiledName = source.compiledName;
+			defaultName = source.defaultName;
+			slots = source.slots;
+			slot = source.slot;
+			slotName = source.slotName;
+		} else {
+			compiledName = VariableName.compile(name);
+			defaultName = Variables.splitVariableName("" + ((local ? LOCAL_VARIABLE_TOKEN : "") + name.getDefaultVariableName()).toLowerCase(Locale.ENGLISH));
+			final LocalVariables.Slots s = local && name.isSimple() ? ScriptLoader.getLocalVariableSlots() : null;
+			final String n = name.isSimple() ? name.getDefaultVariableName().toLowerCase(Locale.ENGLISH) : null;
+			if (s != null && n != null && !n.contains(SEPARATOR)) {
+				slots = s;
+				slot = s.slot(n);
+				slotName = n;
+			} else {
+				slots = null;
+				slot = -1;
+				slotName = null;
+			}
+		}
 	}
 	
 	/**
@@ -138,6 +179,13 @@ public class Variable<T> implements Expression<T> {
 		return local;
 	}
 	
+	/**
+	 * @return The lowercase name of this variable in the given event, without the local variable token. The names of list variables end in "::*".
+	 */
+	public String getName(final Event e) {
+		return "" + StringUtils.join(compiledName.split(e), SEPARATOR);
+	}
+	
 	public boolean isList() {
 		return list;
 	}
@@ -174,12 +222,21 @@ public class Variable<T> implements Expression<T> {
 	 */
 	@Nullable
 	private Object getRaw(final Event e) {
-		final String n = name.toString(e).toLowerCase(Locale.ENGLISH);
-		if (n.endsWith(Variable.SEPARATOR + "*") != list) // prevents e.g. {%expr%} where "%expr%" ends with "::*" from returning a Map
+		final LocalVariables.Slots slots = this.slots;
+		if (slots != null) {
+			final String n = slotName;
+			assert n != null;
+			final Object val = Variables.getLocalVariable(slots, slot, n, e);
+			if (val == null)
+				return Variables.getVariable(defaultName, e, false);
+			return val;
+		}
+		final String[] n = compiledName.split(e);
+		if (VariableName.isList(n) != list) // prevents e.g. {%expr%} where "%expr%" ends with "::*" from returning a Map
 			return null;
 		final Object val = Variables.getVariable(n, e, local);
 		if (val == null)
-			return Variables.getVariable((local ? LOCAL_VARIABLE_TOKEN : "") + name.getDefaultVariableName().toLowerCase(Locale.ENGLISH), e, false);
+			return Variables.getVariable(defaultName, e, false);
 		return val;
 	}
 	
@@ -206,11 +263,11 @@ public class Variable<T> implements Expression<T> {
 	public Iterator<Pair<String, Object>> variablesIterator(final Event e) {
 		if (!list)
 			throw new SkriptAPIException("Looping a non-list variable");
-		final String name = StringUtils.substring(this.name.toString(e), 0, -1).toLowerCase(Locale.ENGLISH);
+		final String name = StringUtils.substring(compiledName.toString(e), 0, -1);
 		final Object val = Variables.getVariable(name + "*", e, local);
 		if (val == null)
 			return new EmptyIterator<Pair<String, Object>>();
-		assert val instanceof TreeMap;
+		assert val instanceof Map;
 		// temporary list to prevent CMEs
 		@SuppressWarnings("unchecked")
 		final Iterator<String> keys = new ArrayList<String>(((Map<String, Object>) val).keySet()).iterator();
@@ -228,7 +285,7 @@ public class Variable<T> implements Expression<T> {
 					key = keys.next();
 					if (key != null) {
 						next = Variables.getVariable(name + key, e, local);
-						if (next != null && !(next instanceof TreeMap))
+						if (next != null && !(next instanceof Map))
 							return true;
 					}
 				}
@@ -256,11 +313,11 @@ public class Variable<T> implements Expression<T> {
 	public Iterator<T> iterator(final Event e) {
 		if (!list)
 			throw new SkriptAPIException("");
-		final String name = StringUtils.substring(this.name.toString(e), 0, -1).toLowerCase(Locale.ENGLISH);
+		final String name = StringUtils.substring(compiledName.toString(e), 0, -1);
 		final Object val = Variables.getVariable(name + "*", e, local);
 		if (val == null)
 			return new EmptyIterator<T>();
-		assert val instanceof TreeMap;
+		assert val instanceof Map;
 		// temporary list to prevent CMEs
 		@SuppressWarnings("unchecked")
 		final Iterator<String> keys = new ArrayList<String>(((Map<String, Object>) val).keySet()).iterator();
@@ -278,7 +335,7 @@ public class Variable<T> implements Expression<T> {
 					key = keys.next();
 					if (key != null) {
 						next = Converters.convert(Variables.getVariable(name + key, e, local), types);
-						if (next != null && !(next instanceof TreeMap))
+						if (next != null && !(next instanceof Map))
 							return true;
 					}
 				}
@@ -315,14 +372,25 @@ public class Variable<T> implements Expression<T> {
 	}
 	
 	private final void set(final Event e, final @Nullable Object value) {
-		Variables.setVariable("" + name.toString(e).toLowerCase(Locale.ENGLISH), value, e, local);
+		final LocalVariables.Slots slots = this.slots;
+		if (slots != null) {
+			final String n = slotName;
+			assert n != null;
+			Variables.setLocalVariable(slots, slot, n, value, e);
+			return;
+		}
+		Variables.setVariable(compiledName.split(e), value, e, local);
 	}
 	
 	private final void setIndex(final Event e, final String index, final @Nullable Object value) {
 		assert list;
-		final String s = name.toString(e).toLowerCase(Locale.ENGLISH);
-		assert s.endsWith("::*") : s + "; " + name;
-		Variables.setVariable(s.substring(0, s.length() - 1) + index.toLowerCase(Locale.ENGLISH), value, e, local);
+		final String[] s = compiledName.split(e);
+		assert VariableName.isList(s) : Arrays.toString(s) + "; " + name;
+		final String[] i = Variables.splitVariableName("" + index.toLowerCase(Locale.ENGLISH));
+		final String[] n = new String[s.length - 1 + i.length];
+		System.arraycopy(s, 0, n, 0, s.length - 1);
+		System.arraycopy(i, 0, n, s.length - 1, i.length);
+		Variables.setVariable(VariableName.trim(n), value, e, local);
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -390,6 +458,12 @@ public class Variable<T> implements Expression<T> {
 							return;
 						final ArrayList<String> rem = new ArrayList<String>(); // prevents CMEs
 						for (final Object d : delta) {
+							final List<String> indices = Variables.getListIndicesOf(o, d);
+							if (indices != null) {
+								if (!indices.isEmpty())
+									rem.add(indices.get(0));
+								continue;
+							}
 							for (final Entry<String, Object> i : o.entrySet()) {
 								if (Relation.EQUAL.is(Comparators.compare(i.getValue(), d))) {
 									rem.add(i.getKey());
@@ -405,11 +479,19 @@ public class Variable<T> implements Expression<T> {
 						if (o == null)
 							return;
 						final ArrayList<String> rem = new ArrayList<String>(); // prevents CMEs
-						for (final Entry<String, Object> i : o.entrySet()) {
-							for (final Object d : delta) {
-								if (Relation.EQUAL.is(Comparators.compare(i.getValue(), d)))
-									rem.add(i.getKey());
+						for (final Object d : delta) {
+							final List<String> indices = Variables.getListIndicesOf(o, d);
+							if (indices == null) {
+								rem.clear();
+								for (final Entry<String, Object> i : o.entrySet()) {
+									for (final Object d2 : delta) {
+										if (Relation.EQUAL.is(Comparators.compare(i.getValue(), d2)))
+											rem.add(i.getKey());
+									}
+								}
+								break;
 							}
+							rem.addAll(indices);
 						}
 						for (final String r : rem) {
 							assert r != null;
@@ -419,9 +501,7 @@ public class Variable<T> implements Expression<T> {
 						assert mode == ChangeMode.ADD;
 						int i = 1;
 						for (final Object d : delta) {
-							if (o != null)
-								while (o.containsKey("" + i))
-									i++;
+							i = Variables.getNextListIndex(o, i);
 							setIndex(e, "" + i, d);
 							i++;
 						}
@@ -515,6 +595,42 @@ public class Variable<T> implements Expression<T> {
 		return one;
 	}
 	
+	/**
+	 * Counts the values of this list variable without getting them.
+	 * 
+	 * @return The number of values {@link #getArray(Event)} would return. This includes null for sub-lists without a value of their own like {@link #getArray(Event)} does.
+	 */
+	@SuppressWarnings("unchecked")
+	public int size(final Event e) {
+		if (!list)
+			throw new SkriptAPIException("Invalid call to size");
+		if (superType != Object.class) // values that cannot be converted are not counted
+			return getArray(e).length;
+		final Object val = getRaw(e);
+		if (val == null)
+			return 0;
+		return Variables.getListSize((Map<String, ?>) val);
+	}
+	
+	/**
+	 * Finds the values of this list variable that are equal to the given value without comparing the value to every value of the list, which only works for some lists.
+	 * 
+	 * @return The indices of the values equal to the given value in the order of the list, or null if the values have to be compared one by one.
+	 * @see Variables#getListIndicesOf(Map, Object)
+	 */
+	@SuppressWarnings("unchecked")
+	@Nullable
+	public List<String> getIndicesOf(final Event e, final Object value) {
+		if (!list)
+			throw new SkriptAPIException("Invalid call to getIndicesOf");
+		if (superType != Object.class) // values that cannot be converted are ignored
+			return null;
+		final Object val = getRaw(e);
+		if (val == null)
+			return Collections.emptyList();
+		return Variables.getListIndicesOf((Map<String, ?>) val, value);
+	}
+	
 	@Override
 	public boolean isLoopOf(final String s) {
 		return s.equalsIgnoreCase("var") || s.equalsIgnoreCase("variable") || s.equalsIgnoreCase("value") || s.equalsIgnoreCase("index");
@@ -0,0 +1,186 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.lang;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+import org.bukkit.event.Event;
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.skript.registrations.Classes;
+import ch.njol.skript.util.StringMode;
+import ch.njol.skript.variables.Variables;
+import ch.njol.util.StringUtils;
+
+/**
+ * The name of a variable compiled into its segments, i.e. the parts between {@link Variable#SEPARATOR}s, as used by the variables maps.
+ * <p>
+ * Constant segments are lowercased and interned when the variable is parsed. Only segments containing expressions are built when the variable is accessed, so that e.g. an
+ * access of <tt>{stats::%player%::kills}</tt> only has to convert the player to a lowercase string instead of building, lowercasing and splitting the whole name.
+ * 
+ * @author Peter Güttinger
+ */
+final class VariableName {
+	
+	/**
+	 * Either constant segments, or arrays of constant strings and {@link Expression}s
+	 */
+	private final Object[] segments;
+	
+	/**
+	 * The segments if the name is constant
+	 */
+	@Nullable
+	private final String[] constant;
+	@Nullable
+	private final String constantName;
+	
+	private VariableName(final Object[] segments) {
+		this.segments = segments;
+		for (final Object s : segments) {
+			if (!(s instanceof String)) {
+				constant = null;
+				constantName = null;
+				return;
+			}
+		}
+		final String[] c = trim((String[]) segments);
+		constant = c;
+		constantName = "" + StringUtils.join(c, Variable.SEPARATOR);
+	}
+	
+	/**
+	 * Compiles the given name of a variable.
+	 */
+	final static VariableName compile(final VariableString name) {
+		final Object[] parts = name.isSimple() ? new Object[] {name.getDefaultVariableName()} : name.getParts();
+		final ArrayList<Object> segments = new ArrayList<Object>();
+		final ArrayList<Object> segment = new ArrayList<Object>();
+		for (final Object p : parts) {
+			if (p instanceof Expression) {
+				segment.add(p);
+				continue;
+			}
+			final String s = "" + p.toString().toLowerCase(Locale.ENGLISH);
+			int start = 0, end;
+			while ((end = s.indexOf(Variable.SEPARATOR, start)) != -1) {
+				if (end != start)
+					segment.add(s.substring(start, end));
+				segments.add(segment(segment));
+				segment.clear();
+				start = end + Variable.SEPARATOR.length();
+			}
+			if (start != s.length())
+				segment.add(s.substring(start));
+		}
+		segments.add(segment(segment));
+		for (final Object s : segments) {
+			if (!(s instanceof String))
+				return new VariableName(segments.toArray());
+		}
+		return new VariableName(segments.toArray(new String[segments.size()]));
+	}
+	
+	/**
+	 * @return The interned segment if it is constant, or its parts if it contains an expression
+	 */
+	private final static Object segment(final ArrayList<Object> parts) {
+		if (parts.isEmpty())
+			return "";
+		if (parts.size() == 1 && parts.get(0) instanceof String)
+			return ((String) parts.get(0)).intern();
+		return parts.toArray();
+	}
+	
+	/**
+	 * Gets the lowercase name of the variable split into its segments. Like {@link Variables#splitVariableName(String)}, trailing empty segments are removed.
+	 * <p>
+	 * <b>The returned array must not be modified</b>, as it is shared if the name is constant.
+	 */
+	final String[] split(final Event e) {
+		final String[] constant = this.constant;
+		if (constant != null)
+			return constant;
+		final String[] split = new String[segments.length];
+		boolean separator = false;
+		for (int i = 0; i < segments.length; i++) {
+			final Object s = segments[i];
+			if (s instanceof String) {
+				split[i] = (String) s;
+				continue;
+			}
+			final Object[] parts = (Object[]) s;
+			final String value;
+			if (parts.length == 1) {
+				value = toString((Expression<?>) parts[0], e);
+			} else {
+				final StringBuilder b = new StringBuilder();
+				for (final Object p : parts)
+					b.append(p instanceof Expression ? toString((Expression<?>) p, e) : p);
+				value = "" + b.toString();
+			}
+			if (value.contains(Variable.SEPARATOR))
+				separator = true;
+			split[i] = value;
+		}
+		if (separator) // an expression's value contains a separator, e.g. {list::%{_index}%} with {_index} = "a::b"
+			return Variables.splitVariableName("" + StringUtils.join(split, Variable.SEPARATOR));
+		return trim(split);
+	}
+	
+	/**
+	 * @return The lowercase name of the variable
+	 */
+	final String toString(final Event e) {
+		final String constantName = this.constantName;
+		if (constantName != null)
+			return constantName;
+		return "" + StringUtils.join(split(e), Variable.SEPARATOR);
+	}
+	
+	private final static String toString(final Expression<?> expr, final Event e) {
+		return "" + Classes.toString(expr.getArray(e), true, StringMode.VARIABLE_NAME).toLowerCase(Locale.ENGLISH);
+	}
+	
+	/**
+	 * Removes trailing empty segments
+	 */
+	final static String[] trim(final String[] split) {
+		int n = split.length;
+		while (n > 0 && split[n - 1].isEmpty())
+			n--;
+		if (n == split.length)
+			return split;
+		final String[] r = new String[n];
+		System.arraycopy(split, 0, r, 0, n);
+		return r;
+	}
+	
+	/**
+	 * @return Whether the given name is the name of a list variable, i.e. ends in "::*"
+	 */
+	final static boolean isList(final String[] split) {
+		return split.length > 1 && split[split.length - 1].equals("*");
+	}
+	
+}
@@ -460,6 +460,15 @@ public class VariableString implements Expression<String> {
 		return isSimple;
 	}
 	
+	/**
+	 * @return The constant strings and expressions this string consists of. Must only be called if this string is not {@link #isSimple() simple}.
+	 */
+	final Object[] getParts() {
+		final Object[] string = this.string;
+		assert string != null;
+		return string;
+	}
+	
 	public StringMode getMode() {
 		return mode;
 	}
@@ -34,7 +34,9 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import org.bukkit.Bukkit;
@@ -45,6 +47,7 @@ import org.eclipse.jdt.annotation.Nullable;
 import ch.njol.skript.Skript;
 import ch.njol.skript.SkriptAPIException;
 import ch.njol.skript.classes.ClassInfo;
+import ch.njol.skript.classes.Codec;
 import ch.njol.skript.classes.Converter;
 import ch.njol.skript.classes.Converter.ConverterInfo;
 import ch.njol.skript.classes.Parser;
@@ -624,7 +627,15 @@ public abstract class Classes {
 	 */
 	private final static byte[] YGGDRASIL_START = {(byte) 'Y', (byte) 'g', (byte) 'g', 0, (Variables.YGGDRASIL_VERSION >>> 8) & 0xFF, Variables.YGGDRASIL_VERSION & 0xFF};
 	
+	/**
+	 * Caches the results of {@link #getYggdrasilStart(ClassInfo)}, which must not be modified
+	 */
+	private final static Map<ClassInfo<?>, byte[]> yggdrasilStarts = new ConcurrentHashMap<ClassInfo<?>, byte[]>();
+	
 	private final static byte[] getYggdrasilStart(final ClassInfo<?> c) throws NotSerializableException {
+		final byte[] cached = yggdrasilStarts.get(c);
+		if (cached != null)
+			return cached;
 		assert Enum.class.isAssignableFrom(Kleenean.class) && Tag.getType(Kleenean.class) == Tag.T_ENUM : Tag.getType(Kleenean.class); // TODO why is this check here?
 		final Tag t = Tag.getType(c.getC());
 		assert t.isWrapper() || t == Tag.T_STRING || t == Tag.T_OBJECT || t == Tag.T_ENUM;
@@ -640,20 +651,70 @@ public abstract class Classes {
 				r[i++] = cn[j];
 		}
 		assert i == r.length;
+		yggdrasilStarts.put(c, r);
 		return r;
 	}
 	
 	/**
-	 * Must be called on the appropriate thread for the given value (i.e. the main thread currently)
+	 * Codecs that have been compared with Yggdrasil, mapped to whether each of their {@link Codec#variant(byte[]) variants} produces the same data (see {@link Codec}). An
+	 * element is null until its variant has been compared. Races only cause a variant to be compared more than once.
+	 */
+	private final static ConcurrentHashMap<Codec<?>, Boolean[]> verifiedEncoders = new ConcurrentHashMap<Codec<?>, Boolean[]>(),
+			verifiedDecoders = new ConcurrentHashMap<Codec<?>, Boolean[]>();
+	
+	private final static Boolean[] getVerified(final ConcurrentHashMap<Codec<?>, Boolean[]> verified, final Codec<?> codec) {
+		final Boolean[] v = verified.get(codec);
+		if (v != null)
+			return v;
+		final Boolean[] n = new Boolean[codec.variants()];
+		final Boolean[] old = verified.putIfAbsent(codec, n);
+		return old == null ? n : old;
+	}
+	
+	private final static void verified(final Boolean[] verified, final int variant, final ClassInfo<?> ci, final boolean ok) {
+		verified[variant] = ok;
+		if (!ok && Skript.testing())
+			Skript.warning("Variant " + variant + " of the codec of " + ci.getCodeName() + " doesn't match Yggdrasil and will not be used");
+	}
+	
+	@Nullable
+	private final static byte[] encode(final Codec<Object> codec, final Object o) {
+		try {
+			return codec.encode(o);
+		} catch (final RuntimeException e) {
+			return null;
+		}
+	}
+	
+	@Nullable
+	private final static Object decode(final Codec<?> codec, final byte[] data) {
+		try {
+			return codec.decode(data);
+		} catch (final RuntimeException e) { // i.e. invalid data
+			return null;
+		}
+	}
+	
+	/**
+	 * @return The variant of the given data, or -1 if it's invalid
+	 */
+	private final static int variant(final Codec<?> codec, final byte[] data) {
+		try {
+			final int v = codec.variant(data);
+			return 0 <= v && v < codec.variants() ? v : -1;
+		} catch (final RuntimeException e) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * Must be called on the appropriate thread for the given value, i.e. on Bukkit's main thread if the value's serialiser {@link Serializer#mustSyncSerialization() requires it}.
 	 */
 	@Nullable
 	public final static SerializedVariable.Value serialize(@Nullable Object o) {
 		if (o == null)
 			return null;
 		
-		// temporary
-		assert Bukkit.isPrimaryThread();
-		
 		@SuppressWarnings("null")
 		ClassInfo<?> ci = getSuperClassInfo(o.getClass());
 		if (ci.getSerializeAs() != null) {
@@ -673,31 +734,52 @@ public abstract class Classes {
 		if (s == null) // value cannot be saved
 			return null;
 		
-		assert s.mustSyncDeserialization() ? Bukkit.isPrimaryThread() : true;
+		assert s.mustSyncSerialization() ? Bukkit.isPrimaryThread() : true;
+		
+		@SuppressWarnings("unchecked")
+		final Codec<Object> codec = (Codec<Object>) ci.getCodec();
+		final byte[] encoded = codec == null ? null : encode(codec, o);
+		final int variant = codec == null || encoded == null ? -1 : variant(codec, encoded);
+		final Boolean[] verified = codec == null || variant == -1 ? null : getVerified(verifiedEncoders, codec);
+		if (encoded != null && verified != null && verified[variant] == Boolean.TRUE)
+			return new SerializedVariable.Value(ci.getCodeName(), encoded);
 		
 		try {
-			final ByteArrayOutputStream bout = new ByteArrayOutputStream();
-			final YggdrasilOutputStream yout = Variables.yggdrasil.newOutputStream(bout);
-			yout.writeObject(o);
-			yout.flush();
-			yout.close();
-			final byte[] r = bout.toByteArray();
-			final byte[] start = getYggdrasilStart(ci);
-			for (int i = 0; i < start.length; i++)
-				assert r[i] == start[i] : o + " (" + ci.getC().getName() + "); " + Arrays.toString(start) + ", " + Arrays.toString(r);
-			final byte[] r2 = new byte[r.length - start.length];
-			System.arraycopy(r, start.length, r2, 0, r2.length);
+			final byte[] r = serializeYggdrasil(ci, o);
 			
 			Object d;
-			assert equals(o, d = deserialize(ci, new ByteArrayInputStream(r2))) : o + " (" + o.getClass() + ") != " + d + " (" + (d == null ? null : d.getClass()) + "): " + Arrays.toString(r);
+			assert s.mustSyncDeserialization() && !Bukkit.isPrimaryThread() || equals(o, d = deserialize(ci, new ByteArrayInputStream(r))) : o + " (" + o.getClass() + ") != " + d + " (" + (d == null ? null : d.getClass()) + "): " + Arrays.toString(r);
+			
+			if (verified != null && verified[variant] == null)
+				verified(verified, variant, ci, Arrays.equals(r, encoded));
 			
-			return new SerializedVariable.Value(ci.getCodeName(), r2);
+			return new SerializedVariable.Value(ci.getCodeName(), r);
 		} catch (final IOException e) { // shouldn't happen
 			Skript.exception(e);
 			return null;
 		}
 	}
 	
+	/**
+	 * Serialises a value with Yggdrasil, regardless of whether its class has a codec.
+	 * 
+	 * @return The value's data, i.e. without the stream header and the value's tag
+	 */
+	final static byte[] serializeYggdrasil(final ClassInfo<?> ci, final Object o) throws IOException {
+		final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		final YggdrasilOutputStream yout = Variables.yggdrasil.newOutputStream(bout);
+		yout.writeObject(o);
+		yout.flush();
+		yout.close();
+		final byte[] r = bout.toByteArray();
+		final byte[] start = getYggdrasilStart(ci);
+		for (int i = 0; i < start.length; i++)
+			assert r[i] == start[i] : o + " (" + ci.getC().getName() + "); " + Arrays.toString(start) + ", " + Arrays.toString(r);
+		final byte[] r2 = new byte[r.length - start.length];
+		System.arraycopy(r, start.length, r2, 0, r2.length);
+		return r2;
+	}
+	
 	private final static boolean equals(final @Nullable Object o, final @Nullable Object d) {
 		if (o instanceof Chunk) { // CraftChunk does neither override equals nor is it a "coordinate-specific singleton" like Block
 			if (!(d instanceof Chunk))
@@ -710,7 +792,23 @@ public abstract class Classes {
 	
 	@Nullable
 	public final static Object deserialize(final ClassInfo<?> type, final byte[] value) {
-		return deserialize(type, new ByteArrayInputStream(value));
+		final Codec<?> codec = type.getCodec();
+		final int variant = codec == null ? -1 : variant(codec, value);
+		if (codec != null && variant != -1) {
+			final Boolean[] verified = getVerified(verifiedDecoders, codec);
+			if (verified[variant] == Boolean.TRUE) {
+				final Object d = decode(codec, value);
+				if (d != null)
+					return d;
+				// data the codec cannot read is still read by Yggdrasil
+			} else if (verified[variant] == null) {
+				final Object d = deserializeYggdrasil(type, new ByteArrayInputStream(value));
+				if (d != null)
+					verified(verified, variant, type, equals(d, decode(codec, value)));
+				return d;
+			}
+		}
+		return deserializeYggdrasil(type, new ByteArrayInputStream(value));
 	}
 	
 	@Nullable
@@ -722,7 +820,30 @@ public abstract class Classes {
 	}
 	
 	@Nullable
-	public final static Object deserialize(final ClassInfo<?> type, InputStream value) {
+	public final static Object deserialize(final ClassInfo<?> type, final InputStream value) {
+		if (type.getCodec() == null)
+			return deserializeYggdrasil(type, value);
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream(32);
+			final byte[] buffer = new byte[256];
+			int n;
+			while ((n = value.read(buffer)) != -1)
+				out.write(buffer, 0, n);
+			return deserialize(type, out.toByteArray());
+		} catch (final IOException e) {
+			return null;
+		} finally {
+			try {
+				value.close();
+			} catch (final IOException e) {}
+		}
+	}
+	
+	/**
+	 * Deserialises a value with Yggdrasil, regardless of whether its class has a codec.
+	 */
+	@Nullable
+	final static Object deserializeYggdrasil(final ClassInfo<?> type, InputStream value) {
 		Serializer<?> s;
 		assert (s = type.getSerializer()) != null && (s.mustSyncDeserialization() ? Bukkit.isPrimaryThread() : true);
 		YggdrasilInputStream in = null;
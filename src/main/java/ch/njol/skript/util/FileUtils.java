@@ -26,8 +26,10 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -65,6 +67,19 @@ public abstract class FileUtils {
 	}
 	
 	public final static File backup(final File f) throws IOException {
+		final File backup = getBackupFile(f);
+		copy(f, backup);
+		return backup;
+	}
+	
+	/**
+	 * Determines the file a backup of the given file should be written to, and creates the backups folder if required.
+	 * 
+	 * @param f The file to backup
+	 * @return A file in the 'backups' folder next to the given file which does not exist yet
+	 * @throws IOException If the backups folder cannot be created or the backup file does already exist
+	 */
+	public final static File getBackupFile(final File f) throws IOException {
 		String name = f.getName();
 		final int c = name.lastIndexOf('.');
 		final String ext = c == -1 ? null : name.substring(c + 1);
@@ -76,7 +91,6 @@ public abstract class FileUtils {
 		final File backup = new File(backupFolder, name + "_" + getBackupSuffix() + (ext == null ? "" : "." + ext));
 		if (backup.exists())
 			throw new IOException("Backup file " + backup.getName() + " does already exist");
-		copy(f, backup);
 		return backup;
 	}
 	
@@ -109,6 +123,29 @@ public abstract class FileUtils {
 		return to;
 	}
 	
+	/**
+	 * Forces renames and deletions of files in the given directory to be written to the disk. Does nothing on systems which cannot open directories (e.g. Windows, where
+	 * renames are persisted with the file's metadata anyway) and on Java 6.
+	 * 
+	 * @param dir The directory
+	 * @throws IOException If the directory could be opened but not synchronised
+	 */
+	public final static void syncDirectory(final File dir) throws IOException {
+		if (RUNNINGJAVA6)
+			return;
+		final FileChannel c;
+		try {
+			c = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+		} catch (final IOException e) {
+			return;
+		}
+		try {
+			c.force(true);
+		} finally {
+			c.close();
+		}
+	}
+	
 	public final static void copy(final File from, final File to) throws IOException {
 		if (!RUNNINGJAVA6) {
 			Files.copy(from.toPath(), to.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
@@ -0,0 +1,243 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bukkit.Bukkit;
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.skript.Skript;
+import ch.njol.skript.lang.Variable;
+import ch.njol.skript.util.Task;
+
+/**
+ * Access to global variables for addons that can be used from any thread and never waits for a database.
+ * <p>
+ * Variables that are in memory are returned immediately, i.e. the returned future is already completed. Variables of a database that only keeps some variables in memory (see
+ * <tt>cache size</tt> in the config) are loaded in the background if they are not in memory, and the future is completed on the loading thread once they have been loaded.
+ * <p>
+ * List variables are returned as copies in the format of {@link Variables#getVariable(String, org.bukkit.event.Event, boolean)}: a map from the indices to the values, with
+ * sub-lists as nested maps and the list's own value at the key <tt>null</tt>. Reading a variable fails if the variable could not be read from its database.
+ * <p>
+ * Changes are always made on Bukkit's main thread: immediately if called on the main thread, otherwise in the next tick. Changes are applied in the order they were made, as
+ * changes made on other threads are queued and applied by a single task, but a variable read before a change's future is completed might still have its old value.
+ * <p>
+ * Variable names are lowercase and use {@link Variable#SEPARATOR} to separate the indices of lists, e.g. <tt>"homes::" + player.getName().toLowerCase()</tt>.
+ * 
+ * @author Peter Güttinger
+ */
+public final class AsyncVariables {
+	
+	private AsyncVariables() {}
+	
+	private final static class Change {
+		final String name;
+		@Nullable
+		final Object value;
+		final VariableFuture<Void> future;
+		
+		Change(final String name, final @Nullable Object value, final VariableFuture<Void> future) {
+			this.name = name;
+			this.value = value;
+			this.future = future;
+		}
+	}
+	
+	/**
+	 * Changes made on other threads than the main thread, in the order they were made
+	 */
+	private final static ConcurrentLinkedQueue<Change> changes = new ConcurrentLinkedQueue<Change>();
+	/**
+	 * Whether a task to apply the {@link #changes} is scheduled
+	 */
+	private final static AtomicBoolean scheduled = new AtomicBoolean(false);
+	
+	/**
+	 * Applies the queued changes. Must be called on the main thread.
+	 */
+	private final static void applyChanges() {
+		Change c;
+		while ((c = changes.poll()) != null) {
+			Variables.setVariable(c.name, c.value, null, false);
+			c.future.complete(null);
+		}
+	}
+	
+	/**
+	 * Gets a global variable or list variable.
+	 * 
+	 * @param name The variable's name, or the name of a list ending in "::*"
+	 * @return A future of the variable's value, a copy of the list, or null if the variable is not set
+	 */
+	public final static VariableFuture<Object> get(final String name) {
+		final VariablesCache c = Variables.getCache(name);
+		if (c == null)
+			return VariableFuture.completed(Variables.getVariableCopy(name));
+		final VariableFuture<Object> f = new VariableFuture<Object>();
+		c.prefetch(name, new VariablesCache.Loaded() {
+			@Nullable
+			private Object copy;
+			
+			@Override
+			void loaded() {
+				copy = Variables.getVariableCopy(name);
+			}
+			
+			@Override
+			void done(final boolean success) {
+				if (success)
+					f.complete(copy);
+				else
+					f.fail(new IOException("The variable {" + name + "} could not be read from its database"));
+			}
+		});
+		return f;
+	}
+	
+	/**
+	 * Gets a copy of a list variable.
+	 * 
+	 * @param name The list's name without the trailing "::*"
+	 * @return A future of a copy of the list, or null if the list is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public final static VariableFuture<Map<String, Object>> getList(final String name) {
+		final VariableFuture<Map<String, Object>> f = new VariableFuture<Map<String, Object>>();
+		get(name + Variable.SEPARATOR + "*").whenDone(new VariableFuture.Callback<Object>() {
+			@Override
+			public void done(final @Nullable Object list) {
+				f.complete(list instanceof Map ? (Map<String, Object>) list : null);
+			}
+			
+			@Override
+			public void failed(final Throwable cause) {
+				f.fail(cause);
+			}
+		});
+		return f;
+	}
+	
+	/**
+	 * Gets several global variables at once. Variables that are not in memory are loaded concurrently.
+	 * 
+	 * @param names The variables' names, which can also be names of lists ending in "::*"
+	 * @return A future of a map from the given names, in the given order, to the variables' values as returned by {@link #get(String)}, including the names of variables that
+	 *         are not set. Fails if any of the variables could not be read.
+	 */
+	public final static VariableFuture<Map<String, Object>> getAll(final String... names) {
+		final VariableFuture<Map<String, Object>> f = new VariableFuture<Map<String, Object>>();
+		final Object[] values = new Object[names.length];
+		final Throwable[] failure = new Throwable[1];
+		final AtomicInteger remaining = new AtomicInteger(names.length + 1);
+		final Runnable complete = new Runnable() {
+			@Override
+			public void run() {
+				final Map<String, Object> r = new LinkedHashMap<String, Object>();
+				final Throwable t;
+				synchronized (values) {
+					t = failure[0];
+					for (int i = 0; i < names.length; i++)
+						r.put(names[i], values[i]);
+				}
+				if (t != null)
+					f.fail(t);
+				else
+					f.complete(r);
+			}
+		};
+		for (int i = 0; i < names.length; i++) {
+			final int index = i;
+			get(names[i]).whenDone(new VariableFuture.Callback<Object>() {
+				@Override
+				public void done(final @Nullable Object value) {
+					synchronized (values) {
+						values[index] = value;
+					}
+					if (remaining.decrementAndGet() == 0)
+						complete.run();
+				}
+				
+				@Override
+				public void failed(final Throwable cause) {
+					synchronized (values) {
+						if (failure[0] == null)
+							failure[0] = cause;
+					}
+					if (remaining.decrementAndGet() == 0)
+						complete.run();
+				}
+			});
+		}
+		// completes the future here if all variables were in memory
+		if (remaining.decrementAndGet() == 0)
+			complete.run();
+		return f;
+	}
+	
+	/**
+	 * Sets a global variable.
+	 * 
+	 * @param name The variable's name
+	 * @param value The new value, or null to delete the variable
+	 * @return A future that is completed once the variable has been changed in memory. The change is saved to the variable's database later.
+	 */
+	public final static VariableFuture<Void> set(final String name, final @Nullable Object value) {
+		if (value != null && name.endsWith(Variable.SEPARATOR + "*"))
+			throw new IllegalArgumentException("Cannot set a whole list variable: {" + name + "}");
+		if (Bukkit.isPrimaryThread()) {
+			applyChanges(); // changes made before this one
+			Variables.setVariable(name, value, null, false);
+			return VariableFuture.completed(null);
+		}
+		final VariableFuture<Void> f = new VariableFuture<Void>();
+		changes.add(new Change(name, value, f));
+		if (scheduled.compareAndSet(false, true)) {
+			new Task(Skript.getInstance(), 0) {
+				@Override
+				public void run() {
+					// reset first, so that a change added while the changes are applied is either applied now or by a new task
+					scheduled.set(false);
+					applyChanges();
+				}
+			};
+		}
+		return f;
+	}
+	
+	/**
+	 * Deletes a global variable or all variables of a list.
+	 * 
+	 * @param name The variable's name, or the name of a list ending in "::*"
+	 * @return A future that is completed once the variable has been deleted from memory
+	 * @see #set(String, Object)
+	 */
+	public final static VariableFuture<Void> delete(final String name) {
+		return set(name, null);
+	}
+	
+}
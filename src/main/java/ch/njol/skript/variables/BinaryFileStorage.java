@@ -0,0 +1,498 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.skript.Skript;
+import ch.njol.skript.classes.ClassInfo;
+import ch.njol.skript.config.SectionNode;
+import ch.njol.skript.registrations.Classes;
+import ch.njol.skript.util.FileUtils;
+import ch.njol.skript.util.Version;
+
+/**
+ * Stores variables in a binary file, using the same changes log and compaction as {@link FlatFileStorage}.
+ * <p>
+ * The file consists of records, each starting with a tag byte:
+ * <ul>
+ * <li>{@link #HEADER}: the magic bytes 'SKVB', the format version, Skript's version and the newest segment of the changes log contained in the file. Every file starts with a
+ * header, and backups contain several of them as they are a concatenation of files.</li>
+ * <li>{@link #TYPE}: defines a short code for the code name of a {@link ClassInfo}. Codes are valid until the next header.</li>
+ * <li>{@link #SET}: a variable's name, the code of its type, and its serialised value.</li>
+ * <li>{@link #DELETE}: the name of a deleted variable.</li>
+ * </ul>
+ * Strings and values are prefixed by their length in bytes. Values are stored exactly as returned by {@link Classes#serialize(Object)}, i.e. files can be converted from and to
+ * CSV without deserialising any variables.
+ * <p>
+ * Files are loaded through {@link MappedByteBuffer}s, and values are deserialised directly from the mapped file (by several threads, see {@link VariablesLoader}).
+ * 
+ * @author Peter Güttinger
+ */
+public class BinaryFileStorage extends FlatFileStorage {
+	
+	final static byte HEADER = 'S', TYPE = 1, SET = 2, DELETE = 3;
+	final static byte[] MAGIC = {'S', 'K', 'V', 'B'};
+	final static byte FORMAT_VERSION = 1;
+	
+	/**
+	 * Files are mapped in parts of at most this size
+	 */
+	final static int MAX_MAPPING = 1 << 30;
+	
+	protected BinaryFileStorage(final String name) {
+		super(name);
+	}
+	
+	/**
+	 * Converts the file from CSV if required.
+	 */
+	@Override
+	protected boolean load_i(final SectionNode n) {
+		final File file = this.file;
+		if (file == null) {
+			assert false : this;
+			return false;
+		}
+		try {
+			if (file.length() != 0 && !isBinary(file)) {
+				Skript.info(file.getName() + " is not a binary variables file. Converting it from CSV...");
+				final File backup = FileUtils.backup(file);
+				for (final int s : getSegments(file))
+					FileUtils.backup(getSegmentFile(file, s));
+				final File tempFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".temp");
+				final int converted = convert(file, tempFile);
+				FileUtils.move(tempFile, file, true);
+				for (final int s : getSegments(file)) // these are also contained in the converted file's header, i.e. they would be ignored even if they couldn't be deleted
+					getSegmentFile(file, s).delete();
+				Skript.info("Converted " + converted + " lines. The CSV file was moved to " + backup.getName());
+			}
+		} catch (final IOException e) {
+			Skript.error("Could not convert " + file.getName() + " to the binary format: " + e.getLocalizedMessage());
+			return false;
+		}
+		return super.load_i(n);
+	}
+	
+	private final static boolean isBinary(final File f) throws IOException {
+		final InputStream in = new FileInputStream(f);
+		try {
+			final byte[] b = new byte[MAGIC.length];
+			int n = 0, r;
+			while (n < b.length && (r = in.read(b, n, b.length - n)) != -1)
+				n += r;
+			return Arrays.equals(b, MAGIC);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Converts a CSV file and its changes log to the binary format. The values of the variables are copied without deserialising them, i.e. the conversion is lossless and
+	 * can be done before any types are registered.
+	 * 
+	 * @param csv The CSV file, which must have been written by Skript 2.1 or later
+	 * @param binary The file to write the variables to
+	 * @return How many lines were converted
+	 * @throws IOException If a file cannot be read or written, or if the CSV file was written by an older version of Skript
+	 */
+	public final static int convert(final File csv, final File binary) throws IOException {
+		return convert(csv, binary, "" + Skript.getInstance().getDescription().getVersion());
+	}
+	
+	/**
+	 * @param version The version of Skript to write to the binary file's header
+	 * @see #convert(File, File)
+	 */
+	final static int convert(final File csv, final File binary, final String version) throws IOException {
+		final int[] segments = getSegments(csv);
+		final int compacted = getCompactedSegment(csv);
+		final BinaryWriter w = new BinaryWriter(new FileOutputStream(binary), version);
+		try {
+			w.writeHeader(segments.length == 0 ? compacted : Math.max(compacted, segments[segments.length - 1]));
+			int converted = convert(csv, w);
+			for (final int s : segments) {
+				if (s > compacted)
+					converted += convert(getSegmentFile(csv, s), w);
+			}
+			return converted;
+		} finally {
+			w.close();
+		}
+	}
+	
+	/**
+	 * @return The newest segment of the changes log contained in the given CSV file, as written in its header
+	 */
+	private final static int getCompactedSegment(final File csv) throws IOException {
+		final BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(csv), StandardCharsets.UTF_8));
+		try {
+			String line;
+			int segment = 0;
+			while ((line = r.readLine()) != null) {
+				line = line.trim();
+				if (line.startsWith("# segment:")) {
+					try {
+						segment = Math.max(segment, Integer.parseInt(line.substring("# segment:".length()).trim()));
+					} catch (final NumberFormatException e) {}
+				} else if (!line.isEmpty() && !line.startsWith("#")) { // end of the header
+					break;
+				}
+			}
+			return segment;
+		} finally {
+			r.close();
+		}
+	}
+	
+	private final static int convert(final File csv, final BinaryWriter w) throws IOException {
+		final Version v2_1 = new Version(2, 1);
+		final BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(csv), StandardCharsets.UTF_8));
+		try {
+			String line;
+			int lineNum = 0, converted = 0;
+			while ((line = r.readLine()) != null) {
+				lineNum++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					if (line.startsWith("# version:")) {
+						try {
+							if (new Version("" + line.substring("# version:".length()).trim()).isSmallerThan(v2_1))
+								throw new IOException(csv.getName() + " was written by a version of Skript older than 2.1 and has to be loaded as a CSV database once before it can be converted");
+						} catch (final IllegalArgumentException e) {}
+					}
+					continue;
+				}
+				final String[] split = splitCSV(line);
+				if (split == null || split.length != 3) {
+					Skript.error("invalid amount of commas in line " + lineNum + " of " + csv.getName() + " ('" + line + "')");
+					continue;
+				}
+				if (split[1].equals("null"))
+					w.write("" + split[0], null, null);
+				else
+					w.write("" + split[0], split[1], decode("" + split[2]));
+				converted++;
+			}
+			return converted;
+		} finally {
+			r.close();
+		}
+	}
+	
+	@Override
+	VariablesWriter newWriter(final OutputStream out) {
+		return new BinaryWriter(out, "" + Skript.getInstance().getDescription().getVersion());
+	}
+	
+	final static class BinaryWriter extends VariablesWriter {
+		
+		private final DataOutputStream out;
+		
+		/**
+		 * The version of Skript written to headers
+		 */
+		private final String version;
+		
+		/**
+		 * The codes of the types written to the current file
+		 */
+		private final HashMap<String, Short> types = new HashMap<String, Short>();
+		
+		public BinaryWriter(final OutputStream out, final String version) {
+			this.out = new DataOutputStream(new BufferedOutputStream(out));
+			this.version = version;
+		}
+		
+		@Override
+		void writeHeader(final int segment) throws IOException {
+			types.clear();
+			out.write(MAGIC);
+			out.writeByte(FORMAT_VERSION);
+			writeString(version);
+			out.writeInt(segment);
+		}
+		
+		@Override
+		void write(final String name, final @Nullable String type, final @Nullable byte[] value) throws IOException {
+			if (type == null || value == null) {
+				out.writeByte(DELETE);
+				writeString(name);
+				return;
+			}
+			Short code = types.get(type);
+			if (code == null) {
+				if (types.size() == Short.MAX_VALUE)
+					throw new IOException("Too many types");
+				types.put(type, code = (short) (types.size() + 1));
+				out.writeByte(TYPE);
+				out.writeShort(code);
+				writeString(type);
+			}
+			out.writeByte(SET);
+			writeString(name);
+			out.writeShort(code);
+			out.writeInt(value.length);
+			out.write(value);
+		}
+		
+		private final void writeString(final String s) throws IOException {
+			final byte[] b = s.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(b.length);
+			out.write(b);
+		}
+		
+		@Override
+		void flush() throws IOException {
+			out.flush();
+		}
+		
+		@Override
+		void close() throws IOException {
+			out.close();
+		}
+		
+	}
+	
+	@Override
+	void loadFile(final File f, final LoadResult result) {
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(f, "r");
+			final MappedReader r = new MappedReader(raf.getChannel(), MAX_MAPPING);
+			ClassInfo<?>[] types = new ClassInfo<?>[16];
+			String[] typeNames = new String[16];
+			while (r.hasRemaining()) {
+				final byte tag = r.getByte();
+				switch (tag) {
+					case HEADER:
+						r.require(MAGIC.length - 1);
+						for (int i = 1; i < MAGIC.length; i++) {
+							if (r.buf.get() != MAGIC[i])
+								throw new IOException(f.getName() + " is not a binary variables file");
+						}
+						final byte version = r.getByte();
+						if (version > FORMAT_VERSION)
+							throw new IOException(f.getName() + " was written by a newer version of Skript (format version " + version + ")");
+						r.getString(); // Skript's version
+						result.segment = Math.max(result.segment, r.getInt());
+						Arrays.fill(types, null);
+						Arrays.fill(typeNames, null);
+						break;
+					case TYPE:
+						final short code = r.getShort();
+						if (code <= 0)
+							throw new IOException("Invalid type code " + code + " in " + f.getName());
+						if (code >= types.length) {
+							types = Arrays.copyOf(types, Math.max(code + 1, types.length * 2));
+							typeNames = Arrays.copyOf(typeNames, types.length);
+						}
+						typeNames[code] = r.getString();
+						types[code] = Classes.getClassInfoNoError(typeNames[code]);
+						break;
+					case SET: {
+						final String name = r.getString();
+						final short c = r.getShort();
+						final int length = r.getInt();
+						r.require(length);
+						final ByteBuffer value = r.buf.slice();
+						value.limit(length);
+						r.buf.position(r.buf.position() + length);
+						final ClassInfo<?> type = c > 0 && c < types.length ? types[c] : null;
+						if (type == null && c > 0 && c < types.length && VariableExpiry.TYPE.equals(typeNames[c])) {
+							final byte[] data = new byte[length];
+							value.get(data);
+							VariableExpiry.loaded(name, typeNames[c], data);
+						} else if (type == null) {
+							result.invalid(name);
+						} else {
+							result.loader.load(name, type, value); // deserialised directly from the mapped file
+						}
+						break;
+					}
+					case DELETE: {
+						final String name = r.getString();
+						VariableExpiry.loaded(name, null, null);
+						result.loader.load(name, null);
+						break;
+					}
+					default:
+						throw new IOException("Invalid record in " + f.getName() + " at position " + (r.offset + r.buf.position() - 1));
+				}
+			}
+		} catch (final EOFException e) {
+			Skript.warning("The last change saved in " + f.getName() + " is incomplete and was ignored. This is likely caused by a crash of the server.");
+		} catch (final IOException e) {
+			result.ioEx = e;
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (final IOException e) {}
+			}
+		}
+	}
+	
+	/**
+	 * Reads a file through one or more {@link MappedByteBuffer}s. A new part of the file is mapped if a value crosses the end of the current mapping.
+	 */
+	final static class MappedReader {
+		
+		private final FileChannel channel;
+		private final long size;
+		private final int maxMapping;
+		
+		/**
+		 * The position in the file of the first byte of {@link #buf}
+		 */
+		long offset = 0;
+		MappedByteBuffer buf;
+		
+		/**
+		 * @param maxMapping The maximum size of a single mapping, and thus of a single value. Always {@link BinaryFileStorage#MAX_MAPPING} except in tests.
+		 */
+		public MappedReader(final FileChannel channel, final int maxMapping) throws IOException {
+			this.channel = channel;
+			this.maxMapping = maxMapping;
+			size = channel.size();
+			buf = map(0);
+		}
+		
+		@SuppressWarnings("null")
+		private final MappedByteBuffer map(final long position) throws IOException {
+			offset = position;
+			return channel.map(MapMode.READ_ONLY, position, Math.min(size - position, maxMapping));
+		}
+		
+		final boolean hasRemaining() {
+			return offset + buf.position() < size;
+		}
+		
+		/**
+		 * Makes sure that the next <tt>n</tt> bytes are mapped.
+		 * 
+		 * @throws EOFException If the file ends before
+		 */
+		final void require(final int n) throws IOException {
+			if (n < 0)
+				throw new IOException("Invalid length " + n);
+			if (buf.remaining() >= n)
+				return;
+			final long position = offset + buf.position();
+			if (position + n > size)
+				throw new EOFException();
+			if (n > maxMapping)
+				throw new IOException("Value too large (" + n + " bytes)");
+			buf = map(position);
+		}
+		
+		final byte getByte() throws IOException {
+			require(1);
+			return buf.get();
+		}
+		
+		final short getShort() throws IOException {
+			require(2);
+			return buf.getShort();
+		}
+		
+		final int getInt() throws IOException {
+			require(4);
+			return buf.getInt();
+		}
+		
+		/**
+		 * Reads a string without copying it to a byte array first. Plain ASCII strings are copied directly to the string's characters.
+		 */
+		final String getString() throws IOException {
+			final int length = getInt();
+			require(length);
+			final int start = buf.position();
+			final char[] cs = new char[length];
+			for (int i = 0; i < length; i++) {
+				final byte b = buf.get();
+				if (b < 0) { // not ASCII
+					buf.position(start);
+					final ByteBuffer s = buf.slice();
+					s.limit(length);
+					buf.position(start + length);
+					return "" + StandardCharsets.UTF_8.decode(s);
+				}
+				cs[i] = (char) b;
+			}
+			return new String(cs);
+		}
+		
+	}
+	
+	final static class ByteBufferInputStream extends InputStream {
+		
+		private final ByteBuffer buf;
+		
+		public ByteBufferInputStream(final ByteBuffer buf) {
+			this.buf = buf;
+		}
+		
+		@Override
+		public int read() {
+			return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+		}
+		
+		@Override
+		public int read(final byte[] b, final int off, final int len) {
+			if (len == 0)
+				return 0;
+			if (!buf.hasRemaining())
+				return -1;
+			final int n = Math.min(len, buf.remaining());
+			buf.get(b, off, n);
+			return n;
+		}
+		
+		@Override
+		public int available() {
+			return buf.remaining();
+		}
+		
+	}
+	
+}
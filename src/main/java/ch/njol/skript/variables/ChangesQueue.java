@@ -0,0 +1,199 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The changes that are waiting to be written to a {@link VariablesStorage}. Only the latest change of every variable is kept, i.e. a change replaces any pending change of the
+ * same variable, including a deletion replacing a pending write. Replaced changes keep their position, and thus changes of different variables are written in the order the
+ * variables were first changed, while a variable's changes can never be written out of order.
+ * <p>
+ * Adding changes never blocks. If more than {@link #MAX_IN_MEMORY} variables have pending changes, further changes are appended to a {@link SpillFile} instead, and all
+ * changes are appended to that file until it has been read completely, as changes in the file must be written after the ones in memory. Changes in the file are not
+ * coalesced, thus a batch can contain several changes of the same variable.
+ * 
+ * @author Peter Güttinger
+ */
+final class ChangesQueue {
+	
+	/**
+	 * The maximum number of changes kept in memory if there is a spill file
+	 */
+	final static int MAX_IN_MEMORY = 10000;
+	
+	/**
+	 * The interval in which {@link #getSpillRate() the spill rate} is measured, in milliseconds
+	 */
+	private final static int RATE_INTERVAL = 10000;
+	
+	private final LinkedHashMap<String, SerializedVariable> changes = new LinkedHashMap<String, SerializedVariable>();
+	
+	@Nullable
+	private SpillFile spill;
+	
+	private long rateStart = System.currentTimeMillis();
+	private int rateCount = 0, lastRateCount = 0;
+	
+	/**
+	 * @param spill The file to write changes to that don't fit into memory, or null to keep all changes in memory
+	 */
+	ChangesQueue(final @Nullable SpillFile spill) {
+		this.spill = spill;
+	}
+	
+	/**
+	 * Sets the file to write changes to that don't fit into memory if this queue was created without one.
+	 */
+	synchronized void setSpillFile(final SpillFile spill) {
+		assert this.spill == null;
+		this.spill = spill;
+	}
+	
+	/**
+	 * Adds a change, replacing any pending change of the same variable unless the change is spilled to disk.
+	 * <p>
+	 * Spilled changes are serialised immediately. If that fails the change is discarded and returned as if it had been replaced.
+	 * 
+	 * @return The replaced change, or null if there was no pending change of the variable
+	 */
+	@Nullable
+	synchronized SerializedVariable add(final SerializedVariable var) {
+		final SpillFile spill = this.spill;
+		if (spill != null && (spill.size() > 0 || changes.size() >= MAX_IN_MEMORY && !changes.containsKey(var.name))) {
+			if (var instanceof VariableSnapshot && !((VariableSnapshot) var).serialize())
+				return var;
+			spill.write(var);
+			updateRate(1);
+			notifyAll();
+			return null;
+		}
+		final SerializedVariable old = changes.put(var.name, var);
+		notifyAll();
+		return old;
+	}
+	
+	private final void updateRate(final int n) {
+		final long now = System.currentTimeMillis();
+		if (now - rateStart >= RATE_INTERVAL) {
+			lastRateCount = now - rateStart < 2 * RATE_INTERVAL ? rateCount : 0;
+			rateCount = 0;
+			rateStart = now;
+		}
+		rateCount += n;
+	}
+	
+	/**
+	 * Waits until a change is available and then moves as many changes as possible to the given list.
+	 * 
+	 * @param max The maximum size of the list
+	 */
+	synchronized void take(final List<SerializedVariable> batch, final int max) throws InterruptedException {
+		while (isEmpty())
+			wait();
+		drain(batch, max);
+	}
+	
+	/**
+	 * Waits until a change is available or the given time has passed, and then moves as many changes as possible to the given list.
+	 * 
+	 * @param max The maximum size of the list
+	 * @param timeout Milliseconds
+	 * @return Whether any changes were moved
+	 */
+	synchronized boolean poll(final List<SerializedVariable> batch, final int max, final long timeout) throws InterruptedException {
+		if (isEmpty())
+			wait(timeout);
+		return drain(batch, max) > 0;
+	}
+	
+	private final boolean isEmpty() {
+		final SpillFile spill = this.spill;
+		return changes.isEmpty() && (spill == null || spill.size() == 0);
+	}
+	
+	private int drain(final List<SerializedVariable> batch, final int max) {
+		int n = 0;
+		final SpillFile spill = this.spill;
+		if (spill != null) // the last changes spilled before spilling stopped
+			spill.sync();
+		if (changes.isEmpty() && spill != null) {
+			// spilled changes are newer than all changes in memory
+			SerializedVariable var;
+			while (batch.size() < max && (var = spill.read()) != null) {
+				batch.add(var);
+				n++;
+			}
+			return n;
+		}
+		final Iterator<SerializedVariable> iter = changes.values().iterator();
+		while (batch.size() < max && iter.hasNext()) {
+			batch.add(iter.next());
+			iter.remove();
+			n++;
+		}
+		return n;
+	}
+	
+	/**
+	 * @return The number of pending changes, including spilled ones
+	 */
+	synchronized int size() {
+		return changes.size() + getSpilled();
+	}
+	
+	/**
+	 * @return The number of spilled changes that have not been read yet
+	 */
+	synchronized int getSpilled() {
+		final SpillFile spill = this.spill;
+		return spill == null ? 0 : spill.size();
+	}
+	
+	/**
+	 * @return The number of changes spilled per second during the last 10 seconds
+	 */
+	synchronized double getSpillRate() {
+		updateRate(0);
+		return lastRateCount * 1000.0 / RATE_INTERVAL;
+	}
+	
+	/**
+	 * @return How long the last spilled change that was read had waited in the spill file, in milliseconds, or 0 if there are no spilled changes
+	 */
+	synchronized long getDrainLag() {
+		final SpillFile spill = this.spill;
+		return spill == null ? 0 : spill.getLag();
+	}
+	
+	synchronized void clear() {
+		changes.clear();
+		final SpillFile spill = this.spill;
+		if (spill != null)
+			spill.clear();
+	}
+	
+}
@@ -0,0 +1,549 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+
+package ch.njol.skript.variables;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+
+import org.bukkit.event.Event;
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.skript.Skript;
+import ch.njol.skript.registrations.Classes;
+import ch.njol.skript.util.FileUtils;
+import ch.njol.skript.util.Task;
+import ch.njol.skript.variables.SerializedVariable.Value;
+import ch.njol.util.Closeable;
+import ch.njol.util.NonNullPair;
+
+/**
+ * Continues triggers at named points after a given time, even if the server is restarted in the meantime, e.g. for the <tt>wait ... persistently</tt> effect.
+ * <p>
+ * A continuation consists of the name of the point to continue at and the local variables of the trigger, which are serialised like global variables. Continuations are saved
+ * to an append-only file which is compacted when it is loaded and every few minutes if enough continuations have been added or removed since, and are kept in a queue ordered by the time they are due at, thus every tick only has to look at the first
+ * continuations of the queue, and the frames of continuations are only deserialised once they are due.
+ * <p>
+ * Points are registered once the trigger they are defined in has been loaded. Continuations of points that don't exist (anymore) are kept until a script registers the point again.
+ * 
+ * @author Peter Güttinger
+ */
+public final class Continuations {
+	
+	private Continuations() {}
+	
+	public static interface Point {
+		
+		/**
+		 * @return The slots of the local variables of the trigger this point belongs to
+		 */
+		@Nullable
+		public LocalVariables.Slots getLocalVariableSlots();
+		
+		/**
+		 * Continues the trigger on Bukkit's main thread.
+		 * 
+		 * @param e The event the trigger was started with, or null if the server was restarted since
+		 * @param frame The local variables of the trigger
+		 */
+		public void resume(@Nullable Event e, LocalVariables frame);
+		
+	}
+	
+	private final static byte ADD = 1, REMOVE = 2;
+	
+	private final static int MAX_RESUMES_PER_TICK = 100;
+	
+	/**
+	 * The number of entries appended to the file after which it is compacted by the next run of the compaction task, which runs every {@link #COMPACTION_INTERVAL} ticks
+	 */
+	private final static int REQUIRED_CHANGES_FOR_RESAVE = 1000;
+	private final static int COMPACTION_INTERVAL = 5 * 60 * 20;
+	
+	private final static class Continuation implements Comparable<Continuation> {
+		final long id;
+		final String key;
+		final long due;
+		
+		/**
+		 * The serialised local variables
+		 */
+		final List<SerializedVariable> frame;
+		
+		/**
+		 * The event and the local variables the continuation was created with, or null if it was loaded from the file
+		 */
+		@Nullable
+		Event event;
+		@Nullable
+		LocalVariables locals;
+		
+		Continuation(final long id, final String key, final long due, final List<SerializedVariable> frame) {
+			this.id = id;
+			this.key = key;
+			this.due = due;
+			this.frame = frame;
+		}
+		
+		@Override
+		public int compareTo(final @Nullable Continuation o) {
+			assert o != null;
+			return due < o.due ? -1 : due > o.due ? 1 : id < o.id ? -1 : id > o.id ? 1 : 0;
+		}
+	}
+	
+	private final static class Registration {
+		final File script;
+		final Point point;
+		
+		Registration(final File script, final Point point) {
+			this.script = script;
+			this.point = point;
+		}
+	}
+	
+	/**
+	 * All continuations of existing points, ordered by their due time. All fields of this class are only accessed while synchronised on this queue.
+	 */
+	private final static PriorityQueue<Continuation> queue = new PriorityQueue<Continuation>();
+	
+	/**
+	 * Continuations of points which are not registered, by the points' keys
+	 */
+	private final static Map<String, List<Continuation>> parked = new HashMap<String, List<Continuation>>();
+	
+	private final static Map<String, Registration> points = new HashMap<String, Registration>();
+	
+	/**
+	 * Points of the trigger that is currently loaded, which are registered by {@link #registerPending()} once the trigger has been loaded successfully
+	 */
+	private final static Map<String, Registration> pending = new HashMap<String, Registration>();
+	
+	private static long nextID = 1;
+	
+	@Nullable
+	private static File file = null;
+	
+	/**
+	 * The stream to append to {@link #file}, or null if the file could not be written or has not been loaded yet
+	 */
+	@Nullable
+	private static DataOutputStream out = null;
+	
+	private static boolean dirty = false;
+	
+	/**
+	 * The number of entries appended to the file since it was last compacted
+	 */
+	private static int changes = 0;
+	
+	private final static String getKey(final File script, final String name) {
+		return script.getName() + ":" + name;
+	}
+	
+	/**
+	 * Registers a point of the trigger that is currently loaded. The point is only used once {@link #registerPending()} is called after the trigger has been loaded
+	 * successfully, and is discarded by {@link #discardPending()} otherwise.
+	 * 
+	 * @param script The script the point is defined in
+	 * @param name The point's name, which is unique among all points of the script
+	 * @return Whether the point was registered, i.e. false if a point with the same name was already registered by the given script or a script with the same file name
+	 */
+	public final static boolean register(final File script, final String name, final Point point) {
+		final String key = getKey(script, name);
+		synchronized (queue) {
+			if (points.containsKey(key) || pending.containsKey(key))
+				return false;
+			pending.put(key, new Registration(script, point));
+		}
+		return true;
+	}
+	
+	/**
+	 * Registers the points of the trigger that has just been loaded. Continuations of these points that were waiting for them to be registered are continued once they
+	 * are due.
+	 */
+	public final static void registerPending() {
+		synchronized (queue) {
+			for (final Entry<String, Registration> e : pending.entrySet()) {
+				points.put(e.getKey(), e.getValue());
+				final List<Continuation> cs = parked.remove(e.getKey());
+				if (cs != null)
+					queue.addAll(cs);
+			}
+			pending.clear();
+		}
+	}
+	
+	/**
+	 * Discards the points of a trigger that could not be loaded. Does nothing if the trigger's points have already been registered by {@link #registerPending()}.
+	 */
+	public final static void discardPending() {
+		synchronized (queue) {
+			pending.clear();
+		}
+	}
+	
+	/**
+	 * Unregisters all points of the given script, e.g. because it is unloaded. Continuations of these points are kept until the points are registered again.
+	 */
+	public final static void unregister(final File script) {
+		synchronized (queue) {
+			final Iterator<Registration> iter = points.values().iterator();
+			while (iter.hasNext()) {
+				if (iter.next().script.equals(script))
+					iter.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Unregisters all points, e.g. because all scripts are reloaded.
+	 */
+	public final static void unregisterAll() {
+		synchronized (queue) {
+			points.clear();
+		}
+	}
+	
+	/**
+	 * Schedules a continuation of a registered point and saves it.
+	 * 
+	 * @param script The script the point is defined in
+	 * @param name The point's name
+	 * @param millis The time in milliseconds after which the trigger is continued
+	 * @param e The event the trigger was started with
+	 * @param frame The local variables of the trigger
+	 * @return The names of the local variables that could not be saved and will thus not be set if the trigger is continued after a restart
+	 */
+	public final static List<String> schedule(final File script, final String name, final long millis, final Event e, final LocalVariables frame) {
+		final List<NonNullPair<String, Object>> locals = new ArrayList<NonNullPair<String, Object>>();
+		frame.getAll(locals);
+		final List<SerializedVariable> serialized = new ArrayList<SerializedVariable>(locals.size());
+		final List<String> unsaved = new ArrayList<String>(0);
+		for (final NonNullPair<String, Object> l : locals) {
+			final Value v = Classes.serialize(l.getSecond());
+			if (v == null)
+				unsaved.add(l.getFirst());
+			else
+				serialized.add(new SerializedVariable(l.getFirst(), v));
+		}
+		synchronized (queue) {
+			final Continuation c = new Continuation(nextID++, getKey(script, name), System.currentTimeMillis() + millis, serialized);
+			c.event = e;
+			c.locals = frame;
+			final DataOutputStream out = Continuations.out;
+			if (out != null) {
+				try {
+					write(out, c);
+					dirty = true;
+					changes++;
+				} catch (final IOException ex) {
+					failed(ex);
+				}
+			}
+			queue.add(c);
+		}
+		return unsaved;
+	}
+	
+	private final static void write(final DataOutputStream out, final Continuation c) throws IOException {
+		out.writeByte(ADD);
+		out.writeLong(c.id);
+		out.writeUTF(c.key);
+		out.writeLong(c.due);
+		out.writeInt(c.frame.size());
+		for (final SerializedVariable var : c.frame) {
+			final Value v = var.value;
+			assert v != null;
+			out.writeUTF(var.name);
+			out.writeUTF(v.type);
+			out.writeInt(v.data.length);
+			out.write(v.data);
+		}
+	}
+	
+	private final static Continuation read(final DataInputStream in) throws IOException {
+		final long id = in.readLong();
+		final String key = in.readUTF();
+		final long due = in.readLong();
+		final int n = in.readInt();
+		final List<SerializedVariable> frame = new ArrayList<SerializedVariable>(n);
+		for (int i = 0; i < n; i++) {
+			final String name = in.readUTF();
+			final String type = in.readUTF();
+			final byte[] data = new byte[in.readInt()];
+			in.readFully(data);
+			frame.add(new SerializedVariable(name, new Value(type, data)));
+		}
+		return new Continuation(id, key, due, frame);
+	}
+	
+	/**
+	 * Stops writing to the file after an error. Continuations are still continued if the server is not restarted.
+	 */
+	private final static void failed(final IOException e) {
+		assert Thread.holdsLock(queue);
+		final File file = Continuations.file;
+		Skript.exception(e, "Cannot write persistent waits to the file " + (file == null ? null : file.getName()) + ", thus waits that are started from now on will be lost if the server is stopped");
+		close();
+	}
+	
+	private final static void close() {
+		assert Thread.holdsLock(queue);
+		final DataOutputStream out = Continuations.out;
+		Continuations.out = null;
+		if (out != null) {
+			try {
+				out.close();
+			} catch (final IOException e) {}
+		}
+	}
+	
+	/**
+	 * Loads the continuations saved in the given file, and starts continuing triggers. Must be called once after the scripts have been loaded.
+	 */
+	public final static void load(final File file) {
+		final Map<Long, Continuation> loaded = new LinkedHashMap<Long, Continuation>();
+		int records = 0;
+		long maxID = 0;
+		boolean error = false;
+		if (file.exists()) {
+			try {
+				final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+				try {
+					int type;
+					while ((type = in.read()) != -1) {
+						if (type == ADD) {
+							final Continuation c = read(in);
+							loaded.put(c.id, c);
+							maxID = Math.max(maxID, c.id);
+						} else if (type == REMOVE) {
+							loaded.remove(in.readLong());
+						} else {
+							throw new IOException("Invalid entry type " + type);
+						}
+						records++;
+					}
+				} catch (final EOFException e) {
+					Skript.warning("The file " + file.getName() + " ends with an incomplete entry, probably because the server crashed while it was written. The entry has been discarded.");
+					records++;
+				} finally {
+					in.close();
+				}
+			} catch (final IOException e) {
+				Skript.exception(e, "Cannot load the persistent waits from the file " + file.getName() + ". Please fix or delete the file, waits that are started from now on will be lost if the server is stopped.");
+				error = true;
+			}
+		}
+		synchronized (queue) {
+			Continuations.file = file;
+			nextID = Math.max(nextID, maxID + 1);
+			final boolean unsaved = !queue.isEmpty() || !parked.isEmpty();
+			for (final Continuation c : loaded.values()) {
+				if (points.containsKey(c.key)) {
+					queue.add(c);
+					continue;
+				}
+				List<Continuation> p = parked.get(c.key);
+				if (p == null) {
+					Skript.warning("The persistent wait '" + c.key + "' does not exist anymore. Its pending waits will be continued once a script with this wait is loaded again.");
+					parked.put(c.key, p = new ArrayList<Continuation>());
+				}
+				p.add(c);
+			}
+			if (!error) {
+				try {
+					file.getParentFile().mkdirs();
+					// removes continuations that are done, and saves those that were scheduled before the file was loaded
+					if (records != loaded.size() || unsaved)
+						compact(file);
+					changes = 0;
+					out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+				} catch (final IOException e) {
+					failed(e);
+				}
+			}
+		}
+		if (!loaded.isEmpty())
+			Skript.info("Loaded " + loaded.size() + " persistent wait" + (loaded.size() == 1 ? "" : "s"));
+		Skript.closeOnDisable(new Task(Skript.getInstance(), 1, 1) {
+			@Override
+			public void run() {
+				resumeDue();
+			}
+		});
+		// every added and every continued wait appends an entry to the file
+		Skript.closeOnDisable(new Task(Skript.getInstance(), COMPACTION_INTERVAL, COMPACTION_INTERVAL, true) {
+			@Override
+			public void run() {
+				synchronized (queue) {
+					if (changes >= REQUIRED_CHANGES_FOR_RESAVE && Continuations.out != null)
+						compact();
+				}
+			}
+		});
+		Skript.closeOnDisable(new Closeable() {
+			@Override
+			public void close() {
+				synchronized (queue) {
+					Continuations.close();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Compacts the file while it is written to. The file only contains the waits that are not done yet, thus this is fast enough to be done while holding the lock.
+	 */
+	private final static void compact() {
+		assert Thread.holdsLock(queue);
+		final File file = Continuations.file;
+		assert file != null;
+		close();
+		try {
+			compact(file);
+			changes = 0;
+		} catch (final IOException e) {
+			Skript.exception(e, "Cannot compact the file " + file.getName() + " (no persistent waits are lost)");
+		}
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+		} catch (final IOException e) {
+			failed(e);
+		}
+	}
+	
+	/**
+	 * Rewrites the file with only the continuations that are not done yet.
+	 */
+	private final static void compact(final File file) throws IOException {
+		assert Thread.holdsLock(queue);
+		final File tempFile = new File(file.getParentFile(), file.getName() + ".temp");
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+		try {
+			for (final Continuation c : queue)
+				write(out, c);
+			for (final List<Continuation> cs : parked.values()) {
+				for (final Continuation c : cs)
+					write(out, c);
+			}
+		} finally {
+			out.close();
+		}
+		FileUtils.move(tempFile, file, true);
+	}
+	
+	/**
+	 * Continues the triggers that are due, at most {@link #MAX_RESUMES_PER_TICK} per tick.
+	 */
+	private final static void resumeDue() {
+		final long now = System.currentTimeMillis();
+		final List<NonNullPair<Continuation, Point>> due = new ArrayList<NonNullPair<Continuation, Point>>();
+		synchronized (queue) {
+			Continuation c;
+			while (due.size() < MAX_RESUMES_PER_TICK && (c = queue.peek()) != null && c.due <= now) {
+				queue.poll();
+				final Registration r = points.get(c.key);
+				if (r == null) {
+					List<Continuation> p = parked.get(c.key);
+					if (p == null) {
+						Skript.warning("The persistent wait '" + c.key + "' does not exist anymore. Its pending waits will be continued once a script with this wait is loaded again.");
+						parked.put(c.key, p = new ArrayList<Continuation>());
+					}
+					p.add(c);
+					continue;
+				}
+				due.add(new NonNullPair<Continuation, Point>(c, r.point));
+				final DataOutputStream out = Continuations.out;
+				if (out != null) {
+					try {
+						out.writeByte(REMOVE);
+						out.writeLong(c.id);
+						dirty = true;
+						changes++;
+					} catch (final IOException e) {
+						failed(e);
+					}
+				}
+			}
+			final DataOutputStream out = Continuations.out;
+			if (dirty && out != null) {
+				try {
+					out.flush();
+				} catch (final IOException e) {
+					failed(e);
+				}
+			}
+			dirty = false;
+		}
+		for (final NonNullPair<Continuation, Point> d : due)
+			resume(d.getFirst(), d.getSecond());
+	}
+	
+	private final static void resume(final Continuation c, final Point point) {
+		final LocalVariables locals = c.locals;
+		if (c.event != null && locals != null) {
+			point.resume(c.event, locals);
+			return;
+		}
+		final LocalVariables frame = new LocalVariables(point.getLocalVariableSlots());
+		for (final SerializedVariable var : c.frame) {
+			final Value v = var.value;
+			assert v != null;
+			final Object o = Classes.deserialize(v.type, v.data);
+			if (o == null)
+				Skript.error("Cannot restore the local variable {_" + var.name + "} of the persistent wait '" + c.key + "', because the type '" + v.type + "' cannot be recognised or cannot be stored in variables");
+			else
+				frame.set(var.name, o);
+		}
+		point.resume(null, frame);
+	}
+	
+	/**
+	 * @return The number of triggers that are waiting to be continued, including those whose points are not registered
+	 */
+	public final static int size() {
+		synchronized (queue) {
+			int size = queue.size();
+			for (final List<Continuation> cs : parked.values())
+				size += cs.size();
+			return size;
+		}
+	}
+	
+}
@@ -22,10 +22,17 @@
 package ch.njol.skript.variables;
 
 import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Map.Entry;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 
@@ -43,10 +50,13 @@ import ch.njol.skript.Skript;
 import ch.njol.skript.classes.ClassInfo;
 import ch.njol.skript.classes.Serializer;
 import ch.njol.skript.config.SectionNode;
+import ch.njol.skript.lang.Variable;
 import ch.njol.skript.log.SkriptLogger;
 import ch.njol.skript.registrations.Classes;
+import ch.njol.skript.util.FileUtils;
 import ch.njol.skript.util.Task;
 import ch.njol.skript.util.Timespan;
+import ch.njol.util.NonNullPair;
 
 /**
  * TODO create a metadata table to store some properties (e.g. Skript version, Yggdrasil version) -- but what if some variables cannot be converted? move them to a different table?
@@ -65,6 +75,10 @@ public class DatabaseStorage extends VariablesStorage {
 	
 	private final static String SELECT_ORDER = "name, type, value, rowid";
 	
+	private final static int DEFAULT_BATCH_SIZE = 500;
+	
+	private final static long DEFAULT_PARTITION_DELAY = 5 * 60 * 1000;
+	
 	public static enum Type {
 		MYSQL("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
 				"rowid        BIGINT  NOT NULL  AUTO_INCREMENT  PRIMARY KEY," +
@@ -151,6 +165,58 @@ public class DatabaseStorage extends VariablesStorage {
 		monitor = monitor_changes;
 		this.monitor_interval = monitor_interval.getMilliSeconds();
 		
+		int cacheSize = 0;
+		if (n.getValue("cache size") != null) {
+			final Integer size = getValue(n, "cache size", Integer.class);
+			if (size == null)
+				return false;
+			cacheSize = size;
+		}
+		long partitionDelay = -1;
+		if (n.getValue("player partitions") != null) {
+			final Boolean partitions = getValue(n, "player partitions", Boolean.class);
+			if (partitions == null)
+				return false;
+			if (partitions) {
+				partitionDelay = DEFAULT_PARTITION_DELAY;
+				if (n.getValue("evict players after") != null) {
+					final Timespan delay = getValue(n, "evict players after", Timespan.class);
+					if (delay == null)
+						return false;
+					partitionDelay = delay.getMilliSeconds();
+				}
+			}
+		}
+		boolean blocking = false;
+		if (n.getValue("block on cache miss") != null) {
+			final Boolean b = getValue(n, "block on cache miss", Boolean.class);
+			if (b == null)
+				return false;
+			blocking = b;
+		}
+		if (cacheSize > 0 || partitionDelay >= 0) {
+			if (monitor) {
+				Skript.error("The database '" + databaseName + "' cannot monitor changes if it only keeps some variables in memory. Please disable either 'monitor changes' or 'cache size' and 'player partitions'.");
+				return false;
+			}
+			// if only the variables of players are partitioned, all other variables are kept in memory once they have been used
+			cache = new VariablesCache(this, cacheSize > 0 ? cacheSize : Integer.MAX_VALUE, partitionDelay, blocking);
+		}
+		
+		batchSize = DEFAULT_BATCH_SIZE;
+		if (n.getValue("batch size") != null) {
+			final Integer batchSize = getValue(n, "batch size", Integer.class);
+			if (batchSize == null)
+				return false;
+			this.batchSize = Math.max(1, batchSize);
+		}
+		if (n.getValue("flush interval") != null) {
+			final Timespan flushInterval = getValue(n, "flush interval", Timespan.class);
+			if (flushInterval == null)
+				return false;
+			this.flushInterval = flushInterval.getMilliSeconds();
+		}
+		
 		final Database db;
 		try {
 			final Object o = type.initialise(this, n);
@@ -214,33 +280,35 @@ public class DatabaseStorage extends VariablesStorage {
 				}
 			}
 			
-			// new
-			final ResultSet r2 = db.query("SELECT " + SELECT_ORDER + " FROM " + TABLE_NAME);
-			assert r2 != null;
-			try {
-				loadVariables(r2);
-			} finally {
-				r2.close();
+			// new - if only some variables are kept in memory they are loaded when they are used, except for their expiry times
+			if (cache == null) {
+				final ResultSet r2 = db.query("SELECT " + SELECT_ORDER + " FROM " + TABLE_NAME);
+				assert r2 != null;
+				try {
+					loadVariables(r2);
+				} finally {
+					r2.close();
+				}
+			} else {
+				read(VariableExpiry.PREFIX + "*", new VariablesLoader(this));
 			}
 			
 			// store old variables in new table and delete the old table
 			if (hasOldTable) {
 				if (!hadNewTable) {
 					Skript.info("[2.1] Updating the database '" + databaseName + "' to the new format...");
-					try {
-						Variables.getReadLock().lock();
-						for (final Entry<String, Object> v : Variables.getVariablesHashMap().entrySet()) {
-							if (accept(v.getKey())) {// only one database was possible, so only checking this database is correct
-								@SuppressWarnings("null")
-								final SerializedVariable var = Variables.serialize(v.getKey(), v.getValue());
+					int transferred = 0;
+					for (int i = 0; i < Variables.getVariablesStripes(); i++) {
+						for (final NonNullPair<String, Object> v : Variables.getVariables(i)) {
+							if (accept(v.first)) {// only one database was possible, so only checking this database is correct
+								final SerializedVariable var = Variables.serialize(v.first, v.second);
 								final SerializedVariable.Value d = var.value;
 								save(var.name, d == null ? null : d.type, d == null ? null : d.data);
+								transferred++;
 							}
 						}
-						Skript.info("Updated and transferred " + Variables.getVariablesHashMap().size() + " variables to the new table.");
-					} finally {
-						Variables.getReadLock().unlock();
 					}
+					Skript.info("Updated and transferred " + transferred + " variables to the new table.");
 				}
 				db.query("DELETE FROM " + OLD_TABLE_NAME + " WHERE value IS NULL");
 				db.query("DELETE FROM old USING " + OLD_TABLE_NAME + " AS old, " + TABLE_NAME + " AS new WHERE old.name = new.name");
@@ -306,6 +374,10 @@ public class DatabaseStorage extends VariablesStorage {
 			}, "Skript database monitor thread").start();
 		}
 		
+		final VariablesCache cache = this.cache;
+		if (cache != null)
+			cache.start();
+		
 		return true;
 	}
 	
@@ -350,6 +422,9 @@ public class DatabaseStorage extends VariablesStorage {
 				
 				deleteQuery = db.prepare("DELETE FROM " + TABLE_NAME + " WHERE name = ?");
 				
+				readQuery = db.prepare("SELECT " + SELECT_ORDER + " FROM " + TABLE_NAME + " WHERE name = ?");
+				readListQuery = db.prepare("SELECT " + SELECT_ORDER + " FROM " + TABLE_NAME + " WHERE name >= ? AND name < ?");
+				
 				monitorQuery = db.prepare("SELECT " + SELECT_ORDER + " FROM " + TABLE_NAME + " WHERE rowid > ? AND update_guid != ?");
 				monitorCleanUpQuery = db.prepare("DELETE FROM " + TABLE_NAME + " WHERE value IS NULL AND rowid < ?");
 			} catch (final SQLException e) {
@@ -371,6 +446,39 @@ public class DatabaseStorage extends VariablesStorage {
 		}
 	}
 	
+	/**
+	 * Creates a backup of an SQLite database with SQLite's online backup through a separate connection, i.e. without closing the database or blocking writes. The backup is a
+	 * consistent snapshot of the database; SQLite restarts the copy if the database is changed while it is copied.
+	 */
+	@Override
+	@Nullable
+	protected File backup() throws IOException {
+		final File file = this.file;
+		if (file == null || type != Type.SQLITE)
+			return null;
+		final File backup = FileUtils.getBackupFile(file);
+		Connection c = null;
+		try {
+			c = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+			final Statement s = c.createStatement();
+			try {
+				s.executeUpdate("backup to \"" + backup.getPath() + "\"");
+			} finally {
+				s.close();
+			}
+		} catch (final SQLException e) {
+			backup.delete();
+			throw new IOException(e);
+		} finally {
+			if (c != null) {
+				try {
+					c.close();
+				} catch (final SQLException e) {}
+			}
+		}
+		return backup;
+	}
+	
 	/**
 	 * Params: name, type, value, GUID
 	 * <p>
@@ -385,6 +493,20 @@ public class DatabaseStorage extends VariablesStorage {
 	 */
 	@Nullable
 	private PreparedStatement deleteQuery;
+	/**
+	 * Params: name
+	 * <p>
+	 * Selects a single variable. values in order: {@value #SELECT_ORDER}
+	 */
+	@Nullable
+	private PreparedStatement readQuery;
+	/**
+	 * Params: name prefix, name prefix with the last character incremented
+	 * <p>
+	 * Selects all variables of a list. values in order: {@value #SELECT_ORDER}
+	 */
+	@Nullable
+	private PreparedStatement readListQuery;
 	/**
 	 * Params: rowID, GUID
 	 * <p>
@@ -403,28 +525,8 @@ public class DatabaseStorage extends VariablesStorage {
 	@Override
 	protected boolean save(final String name, final @Nullable String type, final @Nullable byte[] value) {
 		synchronized (dbLock) {
-			// REMIND get the actual maximum size from the database
-			if (name.length() > MAX_VARIABLE_NAME_LENGTH)
-				Skript.error("The name of the variable {" + name + "} is too long to be saved in a database (length: " + name.length() + ", maximum allowed: " + MAX_VARIABLE_NAME_LENGTH + ")! It will be truncated and won't bet available under the same name again when loaded.");
-			if (value != null && value.length > MAX_VALUE_SIZE)
-				Skript.error("The variable {" + name + "} cannot be saved in the database as its value's size (" + value.length + ") exceeds the maximum allowed size of " + MAX_VALUE_SIZE + "! An attempt to save the variable will be made nonetheless.");
 			try {
-				if (!monitor && type == null) {
-					assert value == null;
-					final PreparedStatement deleteQuery = this.deleteQuery;
-					assert deleteQuery != null;
-					deleteQuery.setString(1, name);
-					deleteQuery.executeUpdate();
-				} else {
-					int i = 1;
-					final PreparedStatement writeQuery = this.writeQuery;
-					assert writeQuery != null;
-					writeQuery.setString(i++, name);
-					writeQuery.setString(i++, type);
-					writeQuery.setBytes(i++, value); // SQLite desn't support setBlob
-					writeQuery.setString(i++, guid);
-					writeQuery.executeUpdate();
-				}
+				prepareSave(name, type, value).executeUpdate();
 			} catch (final SQLException e) {
 				sqlException(e);
 				return false;
@@ -433,10 +535,109 @@ public class DatabaseStorage extends VariablesStorage {
 		return true;
 	}
 	
+	/**
+	 * Sets the parameters of {@link #writeQuery} or {@link #deleteQuery} to save the given variable. Must be synchronised with {@link #dbLock}.
+	 * 
+	 * @return The query to execute
+	 */
+	private PreparedStatement prepareSave(final String name, final @Nullable String type, final @Nullable byte[] value) throws SQLException {
+		// REMIND get the actual maximum size from the database
+		if (name.length() > MAX_VARIABLE_NAME_LENGTH)
+			Skript.error("The name of the variable {" + name + "} is too long to be saved in a database (length: " + name.length() + ", maximum allowed: " + MAX_VARIABLE_NAME_LENGTH + ")! It will be truncated and won't bet available under the same name again when loaded.");
+		if (value != null && value.length > MAX_VALUE_SIZE)
+			Skript.error("The variable {" + name + "} cannot be saved in the database as its value's size (" + value.length + ") exceeds the maximum allowed size of " + MAX_VALUE_SIZE + "! An attempt to save the variable will be made nonetheless.");
+		if (!monitor && type == null) {
+			assert value == null;
+			final PreparedStatement deleteQuery = this.deleteQuery;
+			assert deleteQuery != null;
+			deleteQuery.setString(1, name);
+			return deleteQuery;
+		} else {
+			int i = 1;
+			final PreparedStatement writeQuery = this.writeQuery;
+			assert writeQuery != null;
+			writeQuery.setString(i++, name);
+			writeQuery.setString(i++, type);
+			writeQuery.setBytes(i++, value); // SQLite desn't support setBlob
+			writeQuery.setString(i++, guid);
+			return writeQuery;
+		}
+	}
+	
+	private long written = 0, batches = 0, writeTime = 0;
+	
+	/**
+	 * Writes all changes in a single transaction using JDBC batches. If the transaction fails the changes are written one by one, so that a single invalid variable cannot
+	 * prevent all other variables from being saved.
+	 */
+	@Override
+	protected void saveBatch(final List<SerializedVariable> changes) {
+		if (changes.size() == 1) {
+			super.saveBatch(changes);
+			return;
+		}
+		// only the last change of each variable has to be written, which also makes the order of the writes and deletes irrelevant
+		final Map<String, SerializedVariable> last = new LinkedHashMap<String, SerializedVariable>();
+		for (final SerializedVariable var : changes)
+			last.put(var.name, var);
+		final long start = System.nanoTime();
+		synchronized (dbLock) {
+			final PreparedStatement writeQuery = this.writeQuery, deleteQuery = this.deleteQuery;
+			if (db == null || writeQuery == null || deleteQuery == null)
+				return;
+			try {
+				final Connection c = writeQuery.getConnection();
+				c.setAutoCommit(false);
+				try {
+					boolean writes = false, deletes = false;
+					for (final SerializedVariable var : last.values()) {
+						final SerializedVariable.Value d = var.value;
+						final PreparedStatement q = prepareSave(var.name, d == null ? null : d.type, d == null ? null : d.data);
+						q.addBatch();
+						if (q == deleteQuery)
+							deletes = true;
+						else
+							writes = true;
+					}
+					if (writes)
+						writeQuery.executeBatch();
+					if (deletes)
+						deleteQuery.executeBatch();
+					c.commit();
+				} catch (final SQLException e) {
+					writeQuery.clearBatch();
+					deleteQuery.clearBatch();
+					c.rollback();
+					throw e;
+				} finally {
+					c.setAutoCommit(true);
+				}
+			} catch (final SQLException e) {
+				Skript.warning("Could not write " + last.size() + " variables to the database '" + databaseName + "' at once (" + e.getLocalizedMessage() + "), writing them one by one instead");
+				super.saveBatch(new ArrayList<SerializedVariable>(last.values()));
+			}
+		}
+		final long time = System.nanoTime() - start;
+		written += last.size();
+		batches++;
+		writeTime += time;
+		if (Skript.logHigh())
+			Skript.info("Wrote " + last.size() + " variables (" + changes.size() + " changes) to the database '" + databaseName + "' in " + time / 1000000 + " ms (" + throughput(last.size(), time) + " variables/s)");
+	}
+	
+	private final static long throughput(final long variables, final long nanos) {
+		return nanos == 0 ? variables : variables * 1000000000L / nanos;
+	}
+	
 	@Override
 	public void close() {
+		super.close(); // waits for the write thread, which requires dbLock
+		final VariablesCache cache = this.cache;
+		if (cache != null)
+			Skript.info("Variables cache of the database '" + databaseName + "': " + cache);
+		if (batches > 0)
+			Skript.info("Wrote " + written + " variables in " + batches + " batches to the database '" + databaseName + "' (" + throughput(written, writeTime) + " variables/s on average)");
 		synchronized (dbLock) {
-			super.close();
 			if (db != null)
 				((Database) db).close();
 			db = null;
@@ -487,94 +688,104 @@ public class DatabaseStorage extends VariablesStorage {
 		}
 	}
 	
-//	private final static class VariableInfo {
-//		final String name;
-//		final byte[] value;
-//		final ClassInfo<?> ci;
-//		
-//		public VariableInfo(final String name, final byte[] value, final ClassInfo<?> ci) {
-//			this.name = name;
-//			this.value = value;
-//			this.ci = ci;
-//		}
-//	}
-	
-//	final static LinkedList<VariableInfo> syncDeserializing = new LinkedList<VariableInfo>();
-	
 	/**
 	 * Doesn't lock the database - {@link #save(String, String, byte[])} does that
+	 * <p>
+	 * The rows are read on the calling thread, while the variables are deserialised in parallel and passed to the variables on Bukkit's main thread, see
+	 * {@link VariablesLoader}.
 	 */
 	private void loadVariables(final ResultSet r) throws SQLException {
 		assert !Thread.holdsLock(dbLock);
-//		synchronized (syncDeserializing) {
-		
-		final SQLException e = Task.callSync(new Callable<SQLException>() {
-			@Override
-			@Nullable
-			public SQLException call() throws Exception {
+		final VariablesLoader loader = new VariablesLoader(this);
+		try {
+			while (r.next()) {
+				int i = 1;
+				final String name = r.getString(i++);
+				if (name == null) {
+					Skript.error("Variable with NULL name found, ignoring it");
+					continue;
+				}
+				final String type = r.getString(i++);
+				final byte[] value = r.getBytes(i++); // Blob not supported by SQLite
+				lastRowID = r.getLong(i++);
+				load(loader, name, type, value);
+			}
+		} finally {
+			loader.finish();
+		}
+	}
+	
+	private void load(final VariablesLoader loader, final String name, final @Nullable String type, final @Nullable byte[] value) {
+		if (VariableExpiry.loaded(name, value == null ? null : type, value))
+			return;
+		if (value == null) {
+			loader.load(name, null);
+		} else {
+			final ClassInfo<?> c = Classes.getClassInfoNoError(type);
+			if (c == null || c.getSerializer() == null) {
+				Skript.error("Cannot load the variable {" + name + "} from the database " + databaseName + ", because the type '" + type + "' cannot be recognised or cannot be stored in variables");
+				return;
+			}
+			loader.load(name, c, value);
+		}
+	}
+	
+	/**
+	 * Reads a single variable or all variables of a list from the database into the given loader. Used if the database only keeps some variables in memory, see
+	 * {@link VariablesCache}.
+	 * <p>
+	 * The database is only locked while the rows are read, not while the variables are deserialised.
+	 * 
+	 * @param name A variable's name, which can also be a list variable
+	 * @return Whether the database could be read
+	 */
+	final boolean read(final String name, final VariablesLoader loader) {
+		final List<SerializedVariable> vars = new ArrayList<SerializedVariable>();
+		synchronized (dbLock) {
+			if (db == null)
+				return false;
+			try {
+				final boolean list = name.endsWith(Variable.SEPARATOR + "*");
+				final String prefix = list ? name.substring(0, name.length() - 1) : name;
+				final PreparedStatement q;
+				if (list) {
+					q = readListQuery;
+					assert q != null;
+					q.setString(1, prefix);
+					q.setString(2, prefix.substring(0, prefix.length() - 1) + (char) (prefix.charAt(prefix.length() - 1) + 1));
+				} else {
+					q = readQuery;
+					assert q != null;
+					q.setString(1, name);
+				}
+				final ResultSet r = q.executeQuery();
 				try {
 					while (r.next()) {
-						int i = 1;
-						final String name = r.getString(i++);
-						if (name == null) {
-							Skript.error("Variable with NULL name found, ignoring it");
+						final String n = r.getString(1);
+						final String type = r.getString(2);
+						final byte[] value = r.getBytes(3);
+						if (n == null || !n.startsWith(prefix) || type == null || value == null)
 							continue;
-						}
-						final String type = r.getString(i++);
-						final byte[] value = r.getBytes(i++); // Blob not supported by SQLite
-						lastRowID = r.getLong(i++);
-						if (value == null) {
-							Variables.variableLoaded(name, null, DatabaseStorage.this);
-						} else {
-							final ClassInfo<?> c = Classes.getClassInfoNoError(type);
-							@SuppressWarnings("unused")
-							Serializer<?> s;
-							if (c == null || (s = c.getSerializer()) == null) {
-								Skript.error("Cannot load the variable {" + name + "} from the database " + databaseName + ", because the type '" + type + "' cannot be recognised or cannot be stored in variables");
-								continue;
-							}
-//					if (s.mustSyncDeserialization()) {
-//						syncDeserializing.add(new VariableInfo(name, value, c));
-//					} else {
-							final Object d = Classes.deserialize(c, value);
-							if (d == null) {
-								Skript.error("Cannot load the variable {" + name + "} from the database " + databaseName + ", because it cannot be loaded as a " + type);
-								continue;
-							}
-							Variables.variableLoaded(name, d, DatabaseStorage.this);
-//					}
-						}
+						vars.add(new SerializedVariable(n, new SerializedVariable.Value(type, value)));
 					}
-				} catch (final SQLException e) {
-					return e;
+				} finally {
+					r.close();
 				}
-				return null;
+			} catch (final SQLException e) {
+				sqlException(e);
+				return false;
 			}
-		});
-		if (e != null)
-			throw e;
-		
-//			if (!syncDeserializing.isEmpty()) {
-//				Task.callSync(new Callable<Void>() {
-//					@Override
-//					@Nullable
-//					public Void call() throws Exception {
-//						synchronized (syncDeserializing) {
-//							for (final VariableInfo o : syncDeserializing) {
-//								final Object d = Classes.deserialize(o.ci, o.value);
-//								if (d == null) {
-//									Skript.error("Cannot load the variable {" + o.name + "} from the database " + databaseName + ", because it cannot be loaded as a " + o.ci.getName());
-//									continue;
-//								}
-//								Variables.variableLoaded(o.name, d, DatabaseStorage.this);
-//							}
-//							syncDeserializing.clear();
-//							return null;
-//						}
-//					}
-//				});
-//			}
-//		}
+		}
+		try {
+			for (final SerializedVariable v : vars) {
+				final SerializedVariable.Value value = v.value;
+				assert value != null;
+				load(loader, v.name, value.type, value.data);
+			}
+		} finally {
+			loader.finish();
+		}
+		return true;
 	}
 	
 //	private final static class OldVariableInfo {
@@ -21,19 +21,24 @@
 
 package ch.njol.skript.variables;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Map.Entry;
-import java.util.TreeMap;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -41,54 +46,307 @@ import java.util.regex.Pattern;
 import org.eclipse.jdt.annotation.Nullable;
 
 import ch.njol.skript.Skript;
+import ch.njol.skript.classes.ClassInfo;
 import ch.njol.skript.config.SectionNode;
-import ch.njol.skript.lang.Variable;
 import ch.njol.skript.log.SkriptLogger;
 import ch.njol.skript.registrations.Classes;
 import ch.njol.skript.util.ExceptionUtils;
 import ch.njol.skript.util.FileUtils;
 import ch.njol.skript.util.Task;
+import ch.njol.skript.util.Timespan;
 import ch.njol.skript.util.Utils;
 import ch.njol.skript.util.Version;
+import ch.njol.util.NonNullPair;
 
 /**
- * TODO use a database (SQLite) instead and only load a limited amount of variables into RAM - e.g. 2 GB (configurable). If more variables are available they will be loaded when
- * accessed. (rem: print a warning when Skript starts)
- * rem: store null variables to prevent looking up the same variables over and over again
+ * Stores variables in a CSV file and an append-only log of changes.
+ * <p>
+ * The log is split into numbered segments (files named like <tt>variables.csv.1.log</tt>), of which only the newest is written to. Every once in a while the log is compacted
+ * in the background: a new segment is started, the main file is rewritten from a snapshot of the variables, and all segments older than the new one are deleted. The number of
+ * the newest segment contained in the main file is written to its header, thus segments which were not deleted due to a crash are simply ignored.
+ * <p>
+ * Variables are loaded by reading the main file and then all newer segments in order.
  * 
  * @author Peter Güttinger
  */
 public class FlatFileStorage extends VariablesStorage {
 	
 	@Nullable
-	private volatile PrintWriter changesWriter;
+	private volatile VariablesWriter changesWriter;
+	/**
+	 * The file stream of the {@link #changesWriter}, used to sync the changes log to the disk. Only accessed while holding {@link #fileLock}.
+	 */
+	@Nullable
+	private FileOutputStream changesOut;
+	
+	/**
+	 * The segment of the changes log that is currently written to. Only changed while holding both {@link #compactionLock} and {@link #fileLock}.
+	 */
+	private volatile int segment = 1;
+	
+	/**
+	 * The newest segment whose changes are contained in the main file. Only changed while holding {@link #compactionLock}.
+	 */
+	private volatile int compactedSegment = 0;
+	
+	/**
+	 * Held while the file is compacted or backed up. Must be acquired before {@link #fileLock} if both are required.
+	 */
+	private final Object compactionLock = new Object();
+	
+	/**
+	 * The number of incremental backups made between two full backups, or 0 to only make full backups
+	 */
+	private int incrementalBackups = 0;
 	
-	private volatile boolean loaded = false;
+	/**
+	 * The newest segment contained in the last backup, or -1 if no backup has been made since the server started. If incremental backups are enabled, the segments newer than
+	 * this one are not deleted when the file is compacted, as they are required for the next backup. Only accessed while holding {@link #compactionLock}.
+	 */
+	private int backedUpSegment = -1;
+	
+	/**
+	 * The number of incremental backups made since the last full backup. Only accessed while holding {@link #compactionLock}.
+	 */
+	private int incrementalsSinceFull = 0;
 	
 	final AtomicInteger changes = new AtomicInteger(0);
 	private final int REQUIRED_CHANGES_FOR_RESAVE = 1000;
 	
+	/**
+	 * The maximum speed at which compactions and backups write to the disk, in bytes per second.
+	 */
+	private final static int MAX_IO_SPEED = 8 * 1024 * 1024;
+	
 	@Nullable
 	private Task saveTask;
 	
+	/**
+	 * The size of the buffer of the changes log, i.e. the maximum number of bytes written to the file at once
+	 */
+	private final static int CHANGES_BUFFER_SIZE = 64 * 1024;
+	
+	/**
+	 * The default maximum number of changes written to the changes log at once. Changes are flushed once per batch at most, thus larger batches mean fewer writes to the disk.
+	 */
+	private final static int DEFAULT_BATCH_SIZE = 1000;
+	
+	/**
+	 * The changes log is flushed and synced to the disk after this many changes have been written to it since it was last flushed, and after each batch of changes if this
+	 * is 1.
+	 */
+	private int flushChanges = 1;
+	
+	/**
+	 * If not 0, the changes log is also flushed by the {@link #flushTask} in this interval (in milliseconds) if it contains any changes that are not flushed yet.
+	 */
+	private long flushDelay = 0;
+	
+	/**
+	 * The number of changes written to the changes log since it was last flushed. Only accessed while holding {@link #fileLock}.
+	 */
+	private int unflushed = 0;
+	
+	@Nullable
+	private Task flushTask;
+	
+	private final static Pattern flushChangesPattern = Pattern.compile("(\\d+) changes?");
+	
 	private boolean loadError = false;
 	
+	/**
+	 * Set if the main file should be rewritten as soon as possible, e.g. because it was written by an old version of Skript.
+	 */
+	private volatile boolean compactionRequired = false;
+	
 	protected FlatFileStorage(final String name) {
 		super(name);
 	}
 	
+	/**
+	 * Counters and flags of loading the main file and the changes log.
+	 */
+	final static class LoadResult {
+		
+		/**
+		 * Deserialises the variables of all files in parallel
+		 */
+		final VariablesLoader loader;
+		
+		@Nullable
+		IOException ioEx = null;
+		int unsuccessful = 0;
+		final StringBuilder invalid = new StringBuilder();
+		boolean update2_1 = false;
+		int segment = 0;
+		
+		public LoadResult(final VariablesStorage storage) {
+			loader = new VariablesLoader(storage) {
+				@Override
+				void failed(final String name, final ClassInfo<?> type) {
+					invalid(name);
+				}
+			};
+		}
+		
+		/**
+		 * Registers a variable that could not be loaded
+		 */
+		final void invalid(final String name) {
+			if (invalid.length() != 0)
+				invalid.append(", ");
+			invalid.append(name);
+			unsuccessful++;
+		}
+	}
+	
 	/**
 	 * Doesn'ts lock the connection as required by {@link Variables#variableLoaded(String, Object, VariablesStorage)}.
 	 */
-	@SuppressWarnings({"deprecation"})
 	@Override
 	protected boolean load_i(final SectionNode n) {
 		SkriptLogger.setNode(null);
 		
-		IOException ioEx = null;
-		int unsuccessful = 0;
-		final StringBuilder invalid = new StringBuilder();
+		final File file = this.file;
+		if (file == null) {
+			assert false : this;
+			return false;
+		}
 		
+		if (!loadFlushMode(n))
+			return false;
+		if (n.getValue("incremental backups") != null) {
+			final Integer incremental = getValue(n, "incremental backups", Integer.class);
+			if (incremental == null)
+				return false;
+			incrementalBackups = Math.max(0, incremental);
+		}
+		batchSize = DEFAULT_BATCH_SIZE;
+		if (n.getValue("batch size") != null) {
+			final Integer batchSize = getValue(n, "batch size", Integer.class);
+			if (batchSize == null)
+				return false;
+			this.batchSize = Math.max(1, batchSize);
+		}
+		
+		final LoadResult result = new LoadResult(this);
+		final long start = System.nanoTime();
+		long bytes = file.length();
+		
+		loadFile(file, result);
+		compactedSegment = result.segment;
+		int last = compactedSegment;
+		for (final int s : getSegments(file)) {
+			final File f = getSegmentFile(file, s);
+			if (s <= compactedSegment) { // already contained in the main file, but wasn't deleted due to a crash
+				if (!f.delete())
+					Skript.warning("Could not delete the old changes log " + f.getName());
+				continue;
+			}
+			bytes += f.length();
+			loadFile(f, result);
+			last = s;
+		}
+		result.loader.finish();
+		segment = last + 1;
+		
+		final long time = Math.max(1, (System.nanoTime() - start) / 1000000);
+		Skript.info("Loaded " + result.loader.loaded + " variable" + (result.loader.loaded == 1 ? "" : "s") + " (" + bytes / 1024 + " KiB) from '" + databaseName + "' in " + time + " ms (" + bytes * 1000 / 1024 / time + " KiB/s)");
+		
+		synchronized (fileLock) { // only synchronised because of the assertion in connect()
+			connect();
+		}
+		
+		final IOException ioEx = result.ioEx;
+		if (ioEx != null)
+			loadError = true;
+		
+		if (ioEx != null || result.unsuccessful > 0 || result.update2_1) {
+			if (result.unsuccessful > 0) {
+				Skript.error(result.unsuccessful + " variable" + (result.unsuccessful == 1 ? "" : "s") + " could not be loaded!");
+				Skript.error("Affected variables: " + result.invalid.toString());
+			}
+			if (ioEx != null) {
+				Skript.error("An I/O error occurred while loading the variables: " + ExceptionUtils.toString(ioEx));
+				Skript.error("This means that some to all variables could not be loaded!");
+			}
+			try {
+				if (result.update2_1) {
+					Skript.info("[2.1] " + file.getName() + " will be updated to the new format shortly.");
+				}
+				final File bu = backup();
+				if (bu != null) {
+					Skript.info("Created a backup of " + file.getName() + " as " + bu.getName());
+					loadError = false;
+				}
+			} catch (final IOException ex) {
+				Skript.error("Could not backup " + file.getName() + ": " + ex.getMessage());
+			}
+		}
+		
+		// variables from older versions can only be saved in the new format once they are all loaded, thus this is done by the save task
+		if (result.update2_1)
+			compactionRequired = true;
+		
+		saveTask = new Task(Skript.getInstance(), compactionRequired ? 1 : 5 * 60 * 20, 5 * 60 * 20, true) {
+			@Override
+			public void run() {
+				if (compactionRequired || changes.get() >= REQUIRED_CHANGES_FOR_RESAVE)
+					compact();
+			}
+		};
+		
+		return ioEx == null;
+	}
+	
+	/**
+	 * Reads when the changes log is flushed from the config entry 'flush', which is either 'always' (the default), a number of changes like '100 changes', or a timespan like
+	 * '1 second'. Each flush also syncs the changes log to the disk. Changes are not lost if the server stops normally, but they can be lost if the server crashes before
+	 * they are flushed.
+	 * 
+	 * @return Whether the entry is valid
+	 */
+	private final boolean loadFlushMode(final SectionNode n) {
+		final String flush = n.getValue("flush");
+		if (flush == null || flush.equalsIgnoreCase("always"))
+			return true;
+		final Matcher m = flushChangesPattern.matcher(flush.trim().toLowerCase());
+		if (m.matches()) {
+			flushChanges = Math.max(1, Utils.parseInt("" + m.group(1)));
+			// changes should still be flushed eventually if no further changes are made
+			flushDelay = 1000;
+		} else {
+			final Timespan t = Timespan.parse(flush);
+			if (t == null) {
+				Skript.error("The entry for 'flush' in the database '" + databaseName + "' must be 'always', a number of changes (e.g. '100 changes'), or a timespan (e.g. '1 second')");
+				return false;
+			}
+			flushChanges = Integer.MAX_VALUE;
+			flushDelay = t.getMilliSeconds();
+		}
+		if (flushDelay > 0) {
+			final int ticks = (int) Math.max(1, flushDelay / 50);
+			flushTask = new Task(Skript.getInstance(), ticks, ticks, true) {
+				@Override
+				public void run() {
+					synchronized (fileLock) {
+						final VariablesWriter cw = changesWriter;
+						if (cw != null && unflushed > 0)
+							flush(cw);
+					}
+				}
+			};
+		}
+		return true;
+	}
+	
+	/**
+	 * Loads the variables of the main file or a segment of the changes log.
+	 * <p>
+	 * The variables must be passed to the result's {@link LoadResult#loader loader} in order.
+	 */
+	@SuppressWarnings("deprecation")
+	void loadFile(final File f, final LoadResult result) {
 		Version varVersion = Skript.getVersion(); // will be set later
 		
 		final Version v2_0_beta3 = new Version(2, 0, "beta 3");
@@ -98,7 +356,7 @@ public class FlatFileStorage extends VariablesStorage {
 		
 		BufferedReader r = null;
 		try {
-			r = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+			r = new BufferedReader(new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8));
 			String line = null;
 			int lineNum = 0;
 			while ((line = r.readLine()) != null) {
@@ -110,43 +368,46 @@ public class FlatFileStorage extends VariablesStorage {
 							varVersion = new Version("" + line.substring("# version:".length()).trim());
 							update2_0_beta3 = varVersion.isSmallerThan(v2_0_beta3);
 							update2_1 = varVersion.isSmallerThan(v2_1);
+							result.update2_1 |= update2_1;
 						} catch (final IllegalArgumentException e) {}
+					} else if (line.startsWith("# segment:")) {
+						try {
+							result.segment = Math.max(result.segment, Integer.parseInt(line.substring("# segment:".length()).trim()));
+						} catch (final NumberFormatException e) {}
 					}
 					continue;
 				}
 				final String[] split = splitCSV(line);
 				if (split == null || split.length != 3) {
-					Skript.error("invalid amount of commas in line " + lineNum + " ('" + line + "')");
-					if (invalid.length() != 0)
-						invalid.append(", ");
-					invalid.append(split == null ? "<unknown>" : split[0]);
-					unsuccessful++;
+					Skript.error("invalid amount of commas in line " + lineNum + " of " + f.getName() + " ('" + line + "')");
+					result.invalid(split == null ? "<unknown>" : "" + split[0]);
 					continue;
 				}
+				if (VariableExpiry.loaded("" + split[0], split[1].equals("null") ? null : split[1], split[1].equals(VariableExpiry.TYPE) ? decode("" + split[2]) : null))
+					continue;
 				if (split[1].equals("null")) {
-					Variables.variableLoaded("" + split[0], null, this);
-				} else {
-					Object d;
-					if (update2_1)
-						d = Classes.deserialize("" + split[1], "" + split[2]);
-					else
-						d = Classes.deserialize("" + split[1], decode("" + split[2]));
+					result.loader.load("" + split[0], null);
+				} else if (update2_1) { // the old format can only be parsed on the main thread
+					Object d = Classes.deserialize("" + split[1], "" + split[2]);
 					if (d == null) {
-						if (invalid.length() != 0)
-							invalid.append(", ");
-						invalid.append(split[0]);
-						unsuccessful++;
+						result.invalid("" + split[0]);
 						continue;
 					}
 					if (d instanceof String && update2_0_beta3) {
 						d = Utils.replaceChatStyles((String) d);
 					}
-					Variables.variableLoaded("" + split[0], d, this);
+					result.loader.load("" + split[0], d);
+				} else {
+					final ClassInfo<?> type = Classes.getClassInfoNoError(split[1]);
+					if (type == null) {
+						result.invalid("" + split[0]);
+						continue;
+					}
+					result.loader.load("" + split[0], type, "" + split[2]);
 				}
 			}
 		} catch (final IOException e) {
-			loadError = true;
-			ioEx = e;
+			result.ioEx = e;
 		} finally {
 			if (r != null) {
 				try {
@@ -154,59 +415,33 @@ public class FlatFileStorage extends VariablesStorage {
 				} catch (final IOException e) {}
 			}
 		}
-		
-		final File file = this.file;
-		if (file == null) {
-			assert false : this;
-			return false;
-		}
-		
-		if (ioEx != null || unsuccessful > 0 || update2_1) {
-			if (unsuccessful > 0) {
-				Skript.error(unsuccessful + " variable" + (unsuccessful == 1 ? "" : "s") + " could not be loaded!");
-				Skript.error("Affected variables: " + invalid.toString());
-			}
-			if (ioEx != null) {
-				Skript.error("An I/O error occurred while loading the variables: " + ExceptionUtils.toString(ioEx));
-				Skript.error("This means that some to all variables could not be loaded!");
-			}
-			try {
-				if (update2_1) {
-					Skript.info("[2.1] updating " + file.getName() + " to the new format...");
-				}
-				final File bu = FileUtils.backup(file);
-				Skript.info("Created a backup of " + file.getName() + " as " + bu.getName());
-				loadError = false;
-			} catch (final IOException ex) {
-				Skript.error("Could not backup " + file.getName() + ": " + ex.getMessage());
+	}
+	
+	/**
+	 * @return The numbers of all existing segments of the changes log of the given file, in ascending order
+	 */
+	final static int[] getSegments(final File file) {
+		final Pattern p = Pattern.compile(Pattern.quote(file.getName()) + "\\.(\\d+)\\.log");
+		final File[] files = file.getAbsoluteFile().getParentFile().listFiles();
+		if (files == null)
+			return new int[0];
+		int[] r = new int[files.length];
+		int n = 0;
+		for (final File f : files) {
+			final Matcher m = p.matcher(f.getName());
+			if (m.matches()) {
+				try {
+					r[n++] = Integer.parseInt(m.group(1));
+				} catch (final NumberFormatException e) {}
 			}
 		}
-		
-		if (update2_1) {
-			saveVariables(false);
-			Skript.info(file.getName() + " successfully updated.");
-		}
-		
-		synchronized (fileLock) { // only synchronised because of the assertion in connect()
-			connect();
-		}
-		
-		saveTask = new Task(Skript.getInstance(), 5 * 60 * 20, 5 * 60 * 20, true) {
-			@Override
-			public void run() {
-				if (changes.get() >= REQUIRED_CHANGES_FOR_RESAVE) {
-					try {
-						Variables.getReadLock().lock();
-						saveVariables(false);
-						changes.set(0);
-					} finally {
-						Variables.getReadLock().unlock();
-					}
-				}
-			}
-		};
-		
-		return ioEx == null;
+		r = Arrays.copyOf(r, n);
+		Arrays.sort(r);
+		return r;
+	}
+	
+	final static File getSegmentFile(final File file, final int segment) {
+		return new File(file.getAbsoluteFile().getParentFile(), file.getName() + "." + segment + ".log");
 	}
 	
 	@Override
@@ -262,23 +497,71 @@ public class FlatFileStorage extends VariablesStorage {
 	@Override
 	protected boolean save(final String name, final @Nullable String type, final @Nullable byte[] value) {
 		synchronized (fileLock) {
-			if (!loaded) {
-				assert type == null;
-				return true; // deleting variables is not really required for this kind of storage, as it will be completely rewritten every once in a while, and at least once when the server stops.
-			}
-			PrintWriter cw;
+			VariablesWriter cw;
 			while ((cw = changesWriter) == null) {
+				if (closed)
+					return false;
 				try {
 					fileLock.wait();
 				} catch (final InterruptedException e) {}
 			}
-			writeCSV(cw, name, type, value == null ? "" : encode(value));
-			cw.flush();
+			try {
+				cw.write(name, type, value);
+				cw.flush();
+				unflushed = 0;
+			} catch (final IOException e) {
+				Skript.error("Could not save the variable {" + name + "} to '" + databaseName + "': " + ExceptionUtils.toString(e));
+				return false;
+			}
 			changes.incrementAndGet();
 		}
 		return true;
 	}
 	
+	/**
+	 * Writes the changes to the changes log and flushes it as configured with the entry 'flush', i.e. a batch is written to the file with a single write if it fits into the
+	 * buffer.
+	 */
+	@Override
+	protected void saveBatch(final List<SerializedVariable> batch) {
+		synchronized (fileLock) {
+			VariablesWriter cw;
+			while ((cw = changesWriter) == null) {
+				if (closed)
+					return;
+				try {
+					fileLock.wait();
+				} catch (final InterruptedException e) {}
+			}
+			for (final SerializedVariable var : batch) {
+				final SerializedVariable.Value value = var.value;
+				try {
+					cw.write(var.name, value == null ? null : value.type, value == null ? null : value.data);
+				} catch (final IOException e) {
+					Skript.error("Could not save the variable {" + var.name + "} to '" + databaseName + "': " + ExceptionUtils.toString(e));
+					continue;
+				}
+				unflushed++;
+				changes.incrementAndGet();
+			}
+			if (unflushed >= flushChanges)
+				flush(cw);
+		}
+	}
+	
+	private final void flush(final VariablesWriter cw) {
+		assert Thread.holdsLock(fileLock);
+		try {
+			cw.flush();
+			final FileOutputStream out = changesOut;
+			if (out != null)
+				out.getFD().sync();
+		} catch (final IOException e) {
+			Skript.error("Could not save " + unflushed + " variables to '" + databaseName + "': " + ExceptionUtils.toString(e));
+		}
+		unflushed = 0;
+	}
+	
 	/**
 	 * Use with find()
 	 */
@@ -298,133 +581,395 @@ public class FlatFileStorage extends VariablesStorage {
 		pw.println();
 	}
 	
+	/**
+	 * Writes variables to a file in the format of this storage.
+	 */
+	static abstract class VariablesWriter {
+		
+		/**
+		 * Must be called before any variables are written to a new file.
+		 * 
+		 * @param segment The newest segment of the changes log that will be contained in the file, or 0 if the file is a segment of the changes log itself
+		 */
+		abstract void writeHeader(int segment) throws IOException;
+		
+		/**
+		 * @param type The variable's type, or null if the variable is deleted
+		 * @param value The variable's serialised value, or null if the variable is deleted
+		 */
+		abstract void write(String name, @Nullable String type, @Nullable byte[] value) throws IOException;
+		
+		abstract void flush() throws IOException;
+		
+		abstract void close() throws IOException;
+		
+	}
+	
+	/**
+	 * @param out A stream to the file, which may be buffered
+	 * @return A new writer for the format of this storage
+	 */
+	VariablesWriter newWriter(final OutputStream out) {
+		return new CSVWriter(out);
+	}
+	
+	private final static class CSVWriter extends VariablesWriter {
+		
+		private final PrintWriter pw;
+		
+		public CSVWriter(final OutputStream out) {
+			pw = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		}
+		
+		@Override
+		void writeHeader(final int segment) {
+			pw.println("# === Skript's variable storage ===");
+			pw.println("# Please do not modify this file manually!");
+			pw.println("#");
+			pw.println("# version: " + Skript.getInstance().getDescription().getVersion());
+			if (segment != 0)
+				pw.println("# segment: " + segment);
+			pw.println();
+		}
+		
+		@Override
+		void write(final String name, final @Nullable String type, final @Nullable byte[] value) {
+			writeCSV(pw, name, type, value == null ? "" : encode(value));
+		}
+		
+		@Override
+		void flush() throws IOException {
+			pw.flush();
+			if (pw.checkError()) // PrintWriter doesn't throw exceptions
+				throw new IOException("Could not write to the file");
+		}
+		
+		@Override
+		void close() throws IOException {
+			flush();
+			pw.close();
+		}
+		
+	}
+	
 	@Override
 	protected final void disconnect() {
 		synchronized (fileLock) {
-			clearChangesQueue();
-			final PrintWriter cw = changesWriter;
+			final VariablesWriter cw = changesWriter;
 			if (cw != null) {
-				cw.close();
 				changesWriter = null;
+				changesOut = null;
+				unflushed = 0;
+				try {
+					cw.close();
+				} catch (final IOException e) {
+					Skript.error("Could not close the changes log of '" + databaseName + "': " + ExceptionUtils.toString(e));
+				}
 			}
 		}
 	}
 	
+	/**
+	 * Opens the current segment of the changes log.
+	 */
 	@Override
 	protected final boolean connect() {
 		synchronized (fileLock) {
 			if (changesWriter != null)
 				return true;
+			final File file = this.file;
+			if (file == null) {
+				assert false : this;
+				return false;
+			}
 			try {
-				changesWriter = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
-				loaded = true;
+				final File f = getSegmentFile(file, segment);
+				final boolean isNew = !f.exists() || f.length() == 0;
+				final FileOutputStream out = new FileOutputStream(f, true);
+				final VariablesWriter cw = newWriter(new BufferedOutputStream(out, CHANGES_BUFFER_SIZE));
+				if (isNew) {
+					cw.writeHeader(0);
+					cw.flush();
+				}
+				changesWriter = cw;
+				changesOut = out;
 				return true;
-			} catch (final FileNotFoundException e) {
+			} catch (final IOException e) {
 				Skript.exception(e);
 				return false;
 			}
 		}
 	}
 	
+	/**
+	 * Closes the current segment of the changes log and starts a new one.
+	 * 
+	 * @return The number of the closed segment, or -1 if this storage is closed
+	 */
+	private final int rotate() {
+		assert Thread.holdsLock(compactionLock);
+		synchronized (fileLock) {
+			if (closed)
+				return -1;
+			final int sealed = segment;
+			disconnect();
+			segment = sealed + 1;
+			connect();
+			fileLock.notifyAll();
+			return sealed;
+		}
+	}
+	
+	/**
+	 * Writes all changes that are still queued and closes the changes log. The main file is not rewritten, as all changes are already saved in the log.
+	 */
 	@Override
 	public void close() {
-		clearChangesQueue();
+		final Task st = saveTask;
+		if (st != null)
+			st.cancel();
+		final Task bt = backupTask;
+		if (bt != null)
+			bt.cancel();
+		final Task ft = flushTask;
+		if (ft != null)
+			ft.cancel();
 		super.close();
-		saveVariables(true); // also closes the writer
+		synchronized (fileLock) {
+			disconnect();
+			fileLock.notifyAll();
+		}
 	}
 	
 	/**
-	 * Completely rewrites the while file
-	 * 
-	 * @param finalSave whether this is the last save in this session or not.
+	 * Rewrites the main file from a snapshot of the variables and deletes all segments of the changes log which are contained in it.
+	 * <p>
+	 * Changes continue to be written to a new segment while this method is running, and the variables are only locked one part at a time while they are copied, i.e. this
+	 * method neither blocks saving nor using variables. Writing the file is throttled to {@link #MAX_IO_SPEED}.
 	 */
-	public final void saveVariables(final boolean finalSave) {
-		if (finalSave) {
-			final Task st = saveTask;
-			if (st != null)
-				st.cancel();
-			final Task bt = backupTask;
-			if (bt != null)
-				bt.cancel();
-		}
-		synchronized (fileLock) {
-			try {
-				final File f = file;
-				if (f == null) {
-					assert false : this;
-					return;
-				}
-				Variables.getReadLock().lock();
-				disconnect();
-				if (loadError) {
-					try {
-						final File backup = FileUtils.backup(f);
-						Skript.info("Created a backup of your old variables.csv as " + backup.getName());
-						loadError = false;
-					} catch (final IOException e) {
-						Skript.error("Could not backup the old variables.csv: " + e.getLocalizedMessage());
-						Skript.error("No variables are saved!");
-						return;
-					}
-				}
-				final File tempFile = new File(Skript.getInstance().getDataFolder(), "variables.csv.temp");
-				PrintWriter pw = null;
+	public final void compact() {
+		synchronized (compactionLock) {
+			final File f = file;
+			if (f == null) {
+				assert false : this;
+				return;
+			}
+			if (loadError) {
 				try {
-					pw = new PrintWriter(tempFile, "UTF-8");
-					pw.println("# === Skript's variable storage ===");
-					pw.println("# Please do not modify this file manually!");
-					pw.println("#");
-					pw.println("# version: " + Skript.getInstance().getDescription().getVersion());
-					pw.println();
-					save(pw, "", Variables.getVariables());
-					pw.println();
-					pw.flush();
-					pw.close();
-					FileUtils.move(tempFile, f, true);
+					final File backup = backup();
+					if (backup != null)
+						Skript.info("Created a backup of your old " + f.getName() + " as " + backup.getName());
+					loadError = false;
 				} catch (final IOException e) {
-					Skript.error("Unable to make a final save of '" + databaseName + "' (no variables are lost): " + ExceptionUtils.toString(e)); // FIXME happens at random - check locks/threads
-				} finally {
-					if (pw != null)
-						pw.close();
+					Skript.error("Could not backup the old " + f.getName() + ": " + e.getLocalizedMessage());
+					Skript.error("No variables are saved!");
+					return;
 				}
+			}
+			
+			// all changes made after this point are written to the new segment, while the snapshot taken below contains at least all changes of the old segment
+			final int sealed = rotate();
+			if (sealed == -1)
+				return;
+			changes.set(0);
+			compactionRequired = false;
+			
+			final File tempFile = new File(f.getAbsoluteFile().getParentFile(), f.getName() + ".temp");
+			VariablesWriter w = null;
+			try {
+				final FileOutputStream out = new FileOutputStream(tempFile);
+				w = newWriter(new ThrottledOutputStream(out, MAX_IO_SPEED));
+				w.writeHeader(sealed);
+				for (int i = 0; i < Variables.getVariablesStripes(); i++)
+					save(w, Variables.getVariables(i));
+				for (final SerializedVariable expiry : VariableExpiry.getSaved(this)) {
+					final SerializedVariable.Value value = expiry.value;
+					assert value != null;
+					w.write(expiry.name, value.type, value.data);
+				}
+				// the new file must be on the disk before it replaces the old one and the segments are deleted, as the rename might be persisted before the data otherwise
+				w.flush();
+				out.getFD().sync();
+				final VariablesWriter cw = w;
+				w = null;
+				cw.close();
+				FileUtils.move(tempFile, f, true);
+				FileUtils.syncDirectory(f.getAbsoluteFile().getParentFile());
+				compactedSegment = sealed;
+			} catch (final IOException e) {
+				Skript.error("Unable to compact '" + databaseName + "' (no variables are lost): " + ExceptionUtils.toString(e));
+				return;
 			} finally {
-				Variables.getReadLock().unlock();
-				if (!finalSave) {
-					connect();
-					fileLock.notifyAll();
+				if (w != null) {
+					try {
+						w.close();
+					} catch (final IOException e) {}
 				}
 			}
+			
+			deleteSegments(f);
+		}
+	}
+	
+	/**
+	 * Deletes the segments of the changes log which are contained in the main file and are not required for the next incremental backup.
+	 */
+	private final void deleteSegments(final File f) {
+		assert Thread.holdsLock(compactionLock);
+		final int last = incrementalBackups == 0 || backedUpSegment == -1 ? compactedSegment : Math.min(compactedSegment, backedUpSegment);
+		for (final int s : getSegments(f)) {
+			if (s <= last)
+				getSegmentFile(f, s).delete();
 		}
 	}
 	
 	/**
 	 * Saves the variables.
 	 * <p>
-	 * This method uses the sorted variables map to save the variables in order.
+	 * The variables are copied from the variables map in order, thus they are saved in order as well. Values that {@link Variables#mustSerializeSync(Object) must be
+	 * serialised on Bukkit's main thread} are serialised there all at once, all others on the calling thread.
 	 * 
-	 * @param pw
-	 * @param parent The parent's name with {@link Variable#SEPARATOR} at the end
-	 * @param map
+	 * @param w
+	 * @param vars A copy of a part of the variables map as returned by {@link Variables#getVariables(int)}
+	 * @throws IOException If the values could not be serialised on the main thread because the server is stopping, or if writing failed
 	 */
-	@SuppressWarnings("unchecked")
-	private final void save(final PrintWriter pw, final String parent, final TreeMap<String, Object> map) {
-		outer: for (final Entry<String, Object> e : map.entrySet()) {
-			final Object val = e.getValue();
-			if (val == null)
+	private final void save(final VariablesWriter w, final List<NonNullPair<String, Object>> vars) throws IOException {
+		final List<NonNullPair<String, Object>> own = new ArrayList<NonNullPair<String, Object>>(vars.size());
+		final List<Object> sync = new ArrayList<Object>();
+		for (final NonNullPair<String, Object> v : vars) {
+			if (Variables.getStorage(v.first) != this)
 				continue;
-			if (val instanceof TreeMap) {
-				save(pw, parent + e.getKey() + Variable.SEPARATOR, (TreeMap<String, Object>) val);
-			} else {
-				final String name = (e.getKey() == null ? parent.substring(0, parent.length() - Variable.SEPARATOR.length()) : parent + e.getKey());
-				for (final VariablesStorage s : Variables.storages) {
-					if (s != this && s.accept(name))
-						continue outer;
+			own.add(v);
+			if (Variables.mustSerializeSync(v.second))
+				sync.add(v.second);
+		}
+		List<SerializedVariable.Value> serialized = null;
+		if (!sync.isEmpty()) {
+			serialized = Task.callSync(new Callable<List<SerializedVariable.Value>>() {
+				@Override
+				public List<SerializedVariable.Value> call() throws Exception {
+					final List<SerializedVariable.Value> r = new ArrayList<SerializedVariable.Value>(sync.size());
+					for (final Object o : sync)
+						r.add(Classes.serialize(o));
+					return r;
+				}
+			});
+			if (serialized == null)
+				throw new IOException("Could not serialise variables on the main thread as the server is stopping");
+		}
+		int i = 0;
+		for (final NonNullPair<String, Object> v : own) {
+			final SerializedVariable.Value value = serialized != null && i < sync.size() && sync.get(i) == v.second ? serialized.get(i++) : Classes.serialize(v.second);
+			if (value != null)
+				w.write(v.first, value.type, value.data);
+		}
+	}
+	
+	/**
+	 * Concatenates the main file and the current changes log into a single backup file. Changes continue to be saved while the backup is created.
+	 * <p>
+	 * If incremental backups are enabled, most backups only contain the segments of the changes log that were written since the previous backup. Such a backup can be restored
+	 * by appending it and all incremental backups between it and the last full backup to that full backup, in order.
+	 */
+	@Override
+	@Nullable
+	protected File backup() throws IOException {
+		synchronized (compactionLock) {
+			final File f = file;
+			if (f == null)
+				return null;
+			final int sealed = rotate();
+			if (sealed == -1)
+				return null;
+			final boolean incremental = backedUpSegment != -1 && incrementalsSinceFull < incrementalBackups;
+			File backup = FileUtils.getBackupFile(f);
+			if (incremental) {
+				final String name = backup.getName();
+				final int c = name.lastIndexOf('.');
+				backup = new File(backup.getParentFile(), c == -1 ? name + INCREMENTAL_BACKUP_SUFFIX : name.substring(0, c) + INCREMENTAL_BACKUP_SUFFIX + name.substring(c));
+			}
+			OutputStream out = null;
+			try {
+				out = new ThrottledOutputStream(new FileOutputStream(backup), MAX_IO_SPEED);
+				// the segments are part of the backup, thus they must be ignored if the backup is used as the main file
+				final VariablesWriter w = newWriter(out);
+				w.writeHeader(sealed);
+				w.flush();
+				if (!incremental)
+					append(f, out);
+				for (final int s : getSegments(f)) {
+					if (s > (incremental ? backedUpSegment : compactedSegment) && s <= sealed)
+						append(getSegmentFile(f, s), out);
+				}
+			} catch (final IOException e) {
+				if (out != null)
+					out.close();
+				out = null;
+				backup.delete();
+				throw e;
+			} finally {
+				if (out != null)
+					out.close();
+			}
+			backedUpSegment = sealed;
+			incrementalsSinceFull = incremental ? incrementalsSinceFull + 1 : 0;
+			deleteSegments(f);
+			return backup;
+		}
+	}
+	
+	final static void append(final File f, final OutputStream out) throws IOException {
+		final InputStream in = new FileInputStream(f);
+		try {
+			final byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1)
+				out.write(buffer, 0, n);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Limits the speed at which data is written to the underlying stream, so that compacting or backing up a large file doesn't slow down the server's other disk I/O.
+	 */
+	final static class ThrottledOutputStream extends FilterOutputStream {
+		
+		private final int bytesPerSecond;
+		private final long start = System.nanoTime();
+		private long written = 0;
+		
+		public ThrottledOutputStream(final OutputStream out, final int bytesPerSecond) {
+			super(out);
+			this.bytesPerSecond = bytesPerSecond;
+		}
+		
+		@Override
+		public void write(final int b) throws IOException {
+			out.write(b);
+			written++;
+			if ((written & 0xFFF) == 0)
+				throttle();
+		}
+		
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			out.write(b, off, len);
+			written += len;
+			throttle();
+		}
+		
+		private final void throttle() throws IOException {
+			final long ahead = written * 1000 / bytesPerSecond - (System.nanoTime() - start) / 1000000;
+			if (ahead > 0) {
+				try {
+					Thread.sleep(ahead);
+				} catch (final InterruptedException e) {
+					throw new InterruptedIOException();
 				}
-				final SerializedVariable.Value value = Classes.serialize(val);
-				if (value != null)
-					writeCSV(pw, name, value.type, encode(value.data));
 			}
 		}
+		
 	}
 	
 }
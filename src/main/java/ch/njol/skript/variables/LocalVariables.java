@@ -0,0 +1,269 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.skript.lang.TriggerItem;
+import ch.njol.skript.lang.Variable;
+import ch.njol.util.NonNullPair;
+
+/**
+ * The local variables of a single execution of a trigger. A new frame is created every time a trigger is started, and the frame is kept if the trigger is continued after a
+ * delay.
+ * <p>
+ * Local variables with constant names that are no lists (e.g. <tt>{_x}</tt>, but not <tt>{_%player%}</tt> or <tt>{_x::1}</tt>) are assigned a {@link Slots slot} when the
+ * trigger is parsed and are stored in an array. All other local variables are stored in a {@link VariablesMap} that is only created when it is required.
+ * <p>
+ * A frame is only used by one thread at a time, which is why it doesn't need any locking. The frame of the trigger that is currently executed by a thread can be retrieved with
+ * {@link #current()}.
+ * 
+ * @author Peter Güttinger
+ */
+public final class LocalVariables {
+	
+	/**
+	 * The slots of the local variables of a trigger. Slots are only added while the trigger is parsed.
+	 */
+	public final static class Slots {
+		
+		private final HashMap<String, Integer> slots = new HashMap<String, Integer>();
+		
+		/**
+		 * Gets or adds the slot of the given local variable. Must only be called while the trigger is parsed.
+		 * 
+		 * @param name The variable's lowercase name without the local variable token. Must not contain {@link Variable#SEPARATOR}.
+		 * @return The variable's slot
+		 */
+		public int slot(final String name) {
+			assert !name.contains(Variable.SEPARATOR) : name;
+			final Integer s = slots.get(name);
+			if (s != null)
+				return s;
+			final int n = slots.size();
+			slots.put(name, n);
+			return n;
+		}
+		
+		/**
+		 * @return The slot of the given variable, or -1 if the variable doesn't have a slot
+		 */
+		final int find(final String name) {
+			final Integer s = slots.get(name);
+			return s == null ? -1 : s;
+		}
+		
+		public int size() {
+			return slots.size();
+		}
+		
+	}
+	
+	private final static ThreadLocal<LocalVariables> current = new ThreadLocal<LocalVariables>();
+	
+	/**
+	 * @return The frame of the trigger that is currently executed by this thread, or null if this thread is not executing a trigger
+	 * @see TriggerItem#walk(TriggerItem, org.bukkit.event.Event)
+	 */
+	@Nullable
+	public final static LocalVariables current() {
+		return current.get();
+	}
+	
+	/**
+	 * Sets the frame of the trigger that is executed by this thread from now on.
+	 * 
+	 * @param frame The new frame, or null if this thread is not executing a trigger anymore
+	 * @return The previous frame, which must be restored with this method after the trigger has finished
+	 */
+	@Nullable
+	public final static LocalVariables enter(final @Nullable LocalVariables frame) {
+		final LocalVariables previous = current.get();
+		if (frame == null)
+			current.remove();
+		else
+			current.set(frame);
+		return previous;
+	}
+	
+	@Nullable
+	private final Slots slots;
+	
+	@Nullable
+	private Object[] values = null;
+	
+	/**
+	 * Variables that don't have a slot
+	 */
+	@Nullable
+	private VariablesMap map = null;
+	
+	/**
+	 * @param slots The slots of the trigger this frame is created for, or null if the trigger's variables don't have slots
+	 */
+	public LocalVariables(final @Nullable Slots slots) {
+		this.slots = slots;
+	}
+	
+	/**
+	 * Gets a local variable with a slot.
+	 * 
+	 * @param slots The slots the given slot belongs to. If this is not the frame's slots the variable is looked up by its name.
+	 * @param slot The variable's slot
+	 * @param name The variable's name, without the local variable token
+	 * @return The variable's value or null if it is not set
+	 */
+	@Nullable
+	final Object get(final Slots slots, final int slot, final String name) {
+		if (slots != this.slots)
+			return get(name);
+		final Object[] values = this.values;
+		return values == null || slot >= values.length ? null : values[slot];
+	}
+	
+	/**
+	 * @param name The variable's name, without the local variable token
+	 * @return an Object for a normal Variable or a Map<String, Object> for a list variable, or null if the variable is not set.
+	 * @see VariablesMap#getVariable(String)
+	 */
+	@Nullable
+	final Object get(final String name) {
+		final int slot = find(name);
+		if (slot != -1) {
+			final Object[] values = this.values;
+			return values == null || slot >= values.length ? null : values[slot];
+		}
+		final VariablesMap map = this.map;
+		return map == null ? null : map.getVariable(name);
+	}
+	
+	/**
+	 * @param split The name of the variable split at {@link Variable#SEPARATOR}
+	 * @see VariablesMap#getVariable(String[])
+	 */
+	@Nullable
+	final Object get(final String[] split) {
+		final int slot = split.length == 1 ? find(split[0]) : -1;
+		if (slot != -1) {
+			final Object[] values = this.values;
+			return values == null || slot >= values.length ? null : values[slot];
+		}
+		final VariablesMap map = this.map;
+		return map == null ? null : map.getVariable(split);
+	}
+	
+	/**
+	 * Sets a local variable with a slot.
+	 * 
+	 * @see #get(Slots, int, String)
+	 */
+	final void set(final Slots slots, final int slot, final String name, final @Nullable Object value) {
+		if (slots != this.slots)
+			set(name, value);
+		else
+			setSlot(slot, value);
+	}
+	
+	/**
+	 * @see VariablesMap#setVariable(String, Object)
+	 */
+	final void set(final String name, final @Nullable Object value) {
+		final int slot = find(name);
+		if (slot != -1) {
+			setSlot(slot, value);
+			return;
+		}
+		VariablesMap map = this.map;
+		if (map == null) {
+			if (value == null)
+				return;
+			this.map = map = new VariablesMap();
+		}
+		map.setVariable(name, value);
+	}
+	
+	/**
+	 * @param split The name of the variable split at {@link Variable#SEPARATOR}
+	 * @see VariablesMap#setVariable(String[], Object)
+	 */
+	final void set(final String[] split, final @Nullable Object value) {
+		final int slot = split.length == 1 ? find(split[0]) : -1;
+		if (slot != -1) {
+			setSlot(slot, value);
+			return;
+		}
+		VariablesMap map = this.map;
+		if (map == null) {
+			if (value == null)
+				return;
+			this.map = map = new VariablesMap();
+		}
+		map.setVariable(split, value);
+	}
+	
+	/**
+	 * Adds all variables of this frame to the given list, e.g. to save the frame. The variables with slots are added first in no particular order, followed by the other
+	 * variables ordered like the variables tree.
+	 * 
+	 * @param list The list to add the variables' names without the local variable token and their values to
+	 */
+	final void getAll(final List<NonNullPair<String, Object>> list) {
+		final Slots slots = this.slots;
+		final Object[] values = this.values;
+		if (slots != null && values != null) {
+			for (final Entry<String, Integer> s : slots.slots.entrySet()) {
+				final int slot = s.getValue();
+				if (slot < values.length && values[slot] != null)
+					list.add(new NonNullPair<String, Object>(s.getKey(), values[slot]));
+			}
+		}
+		final VariablesMap map = this.map;
+		if (map != null)
+			map.getAll(list);
+	}
+	
+	private final int find(final String name) {
+		final Slots slots = this.slots;
+		if (slots == null || name.contains(Variable.SEPARATOR))
+			return -1;
+		return slots.find(name);
+	}
+	
+	private final void setSlot(final int slot, final @Nullable Object value) {
+		Object[] values = this.values;
+		if (values == null || slot >= values.length) {
+			if (value == null)
+				return;
+			final Slots slots = this.slots;
+			final Object[] newValues = new Object[Math.max(slot + 1, slots == null ? 0 : slots.size())];
+			if (values != null)
+				System.arraycopy(values, 0, newValues, 0, values.length);
+			this.values = values = newValues;
+		}
+		values[slot] = value;
+	}
+	
+}
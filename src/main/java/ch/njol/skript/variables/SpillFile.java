@@ -0,0 +1,321 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.skript.Skript;
+import ch.njol.skript.classes.ClassInfo;
+import ch.njol.skript.registrations.Classes;
+import ch.njol.skript.util.FileUtils;
+import ch.njol.skript.variables.SerializedVariable.Value;
+
+/**
+ * An append-only file that holds the changes that don't fit into a {@link ChangesQueue} anymore, in the order they were made.
+ * <p>
+ * Changes are read back in the same order once the storage has caught up, and the file is deleted as soon as all changes have been read. If the server stops before that, the
+ * remaining changes are {@link #recover(File, VariablesStorage) written to the storage} when it is loaded the next time.
+ * <p>
+ * Written changes are synced to the disk at least every {@link #SYNC_INTERVAL} milliseconds while changes are spilled, and whenever the write thread takes changes from the
+ * queue, thus a crash only loses the changes spilled since the last sync.
+ * <p>
+ * If the file cannot be written, the remaining changes are kept in memory, as changes must never be written out of order.
+ * <p>
+ * Not thread safe, the {@link ChangesQueue} synchronises all accesses.
+ * 
+ * @author Peter Güttinger
+ */
+final class SpillFile {
+	
+	/**
+	 * The maximum time written changes are not synced to the disk while changes are spilled, in milliseconds
+	 */
+	private final static long SYNC_INTERVAL = 1000;
+	
+	private final File file;
+	
+	@Nullable
+	private FileOutputStream fileOut = null;
+	@Nullable
+	private DataOutputStream out = null;
+	@Nullable
+	private DataInputStream in = null;
+	
+	/**
+	 * Changes that could not be written to the file. They are read after all changes in the file.
+	 */
+	private final ArrayDeque<SerializedVariable> failed = new ArrayDeque<SerializedVariable>();
+	
+	/**
+	 * The number of changes in the file that have not been read yet
+	 */
+	private int size = 0;
+	
+	private long spilled = 0;
+	
+	/**
+	 * Whether changes have been written since the last {@link #sync()}
+	 */
+	private boolean unsynced = false;
+	private long lastSync = 0;
+	private boolean syncFailed = false;
+	
+	/**
+	 * How old the last change was when it was read back, in milliseconds
+	 */
+	private long lag = 0;
+	
+	SpillFile(final File file) {
+		this.file = file;
+	}
+	
+	/**
+	 * Appends a change. The change's value must be serialised.
+	 */
+	final void write(final SerializedVariable var) {
+		spilled++;
+		if (!failed.isEmpty()) {
+			failed.add(var);
+			return;
+		}
+		try {
+			DataOutputStream out = this.out;
+			if (out == null) {
+				file.getParentFile().mkdirs();
+				final FileOutputStream fileOut = new FileOutputStream(file, true);
+				this.fileOut = fileOut;
+				this.out = out = new DataOutputStream(new BufferedOutputStream(fileOut));
+			}
+			final long now = System.currentTimeMillis();
+			write(out, var, now);
+			size++;
+			unsynced = true;
+			if (now - lastSync >= SYNC_INTERVAL)
+				sync();
+		} catch (final IOException e) {
+			Skript.exception(e, "Cannot write variables to the file " + file.getName() + ", thus the changes that don't fit into memory are kept in memory from now on");
+			failed.add(var);
+		}
+	}
+	
+	/**
+	 * Writes all changes written so far to the disk.
+	 */
+	final void sync() {
+		final FileOutputStream fileOut = this.fileOut;
+		final DataOutputStream out = this.out;
+		if (!unsynced || fileOut == null || out == null)
+			return;
+		try {
+			out.flush();
+			fileOut.getFD().sync();
+		} catch (final IOException e) {
+			// the changes are still read back from the file, they are only not safe from a crash
+			if (!syncFailed)
+				Skript.exception(e, "Cannot sync the file " + file.getName() + " to the disk, thus spilled changes of variables might be lost if the server crashes");
+			syncFailed = true;
+		}
+		unsynced = false;
+		lastSync = System.currentTimeMillis();
+	}
+	
+	private final static void write(final DataOutputStream out, final SerializedVariable var, final long time) throws IOException {
+		out.writeLong(time);
+		out.writeUTF(var.name);
+		final Value v = var.value;
+		out.writeBoolean(v != null);
+		if (v != null) {
+			out.writeUTF(v.type);
+			out.writeInt(v.data.length);
+			out.write(v.data);
+		}
+	}
+	
+	/**
+	 * Reads the oldest change that was not read yet, and deletes the file if it was the last one.
+	 * 
+	 * @return The change, or null if there are no more changes
+	 */
+	@Nullable
+	final SerializedVariable read() {
+		if (size == 0) {
+			final SerializedVariable var = failed.poll();
+			if (var == null)
+				close();
+			return var;
+		}
+		try {
+			DataInputStream in = this.in;
+			if (in == null)
+				this.in = in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			final DataOutputStream out = this.out;
+			if (out != null)
+				out.flush();
+			final long time = in.readLong();
+			final SerializedVariable var = read(in);
+			size--;
+			lag = System.currentTimeMillis() - time;
+			if (size == 0 && failed.isEmpty())
+				close();
+			return var;
+		} catch (final IOException e) {
+			Skript.exception(e, "Cannot read variables from the file " + file.getName() + ", " + size + " changes have been lost");
+			size = 0;
+			return read();
+		}
+	}
+	
+	private final static SerializedVariable read(final DataInputStream in) throws IOException {
+		final String name = in.readUTF();
+		if (!in.readBoolean())
+			return new SerializedVariable(name, null);
+		final String type = in.readUTF();
+		final byte[] data = new byte[in.readInt()];
+		in.readFully(data);
+		return new SerializedVariable(name, new Value(type, data));
+	}
+	
+	/**
+	 * Closes and deletes the file.
+	 */
+	private final void close() {
+		try {
+			final DataOutputStream out = this.out;
+			if (out != null)
+				out.close();
+			final DataInputStream in = this.in;
+			if (in != null)
+				in.close();
+		} catch (final IOException e) {}
+		fileOut = null;
+		out = null;
+		in = null;
+		unsynced = false;
+		size = 0;
+		file.delete();
+	}
+	
+	/**
+	 * Discards all changes.
+	 */
+	final void clear() {
+		failed.clear();
+		close();
+	}
+	
+	/**
+	 * @return The number of changes that have not been read yet
+	 */
+	final int size() {
+		return size + failed.size();
+	}
+	
+	/**
+	 * @return The number of changes written to this file since the server started
+	 */
+	final long getSpilled() {
+		return spilled;
+	}
+	
+	/**
+	 * @return How old the last change was when it was read, in milliseconds, or 0 if all changes have been read
+	 */
+	final long getLag() {
+		return size() == 0 ? 0 : lag;
+	}
+	
+	/**
+	 * Applies the changes left in the given file by the last run of the server to the given storage and the loaded variables, and deletes the file. Must be called after the
+	 * storage has loaded its variables, but before its write thread is started.
+	 * <p>
+	 * An incomplete last change, which is left if the server crashed while it was written, is discarded. If the file cannot be read otherwise, it is moved to the backups
+	 * folder instead of being deleted, as the changes after the unreadable one cannot be recovered automatically.
+	 */
+	final static void recover(final File file, final VariablesStorage storage) {
+		if (!file.exists())
+			return;
+		// variables of storages with a cache are not in memory yet
+		final VariablesLoader loader = storage.cache == null ? new VariablesLoader(storage) : null;
+		int n = 0;
+		try {
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				while (true) {
+					try {
+						in.readLong();
+					} catch (final EOFException e) {
+						break;
+					}
+					final SerializedVariable var;
+					try {
+						var = read(in);
+					} catch (final EOFException e) {
+						Skript.warning("The last change of variables in the file " + file.getName() + " is incomplete, probably because the server crashed while it was written. This change has been discarded.");
+						break;
+					}
+					final Value v = var.value;
+					storage.save(var.name, v == null ? null : v.type, v == null ? null : v.data);
+					n++;
+					if (VariableExpiry.loaded(var.name, v == null ? null : v.type, v == null ? null : v.data) || loader == null)
+						continue;
+					if (v == null) {
+						loader.load(var.name, null);
+						continue;
+					}
+					final ClassInfo<?> c = Classes.getClassInfoNoError(v.type);
+					if (c == null || c.getSerializer() == null)
+						Skript.error("Cannot load the variable {" + var.name + "} from the file " + file.getName() + ", because the type '" + v.type + "' cannot be recognised or cannot be stored in variables");
+					else
+						loader.load(var.name, c, v.data);
+				}
+			} finally {
+				in.close();
+				if (loader != null)
+					loader.finish();
+			}
+		} catch (final IOException e) {
+			Skript.exception(e, "Cannot read the unsaved changes of variables from the file " + file.getName() + " after " + n + " changes");
+			try {
+				final File backup = FileUtils.move(file, FileUtils.getBackupFile(file), false);
+				Skript.error("The file " + file.getName() + " has been moved to " + backup.getPath() + ". The changes after the first " + n + " ones have not been saved.");
+			} catch (final IOException ex) {
+				Skript.exception(ex, "Cannot move the file " + file.getName() + " to the backups folder. Please move it manually, otherwise its changes will overwrite newer ones when the server is started again.");
+			}
+			return;
+		}
+		Skript.info("Saved " + n + " changes of variables to the database '" + storage.databaseName + "' that couldn't be saved before the server stopped");
+		if (!file.delete())
+			Skript.error("Cannot delete the file " + file.getName() + ". Please delete it manually, otherwise old changes will overwrite newer ones when the server is started again.");
+	}
+	
+}
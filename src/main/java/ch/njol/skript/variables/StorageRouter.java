@@ -0,0 +1,283 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Finds the storage a variable is saved in, i.e. the first storage whose pattern matches the variable's name.
+ * <p>
+ * Most patterns start with a literal prefix, e.g. <tt>db_.*</tt>, thus the prefixes of all patterns are put into a trie, and only the patterns whose prefix is a prefix of a
+ * name are considered for that name. Patterns that consist of only a prefix followed by <tt>.*</tt> don't have to be matched at all, while all other patterns are still
+ * matched as regular expressions (with an empty prefix if a pattern doesn't start with a literal). Additionally the results are cached per name.
+ * <p>
+ * This class is thread safe.
+ * 
+ * @author Peter Güttinger
+ */
+final class StorageRouter {
+	
+	/**
+	 * The cache is cleared if it grows larger than this
+	 */
+	private final static int MAX_CACHED = 10000;
+	
+	private final static class Route {
+		final int storage;
+		
+		/**
+		 * The pattern if it has to be matched, or null if it matches every name starting with {@link #prefix}
+		 */
+		@Nullable
+		final Pattern pattern;
+		
+		final String prefix;
+		
+		/**
+		 * Whether the pattern is only {@link #prefix} followed by <tt>.*</tt>. Like the pattern, this doesn't match names with line terminators after the prefix.
+		 */
+		final boolean prefixOnly;
+		
+		Route(final int storage, final @Nullable Pattern pattern) {
+			this.storage = storage;
+			if (pattern == null) {
+				this.pattern = null;
+				prefix = "";
+				prefixOnly = false;
+				return;
+			}
+			final String p = pattern.pattern();
+			final int end = pattern.flags() == 0 ? literalPrefixEnd(p) : 0;
+			prefix = end == 0 ? "" : unescape(p, end);
+			if (p.substring(end).equals(".*") && pattern.flags() == 0) {
+				this.pattern = null;
+				prefixOnly = true;
+			} else {
+				this.pattern = pattern;
+				prefixOnly = false;
+			}
+		}
+		
+		/**
+		 * @param name A name starting with {@link #prefix}
+		 */
+		final boolean matches(final String name) {
+			final Pattern pattern = this.pattern;
+			if (pattern != null)
+				return pattern.matcher(name).matches();
+			if (prefixOnly) {
+				for (int i = prefix.length(); i < name.length(); i++) {
+					final char c = name.charAt(i);
+					if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029')
+						return false;
+				}
+			}
+			return true;
+		}
+	}
+	
+	private final static class Node {
+		char[] chars = new char[0];
+		Node[] children = new Node[0];
+		
+		/**
+		 * The routes whose prefix is a prefix of this node's path, sorted by their storage's index
+		 */
+		Route[] routes = new Route[0];
+		
+		@Nullable
+		final Node getChild(final char c) {
+			for (int i = 0; i < chars.length; i++) {
+				if (chars[i] == c)
+					return children[i];
+			}
+			return null;
+		}
+		
+		final Node addChild(final char c) {
+			final Node n = getChild(c);
+			if (n != null)
+				return n;
+			final Node child = new Node();
+			chars = Arrays.copyOf(chars, chars.length + 1);
+			children = Arrays.copyOf(children, children.length + 1);
+			chars[chars.length - 1] = c;
+			children[children.length - 1] = child;
+			return child;
+		}
+		
+		/**
+		 * Adds the given routes to all nodes below and including this one.
+		 */
+		final void addRoutes(final Route[] parent) {
+			if (parent.length != 0) {
+				final Route[] rs = new Route[parent.length + routes.length];
+				System.arraycopy(parent, 0, rs, 0, parent.length);
+				System.arraycopy(routes, 0, rs, parent.length, routes.length);
+				Arrays.sort(rs, new Comparator<Route>() {
+					@Override
+					public int compare(final @Nullable Route r1, final @Nullable Route r2) {
+						assert r1 != null && r2 != null;
+						return r1.storage - r2.storage;
+					}
+				});
+				routes = rs;
+			}
+			for (final Node child : children)
+				child.addRoutes(routes);
+		}
+	}
+	
+	private final Node root = new Node();
+	
+	/**
+	 * Maps names to the index of their storage, or -1 if no storage accepts them
+	 */
+	private final ConcurrentHashMap<String, Integer> cache = new ConcurrentHashMap<String, Integer>();
+	
+	/**
+	 * @param patterns The storages' patterns in the order of the storages. null matches every name.
+	 */
+	StorageRouter(final List<Pattern> patterns) {
+		for (int i = 0; i < patterns.size(); i++) {
+			final Route r = new Route(i, patterns.get(i));
+			Node n = root;
+			for (int j = 0; j < r.prefix.length(); j++)
+				n = n.addChild(r.prefix.charAt(j));
+			n.routes = Arrays.copyOf(n.routes, n.routes.length + 1);
+			n.routes[n.routes.length - 1] = r;
+		}
+		root.addRoutes(new Route[0]);
+	}
+	
+	/**
+	 * @return The index of the first pattern that matches the given name, or -1 if no pattern matches it
+	 */
+	final int route(final String name) {
+		final Integer cached = cache.get(name);
+		if (cached != null)
+			return cached;
+		Node n = root;
+		for (int i = 0; i < name.length(); i++) {
+			final Node child = n.getChild(name.charAt(i));
+			if (child == null)
+				break;
+			n = child;
+		}
+		int storage = -1;
+		for (final Route r : n.routes) {
+			if (r.matches(name)) {
+				storage = r.storage;
+				break;
+			}
+		}
+		if (cache.size() >= MAX_CACHED)
+			cache.clear();
+		cache.put(name, storage);
+		return storage;
+	}
+	
+	/**
+	 * @return The index after the literal prefix of the given regular expression, i.e. every string matching the expression starts with <tt>pattern.substring(0, end)</tt>
+	 *         unescaped.
+	 */
+	final static int literalPrefixEnd(final String pattern) {
+		// an alternation outside of any group applies to the whole prefix
+		int depth = 0, classDepth = 0;
+		for (int i = 0; i < pattern.length(); i++) {
+			final char c = pattern.charAt(i);
+			if (c == '\\') {
+				if (i + 1 < pattern.length() && pattern.charAt(i + 1) == 'Q') {
+					final int e = pattern.indexOf("\\E", i + 2);
+					if (e == -1)
+						break;
+					i = e + 1;
+				} else {
+					i++;
+				}
+			} else if (classDepth > 0) {
+				if (c == '[')
+					classDepth++;
+				else if (c == ']')
+					classDepth--;
+			} else if (c == '[') {
+				classDepth = 1;
+				if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '^')
+					i++;
+				if (i + 1 < pattern.length() && pattern.charAt(i + 1) == ']')
+					i++; // a ']' directly after the '[' is a literal
+			} else if (c == '(') {
+				depth++;
+				if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '?') {
+					// comments can contain anything
+					for (int j = i + 2; j < pattern.length() && (Character.isLetter(pattern.charAt(j)) || pattern.charAt(j) == '-'); j++) {
+						if (pattern.charAt(j) == 'x')
+							return 0;
+					}
+				}
+			} else if (c == ')') {
+				depth--;
+			} else if (c == '|' && depth == 0) {
+				return 0;
+			}
+		}
+		int end = 0, lastStart = 0;
+		while (end < pattern.length()) {
+			final char c = pattern.charAt(end);
+			final int length;
+			if (c == '\\') {
+				if (end + 1 >= pattern.length() || Character.isLetterOrDigit(pattern.charAt(end + 1)))
+					break; // character classes, back references, \Q etc.
+				length = 2;
+			} else if (".^$|?*+()[]{}".indexOf(c) != -1) {
+				break;
+			} else {
+				length = 1;
+			}
+			lastStart = end;
+			end += length;
+		}
+		// a quantifier applies to the last literal
+		if (end < pattern.length() && "?*+{".indexOf(pattern.charAt(end)) != -1)
+			return lastStart;
+		return end;
+	}
+	
+	private final static String unescape(final String pattern, final int end) {
+		final StringBuilder b = new StringBuilder(end);
+		for (int i = 0; i < end; i++) {
+			final char c = pattern.charAt(i);
+			if (c == '\\')
+				b.append(pattern.charAt(++i));
+			else
+				b.append(c);
+		}
+		return "" + b.toString();
+	}
+	
+}
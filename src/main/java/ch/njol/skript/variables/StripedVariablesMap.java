@@ -0,0 +1,268 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.skript.lang.Variable;
+import ch.njol.util.NonNullPair;
+
+/**
+ * The global variables, split into several {@link VariablesMap}s ("stripes") by the first segment of the variables' names, each guarded by its own lock.
+ * <p>
+ * As all variables of a list variable share the first segment of their names with the list, every operation on a single variable or a list variable only ever locks a single
+ * stripe, i.e. writes to one subtree and bulk saves never block readers of unrelated variables.
+ * 
+ * @author Peter Güttinger
+ */
+final class StripedVariablesMap {
+	
+	/**
+	 * Must be a power of 2
+	 */
+	final static int STRIPES = 64;
+	
+	private final VariablesMap[] maps = new VariablesMap[STRIPES];
+	private final ReentrantReadWriteLock[] locks = new ReentrantReadWriteLock[STRIPES];
+	
+	StripedVariablesMap() {
+		for (int i = 0; i < STRIPES; i++) {
+			maps[i] = new VariablesMap();
+			locks[i] = new ReentrantReadWriteLock(); // non-fair: readers should never queue up behind a waiting writer of the same stripe
+		}
+	}
+	
+	/**
+	 * Sets which list variables have their values {@link ValueIndex indexed}. Must be called before any variables are set, as existing lists are not indexed.
+	 * 
+	 * @param indexedLists The names of the indexed lists without the trailing "::*", or null to not index any lists
+	 */
+	final void setIndexedLists(final @Nullable Pattern indexedLists) {
+		for (int i = 0; i < STRIPES; i++) {
+			final ReentrantReadWriteLock.WriteLock l = locks[i].writeLock();
+			l.lock();
+			try {
+				maps[i].indexedLists = indexedLists;
+			} finally {
+				l.unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Determines the stripe of a variable from the first segment of its name without creating any substrings.
+	 */
+	final static int getStripe(final String name) {
+		int end = name.indexOf(Variable.SEPARATOR);
+		if (end == -1)
+			end = name.length();
+		int h = 0;
+		for (int i = 0; i < end; i++)
+			h = 31 * h + name.charAt(i);
+		h ^= (h >>> 20) ^ (h >>> 12);
+		h ^= (h >>> 7) ^ (h >>> 4);
+		return h & (STRIPES - 1);
+	}
+	
+	/**
+	 * @see VariablesMap#getVariable(String)
+	 */
+	@Nullable
+	final Object getVariable(final String name) {
+		final int s = getStripe(name);
+		final ReentrantReadWriteLock.ReadLock l = locks[s].readLock();
+		l.lock();
+		try {
+			return maps[s].getVariable(name);
+		} finally {
+			l.unlock();
+		}
+	}
+	
+	/**
+	 * @param split The name of the variable split at {@link Variable#SEPARATOR}
+	 * @see VariablesMap#getVariable(String[])
+	 */
+	@Nullable
+	final Object getVariable(final String[] split) {
+		if (split.length == 0)
+			return null;
+		final int s = getStripe(split[0]);
+		final ReentrantReadWriteLock.ReadLock l = locks[s].readLock();
+		l.lock();
+		try {
+			return maps[s].getVariable(split);
+		} finally {
+			l.unlock();
+		}
+	}
+	
+	/**
+	 * Like {@link #getVariable(String)}, but returns a {@link VariableNode#copy() copy} of list variables, which can be used while other threads modify the variables.
+	 */
+	@Nullable
+	final Object getVariableCopy(final String name) {
+		final int s = getStripe(name);
+		final ReentrantReadWriteLock.ReadLock l = locks[s].readLock();
+		l.lock();
+		try {
+			final Object v = maps[s].getVariable(name);
+			return v instanceof VariableNode ? ((VariableNode) v).copy() : v;
+		} finally {
+			l.unlock();
+		}
+	}
+	
+	/**
+	 * @see VariablesMap#setVariable(String, Object)
+	 */
+	final void setVariable(final String name, final @Nullable Object value) {
+		final int s = getStripe(name);
+		final ReentrantReadWriteLock.WriteLock l = locks[s].writeLock();
+		l.lock();
+		try {
+			maps[s].setVariable(name, value);
+		} finally {
+			l.unlock();
+		}
+	}
+	
+	/**
+	 * Sets a variable only if it's not set already.
+	 * 
+	 * @return Whether the variable was set
+	 */
+	final boolean setVariableIfAbsent(final String name, final Object value) {
+		final int s = getStripe(name);
+		final ReentrantReadWriteLock.WriteLock l = locks[s].writeLock();
+		l.lock();
+		try {
+			if (maps[s].getVariable(name) != null)
+				return false;
+			maps[s].setVariable(name, value);
+			return true;
+		} finally {
+			l.unlock();
+		}
+	}
+	
+	/**
+	 * Sets many variables at once, locking every stripe only once.
+	 * 
+	 * @param vars The variables' names and values
+	 */
+	final void setVariables(final List<NonNullPair<String, Object>> vars) {
+		// sorts the variables by stripe, keeping their order within each stripe
+		final int[] stripes = new int[vars.size()];
+		final int[] start = new int[STRIPES + 1];
+		for (int i = 0; i < stripes.length; i++)
+			start[(stripes[i] = getStripe(vars.get(i).first)) + 1]++;
+		for (int s = 0; s < STRIPES; s++)
+			start[s + 1] += start[s];
+		final int[] sorted = new int[stripes.length];
+		final int[] next = start.clone();
+		for (int i = 0; i < stripes.length; i++)
+			sorted[next[stripes[i]]++] = i;
+		
+		for (int s = 0; s < STRIPES; s++) {
+			if (start[s] == start[s + 1])
+				continue;
+			final ReentrantReadWriteLock.WriteLock l = locks[s].writeLock();
+			l.lock();
+			try {
+				for (int i = start[s]; i < start[s + 1]; i++) {
+					final NonNullPair<String, Object> v = vars.get(sorted[i]);
+					maps[s].setVariable(v.first, v.second);
+				}
+			} finally {
+				l.unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Deletes all variables of a list variable.
+	 * 
+	 * @param name The list's name, ending in "::*"
+	 * @return The names and values of all variables that were deleted
+	 */
+	final List<NonNullPair<String, Object>> deleteList(final String name) {
+		assert name.endsWith(Variable.SEPARATOR + "*") : name;
+		final int s = getStripe(name);
+		final ReentrantReadWriteLock.WriteLock l = locks[s].writeLock();
+		l.lock();
+		try {
+			final Object list = maps[s].getVariable(name);
+			if (!(list instanceof VariableNode))
+				return Collections.emptyList();
+			final List<NonNullPair<String, Object>> vars = new ArrayList<NonNullPair<String, Object>>();
+			VariablesMap.getAll(vars, "" + name.substring(0, name.length() - 1), (VariableNode) list);
+			maps[s].setVariable(name, null);
+			return vars;
+		} finally {
+			l.unlock();
+		}
+	}
+	
+	/**
+	 * Copies all variables of the given stripe in order into a new list. The stripe is only locked while copying, not while the returned list is used.
+	 * 
+	 * @param stripe A number between 0 (inclusive) and {@link #STRIPES} (exclusive)
+	 * @return A list of all variables' names and values of the given stripe
+	 */
+	final List<NonNullPair<String, Object>> getVariables(final int stripe) {
+		final ReentrantReadWriteLock.ReadLock l = locks[stripe].readLock();
+		l.lock();
+		try {
+			final List<NonNullPair<String, Object>> r = new ArrayList<NonNullPair<String, Object>>(maps[stripe].size);
+			maps[stripe].getAll(r);
+			return r;
+		} finally {
+			l.unlock();
+		}
+	}
+	
+	final int size() {
+		int n = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			final ReentrantReadWriteLock.ReadLock l = locks[i].readLock();
+			l.lock();
+			try {
+				n += maps[i].size;
+			} finally {
+				l.unlock();
+			}
+		}
+		return n;
+	}
+	
+	final boolean isEmpty() {
+		return size() == 0;
+	}
+	
+}
@@ -0,0 +1,251 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * A hierarchical timing wheel, which schedules keys to expire at some tick in constant time, no matter how many keys are scheduled.
+ * <p>
+ * The wheel has {@link #LEVELS} levels of {@link #SLOTS} slots each, where a slot of level <tt>i</tt> spans <tt>SLOTS<sup>i</sup></tt> ticks. Keys are put into the lowest
+ * level whose current revolution contains their deadline. Whenever the wheel passes the boundary of a slot of a higher level, the keys of that slot are moved down to the
+ * lower levels, thus every key is moved at most {@link #LEVELS} times until it expires. Keys which are due are collected in a queue in the order they expired and can be
+ * {@link #poll() taken} one at a time, which allows to handle many expired keys over several ticks.
+ * <p>
+ * Not thread safe.
+ * 
+ * @author Peter Güttinger
+ * @param <T> The type of the keys
+ */
+final class TimingWheel<T> {
+	
+	private final static int BITS = 6, SLOTS = 1 << BITS, MASK = SLOTS - 1, LEVELS = 6;
+	
+	/**
+	 * The {@link Entry#level} of due entries
+	 */
+	private final static int DUE = LEVELS;
+	
+	private final static class Entry<T> {
+		final T key;
+		final long deadline;
+		
+		int level, slot;
+		
+		@Nullable
+		Entry<T> prev, next;
+		
+		Entry(final T key, final long deadline) {
+			this.key = key;
+			this.deadline = deadline;
+		}
+	}
+	
+	/**
+	 * The first entry of every slot of every level
+	 */
+	private final Entry<?>[][] slots = new Entry<?>[LEVELS][SLOTS];
+	
+	@Nullable
+	private Entry<T> dueHead = null, dueTail = null;
+	
+	private final HashMap<T, Entry<T>> entries = new HashMap<T, Entry<T>>();
+	
+	/**
+	 * The number of entries which are not due
+	 */
+	private int scheduled = 0;
+	
+	/**
+	 * The current tick. All entries in the slots have a later deadline.
+	 */
+	private long time;
+	
+	TimingWheel(final long time) {
+		this.time = time;
+	}
+	
+	/**
+	 * Schedules a key to expire at the given tick, replacing its previous deadline. If the tick has already passed the key is due immediately.
+	 */
+	final void schedule(final T key, final long deadline) {
+		cancel(key);
+		final Entry<T> e = new Entry<T>(key, deadline);
+		entries.put(key, e);
+		insert(e);
+	}
+	
+	/**
+	 * Removes a key from this wheel, no matter whether it's due already.
+	 * 
+	 * @return Whether the key was scheduled
+	 */
+	final boolean cancel(final T key) {
+		final Entry<T> e = entries.remove(key);
+		if (e == null)
+			return false;
+		unlink(e);
+		return true;
+	}
+	
+	/**
+	 * @return The tick the given key expires at, or -1 if it's not scheduled
+	 */
+	final long getDeadline(final T key) {
+		final Entry<T> e = entries.get(key);
+		return e == null ? -1 : e.deadline;
+	}
+	
+	/**
+	 * Advances the wheel to the given tick and marks all keys that expired in the meantime as due.
+	 * <p>
+	 * This takes one step per tick unless no keys are scheduled, thus the wheel should be advanced regularly, even while it's empty, so that keys scheduled later are not
+	 * inserted relative to an outdated tick.
+	 */
+	@SuppressWarnings("unchecked")
+	final void advance(final long now) {
+		while (time < now) {
+			if (scheduled == 0) {
+				time = now;
+				return;
+			}
+			time++;
+			// moves the keys of the slots whose boundary was passed to the lower levels, starting at the highest level
+			int level = 0;
+			while (level < LEVELS - 1 && (time & ((1L << (BITS * (level + 1))) - 1)) == 0)
+				level++;
+			for (int i = level; i > 0; i--) {
+				final int slot = (int) (time >>> (BITS * i)) & MASK;
+				Entry<T> e = (Entry<T>) slots[i][slot];
+				slots[i][slot] = null;
+				while (e != null) {
+					final Entry<T> next = e.next;
+					scheduled--;
+					insert(e);
+					e = next;
+				}
+			}
+			final int slot = (int) time & MASK;
+			Entry<T> e = (Entry<T>) slots[0][slot];
+			slots[0][slot] = null;
+			while (e != null) {
+				final Entry<T> next = e.next;
+				assert e.deadline == time : e.deadline + ", " + time;
+				scheduled--;
+				append(e);
+				e = next;
+			}
+		}
+	}
+	
+	/**
+	 * Removes the key that expired first from this wheel.
+	 * 
+	 * @return The key, or null if no key is due
+	 */
+	@Nullable
+	final T poll() {
+		final Entry<T> e = dueHead;
+		if (e == null)
+			return null;
+		entries.remove(e.key);
+		unlink(e);
+		return e.key;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private final void insert(final Entry<T> e) {
+		if (e.deadline <= time) {
+			append(e);
+			return;
+		}
+		int level = 0;
+		while (level < LEVELS - 1 && e.deadline >>> (BITS * (level + 1)) != time >>> (BITS * (level + 1)))
+			level++;
+		e.level = level;
+		e.slot = (int) (e.deadline >>> (BITS * level)) & MASK;
+		e.prev = null;
+		e.next = (Entry<T>) slots[level][e.slot];
+		if (e.next != null)
+			e.next.prev = e;
+		slots[level][e.slot] = e;
+		scheduled++;
+	}
+	
+	/**
+	 * Adds an entry to the end of the queue of due entries
+	 */
+	private final void append(final Entry<T> e) {
+		e.level = DUE;
+		e.next = null;
+		e.prev = dueTail;
+		final Entry<T> tail = dueTail;
+		if (tail == null)
+			dueHead = e;
+		else
+			tail.next = e;
+		dueTail = e;
+	}
+	
+	private final void unlink(final Entry<T> e) {
+		final Entry<T> prev = e.prev, next = e.next;
+		if (next != null)
+			next.prev = prev;
+		if (e.level == DUE) {
+			if (prev == null)
+				dueHead = next;
+			else
+				prev.next = next;
+			if (next == null)
+				dueTail = prev;
+		} else {
+			if (prev == null)
+				slots[e.level][e.slot] = next;
+			else
+				prev.next = next;
+			scheduled--;
+		}
+		e.prev = e.next = null;
+	}
+	
+	/**
+	 * @return The number of keys in this wheel, including due keys
+	 */
+	final int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * @return A copy of all keys in this wheel and their deadlines
+	 */
+	final Map<T, Long> getDeadlines() {
+		final Map<T, Long> r = new LinkedHashMap<T, Long>();
+		for (final Entry<T> e : entries.values())
+			r.put(e.key, e.deadline);
+		return r;
+	}
+	
+}
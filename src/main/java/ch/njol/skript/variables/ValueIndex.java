@@ -0,0 +1,183 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.bukkit.OfflinePlayer;
+import org.bukkit.World;
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.skript.Skript;
+import ch.njol.skript.registrations.Comparators;
+
+/**
+ * An index of the values of a list variable, which finds the values that might be equal to a given value without comparing the value to every value of the list.
+ * <p>
+ * Values are grouped by a key that is the same for all values that can be equal according to {@link Comparators}: numbers by their value rounded to {@link Skript#EPSILON}, and
+ * texts, players and worlds by their names ignoring case. Values of other types are always returned as candidates, and sub-lists are never returned, as they are not equal to
+ * any value that has a key. Candidates must still be compared to the value, as values with the same key are not necessarily equal (e.g. if Skript is case sensitive).
+ * 
+ * @author Peter Güttinger
+ */
+final class ValueIndex {
+	
+	/**
+	 * Maps keys to the name of the only child with that key, or to a {@link HashSet} of the names of all children with that key.
+	 */
+	private final HashMap<Object, Object> keys = new HashMap<Object, Object>();
+	
+	/**
+	 * Names of children whose values don't have a key
+	 */
+	private final HashSet<String> others = new HashSet<String>();
+	
+	/**
+	 * The number of children that are sub-lists
+	 */
+	int nodes = 0;
+	
+	/**
+	 * @return The key of the given value, or null if values of its type are not grouped
+	 */
+	@Nullable
+	final static Object key(final Object value) {
+		if (value instanceof Number) {
+			// + 0.0 makes -0.0 equal to 0.0
+			return Math.floor(((Number) value).doubleValue() / Skript.EPSILON) + 0.0;
+		} else if (value instanceof String) {
+			return fold((String) value);
+		} else if (value instanceof OfflinePlayer) {
+			final String name = ((OfflinePlayer) value).getName();
+			return name == null ? null : fold(name);
+		} else if (value instanceof World) {
+			return fold("" + ((World) value).getName());
+		}
+		return null;
+	}
+	
+	/**
+	 * Folds the case of a string like {@link String#equalsIgnoreCase(String)} does, i.e. two strings are equal ignoring case iff their folded strings are equal.
+	 */
+	private final static String fold(final String s) {
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			if (Character.toLowerCase(Character.toUpperCase(c)) != c) {
+				final char[] cs = s.toCharArray();
+				for (int j = i; j < cs.length; j++)
+					cs[j] = Character.toLowerCase(Character.toUpperCase(cs[j]));
+				return new String(cs);
+			}
+		}
+		return s;
+	}
+	
+	/**
+	 * Adds a child of the list.
+	 * 
+	 * @param name The name the child is stored with
+	 */
+	@SuppressWarnings("unchecked")
+	final void add(final String name, final Object child) {
+		if (child instanceof VariableNode) {
+			nodes++;
+			return;
+		}
+		final Object key = key(child);
+		if (key == null) {
+			others.add(name);
+			return;
+		}
+		final Object names = keys.get(key);
+		if (names == null) {
+			keys.put(key, name);
+		} else if (names instanceof HashSet) {
+			((HashSet<String>) names).add(name);
+		} else {
+			final HashSet<String> set = new HashSet<String>(4);
+			set.add((String) names);
+			set.add(name);
+			keys.put(key, set);
+		}
+	}
+	
+	/**
+	 * Removes a child of the list.
+	 * 
+	 * @param name The name the child is stored with
+	 * @param child The child's current value, i.e. the one that was {@link #add(String, Object) added}
+	 */
+	@SuppressWarnings("unchecked")
+	final void remove(final String name, final Object child) {
+		if (child instanceof VariableNode) {
+			nodes--;
+			return;
+		}
+		final Object key = key(child);
+		if (key == null) {
+			others.remove(name);
+			return;
+		}
+		final Object names = keys.get(key);
+		if (names instanceof HashSet) {
+			final HashSet<String> set = (HashSet<String>) names;
+			set.remove(name);
+			if (set.size() == 1)
+				keys.put(key, set.iterator().next());
+		} else if (name.equals(names)) {
+			keys.remove(key);
+		}
+	}
+	
+	/**
+	 * Adds the names of all children that might be equal to the given value to the given collection.
+	 * 
+	 * @return Whether the given value has a key. If not, all children have to be compared to it, and nothing is added to the collection.
+	 */
+	final boolean getCandidates(final Object value, final Collection<String> candidates) {
+		final Object key = key(value);
+		if (key == null)
+			return false;
+		if (key instanceof Double) {
+			// numbers closer than EPSILON can be in adjacent buckets
+			final double d = (Double) key;
+			add(keys.get(d - 1), candidates);
+			add(keys.get(key), candidates);
+			add(keys.get(d + 1), candidates);
+		} else {
+			add(keys.get(key), candidates);
+		}
+		candidates.addAll(others);
+		return true;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private final static void add(final @Nullable Object names, final Collection<String> candidates) {
+		if (names instanceof HashSet)
+			candidates.addAll((HashSet<String>) names);
+		else if (names != null)
+			candidates.add((String) names);
+	}
+	
+}
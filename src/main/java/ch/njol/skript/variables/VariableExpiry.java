@@ -0,0 +1,239 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.bukkit.Bukkit;
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.skript.Skript;
+import ch.njol.skript.lang.Variable;
+import ch.njol.skript.util.Task;
+import ch.njol.skript.variables.SerializedVariable.Value;
+
+/**
+ * Deletes global variables after some time, e.g. cooldowns or temporary bans, without having to check all of them periodically.
+ * <p>
+ * Expiring variables are kept in a {@link TimingWheel} with a resolution of one tick, and every tick at most {@link #MAX_DELETIONS_PER_TICK} expired variables are deleted,
+ * so that many variables expiring at once cannot cause lag. A list variable can expire as a whole, which deletes all of its variables. Setting or deleting a variable removes
+ * its expiry time, i.e. a variable only expires if the last change set its expiry time.
+ * <p>
+ * The expiry times are saved in the database of the respective variable, as a special entry named {@link #PREFIX} + the variable's name, thus variables expire even if the
+ * server is stopped for some time, and are deleted when the server starts if they expired in the meantime. These entries are passed to the storages together with the
+ * changes of variables and are {@link Variables#getStorage(String) routed} by the name of their variable, thus the databases' patterns don't have to match them.
+ * <p>
+ * All methods must be called on Bukkit's main thread, except for {@link #loaded(String, String, byte[])}.
+ * 
+ * @author Peter Güttinger
+ */
+public final class VariableExpiry {
+	
+	private VariableExpiry() {}
+	
+	/**
+	 * The prefix of the names of saved expiry times
+	 */
+	final static String PREFIX = "-skript-expiry" + Variable.SEPARATOR;
+	
+	/**
+	 * The type of saved expiry times, which is not a valid code name of a class, thus cannot be the type of a variable.
+	 */
+	final static String TYPE = "-expiry";
+	
+	private final static int MAX_DELETIONS_PER_TICK = 1000;
+	
+	private final static long MILLIS_PER_TICK = 50;
+	
+	/**
+	 * Synchronised as expiry times are loaded on the storages' threads
+	 */
+	private final static TimingWheel<String> wheel = new TimingWheel<String>(System.currentTimeMillis() / MILLIS_PER_TICK);
+	
+	/**
+	 * The size of the {@link #wheel}, which can be read without synchronisation to make changing variables free if no variables expire
+	 */
+	private static volatile int size = 0;
+	
+	/**
+	 * Starts deleting expired variables. Called once all storages are loaded.
+	 */
+	final static void start() {
+		Skript.closeOnDisable(new Task(Skript.getInstance(), 1, 1) {
+			@Override
+			public void run() {
+				deleteExpired();
+			}
+		});
+	}
+	
+	/**
+	 * Makes a global variable expire after the given time. Replaces the variable's previous expiry time if it has one.
+	 * 
+	 * @param name The variable's lowercase name, or the name of a list ending in "::*" to delete all of its variables when it expires
+	 * @param millis The time in milliseconds after which the variable is deleted
+	 */
+	public final static void expire(final String name, final long millis) {
+		assert Bukkit.isPrimaryThread();
+		final long now = System.currentTimeMillis(), expiry = now + millis;
+		synchronized (wheel) {
+			// the wheel is only advanced every tick while it's not empty
+			wheel.advance(now / MILLIS_PER_TICK);
+			wheel.schedule(name, ceilTicks(expiry));
+			size = wheel.size();
+		}
+		save(name, expiry);
+	}
+	
+	/**
+	 * Removes the expiry time of a global variable, i.e. keeps the variable until it's deleted.
+	 * 
+	 * @return Whether the variable had an expiry time
+	 */
+	public final static boolean persist(final String name) {
+		assert Bukkit.isPrimaryThread();
+		if (size == 0)
+			return false;
+		synchronized (wheel) {
+			if (!wheel.cancel(name))
+				return false;
+			size = wheel.size();
+		}
+		save(name, -1);
+		return true;
+	}
+	
+	/**
+	 * @return The time the given global variable expires at in milliseconds, as returned by {@link System#currentTimeMillis()}, or -1 if the variable doesn't expire
+	 */
+	public final static long getExpiry(final String name) {
+		if (size == 0)
+			return -1;
+		synchronized (wheel) {
+			final long tick = wheel.getDeadline(name);
+			return tick == -1 ? -1 : tick * MILLIS_PER_TICK;
+		}
+	}
+	
+	/**
+	 * Called by {@link Variables#setVariable(String, Object)} whenever a global variable is set or deleted.
+	 */
+	final static void changed(final String name) {
+		if (size != 0)
+			persist(name);
+	}
+	
+	private final static long ceilTicks(final long millis) {
+		return (millis + MILLIS_PER_TICK - 1) / MILLIS_PER_TICK;
+	}
+	
+	private final static void deleteExpired() {
+		final List<String> expired = new ArrayList<String>();
+		synchronized (wheel) {
+			// also keeps the current tick of an empty wheel up to date, which is cheap as an empty wheel skips to the given tick at once
+			wheel.advance(System.currentTimeMillis() / MILLIS_PER_TICK);
+			if (wheel.size() == 0)
+				return;
+			String name;
+			while (expired.size() < MAX_DELETIONS_PER_TICK && (name = wheel.poll()) != null)
+				expired.add(name);
+			size = wheel.size();
+		}
+		for (final String name : expired) {
+			Variables.setVariable(name, null);
+			save(name, -1);
+		}
+	}
+	
+	/**
+	 * Queues an expiry time to be saved in the storage of the given variable, after the variable's own changes made so far.
+	 * 
+	 * @param expiry The expiry time in milliseconds, or -1 to delete it
+	 */
+	private final static void save(final String name, final long expiry) {
+		Variables.saveEntry(PREFIX + name, expiry == -1 ? null : new Value(TYPE, encode(expiry)));
+	}
+	
+	/**
+	 * @return The name of the variable whose expiry time is saved under the given name, or null if the name is the name of a variable
+	 */
+	@Nullable
+	final static String getVariable(final String name) {
+		return name.startsWith(PREFIX) ? name.substring(PREFIX.length()) : null;
+	}
+	
+	/**
+	 * Registers a loaded entry of a storage if it's an expiry time. Can be called from any thread.
+	 * 
+	 * @param type The entry's type, or null if the entry was deleted
+	 * @return Whether the entry was an expiry time. Deleted entries are also passed on as variables, as they cannot be told apart from deleted variables.
+	 */
+	final static boolean loaded(final String name, final @Nullable String type, final @Nullable byte[] data) {
+		if (!name.startsWith(PREFIX) || type != null && !type.equals(TYPE))
+			return false;
+		final String variable = name.substring(PREFIX.length());
+		synchronized (wheel) {
+			if (type == null || data == null || data.length != 8)
+				wheel.cancel(variable);
+			else
+				wheel.schedule(variable, ceilTicks(decode(data)));
+			size = wheel.size();
+		}
+		return type != null;
+	}
+	
+	/**
+	 * @return The expiry times of all variables that are saved in the given storage as they are saved, for rewriting the storage
+	 */
+	final static List<SerializedVariable> getSaved(final VariablesStorage s) {
+		final Map<String, Long> deadlines;
+		synchronized (wheel) {
+			if (wheel.size() == 0)
+				return new ArrayList<SerializedVariable>(0);
+			deadlines = wheel.getDeadlines();
+		}
+		final List<SerializedVariable> r = new ArrayList<SerializedVariable>();
+		for (final Entry<String, Long> d : deadlines.entrySet()) {
+			if (Variables.getStorage(d.getKey()) == s)
+				r.add(new SerializedVariable(PREFIX + d.getKey(), new Value(TYPE, encode(d.getValue() * MILLIS_PER_TICK))));
+		}
+		return r;
+	}
+	
+	private final static byte[] encode(final long l) {
+		final byte[] b = new byte[8];
+		for (int i = 0; i < 8; i++)
+			b[i] = (byte) (l >>> (56 - 8 * i));
+		return b;
+	}
+	
+	private final static long decode(final byte[] b) {
+		long l = 0;
+		for (int i = 0; i < 8; i++)
+			l = l << 8 | b[i] & 0xFF;
+		return l;
+	}
+	
+}
@@ -0,0 +1,239 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.bukkit.Bukkit;
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.skript.Skript;
+import ch.njol.skript.util.Task;
+
+/**
+ * The result of an operation of {@link AsyncVariables}. The result is either available immediately or once the variables have been loaded from their database.
+ * <p>
+ * Besides waiting for the result with {@link #get()}, which should never be done on Bukkit's main thread, callbacks can be registered that are called when the result is
+ * available. Reading a variable fails if it cannot be read from its database, in which case {@link #get()} throws an {@link ExecutionException} and
+ * {@link Callback#failed(Throwable)} is called instead of {@link Callback#done(Object)}. Variable operations cannot be cancelled.
+ * 
+ * @author Peter Güttinger
+ * @param <T> The type of the result
+ */
+public final class VariableFuture<T> implements Future<T> {
+	
+	public static abstract class Callback<T> {
+		
+		/**
+		 * @param result The result of the operation
+		 */
+		public abstract void done(@Nullable T result);
+		
+		/**
+		 * Called instead of {@link #done(Object)} if the operation failed. Prints the error by default.
+		 * 
+		 * @param cause Why the operation failed
+		 */
+		public void failed(final Throwable cause) {
+			Skript.error("A variable operation failed: " + cause.getLocalizedMessage());
+		}
+		
+	}
+	
+	private boolean done = false;
+	
+	@Nullable
+	private T result = null;
+	
+	@Nullable
+	private Throwable failure = null;
+	
+	@Nullable
+	private List<Callback<? super T>> callbacks = new ArrayList<Callback<? super T>>(1);
+	
+	VariableFuture() {}
+	
+	/**
+	 * @return A future that is already completed with the given result
+	 */
+	final static <T> VariableFuture<T> completed(final @Nullable T result) {
+		final VariableFuture<T> f = new VariableFuture<T>();
+		f.complete(result);
+		return f;
+	}
+	
+	/**
+	 * Completes this future and calls all callbacks on the calling thread.
+	 */
+	final void complete(final @Nullable T result) {
+		complete(result, null);
+	}
+	
+	/**
+	 * Completes this future exceptionally and calls all callbacks on the calling thread.
+	 */
+	final void fail(final Throwable cause) {
+		complete(null, cause);
+	}
+	
+	private final void complete(final @Nullable T result, final @Nullable Throwable failure) {
+		final List<Callback<? super T>> callbacks;
+		synchronized (this) {
+			assert !done;
+			this.result = result;
+			this.failure = failure;
+			done = true;
+			callbacks = this.callbacks;
+			this.callbacks = null;
+			notifyAll();
+		}
+		assert callbacks != null;
+		for (final Callback<? super T> c : callbacks)
+			call(c, result, failure);
+	}
+	
+	private final static <T> void call(final Callback<? super T> c, final @Nullable T result, final @Nullable Throwable failure) {
+		try {
+			if (failure != null)
+				c.failed(failure);
+			else
+				c.done(result);
+		} catch (final Exception e) {
+			Skript.exception(e, "Error in a callback of a variable operation");
+		}
+	}
+	
+	/**
+	 * Registers a callback that is called when the result is available. If the result is already available the callback is called immediately on the calling thread, otherwise
+	 * it is called on the thread that completes this future, which can be any thread.
+	 * 
+	 * @return This future
+	 */
+	public VariableFuture<T> whenDone(final Callback<? super T> callback) {
+		synchronized (this) {
+			final List<Callback<? super T>> callbacks = this.callbacks;
+			if (callbacks != null) {
+				callbacks.add(callback);
+				return this;
+			}
+		}
+		call(callback, result, failure);
+		return this;
+	}
+	
+	/**
+	 * Registers a callback that is called on Bukkit's main thread when the result is available. The callback is called immediately if the result is already available and this
+	 * method is called on the main thread.
+	 * 
+	 * @return This future
+	 */
+	public VariableFuture<T> whenDoneSync(final Callback<? super T> callback) {
+		return whenDone(new Callback<T>() {
+			@Override
+			public void done(final @Nullable T result) {
+				callSync(result, null);
+			}
+			
+			@Override
+			public void failed(final Throwable cause) {
+				callSync(null, cause);
+			}
+			
+			private void callSync(final @Nullable T result, final @Nullable Throwable failure) {
+				if (Bukkit.isPrimaryThread()) {
+					call(callback, result, failure);
+					return;
+				}
+				new Task(Skript.getInstance(), 0) {
+					@Override
+					public void run() {
+						call(callback, result, failure);
+					}
+				};
+			}
+		});
+	}
+	
+	/**
+	 * @return The result, or the given value if the result is not yet available or the operation failed
+	 */
+	@Nullable
+	public synchronized T getNow(final @Nullable T ifNotDone) {
+		return done && failure == null ? result : ifNotDone;
+	}
+	
+	@Override
+	@Nullable
+	public synchronized T get() throws InterruptedException, ExecutionException {
+		while (!done)
+			wait();
+		return result();
+	}
+	
+	@Override
+	@Nullable
+	public synchronized T get(final long timeout, final @Nullable TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		assert unit != null;
+		final long end = System.nanoTime() + unit.toNanos(timeout);
+		long wait;
+		while (!done) {
+			if ((wait = end - System.nanoTime()) <= 0)
+				throw new TimeoutException();
+			TimeUnit.NANOSECONDS.timedWait(this, wait);
+		}
+		return result();
+	}
+	
+	@Nullable
+	private T result() throws ExecutionException {
+		final Throwable failure = this.failure;
+		if (failure != null)
+			throw new ExecutionException(failure);
+		return result;
+	}
+	
+	@Override
+	public synchronized boolean isDone() {
+		return done;
+	}
+	
+	/**
+	 * Variable operations cannot be cancelled.
+	 * 
+	 * @return false
+	 */
+	@Override
+	public boolean cancel(final boolean mayInterruptIfRunning) {
+		return false;
+	}
+	
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+	
+}
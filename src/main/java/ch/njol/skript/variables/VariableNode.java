@@ -0,0 +1,470 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * A node of the variables tree, i.e. a variable that has sub-variables like {a} for {a::b}.
+ * <p>
+ * The children of a node are either other nodes or the values of variables that have no sub-variables. Nodes without children never exist in the tree; they are replaced by
+ * their value (or removed if they don't have a value).
+ * <p>
+ * Most list variables only use the indices 1 to n, thus the children of a node are stored in an array as long as their names are numbers without leading zeroes, and the array
+ * is not mostly empty. If a different name is used or too many indices are unused, the children are moved to a {@link TreeMap} sorted by
+ * {@link VariablesMap#variableNameComparator}. Both result in the same order of the children.
+ * <p>
+ * This class is also the {@link Map} returned for list variables: its key <tt>null</tt> maps to the node's own value, and all other keys to the node's children. This view is
+ * read-only but not a copy, i.e. it must only be used as long as the variables map is not modified.
+ * 
+ * @author Peter Güttinger
+ */
+final class VariableNode extends AbstractMap<String, Object> {
+	
+	/**
+	 * Arrays of up to this length are kept even if they are mostly empty.
+	 */
+	private final static int MIN_SPARSE_LENGTH = 8;
+	
+	/**
+	 * Cached names of the first indices, as the children's names have to be created when the array is iterated.
+	 */
+	private final static String[] indices = new String[1024];
+	static {
+		for (int i = 0; i < indices.length; i++)
+			indices[i] = ("" + (i + 1)).intern();
+	}
+	
+	/**
+	 * The value of the variable this node represents, e.g. the value of {a} for the node of {a::*}.
+	 */
+	@Nullable
+	Object value;
+	
+	/**
+	 * The children with the names 1 to <tt>length</tt> at the indices 0 to <tt>length - 1</tt>, or null if the node has no children or the children are stored in {@link #tree}.
+	 * Unused indices are null, but the child at <tt>length - 1</tt> is never null.
+	 */
+	@Nullable
+	private Object[] array;
+	private int length = 0;
+	
+	/**
+	 * Keys are the last segments of the children's names, values are either {@link VariableNode}s or the values of variables. Null while the children are stored in an array.
+	 */
+	@Nullable
+	private TreeMap<String, Object> tree;
+	
+	/**
+	 * The number of children
+	 */
+	private int children = 0;
+	
+	/**
+	 * All positive integers smaller than this are names of children.
+	 */
+	private int free = 1;
+	
+	/**
+	 * The index of the children's values, or null if this list is not indexed
+	 */
+	@Nullable
+	private ValueIndex index = null;
+	
+	/**
+	 * @return The index the given name is stored at in {@link #array} (0 for the name "1"), or -1 if the name is not a positive integer
+	 */
+	private final static int index(final String name) {
+		int start = 0;
+		while (start < name.length() && name.charAt(start) == '0')
+			start++;
+		if (start == name.length() || name.length() - start > 9)
+			return -1;
+		int n = 0;
+		for (int i = start; i < name.length(); i++) {
+			final char c = name.charAt(i);
+			if (c < '0' || c > '9')
+				return -1;
+			n = 10 * n + c - '0';
+		}
+		return n - 1;
+	}
+	
+	private final static String name(final int index) {
+		return index < indices.length ? indices[index] : "" + (index + 1);
+	}
+	
+	/**
+	 * @return The child with the given name, or null if there is no such child
+	 */
+	@Nullable
+	final Object getChild(final String name) {
+		final TreeMap<String, Object> tree = this.tree;
+		if (tree != null)
+			return tree.get(name);
+		final Object[] array = this.array;
+		if (array == null)
+			return null;
+		final int i = index(name);
+		return i == -1 || i >= length ? null : array[i];
+	}
+	
+	/**
+	 * @return Whether the given positive integer is the name of a child
+	 */
+	private final boolean hasIndex(final int i) {
+		final TreeMap<String, Object> tree = this.tree;
+		if (tree != null)
+			return tree.containsKey(name(i - 1));
+		final Object[] array = this.array;
+		return array != null && i <= length && array[i - 1] != null;
+	}
+	
+	/**
+	 * Adds a child or replaces an existing child.
+	 * 
+	 * @param added Whether the child is new, i.e. {@link #getChild(String)} returned null for its name
+	 */
+	final void putChild(final String name, final Object child, final boolean added) {
+		final ValueIndex index = this.index;
+		if (index != null) {
+			if (!added) {
+				final Object old = getChild(name);
+				assert old != null : name;
+				index.remove(storedName(name), old);
+			}
+			putChild_i(name, child, added);
+			index.add(storedName(name), child);
+			return;
+		}
+		putChild_i(name, child, added);
+	}
+	
+	private final void putChild_i(final String name, final Object child, final boolean added) {
+		TreeMap<String, Object> tree = this.tree;
+		if (tree == null) {
+			final int i = index(name);
+			if (i != -1 && (!added || name.charAt(0) != '0')) { // a new child with leading zeroes must keep its name
+				final int newLength = Math.max(length, i + 1);
+				if (!added || newLength <= MIN_SPARSE_LENGTH || 2 * (children + 1) >= newLength) {
+					Object[] array = this.array;
+					if (array == null || i >= array.length) {
+						final Object[] newArray = new Object[Math.max(i + 1, array == null ? 4 : array.length * 3 / 2 + 1)];
+						if (array != null)
+							System.arraycopy(array, 0, newArray, 0, length);
+						this.array = array = newArray;
+					}
+					array[i] = child;
+					length = newLength;
+					if (added)
+						children++;
+					return;
+				}
+			}
+			tree = toTree();
+		}
+		if (added) {
+			tree.put(name.intern(), child);
+			children++;
+		} else {
+			tree.put(name, child); // keeps the existing key
+		}
+	}
+	
+	/**
+	 * Removes an existing child.
+	 */
+	final void removeChild(final String name) {
+		final ValueIndex index = this.index;
+		if (index != null) {
+			final Object old = getChild(name);
+			assert old != null : name;
+			index.remove(storedName(name), old);
+		}
+		children--;
+		final int i = index(name);
+		if (i != -1 && i + 1 < free)
+			free = i + 1;
+		final TreeMap<String, Object> tree = this.tree;
+		if (tree != null) {
+			tree.remove(name);
+			return;
+		}
+		final Object[] array = this.array;
+		assert array != null && i != -1 && i < length && array[i] != null : name;
+		array[i] = null;
+		while (length > 0 && array[length - 1] == null)
+			length--;
+		if (length == 0) {
+			this.array = null;
+		} else if (length > MIN_SPARSE_LENGTH && 2 * children < length) {
+			toTree();
+		} else if (array.length > MIN_SPARSE_LENGTH && length < array.length / 4) {
+			final Object[] newArray = new Object[length * 2];
+			System.arraycopy(array, 0, newArray, 0, length);
+			this.array = newArray;
+		}
+	}
+	
+	/**
+	 * @return The name an existing child is stored with, which is different from the given name if they only differ in leading zeroes
+	 */
+	private final String storedName(final String name) {
+		final TreeMap<String, Object> tree = this.tree;
+		if (tree != null) {
+			final String n = tree.ceilingKey(name);
+			assert n != null && VariablesMap.variableNameComparator.compare(n, name) == 0 : name;
+			return n;
+		}
+		return name(index(name));
+	}
+	
+	/**
+	 * Indexes the values of this node's children from now on, see {@link ValueIndex}.
+	 */
+	final void enableIndex() {
+		if (index != null)
+			return;
+		final ValueIndex index = new ValueIndex();
+		final Iterator<Entry<String, Object>> iter = childIterator();
+		while (iter.hasNext()) {
+			final Entry<String, Object> e = iter.next();
+			index.add(e.getKey(), e.getValue());
+		}
+		this.index = index;
+	}
+	
+	/**
+	 * @return The index of this node's children's values, or null if this node is not indexed
+	 */
+	@Nullable
+	final ValueIndex getIndex() {
+		return index;
+	}
+	
+	/**
+	 * Moves the children from the array to a tree.
+	 */
+	private final TreeMap<String, Object> toTree() {
+		final TreeMap<String, Object> tree = new TreeMap<String, Object>(VariablesMap.variableNameComparator);
+		final Object[] array = this.array;
+		if (array != null) {
+			for (int i = 0; i < length; i++) {
+				if (array[i] != null)
+					tree.put(name(i), array[i]);
+			}
+		}
+		this.array = null;
+		length = 0;
+		return this.tree = tree;
+	}
+	
+	/**
+	 * @return The number of children of this node
+	 */
+	final int getChildCount() {
+		return children;
+	}
+	
+	/**
+	 * @return Whether this node is stored in an array. Only used for testing.
+	 */
+	final boolean isArray() {
+		return tree == null;
+	}
+	
+	/**
+	 * @return An iterator over the children of this node in the order of their names. The iterator must not be used after this node has been modified.
+	 */
+	final Iterator<Entry<String, Object>> childIterator() {
+		final TreeMap<String, Object> tree = this.tree;
+		if (tree != null)
+			return tree.entrySet().iterator();
+		final Object[] array = this.array;
+		final int length = this.length;
+		return new Iterator<Entry<String, Object>>() {
+			private int i = 0;
+			
+			@Override
+			public boolean hasNext() {
+				if (array == null)
+					return false;
+				while (i < length && array[i] == null)
+					i++;
+				return i < length;
+			}
+			
+			@SuppressWarnings("null")
+			@Override
+			public Entry<String, Object> next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				assert array != null;
+				final Entry<String, Object> e = new SimpleImmutableEntry<String, Object>(name(i), array[i]);
+				i++;
+				return e;
+			}
+			
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
+	/**
+	 * @param from The smallest index to return
+	 * @return The smallest integer larger than or equal to <tt>from</tt> that is not the name of a child
+	 */
+	final int nextIndex(final int from) {
+		if (from > free) {
+			int i = from;
+			while (hasIndex(i))
+				i++;
+			return i;
+		}
+		while (hasIndex(free))
+			free++;
+		return free;
+	}
+	
+	@Override
+	@Nullable
+	public Object get(final @Nullable Object key) {
+		if (key == null)
+			return value;
+		if (!(key instanceof String))
+			return null;
+		return getChild((String) key);
+	}
+	
+	@Override
+	public boolean containsKey(final @Nullable Object key) {
+		if (key == null)
+			return value != null;
+		if (!(key instanceof String))
+			return false;
+		return getChild((String) key) != null;
+	}
+	
+	@Override
+	public int size() {
+		return children + (value == null ? 0 : 1);
+	}
+	
+	@Override
+	public boolean isEmpty() {
+		return value == null && children == 0;
+	}
+	
+	/**
+	 * @return The number of variables below this node, excluding the node's own value
+	 */
+	final int countChildValues() {
+		int n = 0;
+		final Iterator<Entry<String, Object>> iter = childIterator();
+		while (iter.hasNext()) {
+			final Object o = iter.next().getValue();
+			if (o instanceof VariableNode) {
+				final VariableNode node = (VariableNode) o;
+				n += node.countChildValues() + (node.value == null ? 0 : 1);
+			} else {
+				n++;
+			}
+		}
+		return n;
+	}
+	
+	/**
+	 * @return A copy of this node in the same format, i.e. the key <tt>null</tt> maps to the node's own value, and sub-lists are copied as well. The copy remains valid if the
+	 *         variables map is modified.
+	 */
+	final Map<String, Object> copy() {
+		final Map<String, Object> copy = new LinkedHashMap<String, Object>();
+		if (value != null)
+			copy.put(null, value);
+		final Iterator<Entry<String, Object>> iter = childIterator();
+		while (iter.hasNext()) {
+			final Entry<String, Object> e = iter.next();
+			final Object o = e.getValue();
+			copy.put(e.getKey(), o instanceof VariableNode ? ((VariableNode) o).copy() : o);
+		}
+		return copy;
+	}
+	
+	@Nullable
+	private transient Set<Entry<String, Object>> entrySet;
+	
+	@Override
+	public Set<Entry<String, Object>> entrySet() {
+		final Set<Entry<String, Object>> entrySet = this.entrySet;
+		if (entrySet != null)
+			return entrySet;
+		return this.entrySet = new AbstractSet<Entry<String, Object>>() {
+			@Override
+			public Iterator<Entry<String, Object>> iterator() {
+				final Object v = value;
+				final Iterator<Entry<String, Object>> iter = childIterator();
+				return new Iterator<Entry<String, Object>>() {
+					private boolean returnedValue = v == null;
+					
+					@Override
+					public boolean hasNext() {
+						return !returnedValue || iter.hasNext();
+					}
+					
+					@SuppressWarnings("null")
+					@Override
+					public Entry<String, Object> next() {
+						if (!returnedValue) {
+							returnedValue = true;
+							return new SimpleImmutableEntry<String, Object>(null, v);
+						}
+						if (!iter.hasNext())
+							throw new NoSuchElementException();
+						return iter.next();
+					}
+					
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+			
+			@Override
+			public int size() {
+				return VariableNode.this.size();
+			}
+		};
+	}
+	
+}
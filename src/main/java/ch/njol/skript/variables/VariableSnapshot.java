@@ -0,0 +1,61 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import ch.njol.skript.Skript;
+import ch.njol.skript.classes.Serializer;
+import ch.njol.skript.registrations.Classes;
+
+/**
+ * A change of a variable whose value is serialised by the write thread of the storage it's saved in instead of on Bukkit's main thread, which is only possible if the value's
+ * serialiser doesn't {@link Serializer#mustSyncSerialization() require the main thread}.
+ * <p>
+ * As only the latest change of a variable is written, values that are overwritten before they are written are never serialised at all.
+ * 
+ * @author Peter Güttinger
+ */
+final class VariableSnapshot extends SerializedVariable {
+	private static final long serialVersionUID = 2304872630174526245L;
+	
+	private final transient Object object;
+	
+	VariableSnapshot(final String name, final Object object) {
+		super(name, null);
+		this.object = object;
+	}
+	
+	/**
+	 * Serialises the value. Must be called before the variable is saved.
+	 * 
+	 * @return Whether the value could be serialised
+	 */
+	final boolean serialize() {
+		try {
+			value = Classes.serialize(object);
+			return true;
+		} catch (final RuntimeException e) {
+			Skript.exception(e, "Cannot serialise the variable {" + name + "}");
+			return false;
+		}
+	}
+	
+}
@@ -0,0 +1,327 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.skript.Skript;
+import ch.njol.skript.lang.Variable;
+import ch.njol.skript.util.Task;
+
+/**
+ * Notifies listeners of changes of global variables, e.g. for the <tt>on variable change</tt> event.
+ * <p>
+ * Listeners subscribe to a single variable or to all variables of a list (including the variables of sub-lists), and are found with a trie of the segments of the
+ * subscribed names, i.e. finding the listeners of a name only takes one lookup per segment, no matter how many subscriptions there are. The trie is searched on the name
+ * itself without splitting it, so checking a variable does not create any objects unless a node has many children. If there are no subscriptions at all, the only cost of
+ * changing a variable is reading a single field.
+ * <p>
+ * Changes are delivered in the tick after they were made, and only once per tick and variable: if a variable is changed several times during a tick the listeners are only
+ * notified once, with the value before the first change and the value after the last one.
+ * <p>
+ * Subscriptions are rare, thus the trie is rebuilt on every change of the subscriptions and is never modified afterwards, which allows to search it from any thread without
+ * locking.
+ * 
+ * @author Peter Güttinger
+ */
+public final class VariableSubscriptions {
+	
+	private VariableSubscriptions() {}
+	
+	public static interface Listener {
+		
+		/**
+		 * Called on Bukkit's main thread in the tick after the variable was changed.
+		 * 
+		 * @param name The variable's name
+		 * @param oldValue The variable's value before the first change of the last tick, or null if it was not set
+		 * @param newValue The variable's current value, or null if it is not set anymore
+		 */
+		public void changed(String name, @Nullable Object oldValue, @Nullable Object newValue);
+		
+	}
+	
+	private final static Listener[] NO_LISTENERS = new Listener[0];
+	
+	/**
+	 * Nodes with at most this many children compare the children's segments directly with the name instead of looking them up in a map
+	 */
+	private final static int MAX_SCANNED_CHILDREN = 8;
+	
+	private final static class Node {
+		@Nullable
+		HashMap<String, Node> children = null;
+		
+		/**
+		 * The keys and values of {@link #children} if there are only a few children, otherwise null
+		 */
+		@Nullable
+		String[] segments = null;
+		@Nullable
+		Node[] nodes = null;
+		
+		/**
+		 * Listeners of the variable with this node's name
+		 */
+		Listener[] variable = NO_LISTENERS;
+		
+		/**
+		 * Listeners of all variables of the list with this node's name
+		 */
+		Listener[] list = NO_LISTENERS;
+		
+		final Node getOrAddChild(final String segment) {
+			HashMap<String, Node> children = this.children;
+			if (children == null)
+				this.children = children = new HashMap<String, Node>();
+			Node child = children.get(segment);
+			if (child == null)
+				children.put(segment, child = new Node());
+			return child;
+		}
+		
+		/**
+		 * Called once this node and all its children have been built.
+		 */
+		final void built() {
+			final HashMap<String, Node> children = this.children;
+			if (children == null)
+				return;
+			for (final Node child : children.values())
+				child.built();
+			if (children.size() > MAX_SCANNED_CHILDREN)
+				return;
+			final String[] segments = new String[children.size()];
+			final Node[] nodes = new Node[children.size()];
+			int i = 0;
+			for (final Entry<String, Node> e : children.entrySet()) {
+				segments[i] = e.getKey();
+				nodes[i++] = e.getValue();
+			}
+			this.segments = segments;
+			this.nodes = nodes;
+		}
+		
+		/**
+		 * @return The child for the segment of the given name between start (inclusive) and end (exclusive), or null if there is no such child
+		 */
+		@Nullable
+		final Node getChild(final String name, final int start, final int end) {
+			final String[] segments = this.segments;
+			final Node[] nodes = this.nodes;
+			if (segments != null && nodes != null) {
+				final int length = end - start;
+				for (int i = 0; i < segments.length; i++) {
+					if (segments[i].length() == length && name.regionMatches(start, segments[i], 0, length))
+						return nodes[i];
+				}
+				return null;
+			}
+			final HashMap<String, Node> children = this.children;
+			return children == null ? null : children.get(name.substring(start, end));
+		}
+	}
+	
+	private final static class Subscription {
+		final String[] path;
+		final boolean list;
+		final Listener listener;
+		
+		Subscription(final String[] path, final boolean list, final Listener listener) {
+			this.path = path;
+			this.list = list;
+			this.listener = listener;
+		}
+	}
+	
+	/**
+	 * Only modified while synchronised on this list
+	 */
+	private final static List<Subscription> subscriptions = new ArrayList<Subscription>();
+	
+	/**
+	 * The trie of all {@link #subscriptions}, or null if there are none
+	 */
+	@Nullable
+	private static volatile Node root = null;
+	
+	/**
+	 * Subscribes a listener to changes of a global variable.
+	 * 
+	 * @param name The variable's lowercase name, or the name of a list ending in "::*" to subscribe to all variables of that list. Must not contain expressions.
+	 */
+	public final static void subscribe(final String name, final Listener listener) {
+		final boolean list = name.endsWith(Variable.SEPARATOR + "*");
+		final String[] path = Variables.splitVariableName(list ? "" + name.substring(0, name.length() - Variable.SEPARATOR.length() - 1) : name);
+		synchronized (subscriptions) {
+			subscriptions.add(new Subscription(path, list, listener));
+			rebuild();
+		}
+	}
+	
+	/**
+	 * Removes all subscriptions of the given listener.
+	 */
+	public final static void unsubscribe(final Listener listener) {
+		synchronized (subscriptions) {
+			final Iterator<Subscription> iter = subscriptions.iterator();
+			while (iter.hasNext()) {
+				if (iter.next().listener == listener)
+					iter.remove();
+			}
+			rebuild();
+		}
+	}
+	
+	private final static void rebuild() {
+		assert Thread.holdsLock(subscriptions);
+		if (subscriptions.isEmpty()) {
+			root = null;
+			return;
+		}
+		final Node root = new Node();
+		for (final Subscription s : subscriptions) {
+			Node n = root;
+			for (final String segment : s.path)
+				n = n.getOrAddChild(segment);
+			if (s.list) {
+				n.list = Arrays.copyOf(n.list, n.list.length + 1);
+				n.list[n.list.length - 1] = s.listener;
+			} else {
+				n.variable = Arrays.copyOf(n.variable, n.variable.length + 1);
+				n.variable[n.variable.length - 1] = s.listener;
+			}
+		}
+		root.built();
+		VariableSubscriptions.root = root;
+	}
+	
+	/**
+	 * @return Whether any listener is subscribed to the given variable
+	 */
+	final static boolean isSubscribed(final String name) {
+		final Node root = VariableSubscriptions.root;
+		if (root == null)
+			return false;
+		return getListeners(root, name, null);
+	}
+	
+	/**
+	 * @param listeners The list to add the listeners of the given variable to, or null to only check whether the variable has any listeners
+	 * @return Whether the variable has any listeners
+	 */
+	private final static boolean getListeners(final Node root, final String name, final @Nullable List<Listener> listeners) {
+		final int sepLength = Variable.SEPARATOR.length();
+		// trailing separators are ignored like by Variables.splitVariableName
+		int end = name.length();
+		while (end > 0 && name.startsWith(Variable.SEPARATOR, end - sepLength))
+			end -= sepLength;
+		boolean found = false;
+		Node n = root;
+		int start = 0;
+		while (true) {
+			final boolean last = start > end;
+			// the listeners of a list are notified of changes of all variables below the list
+			final Listener[] ls = last ? n.variable : n.list;
+			if (ls.length != 0) {
+				if (listeners == null)
+					return true;
+				listeners.addAll(Arrays.asList(ls));
+				found = true;
+			}
+			if (last)
+				break;
+			int segmentEnd = name.indexOf(Variable.SEPARATOR, start);
+			if (segmentEnd == -1 || segmentEnd > end)
+				segmentEnd = end;
+			final Node child = n.getChild(name, start, segmentEnd);
+			if (child == null)
+				break;
+			n = child;
+			start = segmentEnd + sepLength;
+		}
+		return found;
+	}
+	
+	/**
+	 * Changes that are not yet delivered. Values are arrays of the old and the new value.
+	 */
+	private final static LinkedHashMap<String, Object[]> pending = new LinkedHashMap<String, Object[]>();
+	
+	/**
+	 * Queues a change of a variable that {@link #isSubscribed(String) has listeners} to be delivered in the next tick.
+	 */
+	final static void changed(final String name, final @Nullable Object oldValue, final @Nullable Object newValue) {
+		synchronized (pending) {
+			final Object[] change = pending.get(name);
+			if (change != null) {
+				change[1] = newValue;
+				return;
+			}
+			pending.put(name, new Object[] {oldValue, newValue});
+			if (pending.size() == 1) {
+				new Task(Skript.getInstance(), 1) {
+					@Override
+					public void run() {
+						deliver();
+					}
+				};
+			}
+		}
+	}
+	
+	private final static void deliver() {
+		final Map<String, Object[]> changes;
+		synchronized (pending) {
+			changes = new LinkedHashMap<String, Object[]>(pending);
+			pending.clear();
+		}
+		final Node root = VariableSubscriptions.root;
+		if (root == null)
+			return;
+		final List<Listener> listeners = new ArrayList<Listener>();
+		for (final Entry<String, Object[]> c : changes.entrySet()) {
+			final Object oldValue = c.getValue()[0], newValue = c.getValue()[1];
+			if (oldValue == null && newValue == null)
+				continue;
+			listeners.clear();
+			getListeners(root, c.getKey(), listeners);
+			for (final Listener l : listeners) {
+				try {
+					l.changed(c.getKey(), oldValue, newValue);
+				} catch (final Exception e) {
+					Skript.exception(e, "Error while notifying a listener of a change of the variable {" + c.getKey() + "}");
+				}
+			}
+		}
+	}
+	
+}
@@ -22,19 +22,19 @@
 package ch.njol.skript.variables;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.TreeMap;
 import java.util.WeakHashMap;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import org.bukkit.Bukkit;
 import org.bukkit.configuration.serialization.ConfigurationSerializable;
@@ -46,18 +46,23 @@ import ch.njol.skript.Skript;
 import ch.njol.skript.SkriptAPIException;
 import ch.njol.skript.SkriptConfig;
 import ch.njol.skript.classes.ClassInfo;
+import ch.njol.skript.classes.Comparator.Relation;
 import ch.njol.skript.classes.ConfigurationSerializer;
+import ch.njol.skript.classes.Serializer;
 import ch.njol.skript.config.Config;
 import ch.njol.skript.config.Node;
 import ch.njol.skript.config.SectionNode;
 import ch.njol.skript.lang.Variable;
 import ch.njol.skript.registrations.Classes;
+import ch.njol.skript.registrations.Comparators;
 import ch.njol.skript.registrations.Converters;
+import ch.njol.skript.util.Task;
 import ch.njol.skript.variables.DatabaseStorage.Type;
 import ch.njol.skript.variables.SerializedVariable.Value;
 import ch.njol.util.Closeable;
 import ch.njol.util.Kleenean;
 import ch.njol.util.NonNullPair;
+import ch.njol.util.StringUtils;
 import ch.njol.yggdrasil.Yggdrasil;
 
 /**
@@ -100,9 +105,13 @@ public abstract class Variables {
 	
 	static List<VariablesStorage> storages = new ArrayList<VariablesStorage>();
 	
+	/**
+	 * The caches of all storages that only keep some of their variables in memory. If this is empty all variables are in memory.
+	 */
+	private final static List<VariablesCache> caches = new ArrayList<VariablesCache>();
+	
 	public static boolean load() {
-		assert variables.treeMap.isEmpty();
-		assert variables.hashMap.isEmpty();
+		assert variables.isEmpty();
 		assert storages.isEmpty();
 		
 		final Config c = SkriptConfig.getConfig();
@@ -114,6 +123,16 @@ public abstract class Variables {
 			return false;
 		}
 		
+		final String indexedLists = SkriptConfig.indexedListVariables.value();
+		if (!indexedLists.isEmpty()) {
+			try {
+				variables.setIndexedLists(Pattern.compile(indexedLists));
+			} catch (final PatternSyntaxException e) {
+				Skript.error("Invalid pattern '" + indexedLists + "' for the indexed list variables: " + e.getLocalizedMessage());
+				return false;
+			}
+		}
+		
 		Skript.closeOnDisable(new Closeable() {
 			@Override
 			public void close() {
@@ -138,6 +157,8 @@ public abstract class Variables {
 					final VariablesStorage s;
 					if (type.equalsIgnoreCase("csv") || type.equalsIgnoreCase("file") || type.equalsIgnoreCase("flatfile")) {
 						s = new FlatFileStorage(name);
+					} else if (type.equalsIgnoreCase("binary")) {
+						s = new BinaryFileStorage(name);
 					} else if (type.equalsIgnoreCase("mysql")) {
 						s = new DatabaseStorage(name, Type.MYSQL);
 					} else if (type.equalsIgnoreCase("sqlite")) {
@@ -150,10 +171,15 @@ public abstract class Variables {
 						continue;
 					}
 					// TODO print number of loaded variables?
-					if (s.load(n))
+					if (s.load(n)) {
 						storages.add(s);
-					else
+						updateRouter();
+						final VariablesCache cache = s.cache;
+						if (cache != null)
+							caches.add(cache);
+					} else {
 						successful = false;
+					}
 				} else {
 					Skript.error("Invalid line in databases: databases must be defined as sections");
 					successful = false;
@@ -175,45 +201,48 @@ public abstract class Variables {
 		}
 		
 		saveThread.start();
+		saveTask = new Task(Skript.getInstance(), 1, 1) {
+			@Override
+			public void run() {
+				saveChanges();
+			}
+		};
+		VariableExpiry.start();
 		return true;
 	}
 	
-	@SuppressWarnings("null")
-	private final static Pattern variableNameSplitPattern = Pattern.compile(Pattern.quote(Variable.SEPARATOR));
-	
-	@SuppressWarnings("null")
+	/**
+	 * Splits a variable's name at {@link Variable#SEPARATOR}. Like {@link String#split(String)}, trailing empty segments are removed.
+	 */
 	public final static String[] splitVariableName(final String name) {
-		return variableNameSplitPattern.split(name);
+		return VariablesMap.splitName(name);
 	}
 	
-	private final static ReadWriteLock variablesLock = new ReentrantReadWriteLock(true);
-	/**
-	 * must be locked with {@link #variablesLock}.
-	 */
-	private final static VariablesMap variables = new VariablesMap();
 	/**
-	 * Not accessed concurrently
+	 * Does its own locking, see {@link StripedVariablesMap}.
 	 */
-	private final static WeakHashMap<Event, VariablesMap> localVariables = new WeakHashMap<Event, VariablesMap>();
-	
+	private final static StripedVariablesMap variables = new StripedVariablesMap();
 	/**
-	 * Remember to lock with {@link #getReadLock()} and to not make any changes!
+	 * The local variables of events that are not executed by a trigger, e.g. of effect commands. Local variables of triggers are stored in their {@link LocalVariables frame}.
+	 * <p>
+	 * Must be synchronised.
 	 */
-	static TreeMap<String, Object> getVariables() {
-		return variables.treeMap;
-	}
+	private final static WeakHashMap<Event, LocalVariables> localVariables = new WeakHashMap<Event, LocalVariables>();
 	
 	/**
-	 * Remember to lock with {@link #getReadLock()}!
+	 * Returns a copy of a part of all global variables. Only the requested part is locked, and only while it is being copied.
+	 * <p>
+	 * Don't modify the variables' values!
+	 * 
+	 * @param stripe A number between 0 (inclusive) and {@link #getVariablesStripes()} (exclusive)
+	 * @return The variables of the given part, sorted like the variables tree
 	 */
-	@SuppressWarnings("null")
-	static Map<String, Object> getVariablesHashMap() {
-		return Collections.unmodifiableMap(variables.hashMap);
+	static List<NonNullPair<String, Object>> getVariables(final int stripe) {
+		return variables.getVariables(stripe);
 	}
 	
-	@SuppressWarnings("null")
-	static Lock getReadLock() {
-		return variablesLock.readLock();
+	static int getVariablesStripes() {
+		return StripedVariablesMap.STRIPES;
 	}
 	
 	/**
@@ -227,20 +256,237 @@ public abstract class Variables {
 	@Nullable
 	public final static Object getVariable(final String name, final @Nullable Event e, final boolean local) {
 		if (local) {
-			final VariablesMap map = localVariables.get(e);
-			if (map == null)
+			final LocalVariables frame = getLocalVariables(e, false);
+			if (frame == null)
 				return null;
-			return map.getVariable(name);
+			return frame.get(name);
 		} else {
-			try {
-				variablesLock.readLock().lock();
-				return variables.getVariable(name);
-			} finally {
-				variablesLock.readLock().unlock();
-			}
+			final Object v = variables.getVariable(name);
+			if (caches.isEmpty())
+				return v;
+			final VariablesCache c = getCache(name);
+			if (c == null || !c.get(name, v != null))
+				return v;
+			return variables.getVariable(name);
+		}
+	}
+	
+	/**
+	 * Returns the internal value of the requested variable.
+	 * <p>
+	 * <b>Do not modify the returned value!</b>
+	 * 
+	 * @param split The variable's lowercase name split at {@link Variable#SEPARATOR}, e.g. from {@link #splitVariableName(String)}
+	 * @return an Object for a normal Variable or a Map<String, Object> for a list variable, or null if the variable is not set.
+	 * @see #getVariable(String, Event, boolean)
+	 */
+	@Nullable
+	public final static Object getVariable(final String[] split, final @Nullable Event e, final boolean local) {
+		if (local) {
+			final LocalVariables frame = getLocalVariables(e, false);
+			if (frame == null)
+				return null;
+			return frame.get(split);
+		} else if (caches.isEmpty()) {
+			return variables.getVariable(split);
+		} else {
+			return getVariable("" + StringUtils.join(split, Variable.SEPARATOR), e, false);
+		}
+	}
+	
+	/**
+	 * Counts the variables of a list variable in constant time.
+	 * 
+	 * @param list A list variable as returned by {@link #getVariable(String, Event, boolean)}
+	 * @return The number of indices of the list, including sub-lists without a value of their own
+	 */
+	public final static int getListSize(final Map<String, ?> list) {
+		if (list instanceof VariableNode)
+			return ((VariableNode) list).getChildCount();
+		int n = 0;
+		for (final Entry<String, ?> v : list.entrySet()) {
+			if (v.getKey() != null && v.getValue() != null)
+				n++;
+		}
+		return n;
+	}
+	
+	/**
+	 * Finds the next free index of a list variable, which is usually done in constant time.
+	 * 
+	 * @param list A list variable as returned by {@link #getVariable(String, Event, boolean)}, or null if the list is empty
+	 * @param from The smallest index to return
+	 * @return The smallest integer larger than or equal to <tt>from</tt> that is not an index of the given list
+	 */
+	public final static int getNextListIndex(final @Nullable Map<String, ?> list, final int from) {
+		if (list == null)
+			return from;
+		if (list instanceof VariableNode)
+			return ((VariableNode) list).nextIndex(from);
+		int i = from;
+		while (list.containsKey("" + i))
+			i++;
+		return i;
+	}
+	
+	/**
+	 * Finds the values of a list variable that are equal to the given value using the list's {@link ValueIndex value index}, i.e. without comparing the value to every value of
+	 * the list. Only lists matching the option 'indexed list variables' of the config are indexed.
+	 * 
+	 * @param list A list variable as returned by {@link #getVariable(String, Event, boolean)}
+	 * @param value The value to find
+	 * @return The indices of all values of the list that are {@link Relation#EQUAL equal} to the given value in the order of the list, or null if the list is not indexed or
+	 *         the values have to be compared one by one, which is the case if the list has sub-lists or a value of its own, or if the value's type is not indexed.
+	 */
+	@Nullable
+	public final static List<String> getListIndicesOf(final Map<String, ?> list, final Object value) {
+		if (!(list instanceof VariableNode))
+			return null;
+		final VariableNode node = (VariableNode) list;
+		final ValueIndex index = node.getIndex();
+		if (index == null || index.nodes != 0 || node.value != null)
+			return null;
+		final ArrayList<String> candidates = new ArrayList<String>(1);
+		if (!index.getCandidates(value, candidates))
+			return null;
+		for (int i = candidates.size() - 1; i >= 0; i--) {
+			final Object v = node.getChild(candidates.get(i));
+			if (v == null || !Relation.EQUAL.is(Comparators.compare(v, value)))
+				candidates.remove(i);
+		}
+		if (candidates.size() > 1)
+			Collections.sort(candidates, VariablesMap.variableNameComparator);
+		return candidates;
+	}
+	
+	/**
+	 * Gets a local variable that has a slot in the trigger's {@link LocalVariables frame}.
+	 * 
+	 * @param slots The slots of the trigger the variable was parsed in
+	 * @param slot The variable's slot
+	 * @param name The variable's name, used if the variable is not accessed from within the trigger it was parsed in
+	 * @return The variable's value, or null if it is not set
+	 * @see LocalVariables.Slots#slot(String)
+	 */
+	@Nullable
+	public final static Object getLocalVariable(final LocalVariables.Slots slots, final int slot, final String name, final @Nullable Event e) {
+		final LocalVariables frame = getLocalVariables(e, false);
+		if (frame == null)
+			return null;
+		return frame.get(slots, slot, name);
+	}
+	
+	/**
+	 * Sets a local variable that has a slot in the trigger's {@link LocalVariables frame}.
+	 * 
+	 * @param value The variable's new value, or null to delete the variable
+	 * @see #getLocalVariable(LocalVariables.Slots, int, String, Event)
+	 */
+	public final static void setLocalVariable(final LocalVariables.Slots slots, final int slot, final String name, final @Nullable Object value, final Event e) {
+		final LocalVariables frame = getLocalVariables(e, true);
+		assert frame != null;
+		frame.set(slots, slot, name, serializable(value));
+	}
+	
+	/**
+	 * @return The local variables of the trigger executed by the current thread, or the local variables of the given event if no trigger is being executed
+	 */
+	@Nullable
+	private final static LocalVariables getLocalVariables(final @Nullable Event e, final boolean create) {
+		final LocalVariables frame = LocalVariables.current();
+		if (frame != null)
+			return frame;
+		synchronized (localVariables) {
+			LocalVariables vars = localVariables.get(e);
+			if (vars == null && create)
+				localVariables.put(e, vars = new LocalVariables(null));
+			return vars;
 		}
 	}
 	
+	/**
+	 * Finds the storages of variables. Replaced whenever a storage is added.
+	 */
+	private static volatile StorageRouter router = new StorageRouter(Collections.<Pattern>emptyList());
+	
+	private final static void updateRouter() {
+		final List<Pattern> patterns = new ArrayList<Pattern>(storages.size());
+		for (final VariablesStorage s : storages)
+			patterns.add(s.getVariablePattern());
+		router = new StorageRouter(patterns);
+	}
+	
+	/**
+	 * Finds the storage a variable is saved in. This is the first storage whose pattern matches the variable's name, but is usually much faster than matching every pattern.
+	 * <p>
+	 * Saved {@link VariableExpiry expiry times} are saved in the storage of their variable.
+	 * 
+	 * @return The storage of the given variable, or null if the variable is not saved in any storage
+	 */
+	@Nullable
+	final static VariablesStorage getStorage(final String name) {
+		final String variable = VariableExpiry.getVariable(name);
+		final int s = router.route(variable != null ? variable : name);
+		return s == -1 ? null : storages.get(s);
+	}
+	
+	/**
+	 * @return The cache of the storage the given variable is saved in, or null if the variable is not saved in a storage that only keeps some variables in memory
+	 */
+	@Nullable
+	final static VariablesCache getCache(final String name) {
+		final VariablesStorage s = getStorage(name);
+		return s == null ? null : s.cache;
+	}
+	
+	/**
+	 * Loads the given global variables in the background if they are saved in a database that only keeps some variables in memory, so that accessing them later won't have to
+	 * wait for the database, e.g. the variables of a player when the player joins. Does nothing for variables that are already in memory.
+	 * 
+	 * @param names The variables' names, which can also be list variables
+	 */
+	public final static void prefetch(final String... names) {
+		if (caches.isEmpty())
+			return;
+		for (final String name : names) {
+			final VariablesCache c = getCache(name);
+			if (c != null)
+				c.prefetch(name);
+		}
+	}
+	
+	/**
+	 * Like {@link #getVariable(String, Event, boolean)} for global variables, but returns a copy of list variables and doesn't load variables that are not in memory. Can be
+	 * called from any thread.
+	 * 
+	 * @see AsyncVariables
+	 */
+	@Nullable
+	final static Object getVariableCopy(final String name) {
+		return variables.getVariableCopy(name);
+	}
+	
+	/**
+	 * Puts a variable loaded by a {@link VariablesCache} into memory if it's not in memory already.
+	 * 
+	 * @return Whether the variable was put into memory
+	 */
+	final static boolean loadVariable(final String name, final Object value) {
+		assert Bukkit.isPrimaryThread();
+		return variables.setVariableIfAbsent(name, value);
+	}
+	
+	/**
+	 * Removes a variable or all variables of a list from memory without deleting them from their storage. Used by {@link VariablesCache}.
+	 */
+	final static void unloadVariable(final String name) {
+		assert Bukkit.isPrimaryThread();
+		if (name.endsWith(Variable.SEPARATOR + "*"))
+			variables.deleteList(name);
+		else
+			variables.setVariable(name, null);
+	}
+	
 	/**
 	 * Sets a variable.
 	 * 
@@ -248,35 +494,88 @@ public abstract class Variables {
 	 * @param value The variable's value. Use <tt>null</tt> to delete the variable.
 	 */
 	public final static void setVariable(final String name, @Nullable Object value, final @Nullable Event e, final boolean local) {
-		if (value != null) {
-			assert !name.endsWith("::*");
-			@SuppressWarnings("null")
-			final ClassInfo<?> ci = Classes.getSuperClassInfo(value.getClass());
-			final Class<?> sas = ci.getSerializeAs();
-			if (sas != null) {
-				value = Converters.convert(value, sas);
-				assert value != null : ci + ", " + sas;
-			}
-		}
+		assert value == null || !name.endsWith("::*");
+		value = serializable(value);
 		if (local) {
 			assert e != null : name;
-			VariablesMap map = localVariables.get(e);
-			if (map == null)
-				localVariables.put(e, map = new VariablesMap());
-			map.setVariable(name, value);
+			final LocalVariables frame = getLocalVariables(e, true);
+			assert frame != null;
+			frame.set(name, value);
 		} else {
 			setVariable(name, value);
 		}
 	}
 	
+	/**
+	 * Sets a variable.
+	 * 
+	 * @param split The variable's lowercase name split at {@link Variable#SEPARATOR}. Can be a "list variable::*" (<tt>value</tt> must be <tt>null</tt> in this case)
+	 * @param value The variable's value. Use <tt>null</tt> to delete the variable.
+	 * @see #setVariable(String, Object, Event, boolean)
+	 */
+	public final static void setVariable(final String[] split, final @Nullable Object value, final @Nullable Event e, final boolean local) {
+		if (local) {
+			assert e != null : Arrays.toString(split);
+			assert value == null || split.length == 0 || !split[split.length - 1].equals("*");
+			final LocalVariables frame = getLocalVariables(e, true);
+			assert frame != null;
+			frame.set(split, serializable(value));
+		} else {
+			// storages save variables by their full names anyway
+			setVariable("" + StringUtils.join(split, Variable.SEPARATOR), value, e, false);
+		}
+	}
+	
+	/**
+	 * Converts a value to the class it is {@link ClassInfo#getSerializeAs() serialised as}.
+	 */
+	@Nullable
+	private final static Object serializable(final @Nullable Object value) {
+		if (value == null)
+			return null;
+		@SuppressWarnings("null")
+		final ClassInfo<?> ci = Classes.getSuperClassInfo(value.getClass());
+		final Class<?> sas = ci.getSerializeAs();
+		if (sas == null)
+			return value;
+		final Object converted = Converters.convert(value, sas);
+		assert converted != null : ci + ", " + sas;
+		return converted;
+	}
+	
 	final static void setVariable(final String name, @Nullable final Object value) {
-		try {
-			variablesLock.writeLock().lock();
-			variables.setVariable(name, value);
-		} finally {
-			variablesLock.writeLock().unlock();
+		VariableExpiry.changed(name);
+		if (value == null && name.endsWith(Variable.SEPARATOR + "*")) {
+			if (!caches.isEmpty()) {
+				final VariablesCache c = getCache(name);
+				if (c != null)
+					c.getNow(name); // the list must be in memory to delete all of its variables
+			}
+			// storages only know single variables, thus every variable of the list is deleted separately
+			for (final NonNullPair<String, Object> v : variables.deleteList(name)) {
+				final String n = v.first;
+				if (!caches.isEmpty()) {
+					final VariablesCache c = getCache(n);
+					if (c != null)
+						c.changed(n);
+				}
+				saveVariableChange(n, null);
+				if (VariableSubscriptions.isSubscribed(n))
+					VariableSubscriptions.changed(n, v.second, null);
+			}
+			return;
+		}
+		if (!caches.isEmpty()) {
+			final VariablesCache c = getCache(name);
+			if (c != null)
+				c.changed(name);
 		}
+		final boolean subscribed = VariableSubscriptions.isSubscribed(name);
+		final Object old = subscribed ? variables.getVariable(name) : null;
+		variables.setVariable(name, value);
 		saveVariableChange(name, value);
+		if (subscribed)
+			VariableSubscriptions.changed(name, old, value);
 	}
 	
 	// stores loaded variables while variable storages are loaded.
@@ -300,8 +599,22 @@ public abstract class Variables {
 		
 		final Map<String, NonNullPair<Object, VariablesStorage>> tvs = tempVars;
 		if (tvs != null) {
-			if (value == null)
+			if (value == null) { // a deletion which was saved after the variable itself, e.g. in a CSV file's changes log
+				if (name.endsWith(Variable.SEPARATOR + "*")) { // written by older versions of Skript
+					final String prefix = name.substring(0, name.length() - 1);
+					final Iterator<Entry<String, NonNullPair<Object, VariablesStorage>>> iter = tvs.entrySet().iterator();
+					while (iter.hasNext()) {
+						final Entry<String, NonNullPair<Object, VariablesStorage>> tv = iter.next();
+						if (tv.getKey().startsWith(prefix) && tv.getValue().second == source)
+							iter.remove();
+					}
+				} else {
+					final NonNullPair<Object, VariablesStorage> v = tvs.get(name);
+					if (v != null && v.second == source)
+						tvs.remove(name);
+				}
 				return false;
+			}
 			final NonNullPair<Object, VariablesStorage> v = tvs.get(name);
 			if (v != null && v.second != source) {// variable already loaded from another database
 				Skript.warning("The variable {" + name + "} was loaded twice from different databases (" + v.second.databaseName + " and " + source.databaseName + "), only the one from " + source.databaseName + " will be kept.");
@@ -311,25 +624,30 @@ public abstract class Variables {
 			return false;
 		}
 		
-		variablesLock.writeLock().lock();
-		try {
-			variables.setVariable(name, value);
-		} finally {
-			variablesLock.writeLock().unlock();
-		}
-		
-		for (final VariablesStorage s : storages) {
-			if (s.accept(name)) {
-				if (s != source) {
-					final Value v = serialize(value);
-					s.save(name, v != null ? v.type : null, v != null ? v.data : null);
-					if (value != null)
-						source.save(name, null, null);
-				}
-				return true;
+		variables.setVariable(name, value);
+		return moveLoadedVariable(name, value, source);
+	}
+	
+	/**
+	 * Moves a loaded variable to the appropriate database if the config was changed.
+	 * 
+	 * @return Whether the variable was stored somewhere
+	 */
+	private final static boolean moveLoadedVariable(final String name, final @Nullable Object value, final VariablesStorage source) {
+		final VariablesStorage s = getStorage(name);
+		if (s == null)
+			return false;
+		if (s != source) {
+			final Value v = serialize(value);
+			s.save(name, v != null ? v.type : null, v != null ? v.data : null);
+			if (value != null) {
+				source.save(name, null, null);
+				final VariablesCache c = s.cache;
+				if (c != null)
+					c.added(name);
 			}
 		}
-		return false;
+		return true;
 	}
 	
 	/**
@@ -342,9 +660,13 @@ public abstract class Variables {
 		final Map<String, NonNullPair<Object, VariablesStorage>> tvs = tempVars;
 		tempVars = null;
 		assert tvs != null;
+		final List<NonNullPair<String, Object>> vars = new ArrayList<NonNullPair<String, Object>>(tvs.size());
+		for (final Entry<String, NonNullPair<Object, VariablesStorage>> tv : tvs.entrySet())
+			vars.add(new NonNullPair<String, Object>(tv.getKey(), tv.getValue().first));
+		variables.setVariables(vars);
 		int n = 0;
 		for (final Entry<String, NonNullPair<Object, VariablesStorage>> tv : tvs.entrySet()) {
-			if (!variableLoaded(tv.getKey(), tv.getValue().first, tv.getValue().second))
+			if (!moveLoadedVariable(tv.getKey(), tv.getValue().first, tv.getValue().second))
 				n++;
 		}
 		return n;
@@ -362,10 +684,77 @@ public abstract class Variables {
 		return Classes.serialize(value);
 	}
 	
+	/**
+	 * Changes of global variables that are not yet passed to the storages. Only the latest value of every variable is kept, and only that value is serialised, see
+	 * {@link #saveChanges()}. Deleted variables have the value {@link #DELETED}.
+	 * <p>
+	 * Only accessed on Bukkit's main thread.
+	 */
+	private final static LinkedHashMap<String, Object> changes = new LinkedHashMap<String, Object>();
+	private final static Object DELETED = new Object();
+	
 	private final static void saveVariableChange(final String name, final @Nullable Object value) {
-		queue.add(serialize(name, value));
+		assert Bukkit.isPrimaryThread();
+		final Object old = changes.put(name, value == null ? DELETED : value);
+		if (old != null && !caches.isEmpty()) {
+			final VariablesCache c = getCache(name);
+			if (c != null)
+				c.saved(name); // the replaced change will never be written
+		}
+	}
+	
+	/**
+	 * Queues an entry that is saved together with the variables but is not a variable itself, e.g. an {@link VariableExpiry expiry time}. The entry is passed to the storage
+	 * in the same order as the changes of variables.
+	 * 
+	 * @param value The entry's serialised value, or null to delete it
+	 */
+	final static void saveEntry(final String name, final @Nullable Value value) {
+		assert Bukkit.isPrimaryThread();
+		changes.put(name, value == null ? DELETED : value);
 	}
 	
+	/**
+	 * Passes the changed variables to the storages. Called every tick, and when the variables are closed.
+	 * <p>
+	 * Values whose serialiser requires Bukkit's main thread are serialised here, all others are serialised by the storages' write threads (see {@link VariableSnapshot}).
+	 */
+	@SuppressWarnings("null")
+	final static void saveChanges() {
+		assert Bukkit.isPrimaryThread();
+		if (changes.isEmpty())
+			return;
+		for (final Entry<String, Object> c : changes.entrySet()) {
+			final String name = c.getKey();
+			final Object value = c.getValue();
+			if (value == DELETED) {
+				queue.add(new SerializedVariable(name, null));
+				continue;
+			}
+			if (value instanceof Value) { // saved by saveEntry
+				queue.add(new SerializedVariable(name, (Value) value));
+				continue;
+			}
+			if (!mustSerializeSync(value))
+				queue.add(new VariableSnapshot(name, value));
+			else
+				queue.add(serialize(name, value));
+		}
+		changes.clear();
+	}
+	
+	/**
+	 * @return Whether the given value can only be serialised on Bukkit's main thread, i.e. whether its serialiser requires it or the value has to be converted first
+	 */
+	final static boolean mustSerializeSync(final Object value) {
+		final ClassInfo<?> ci = Classes.getSuperClassInfo(value.getClass());
+		final Serializer<?> s = ci.getSerializer();
+		return s == null || ci.getSerializeAs() != null || s.mustSyncSerialization();
+	}
+	
+	@Nullable
+	private static Task saveTask = null;
+	
 	final static BlockingQueue<SerializedVariable> queue = new LinkedBlockingQueue<SerializedVariable>();
 	
 	static volatile boolean closed = false;
@@ -376,18 +765,19 @@ public abstract class Variables {
 			while (!closed) {
 				try {
 					final SerializedVariable v = queue.take();
-					for (final VariablesStorage s : storages) {
-						if (s.accept(v.name)) {
-							s.save(v);
-							break;
-						}
-					}
+					final VariablesStorage s = getStorage(v.name);
+					if (s != null)
+						s.save(v);
 				} catch (final InterruptedException e) {}
 			}
 		}
 	}, "Skript variable save thread");
 	
 	public static void close() {
+		final Task t = saveTask;
+		if (t != null)
+			t.cancel();
+		saveChanges();
 		while (queue.size() > 0) {
 			try {
 				Thread.sleep(10);
@@ -395,15 +785,26 @@ public abstract class Variables {
 		}
 		closed = true;
 		saveThread.interrupt();
+		// the last change might still be being passed to a storage
+		while (saveThread.isAlive()) {
+			try {
+				saveThread.join();
+			} catch (final InterruptedException e) {}
+		}
 	}
 	
 	public static int numVariables() {
-		try {
-			variablesLock.readLock().lock();
-			return variables.hashMap.size();
-		} finally {
-			variablesLock.readLock().unlock();
-		}
+		return variables.size();
+	}
+	
+	/**
+	 * @return A description of the pending changes of every database, in the order of the databases
+	 */
+	public static Map<String, String> getStorageStatus() {
+		final Map<String, String> status = new LinkedHashMap<String, String>();
+		for (final VariablesStorage s : storages)
+			status.put(s.databaseName, s.getStatus());
+		return status;
 	}
 	
 }
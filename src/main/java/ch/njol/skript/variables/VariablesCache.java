@@ -0,0 +1,832 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.skript.Skript;
+import ch.njol.skript.lang.Variable;
+import ch.njol.skript.localization.Language;
+import ch.njol.skript.util.Task;
+
+/**
+ * Keeps only the recently used variables of a {@link DatabaseStorage} in memory and loads all other variables from the database when they are accessed.
+ * <p>
+ * Variables are cached in units of the names they are accessed by, i.e. a single variable or a whole list variable. A unit is also kept if the database doesn't contain any
+ * variables for its name, so that accessing unset variables doesn't query the database every time. If more variables than the configured maximum are cached, the least recently
+ * used units are removed from memory, except for units with changes that are not yet written to the database.
+ * <p>
+ * If variables are partitioned by players, units whose names contain a player's UUID, e.g. <tt>{homes::&lt;uuid&gt;::*}</tt>, belong to that player's partition instead: they
+ * don't count towards the maximum size and are kept in memory while the player is online, and are removed from memory some time after the player quit or, for offline players,
+ * after they were last used. When a player logs in, the units that were used by other players before are loaded in the background before the player joins, e.g.
+ * <tt>{homes::&lt;uuid&gt;::*}</tt> is loaded for every player once any script used it. Thus only the variables of online players are kept in memory, no matter how many
+ * players have ever joined.
+ * <p>
+ * Variables that are not cached are loaded in the background when they are accessed, thus accessing them never waits for the database, but they are unset until they have
+ * been loaded (usually in one of the next ticks). If the database is configured to block on cache misses, they are instead loaded immediately on Bukkit's main thread, which
+ * stalls the current tick for a whole query of the database.
+ * <p>
+ * All changes to the variables map are made on Bukkit's main thread. Only reading from the database happens on different threads.
+ * 
+ * @author Peter Güttinger
+ */
+class VariablesCache {
+	
+	private final static String LIST = Variable.SEPARATOR + "*";
+	
+	private final DatabaseStorage storage;
+	
+	/**
+	 * The maximum number of variables to keep in memory. Units of lists are counted with the number of variables they had when they were loaded, and empty units as one variable.
+	 */
+	private final int maxSize;
+	
+	private int size = 0;
+	
+	private final static class Unit {
+		int size;
+		
+		/**
+		 * The UUID of the player whose partition this unit belongs to, or null if it's not part of a partition
+		 */
+		@Nullable
+		final String partition;
+		
+		Unit(final int size, final @Nullable String partition) {
+			this.size = size;
+			this.partition = partition;
+		}
+	}
+	
+	/**
+	 * The cached units in access order, i.e. the least recently used unit first.
+	 */
+	private final LinkedHashMap<String, Unit> units = new LinkedHashMap<String, Unit>(16, 0.75f, true);
+	/**
+	 * The same units sorted by name to find the units inside a list. Accessing this map doesn't change the order of {@link #units}.
+	 */
+	private final TreeMap<String, Unit> sortedUnits = new TreeMap<String, Unit>();
+	
+	private final static class Change {
+		/**
+		 * How many changes of the variable are not yet written to the database
+		 */
+		int unsaved = 0;
+		/**
+		 * The value of {@link VariablesCache#changes} after the last change of the variable, or after it was written to the database if that happened during a load
+		 */
+		long number;
+	}
+	
+	/**
+	 * Changed variables that are not yet written to the database, and while variables are loaded also variables that were changed since the oldest load started.
+	 */
+	private final HashMap<String, Change> changed = new HashMap<String, Change>();
+	
+	private long changes = 0;
+	
+	/**
+	 * The number of unsaved changes of the variables inside each list, by the lists' names ending in "::*". Lists without unsaved changes are not in this map. Allows to check
+	 * whether the unit of a list can be evicted without looking at all changes.
+	 */
+	private final HashMap<String, int[]> unsavedInLists = new HashMap<String, int[]>();
+	
+	/**
+	 * Variables that are currently loaded in the background, and the callbacks to call once they have been loaded
+	 */
+	private final HashMap<String, List<Loaded>> backgroundLoads = new HashMap<String, List<Loaded>>();
+	
+	/**
+	 * Whether variables that are not cached are loaded on the main thread when they are accessed instead of in the background
+	 */
+	private final boolean blocking;
+	
+	/**
+	 * The number of loads that are in progress
+	 */
+	private int loading = 0;
+	
+	private long hits = 0, negativeHits = 0, misses = 0, evictions = 0, loaded = 0;
+	
+	/**
+	 * How long the partition of a player is kept in memory after they quit or after it was last used if they're offline, in milliseconds, or -1 if variables are not
+	 * partitioned by players
+	 */
+	private final long partitionDelay;
+	
+	private final static class Partition {
+		final HashSet<String> units = new HashSet<String>();
+		
+		/**
+		 * When the partition can be removed from memory, or 0 while the player is online
+		 */
+		long evictAt;
+	}
+	
+	/**
+	 * The partitions of all players that are online or whose variables are still in memory, by the players' UUIDs
+	 */
+	private final HashMap<String, Partition> partitions = new HashMap<String, Partition>();
+	
+	/**
+	 * The number of variables in all partitions, counted like {@link #size}
+	 */
+	private int partitionsSize = 0;
+	
+	/**
+	 * Character in {@link #templates} that is replaced with a player's UUID. Cannot be part of a variable's name.
+	 */
+	private final static char PLAYER = '\0';
+	
+	private final static int MAX_TEMPLATES = 100;
+	
+	/**
+	 * The names of the units that are loaded when a player logs in, with the player's UUID replaced by {@link #PLAYER}. Only units whose last index is the UUID are used as
+	 * templates, as the names of other units usually contain some other value that changes every time.
+	 */
+	private final LinkedHashSet<String> templates = new LinkedHashSet<String>();
+	
+	/**
+	 * @param partitionDelay How long the variables of a player are kept in memory after they quit, in milliseconds, or -1 to not partition variables by players
+	 * @param blocking Whether to load variables that are not cached on the main thread when they are accessed, which waits for the database
+	 */
+	VariablesCache(final DatabaseStorage storage, final int maxSize, final long partitionDelay, final boolean blocking) {
+		this.storage = storage;
+		this.maxSize = maxSize;
+		this.partitionDelay = partitionDelay;
+		this.blocking = blocking;
+	}
+	
+	/**
+	 * Starts loading and removing the partitions of players when they log in and quit. Must be called once the database is ready.
+	 */
+	final void start() {
+		if (partitionDelay < 0)
+			return;
+		synchronized (this) {
+			for (final Player p : Bukkit.getOnlinePlayers())
+				getPartition("" + p.getUniqueId()).evictAt = 0;
+		}
+		Bukkit.getPluginManager().registerEvents(new Listener() {
+			@EventHandler(priority = EventPriority.MONITOR)
+			public void onPreLogin(final AsyncPlayerPreLoginEvent e) {
+				if (e.getLoginResult() == AsyncPlayerPreLoginEvent.Result.ALLOWED)
+					preload("" + e.getUniqueId());
+			}
+			
+			@EventHandler(priority = EventPriority.LOWEST)
+			public void onJoin(final PlayerJoinEvent e) {
+				synchronized (VariablesCache.this) {
+					getPartition("" + e.getPlayer().getUniqueId()).evictAt = 0;
+				}
+			}
+			
+			@EventHandler(priority = EventPriority.MONITOR)
+			public void onQuit(final PlayerQuitEvent e) {
+				synchronized (VariablesCache.this) {
+					getPartition("" + e.getPlayer().getUniqueId()).evictAt = System.currentTimeMillis() + partitionDelay;
+				}
+			}
+		}, Skript.getInstance());
+		Skript.closeOnDisable(new Task(Skript.getInstance(), 20, 20) {
+			@Override
+			public void run() {
+				evictPartitions();
+			}
+		});
+	}
+	
+	/**
+	 * Gets or creates the partition of a player. Must be synchronised. New partitions are treated like partitions of offline players.
+	 */
+	private final Partition getPartition(final String uuid) {
+		Partition p = partitions.get(uuid);
+		if (p == null) {
+			partitions.put(uuid, p = new Partition());
+			p.evictAt = System.currentTimeMillis() + partitionDelay;
+		}
+		return p;
+	}
+	
+	/**
+	 * Loads all units of the given player that are {@link #templates known} before the player joins. Called on the thread that logs the player in.
+	 */
+	private final void preload(final String uuid) {
+		final List<String> names;
+		synchronized (this) {
+			// not marked as online yet, as the player might still be disconnected before joining
+			getPartition(uuid).evictAt = System.currentTimeMillis() + partitionDelay;
+			names = new ArrayList<String>(templates.size());
+			for (final String t : templates)
+				names.add(t.replace("" + PLAYER, uuid));
+		}
+		for (final String name : names) {
+			synchronized (this) {
+				if (isCached(name, false))
+					continue;
+			}
+			load(name, null);
+		}
+	}
+	
+	/**
+	 * Removes the partitions of players that quit long enough ago from memory. Units with changes that are not yet written to the database are removed later.
+	 */
+	final synchronized void evictPartitions() {
+		assert Bukkit.isPrimaryThread();
+		final long now = System.currentTimeMillis();
+		final Iterator<Partition> iter = partitions.values().iterator();
+		while (iter.hasNext()) {
+			final Partition p = iter.next();
+			if (p.evictAt == 0 || p.evictAt > now)
+				continue;
+			final Iterator<String> units = p.units.iterator();
+			while (units.hasNext()) {
+				final String unit = units.next();
+				if (isChanged(unit))
+					continue;
+				units.remove();
+				final Unit u = this.units.remove(unit);
+				sortedUnits.remove(unit);
+				if (u != null)
+					partitionsSize -= u.size;
+				evictions++;
+				unload(unit);
+			}
+			if (p.units.isEmpty())
+				iter.remove();
+		}
+	}
+	
+	/**
+	 * Finds a segment of the given variable name that is a player's UUID.
+	 * 
+	 * @return The index of the first UUID in the name, or -1 if the name doesn't contain a UUID or variables are not partitioned
+	 */
+	private final int findUUID(final String name) {
+		if (partitionDelay < 0)
+			return -1;
+		int start = 0;
+		while (true) {
+			int end = name.indexOf(Variable.SEPARATOR, start);
+			if (end == -1)
+				end = name.length();
+			if (end - start == 36 && isUUID(name, start))
+				return start;
+			if (end == name.length())
+				return -1;
+			start = end + Variable.SEPARATOR.length();
+		}
+	}
+	
+	/**
+	 * @return Whether the 36 characters at the given index are a lowercase UUID as returned by {@link java.util.UUID#toString()}
+	 */
+	final static boolean isUUID(final String s, final int start) {
+		for (int i = 0; i < 36; i++) {
+			final char c = s.charAt(start + i);
+			if (i == 8 || i == 13 || i == 18 || i == 23) {
+				if (c != '-')
+					return false;
+			} else if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Makes sure that the given variable is in memory if it exists. Must be called before every access of a variable stored in this cache's database.
+	 * <p>
+	 * Must be called on Bukkit's main thread. If the variable is not cached it is loaded immediately, unless the cache is not {@link #blocking}, in which case it is loaded in the
+	 * background and the variable stays unset until it has been loaded.
+	 * 
+	 * @param name A variable's name, which can also be a list variable
+	 * @param inMemory Whether the variable is currently in memory. Only used for the statistics.
+	 * @return Whether any variables were loaded, i.e. whether the variable has to be looked up again
+	 */
+	final boolean get(final String name, final boolean inMemory) {
+		return get(name, inMemory, blocking);
+	}
+	
+	/**
+	 * Like {@link #get(String, boolean)}, but always loads the variable immediately if it's not cached, e.g. because all variables of a list must be in memory to delete the
+	 * list.
+	 */
+	final void getNow(final String name) {
+		get(name, true, true);
+	}
+	
+	private final boolean get(final String name, final boolean inMemory, final boolean blocking) {
+		assert Bukkit.isPrimaryThread();
+		synchronized (this) {
+			if (isCached(name, true)) {
+				if (inMemory)
+					hits++;
+				else
+					negativeHits++;
+				return false;
+			}
+			misses++;
+			if (!blocking) {
+				loadInBackground(name, null);
+				return false;
+			}
+		}
+		return load(name, null);
+	}
+	
+	/**
+	 * Loads the given variable in the background if it's not cached, so that it can be accessed later without waiting for the database.
+	 * 
+	 * @param name A variable's name, which can also be a list variable
+	 */
+	final synchronized void prefetch(final String name) {
+		if (!isCached(name, false))
+			loadInBackground(name, null);
+	}
+	
+	/**
+	 * A callback of {@link VariablesCache#prefetch(String, Loaded)}
+	 */
+	static abstract class Loaded {
+		
+		/**
+		 * Called while the cache is locked once the variable is in memory if it exists, thus the variable cannot be removed from memory during this call. Must not wait for
+		 * other threads.
+		 */
+		abstract void loaded();
+		
+		/**
+		 * Called without holding any locks after {@link #loaded()}, or if the variable could not be read from the database.
+		 * 
+		 * @param success Whether {@link #loaded()} has been called
+		 */
+		abstract void done(boolean success);
+		
+	}
+	
+	/**
+	 * Like {@link #prefetch(String)}, but also calls the given callback once the variable is in memory if it exists. Can be called from any thread.
+	 * 
+	 * @param loaded Called immediately on the calling thread if the variable is cached, otherwise {@link Loaded#loaded()} is called on the main thread while the loaded
+	 *            variables are put into memory and {@link Loaded#done(boolean)} on the thread that loads the variable.
+	 */
+	final void prefetch(final String name, final Loaded loaded) {
+		synchronized (this) {
+			if (!isCached(name, true)) {
+				misses++;
+				loadInBackground(name, loaded);
+				return;
+			}
+			hits++;
+			loaded(Collections.singletonList(loaded));
+		}
+		done(Collections.singletonList(loaded), true);
+	}
+	
+	/**
+	 * Loads the given variable on a new thread unless it's already being loaded. Must be synchronised.
+	 * 
+	 * @param loaded Called once the variable has been put into memory or could not be loaded, or null
+	 */
+	private final void loadInBackground(final String name, final @Nullable Loaded loaded) {
+		List<Loaded> callbacks = backgroundLoads.get(name);
+		if (callbacks == null) {
+			backgroundLoads.put(name, callbacks = new ArrayList<Loaded>(1));
+			final List<Loaded> c = callbacks;
+			new Task(Skript.getInstance(), 0, true) {
+				@Override
+				public void run() {
+					boolean success = false;
+					try {
+						boolean cached;
+						synchronized (VariablesCache.this) {
+							cached = isCached(name, false);
+							if (cached) {
+								backgroundLoads.remove(name);
+								loaded(c);
+							}
+						}
+						if (!cached)
+							load(name, c);
+					} finally {
+						// the callbacks are removed from backgroundLoads when they are called
+						synchronized (VariablesCache.this) {
+							success = backgroundLoads.get(name) != c;
+							if (!success)
+								backgroundLoads.remove(name);
+						}
+						done(c, success);
+					}
+				}
+			};
+		}
+		if (loaded != null)
+			callbacks.add(loaded);
+	}
+	
+	/**
+	 * Calls {@link Loaded#loaded()} of the given callbacks. Must be synchronised.
+	 */
+	private final static void loaded(final List<Loaded> callbacks) {
+		for (final Loaded l : callbacks) {
+			try {
+				l.loaded();
+			} catch (final Exception e) {
+				Skript.exception(e, "Error in a callback of a variable load");
+			}
+		}
+	}
+	
+	/**
+	 * Calls {@link Loaded#done(boolean)} of the given callbacks. Must not be synchronised.
+	 */
+	private final static void done(final List<Loaded> callbacks, final boolean success) {
+		for (final Loaded l : callbacks) {
+			try {
+				l.done(success);
+			} catch (final Exception e) {
+				Skript.exception(e, "Error in a callback of a variable load");
+			}
+		}
+	}
+	
+	/**
+	 * Must be called on Bukkit's main thread before a variable stored in this cache's database is changed.
+	 * {@link #saved(String)} must be called after the change was written to the database.
+	 */
+	final synchronized void changed(final String name) {
+		assert Bukkit.isPrimaryThread();
+		Change c = changed.get(name);
+		if (c == null)
+			changed.put(name, c = new Change());
+		c.unsaved++;
+		c.number = ++changes;
+		countUnsavedInLists(name, 1);
+		if (!isCached(name, true))
+			add(name, 1);
+	}
+	
+	/**
+	 * Called after a change of the given variable was written to the database.
+	 */
+	final synchronized void saved(final String name) {
+		final Change c = changed.get(name);
+		if (c == null || c.unsaved == 0)
+			return;
+		countUnsavedInLists(name, -1);
+		if (--c.unsaved == 0) {
+			if (loading == 0)
+				changed.remove(name);
+			else // loads that are in progress might have read the variable before the change was written
+				c.number = ++changes;
+		}
+	}
+	
+	/**
+	 * Adds the given number to the {@link #unsavedInLists unsaved changes} of all lists that contain the given variable. Must be synchronised.
+	 */
+	private final void countUnsavedInLists(final String name, final int delta) {
+		int i = 0;
+		while ((i = name.indexOf(Variable.SEPARATOR, i)) != -1) {
+			final String list = name.substring(0, i) + LIST;
+			final int[] n = unsavedInLists.get(list);
+			if (n == null) {
+				assert delta > 0 : name;
+				unsavedInLists.put(list, new int[] {delta});
+			} else if ((n[0] += delta) == 0) {
+				unsavedInLists.remove(list);
+			}
+			i += Variable.SEPARATOR.length();
+		}
+	}
+	
+	/**
+	 * Registers a variable that was put into memory and saved to this cache's database by someone else, i.e. that was moved here from another database.
+	 */
+	final synchronized void added(final String name) {
+		assert Bukkit.isPrimaryThread();
+		if (!isCached(name, true))
+			add(name, 1);
+	}
+	
+	/**
+	 * Whether the given variable is cached. Must be synchronised.
+	 * 
+	 * @param touch Whether to mark the variable's unit as used
+	 */
+	private final boolean isCached(final String name, final boolean touch) {
+		final Unit u = getUnit(name, touch);
+		if (u == null)
+			return false;
+		// using the variables of an offline player keeps them in memory for a while
+		final String partition = u.partition;
+		if (touch && partition != null) {
+			final Partition p = partitions.get(partition);
+			if (p != null && p.evictAt != 0)
+				p.evictAt = System.currentTimeMillis() + partitionDelay;
+		}
+		return true;
+	}
+	
+	/**
+	 * @return The unit that contains the given variable, or null if it's not cached. Must be synchronised.
+	 */
+	@Nullable
+	private final Unit getUnit(final String name, final boolean touch) {
+		Unit u = touch ? units.get(name) : sortedUnits.get(name);
+		if (u != null)
+			return u;
+		// whether a list containing the variable is cached
+		int i = -Variable.SEPARATOR.length();
+		while ((i = name.indexOf(Variable.SEPARATOR, i + Variable.SEPARATOR.length())) != -1) {
+			if (i + LIST.length() == name.length() && name.endsWith(LIST))
+				break;
+			final String list = name.substring(0, i) + LIST;
+			if ((u = touch ? units.get(list) : sortedUnits.get(list)) != null)
+				return u;
+		}
+		return null;
+	}
+	
+	/**
+	 * Loads the given variable or list from the database and puts all variables that were not changed in the meantime into memory.
+	 * 
+	 * @param callbacks Callbacks of a background load to call while the loaded variables are put into memory, or null
+	 * @return Whether any variables were put into memory
+	 */
+	private final boolean load(final String name, final @Nullable List<Loaded> callbacks) {
+		final long since = startLoad();
+		try {
+			final CacheLoader loader = new CacheLoader(since);
+			if (!storage.read(name, loader))
+				return false;
+			final Boolean added = Task.callSync(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					synchronized (VariablesCache.this) {
+						final boolean r = addLoaded();
+						// called before the lock is released so that the variable cannot be evicted in between
+						if (callbacks != null) {
+							backgroundLoads.remove(name);
+							loaded(callbacks);
+						}
+						return r;
+					}
+				}
+				
+				private boolean addLoaded() {
+					loaded += loader.merged;
+					if (isCached(name, false))
+						return loader.merged > 0;
+					// units inside a list are part of the list's unit from now on
+					int n = loader.merged;
+					if (name.endsWith(LIST)) {
+						final String prefix = name.substring(0, name.length() - 1);
+						final Iterator<Entry<String, Unit>> iter = sortedUnits.subMap(prefix, prefix + Character.MAX_VALUE).entrySet().iterator();
+						while (iter.hasNext()) {
+							final Entry<String, Unit> e = iter.next();
+							final Unit u = e.getValue();
+							n += u.size;
+							final String partition = u.partition;
+							if (partition == null) {
+								size -= u.size;
+							} else {
+								partitionsSize -= u.size;
+								final Partition p = partitions.get(partition);
+								if (p != null)
+									p.units.remove(e.getKey());
+							}
+							units.remove(e.getKey());
+							iter.remove();
+						}
+					}
+					add(name, n);
+					return loader.merged > 0;
+				}
+			});
+			return added != null && added;
+		} finally {
+			endLoad();
+		}
+	}
+	
+	/**
+	 * Must be called before a variable is read from the database, and {@link #endLoad()} once the loaded variables have been {@link #merge(String, Object, long) merged}.
+	 * 
+	 * @return The current number of changes, to be passed to {@link #merge(String, Object, long)}
+	 */
+	final synchronized long startLoad() {
+		loading++;
+		return changes;
+	}
+	
+	/**
+	 * Forgets changes that are written to the database once no more loads are in progress, as no load can overwrite them anymore.
+	 */
+	final synchronized void endLoad() {
+		assert loading > 0;
+		if (--loading == 0) {
+			final Iterator<Change> iter = changed.values().iterator();
+			while (iter.hasNext()) {
+				if (iter.next().unsaved == 0)
+					iter.remove();
+			}
+		}
+	}
+	
+	private final class CacheLoader extends VariablesLoader {
+		private final long since;
+		
+		/**
+		 * The number of variables put into memory
+		 */
+		int merged = 0;
+		
+		CacheLoader(final long since) {
+			super(storage);
+			this.since = since;
+		}
+		
+		@Override
+		void variableLoaded(final String name, final @Nullable Object value) {
+			if (value != null && merge(name, value, since))
+				merged++;
+		}
+	}
+	
+	/**
+	 * Puts a loaded variable into memory unless it was changed after the load started.
+	 * 
+	 * @param since The value returned by {@link #startLoad()} when the load started
+	 * @return Whether the variable was put into memory
+	 */
+	final synchronized boolean merge(final String name, final Object value, final long since) {
+		assert Bukkit.isPrimaryThread();
+		final Change c = changed.get(name);
+		if (c != null && (c.unsaved > 0 || c.number > since))
+			return false;
+		return put(name, value);
+	}
+	
+	/**
+	 * Puts a loaded variable into memory if it's not in memory already. Overridden in tests.
+	 * 
+	 * @return Whether the variable was put into memory
+	 */
+	boolean put(final String name, final Object value) {
+		return Variables.loadVariable(name, value);
+	}
+	
+	/**
+	 * Removes a unit from memory. Overridden in tests.
+	 */
+	void unload(final String unit) {
+		Variables.unloadVariable(unit);
+	}
+	
+	/**
+	 * Adds a unit and removes the least recently used units if the cache is too big. Must be synchronised.
+	 */
+	private final void add(final String name, final int n) {
+		final int uuid = findUUID(name);
+		final String partition = uuid == -1 ? null : name.substring(uuid, uuid + 36);
+		final Unit u = new Unit(Math.max(1, n), partition);
+		units.put(name, u);
+		sortedUnits.put(name, u);
+		if (partition != null) {
+			getPartition(partition).units.add(name);
+			partitionsSize += u.size;
+			final String rest = name.substring(uuid + 36);
+			if (templates.size() < MAX_TEMPLATES && (rest.isEmpty() || rest.equals(LIST)))
+				templates.add(name.substring(0, uuid) + PLAYER + rest);
+			return;
+		}
+		size += u.size;
+		if (size <= maxSize)
+			return;
+		Iterator<Entry<String, Unit>> iter = units.entrySet().iterator();
+		while (size > maxSize && iter.hasNext()) {
+			final Entry<String, Unit> e = iter.next();
+			final String unit = e.getKey();
+			if (unit.equals(name) || e.getValue().partition != null || isChanged(unit))
+				continue;
+			iter.remove();
+			sortedUnits.remove(unit);
+			size -= e.getValue().size;
+			evictions++;
+			unload(unit);
+		}
+	}
+	
+	/**
+	 * @return Whether the given unit contains changes that are not yet written to the database
+	 */
+	private final boolean isChanged(final String unit) {
+		final Change c = changed.get(unit);
+		if (c != null && c.unsaved > 0)
+			return true;
+		return unit.endsWith(LIST) && unsavedInLists.containsKey(unit);
+	}
+	
+	/**
+	 * @return The approximate number of variables in memory
+	 */
+	final synchronized int size() {
+		return size + partitionsSize;
+	}
+	
+	/**
+	 * @return How often a cached variable was accessed
+	 */
+	final synchronized long getHits() {
+		return hits;
+	}
+	
+	/**
+	 * @return How often a variable was accessed that is known not to exist in the database
+	 */
+	final synchronized long getNegativeHits() {
+		return negativeHits;
+	}
+	
+	/**
+	 * @return How often a variable had to be loaded from the database
+	 */
+	final synchronized long getMisses() {
+		return misses;
+	}
+	
+	/**
+	 * @return How many units were removed from memory
+	 */
+	final synchronized long getEvictions() {
+		return evictions;
+	}
+	
+	/**
+	 * @return How many variables were loaded from the database
+	 */
+	final synchronized long getLoaded() {
+		return loaded;
+	}
+	
+	/**
+	 * @return The ratio of accesses that did not have to query the database, between 0 and 1
+	 */
+	final synchronized double getHitRate() {
+		final long all = hits + negativeHits + misses;
+		return all == 0 ? 1 : (double) (hits + negativeHits) / all;
+	}
+	
+	/**
+	 * @return A localised description of this cache's size and statistics for <tt>/skript variables</tt>
+	 */
+	final synchronized String getStatus() {
+		final String status = Language.format(VariablesStorage.STATUS_NODE + "cache", size, maxSize, Math.round(getHitRate() * 1000) / 10., hits, negativeHits, misses, loaded, evictions);
+		if (partitionDelay < 0)
+			return status;
+		return status + ", " + Language.format(VariablesStorage.STATUS_NODE + "partitions", partitionsSize, partitions.size());
+	}
+	
+}
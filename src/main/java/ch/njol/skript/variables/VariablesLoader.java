@@ -0,0 +1,258 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Bukkit;
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.skript.Skript;
+import ch.njol.skript.classes.ClassInfo;
+import ch.njol.skript.classes.Serializer;
+import ch.njol.skript.registrations.Classes;
+import ch.njol.skript.util.Task;
+
+/**
+ * Deserialises the variables read by a storage on several threads and passes them to {@link #variableLoaded(String, Object)} in the order they were read.
+ * <p>
+ * Variables whose serialiser doesn't {@link Serializer#mustSyncDeserialization() require Bukkit's main thread} are deserialised by a pool of worker threads while the storage
+ * continues reading. All other variables are deserialised on the main thread when they are passed to the variables, which happens in batches if the storage isn't read on the
+ * main thread.
+ * <p>
+ * Instances of this class must only be used by the thread reading the storage.
+ * 
+ * @author Peter Güttinger
+ */
+class VariablesLoader {
+	
+	/**
+	 * How many variables may be read ahead of the oldest variable that has not been passed to the variables yet.
+	 */
+	private final static int MAX_PENDING = 4096;
+	
+	private final static ExecutorService workers;
+	static {
+		final int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+		final ThreadPoolExecutor e = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private int n = 0;
+			
+			@Override
+			public Thread newThread(final @Nullable Runnable r) {
+				assert r != null;
+				final Thread t = Skript.newThread(r, "Skript variable loader " + (++n));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		e.allowCoreThreadTimeOut(true);
+		workers = e;
+	}
+	
+	private final VariablesStorage source;
+	
+	/**
+	 * The number of variables that were loaded successfully (excluding deleted variables)
+	 */
+	int loaded = 0;
+	
+	private final ArrayDeque<Pending> pending = new ArrayDeque<Pending>();
+	
+	private final static class Pending {
+		final String name;
+		
+		@Nullable
+		final ClassInfo<?> type;
+		
+		/**
+		 * Either the deserialised value (also null for a deleted variable) or a {@link Future} of it
+		 */
+		@Nullable
+		Object value;
+		
+		/**
+		 * The serialised value if it has to be deserialised on Bukkit's main thread
+		 */
+		@Nullable
+		Object data;
+		
+		public Pending(final String name, final @Nullable ClassInfo<?> type, final @Nullable Object value, final @Nullable Object data) {
+			this.name = name;
+			this.type = type;
+			this.value = value;
+			this.data = data;
+		}
+	}
+	
+	VariablesLoader(final VariablesStorage source) {
+		this.source = source;
+	}
+	
+	/**
+	 * Called if a variable cannot be deserialised. Prints an error by default.
+	 * 
+	 * @param name The variable's name
+	 * @param type The variable's type
+	 */
+	void failed(final String name, final ClassInfo<?> type) {
+		Skript.error("Cannot load the variable {" + name + "} from the database " + source.databaseName + ", because it cannot be loaded as a " + type.getCodeName());
+	}
+	
+	/**
+	 * Called on Bukkit's main thread for every variable in the order they were read. Passes the variable to {@link Variables#variableLoaded(String, Object, VariablesStorage)} by
+	 * default.
+	 * 
+	 * @param value The variable's value, or null if it was deleted
+	 */
+	void variableLoaded(final String name, final @Nullable Object value) {
+		Variables.variableLoaded(name, value, source);
+	}
+	
+	/**
+	 * Adds a serialised variable.
+	 * 
+	 * @param data Either a <tt>byte[]</tt>, a {@link ByteBuffer} that is not modified anymore by the storage, or a hex string as used by {@link FlatFileStorage}
+	 */
+	final void load(final String name, final ClassInfo<?> type, final Object data) {
+		assert data instanceof byte[] || data instanceof ByteBuffer || data instanceof String : data;
+		final Serializer<?> s = type.getSerializer();
+		if (s != null && !s.mustSyncDeserialization()) {
+			add(new Pending(name, type, workers.submit(new Callable<Object>() {
+				@Override
+				@Nullable
+				public Object call() throws Exception {
+					return Classes.deserialize(type, open(data));
+				}
+			}), null));
+		} else {
+			add(new Pending(name, type, null, data));
+		}
+	}
+	
+	/**
+	 * Adds a variable that is already deserialised, or a deleted variable if <tt>value</tt> is null.
+	 */
+	final void load(final String name, final @Nullable Object value) {
+		add(new Pending(name, null, value, null));
+	}
+	
+	private final void add(final Pending p) {
+		pending.add(p);
+		if (pending.size() >= MAX_PENDING)
+			flush(MAX_PENDING / 2);
+	}
+	
+	/**
+	 * Passes all remaining variables to the variables. Must be called after the storage has read all variables.
+	 */
+	final void finish() {
+		flush(pending.size());
+	}
+	
+	/**
+	 * Passes the oldest variables to the variables, waiting for them to be deserialised if required.
+	 */
+	private final void flush(final int n) {
+		if (n == 0)
+			return;
+		if (Bukkit.isPrimaryThread()) {
+			pass(n);
+		} else {
+			// wait for the workers first to only block the main thread for as long as required
+			int i = 0;
+			for (final Pending p : pending) {
+				if (i++ == n)
+					break;
+				get(p);
+			}
+			Task.callSync(new Callable<Void>() {
+				@Override
+				@Nullable
+				public Void call() throws Exception {
+					pass(n);
+					return null;
+				}
+			});
+		}
+	}
+	
+	private final void pass(final int n) {
+		assert Bukkit.isPrimaryThread();
+		for (int i = 0; i < n; i++) {
+			final Pending p = pending.poll();
+			if (p == null)
+				break;
+			final ClassInfo<?> type = p.type;
+			final Object data = p.data;
+			if (data != null) {
+				assert type != null;
+				p.value = Classes.deserialize(type, open(data));
+			}
+			final Object value = get(p);
+			if (value == null && type != null) {
+				failed(p.name, type);
+				continue;
+			}
+			variableLoaded(p.name, value);
+			if (value != null)
+				loaded++;
+		}
+	}
+	
+	/**
+	 * Waits for the value of the given variable to be deserialised if it's not deserialised on the main thread.
+	 */
+	@Nullable
+	private final static Object get(final Pending p) {
+		if (!(p.value instanceof Future))
+			return p.value;
+		final Future<?> f = (Future<?>) p.value;
+		while (true) {
+			try {
+				return p.value = f.get();
+			} catch (final InterruptedException e) {} catch (final ExecutionException e) {
+				Skript.exception(e.getCause(), "Error while deserialising the variable {" + p.name + "}");
+				return p.value = null;
+			}
+		}
+	}
+	
+	private final static InputStream open(final Object data) {
+		if (data instanceof byte[])
+			return new ByteArrayInputStream((byte[]) data);
+		if (data instanceof ByteBuffer)
+			return new BinaryFileStorage.ByteBufferInputStream(((ByteBuffer) data).duplicate());
+		return new ByteArrayInputStream(FlatFileStorage.decode((String) data));
+	}
+	
+}
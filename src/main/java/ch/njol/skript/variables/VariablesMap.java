@@ -22,19 +22,31 @@
 package ch.njol.skript.variables;
 
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
-import java.util.TreeMap;
+import java.util.regex.Pattern;
 
 import org.eclipse.jdt.annotation.Nullable;
 
 import ch.njol.skript.lang.Variable;
-import ch.njol.skript.util.Utils;
+import ch.njol.util.NonNullPair;
 import ch.njol.util.StringUtils;
 
+/**
+ * A tree of variables, with the variables' names split at {@link Variable#SEPARATOR} as the path to the variables' values.
+ * <p>
+ * This single index serves both lookups of single variables and ordered iteration of list variables. Each name segment is only stored once per parent node, and segments are
+ * interned, as most of them are used by many variables (e.g. list indices or the last segment of <tt>{stats::%player%::kills}</tt>).
+ * 
+ * @author Peter Güttinger
+ */
 final class VariablesMap {
 	
+	/**
+	 * Sorts names naturally, i.e. compares numbers in the names by their values. Numbers are compared digit by digit, thus this neither allocates any objects nor overflows for
+	 * long numbers. Numbers that only differ in leading zeroes are equal.
+	 */
 	final static Comparator<String> variableNameComparator = new Comparator<String>() {
 		@Override
 		public int compare(final @Nullable String s1, final @Nullable String s2) {
@@ -46,14 +58,20 @@ final class VariablesMap {
 			while (i < s1.length() && j < s2.length()) {
 				final char c1 = s1.charAt(i), c2 = s2.charAt(j);
 				if ('0' <= c1 && c1 <= '9' && '0' <= c2 && c2 <= '9') {
-					final int i2 = StringUtils.findLastDigit(s1, i), j2 = StringUtils.findLastDigit(s2, j);
-					final int n1 = Utils.parseInt("" + s1.substring(i, i2)), n2 = Utils.parseInt("" + s2.substring(j, j2));
-					if (n1 > n2)
-						return 1;
-					if (n1 < n2)
-						return -1;
-					i = i2;
-					j = j2;
+					// skip leading zeroes
+					while (i < s1.length() && s1.charAt(i) == '0')
+						i++;
+					while (j < s2.length() && s2.charAt(j) == '0')
+						j++;
+					final int i2 = lastDigit(s1, i), j2 = lastDigit(s2, j);
+					// the longer number is larger
+					if (i2 - i != j2 - j)
+						return i2 - i > j2 - j ? 1 : -1;
+					for (; i < i2; i++, j++) {
+						final char d1 = s1.charAt(i), d2 = s2.charAt(j);
+						if (d1 != d2)
+							return d1 > d2 ? 1 : -1;
+					}
 					continue;
 				} else {
 					if (c1 > c2)
@@ -72,8 +90,57 @@ final class VariablesMap {
 		}
 	};
 	
-	final HashMap<String, Object> hashMap = new HashMap<String, Object>();
-	final TreeMap<String, Object> treeMap = new TreeMap<String, Object>();
+	/**
+	 * @return The index after the last digit of the number starting at <tt>start</tt>
+	 */
+	private final static int lastDigit(final String s, final int start) {
+		int i = start;
+		while (i < s.length() && '0' <= s.charAt(i) && s.charAt(i) <= '9')
+			i++;
+		return i;
+	}
+	
+	/**
+	 * Splits a variable's name at {@link Variable#SEPARATOR}. Like {@link String#split(String)}, trailing empty segments are removed.
+	 */
+	final static String[] splitName(final String name) {
+		int n = 1;
+		for (int i = name.indexOf(Variable.SEPARATOR); i != -1; i = name.indexOf(Variable.SEPARATOR, i + Variable.SEPARATOR.length()))
+			n++;
+		if (n == 1)
+			return new String[] {name};
+		final String[] split = new String[n];
+		int start = 0;
+		for (int i = 0; i < n - 1; i++) {
+			final int end = name.indexOf(Variable.SEPARATOR, start);
+			split[i] = "" + name.substring(start, end);
+			start = end + Variable.SEPARATOR.length();
+		}
+		split[n - 1] = "" + name.substring(start);
+		while (n > 0 && split[n - 1].isEmpty())
+			n--;
+		if (n == split.length)
+			return split;
+		final String[] r = new String[n];
+		System.arraycopy(split, 0, r, 0, n);
+		return r;
+	}
+	
+	/**
+	 * The root of the variables tree. Its own value is never set, and it is never replaced by its value, even if it is empty.
+	 */
+	final VariableNode root = new VariableNode();
+	
+	/**
+	 * The number of variables stored in this map.
+	 */
+	int size = 0;
+	
+	/**
+	 * The names of the list variables whose values are {@link ValueIndex indexed}, without the trailing "::*", or null if no lists are indexed.
+	 */
+	@Nullable
+	Pattern indexedLists = null;
 	
 	/**
 	 * Returns the internal value of the requested variable.
@@ -83,33 +150,33 @@ final class VariablesMap {
 	 * @param name
 	 * @return an Object for a normal Variable or a Map<String, Object> for a list variable, or null if the variable is not set.
 	 */
-	@SuppressWarnings("unchecked")
 	@Nullable
 	final Object getVariable(final String name) {
-		if (!name.endsWith("*")) {
-			return hashMap.get(name);
-		} else {
-			final String[] split = Variables.splitVariableName(name);
-			Map<String, Object> current = treeMap;
-			for (int i = 0; i < split.length; i++) {
-				final String n = split[i];
-				if (n.equals("*")) {
-					assert i == split.length - 1;
-					return current;
-				}
-				final Object o = current.get(n);
-				if (o == null)
-					return null;
-				if (o instanceof Map) {
-					current = (Map<String, Object>) o;
-					assert i != split.length - 1;
-					continue;
-				} else {
-					return null;
-				}
-			}
+		return getVariable(splitName(name));
+	}
+	
+	/**
+	 * @param split The name of the variable split at {@link Variable#SEPARATOR}
+	 * @see #getVariable(String)
+	 */
+	@Nullable
+	final Object getVariable(final String[] split) {
+		if (split.length == 0)
 			return null;
+		Object current = root;
+		final int last = split.length - 1;
+		for (int i = 0; i < last; i++) {
+			current = ((VariableNode) current).getChild(split[i]);
+			if (!(current instanceof VariableNode))
+				return null;
 		}
+		final String n = split[last];
+		if (n.endsWith("*")) // only "::*" is a valid list variable; any other name ending in an asterisk is never set
+			return n.equals("*") && current != root ? current : null;
+		final Object o = ((VariableNode) current).getChild(n);
+		if (o instanceof VariableNode)
+			return ((VariableNode) o).value;
+		return o;
 	}
 	
 	/**
@@ -118,80 +185,112 @@ final class VariablesMap {
 	 * @param name The variable's name. Can be a "list variable::*" (<tt>value</tt> must be <tt>null</tt> in this case)
 	 * @param value The variable's value. Use <tt>null</tt> to delete the variable.
 	 */
-	@SuppressWarnings("unchecked")
 	final void setVariable(final String name, final @Nullable Object value) {
-		if (!name.endsWith("*")) {
-			if (value == null)
-				hashMap.remove(name);
-			else
-				hashMap.put(name, value);
+		setVariable(splitName(name), value);
+	}
+	
+	/**
+	 * @param split The name of the variable split at {@link Variable#SEPARATOR}
+	 * @see #setVariable(String, Object)
+	 */
+	final void setVariable(final String[] split, final @Nullable Object value) {
+		if (split.length == 0)
+			return;
+		setChild(root, split, 0, value);
+	}
+	
+	/**
+	 * Applies a change to the child <tt>split[i]</tt> of the given node.
+	 */
+	private final void setChild(final VariableNode parent, final String[] split, final int i, final @Nullable Object value) {
+		final String n = split[i];
+		final Object current = parent.getChild(n);
+		final Object changed = set(current, split, i + 1, value);
+		if (changed == current)
+			return;
+		if (changed == null)
+			parent.removeChild(n);
+		else
+			parent.putChild(n, changed, current == null);
+	}
+	
+	/**
+	 * Applies a change to the variable named <tt>split[0..i-1]</tt> or its children.
+	 * 
+	 * @param current The current value or node of the variable named <tt>split[0..i-1]</tt>
+	 * @return What should be stored under the name <tt>split[0..i-1]</tt> after the change, i.e. a node, a value, or null to remove the variable.
+	 */
+	@Nullable
+	private final Object set(final @Nullable Object current, final String[] split, final int i, final @Nullable Object value) {
+		if (i == split.length) {
+			final Object old = current instanceof VariableNode ? ((VariableNode) current).value : current;
+			if (old == null && value != null)
+				size++;
+			else if (old != null && value == null)
+				size--;
+			if (current instanceof VariableNode) {
+				((VariableNode) current).value = value;
+				return collapse((VariableNode) current);
+			}
+			return value;
 		}
-		final String[] split = Variables.splitVariableName(name);
-		TreeMap<String, Object> parent = treeMap;
-		for (int i = 0; i < split.length; i++) {
-			final String n = split[i];
-			Object current = parent.get(n);
-			if (current == null) {
-				if (i == split.length - 1) {
-					if (value != null)
-						parent.put(n, value);
-					break;
-				} else if (value != null) {
-					parent.put(n, current = new TreeMap<String, Object>(variableNameComparator));
-					parent = (TreeMap<String, Object>) current;
-					continue;
-				} else {
-					break;
-				}
-			} else if (current instanceof TreeMap) {
-				if (i == split.length - 1) {
-					if (value == null)
-						((TreeMap<String, Object>) current).remove(null);
-					else
-						((TreeMap<String, Object>) current).put(null, value);
-					break;
-				} else if (i == split.length - 2 && split[i + 1].equals("*")) {
-					assert value == null;
-					deleteFromHashMap(StringUtils.join(split, Variable.SEPARATOR, 0, i + 1), (TreeMap<String, Object>) current);
-					final Object v = ((TreeMap<String, Object>) current).get(null);
-					if (v == null)
-						parent.remove(n);
-					else
-						parent.put(n, v);
-					break;
-				} else {
-					parent = (TreeMap<String, Object>) current;
-					continue;
-				}
-			} else {
-				if (i == split.length - 1) {
-					if (value == null)
-						parent.remove(n);
-					else
-						parent.put(n, value);
-					break;
-				} else if (value != null) {
-					final TreeMap<String, Object> c = new TreeMap<String, Object>(variableNameComparator);
-					c.put(null, current);
-					parent.put(n, c);
-					parent = c;
-					continue;
-				} else {
-					break;
-				}
+		if (i == split.length - 1 && split[i].equals("*")) {
+			assert value == null;
+			if (current instanceof VariableNode) {
+				size -= ((VariableNode) current).countChildValues();
+				return ((VariableNode) current).value;
 			}
+			return current;
 		}
+		if (current instanceof VariableNode) {
+			setChild((VariableNode) current, split, i, value);
+			return collapse((VariableNode) current);
+		}
+		if (value == null) // nothing to delete
+			return current;
+		final VariableNode node = new VariableNode();
+		node.value = current;
+		final Pattern indexedLists = this.indexedLists;
+		if (indexedLists != null && indexedLists.matcher(StringUtils.join(split, Variable.SEPARATOR, 0, i)).matches())
+			node.enableIndex();
+		setChild(node, split, i, value);
+		return node;
+	}
+	
+	/**
+	 * Nodes without children are replaced by their value
+	 */
+	@Nullable
+	private final static Object collapse(final VariableNode node) {
+		return node.getChildCount() == 0 ? node.value : node;
 	}
 	
-	@SuppressWarnings("unchecked")
-	void deleteFromHashMap(final String parent, final TreeMap<String, Object> current) {
-		for (final Entry<String, Object> e : current.entrySet()) {
-			if (e.getKey() == null)
-				continue;
-			hashMap.remove(parent + Variable.SEPARATOR + e.getKey());
+	/**
+	 * Adds all variables of this map to the given list, ordered like the variables tree.
+	 * 
+	 * @param list The list to add the variables' names and values to
+	 */
+	final void getAll(final List<NonNullPair<String, Object>> list) {
+		getAll(list, "", root);
+	}
+	
+	/**
+	 * Adds all variables below the given node to the given list, ordered like the variables tree. The node's own value is not added.
+	 * 
+	 * @param parent The node's name with {@link Variable#SEPARATOR} at the end
+	 */
+	final static void getAll(final List<NonNullPair<String, Object>> list, final String parent, final VariableNode node) {
+		final Iterator<Entry<String, Object>> iter = node.childIterator();
+		while (iter.hasNext()) {
+			final Entry<String, Object> e = iter.next();
 			final Object val = e.getValue();
-			if (val instanceof TreeMap) {
-				deleteFromHashMap(parent + Variable.SEPARATOR + e.getKey(), (TreeMap<String, Object>) val);
+			if (val instanceof VariableNode) {
+				final VariableNode n = (VariableNode) val;
+				if (n.value != null)
+					list.add(new NonNullPair<String, Object>(parent + e.getKey(), n.value));
+				getAll(list, parent + e.getKey() + Variable.SEPARATOR, n);
+			} else {
+				list.add(new NonNullPair<String, Object>(parent + e.getKey(), val));
 			}
 		}
 	}
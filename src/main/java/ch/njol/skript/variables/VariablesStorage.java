@@ -23,7 +23,12 @@ package ch.njol.skript.variables;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -32,6 +37,7 @@ import org.eclipse.jdt.annotation.Nullable;
 import ch.njol.skript.Skript;
 import ch.njol.skript.config.SectionNode;
 import ch.njol.skript.lang.ParseContext;
+import ch.njol.skript.localization.Language;
 import ch.njol.skript.log.ParseLogHandler;
 import ch.njol.skript.log.SkriptLogger;
 import ch.njol.skript.registrations.Classes;
@@ -46,9 +52,12 @@ import ch.njol.util.Closeable;
  */
 public abstract class VariablesStorage implements Closeable {
 	
-	private final static int QUEUE_SIZE = 1000, FIRST_WARNING = 300;
+	/**
+	 * The number of variables with unwritten changes at which a warning is printed
+	 */
+	private final static int FIRST_WARNING = 5000;
 	
-	final LinkedBlockingQueue<SerializedVariable> changesQueue = new LinkedBlockingQueue<SerializedVariable>(QUEUE_SIZE);
+	final ChangesQueue changesQueue;
 	
 	protected volatile boolean closed = false;
 	
@@ -57,29 +66,70 @@ public abstract class VariablesStorage implements Closeable {
 	@Nullable
 	protected File file;
 	
+	/**
+	 * The cache of this storage if it doesn't keep all of its variables in memory
+	 */
+	@Nullable
+	VariablesCache cache;
+	
 	/**
 	 * null for '.*' or '.+'
 	 */
 	@Nullable
 	private Pattern variablePattern;
 	
+	/**
+	 * The maximum number of changes passed to {@link #saveBatch(List)} at once
+	 */
+	protected int batchSize = 1;
+	
+	/**
+	 * How long the write thread waits for more changes before writing an incomplete batch, in milliseconds. If 0 batches only contain the changes that queued up while the
+	 * previous batch was being written.
+	 */
+	protected long flushInterval = 0;
+	
 	// started in load()
 	private final Thread writeThread;
 	
 	protected VariablesStorage(final String name) {
 		databaseName = name;
+		// the spill file is set in load() once the storage's location is known
+		changesQueue = new ChangesQueue(null);
 		writeThread = Skript.newThread(new Runnable() {
 			@Override
 			public void run() {
+				final List<SerializedVariable> batch = new ArrayList<SerializedVariable>();
 				while (!closed) {
 					try {
-						final SerializedVariable var = changesQueue.take();
-						final Value d = var.value;
-						if (d != null)
-							save(var.name, d.type, d.data);
-						else
-							save(var.name, null, null);
+						changesQueue.take(batch, batchSize);
+						final long end = System.currentTimeMillis() + flushInterval;
+						long wait;
+						while (batch.size() < batchSize && (wait = end - System.currentTimeMillis()) > 0) {
+							if (!changesQueue.poll(batch, batchSize, wait))
+								break;
+						}
 					} catch (final InterruptedException e) {}
+					if (batch.isEmpty())
+						continue;
+					final Iterator<SerializedVariable> iter = batch.iterator();
+					while (iter.hasNext()) {
+						final SerializedVariable var = iter.next();
+						if (var instanceof VariableSnapshot && !((VariableSnapshot) var).serialize()) {
+							iter.remove();
+							final VariablesCache c = cache;
+							if (c != null)
+								c.saved(var.name);
+						}
+					}
+					if (!batch.isEmpty())
+						saveBatch(batch);
+					final VariablesCache c = cache;
+					if (c != null) {
+						for (final SerializedVariable var : batch)
+							c.saved(var.name);
+					}
+					batch.clear();
 				}
 			}
 		}, "Skript variable save thread for database '" + name + "'");
@@ -155,6 +205,12 @@ public abstract class VariablesStorage implements Closeable {
 				return false;
 			}
 			
+			if (n.getValue("backups to keep") != null) {
+				final Integer keep = getValue(n, "backups to keep", Integer.class);
+				if (keep == null)
+					return false;
+				backupsToKeep = Math.max(0, keep);
+			}
 			if (!"0".equals(getValue(n, "backup interval"))) {
 				final Timespan backupInterval = getValue(n, "backup interval", Timespan.class);
 				if (backupInterval != null)
@@ -165,6 +221,13 @@ public abstract class VariablesStorage implements Closeable {
 		if (!load_i(n))
 			return false;
 		
+		// changes that don't fit into memory are written next to the database file, or to Skript's folder if the database is not a file
+		final File file = this.file;
+		final File spillFile = file != null ? new File(file.getPath() + ".spill") : new File(Skript.getInstance().getDataFolder(), "variables-" + databaseName + ".spill");
+		changesQueue.setSpillFile(new SpillFile(spillFile));
+		// changes that were still spilled to disk when the server stopped
+		SpillFile.recover(spillFile, this);
+		
 		writeThread.start();
 		Skript.closeOnDisable(this);
 		
@@ -199,6 +262,11 @@ public abstract class VariablesStorage implements Closeable {
 	@Nullable
 	protected Task backupTask = null;
 	
+	/**
+	 * The number of full backups to keep, or 0 to keep all backups
+	 */
+	private int backupsToKeep = 0;
+	
 	public void startBackupTask(final Timespan t) {
 		final File file = this.file;
 		if (file == null || t.getTicks() == 0)
@@ -206,53 +274,147 @@ public abstract class VariablesStorage implements Closeable {
 		backupTask = new Task(Skript.getInstance(), t.getTicks(), t.getTicks(), true) {
 			@Override
 			public void run() {
-				synchronized (fileLock) {
-					disconnect();
-					try {
-						FileUtils.backup(file);
-					} catch (final IOException e) {
-						Skript.error("Automatic variables backup failed: " + e.getLocalizedMessage());
-					} finally {
-						connect();
-						fileLock.notifyAll();
-					}
+				try {
+					final long start = System.nanoTime();
+					final File backup = backup();
+					if (backup == null)
+						return;
+					if (Skript.logNormal())
+						Skript.info("Created a backup of the database '" + databaseName + "' as " + backup.getName() + " (" + backup.length() / 1024 + " KiB) in " + (System.nanoTime() - start) / 1000000 + " ms");
+					if (backupsToKeep != 0)
+						deleteOldBackups(file, backupsToKeep);
+				} catch (final IOException e) {
+					Skript.error("Automatic variables backup failed: " + e.getLocalizedMessage());
 				}
 			}
 		};
 	}
 	
+	/**
+	 * Appended to the names of incremental backups, which only contain the changes since the previous backup and are thus useless without it
+	 */
+	protected final static String INCREMENTAL_BACKUP_SUFFIX = "-incremental";
+	
+	private final static Pattern backupSuffixPattern = Pattern.compile("_(\\d{4}-\\d{2}-\\d{2}_\\d{2}-\\d{2}-\\d{2})(" + Pattern.quote(INCREMENTAL_BACKUP_SUFFIX) + ")?");
+	
+	/**
+	 * Deletes all but the given number of the newest full backups of the given file, and all incremental backups that are older than the oldest remaining full backup.
+	 */
+	private final static void deleteOldBackups(final File file, final int keep) {
+		String name = file.getName();
+		final int c = name.lastIndexOf('.');
+		final String ext = c == -1 ? "" : name.substring(c);
+		if (c != -1)
+			name = name.substring(0, c);
+		final Pattern p = Pattern.compile(Pattern.quote(name) + backupSuffixPattern.pattern() + Pattern.quote(ext));
+		final File[] files = new File(file.getParentFile(), "backups").listFiles();
+		if (files == null)
+			return;
+		// the backups' dates, which are ordered like the dates they represent
+		final TreeMap<String, List<File>> backups = new TreeMap<String, List<File>>();
+		final List<String> full = new ArrayList<String>();
+		for (final File f : files) {
+			final Matcher m = p.matcher(f.getName());
+			if (!m.matches())
+				continue;
+			final String date = "" + m.group(1);
+			List<File> fs = backups.get(date);
+			if (fs == null)
+				backups.put(date, fs = new ArrayList<File>(1));
+			fs.add(f);
+			if (m.group(2) == null)
+				full.add(date);
+		}
+		if (full.size() <= keep)
+			return;
+		Collections.sort(full);
+		final String oldestKept = full.get(full.size() - keep);
+		for (final List<File> fs : backups.headMap(oldestKept).values()) {
+			for (final File f : fs) {
+				if (!f.delete())
+					Skript.warning("Could not delete the old backup " + f.getName());
+			}
+		}
+	}
+	
+	/**
+	 * Creates a backup of this storage's file. Called by the backup task, i.e. not on Bukkit's main thread.
+	 * <p>
+	 * The default implementation disconnects from the file while it is copied.
+	 * 
+	 * @return The backup file, or null if no backup was made
+	 * @throws IOException
+	 */
+	@Nullable
+	protected File backup() throws IOException {
+		final File file = this.file;
+		if (file == null)
+			return null;
+		synchronized (fileLock) {
+			disconnect();
+			try {
+				return FileUtils.backup(file);
+			} finally {
+				connect();
+				fileLock.notifyAll();
+			}
+		}
+	}
+	
 	final boolean accept(final @Nullable String var) {
 		if (var == null)
 			return false;
 		return variablePattern != null ? variablePattern.matcher(var).matches() : true;
 	}
 	
+	/**
+	 * @return The pattern of the variables saved in this storage, or null if this storage accepts all variables
+	 * @see Variables#getStorage(String)
+	 */
+	@Nullable
+	final Pattern getVariablePattern() {
+		return variablePattern;
+	}
+	
 	private long lastWarning = Long.MIN_VALUE;
 	private final static int WARNING_INTERVAL = 10;
-	private long lastError = Long.MIN_VALUE;
-	private final static int ERROR_INTERVAL = 10;
 	
 	/**
+	 * Queues a change to be written by the write thread. Never blocks, as a pending change of the same variable is simply replaced, and changes that don't fit into memory
+	 * are spilled to disk.
+	 * <p>
 	 * May be called from a different thread than Bukkit's main thread.
 	 */
 	final void save(final SerializedVariable var) {
 		if (changesQueue.size() > FIRST_WARNING && lastWarning < System.currentTimeMillis() - WARNING_INTERVAL * 1000) {
-			Skript.warning("Cannot write variables to the database '" + databaseName + "' at sufficient speed; server performance may suffer and many variables will be lost if the server crashes. (this warning will be repeated at most once every " + WARNING_INTERVAL + " seconds)");
+			Skript.warning("Cannot write variables to the database '" + databaseName + "' at sufficient speed; many variables will be lost if the server crashes. (this warning will be repeated at most once every " + WARNING_INTERVAL + " seconds)");
 			lastWarning = System.currentTimeMillis();
 		}
-		if (!changesQueue.offer(var)) {
-			if (lastError < System.currentTimeMillis() - ERROR_INTERVAL * 1000) {
-				Skript.error("Skript cannot save any variables to the database '" + databaseName + "'. The server will hang and may crash if no more variables can be saved.");
-				lastError = System.currentTimeMillis();
-			}
-			while (true) {
-				try {
-					// REMIND add repetitive error and/or stop saving variables altogether?
-					changesQueue.put(var);
-					break;
-				} catch (final InterruptedException e) {}
-			}
-		}
+		final SerializedVariable old = changesQueue.add(var);
+		final VariablesCache c = cache;
+		if (old != null && c != null)
+			c.saved(old.name); // the replaced change will never be written
+	}
+	
+	/**
+	 * The language node of the texts of {@link #getStatus()}, which is shown by <tt>/skript variables</tt>
+	 */
+	final static String STATUS_NODE = "skript command.variables.";
+	
+	/**
+	 * @return A short localised description of the pending changes of this storage and of its cache. May contain plural markers.
+	 */
+	final String getStatus() {
+		final StringBuilder b = new StringBuilder();
+		b.append(Language.format(STATUS_NODE + "pending", changesQueue.size()));
+		final int spilled = changesQueue.getSpilled();
+		final double rate = changesQueue.getSpillRate();
+		if (spilled > 0 || rate > 0)
+			b.append(", ").append(Language.format(STATUS_NODE + "spilled", spilled, rate, changesQueue.getDrainLag()));
+		final VariablesCache c = cache;
+		if (c != null)
+			b.append(", ").append(c.getStatus());
+		return "" + b.toString();
 	}
 	
 	@Override
@@ -264,6 +426,12 @@ public abstract class VariablesStorage implements Closeable {
 		}
 		closed = true;
 		writeThread.interrupt();
+		// the last change might still be being written
+		while (writeThread.isAlive()) {
+			try {
+				writeThread.join();
+			} catch (final InterruptedException e) {}
+		}
 	}
 	
 	/**
@@ -273,6 +441,23 @@ public abstract class VariablesStorage implements Closeable {
 		changesQueue.clear();
 	}
 	
+	/**
+	 * Saves several changes at once, in the order they were made. Called by the write thread, i.e. not on Bukkit's main thread.
+	 * <p>
+	 * The default implementation saves the changes one by one with {@link #save(String, String, byte[])}.
+	 * 
+	 * @param changes Between 1 and {@link #batchSize} changes. Must not be modified.
+	 */
+	protected void saveBatch(final List<SerializedVariable> changes) {
+		for (final SerializedVariable var : changes) {
+			final Value d = var.value;
+			if (d != null)
+				save(var.name, d.type, d.data);
+			else
+				save(var.name, null, null);
+		}
+	}
+	
 	/**
 	 * Saves a variable.
 	 * 
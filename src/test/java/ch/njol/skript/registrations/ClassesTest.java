@@ -22,8 +22,10 @@
 package ch.njol.skript.registrations;
 
 import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
 import static org.junit.Assume.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.lang.reflect.Field;
@@ -48,6 +50,8 @@ import org.junit.Test;
 import org.objenesis.ObjenesisHelper;
 
 import ch.njol.skript.Skript;
+import ch.njol.skript.classes.ClassInfo;
+import ch.njol.skript.classes.Codec;
 import ch.njol.skript.classes.data.BukkitClasses;
 import ch.njol.skript.classes.data.BukkitEventValues;
 import ch.njol.skript.classes.data.JavaClasses;
@@ -68,6 +72,7 @@ import ch.njol.skript.util.Time;
 import ch.njol.skript.util.Timeperiod;
 import ch.njol.skript.util.Timespan;
 import ch.njol.skript.util.WeatherType;
+import ch.njol.skript.variables.SerializedVariable;
 
 /**
  * @author Peter Güttinger
@@ -99,7 +104,8 @@ public class ClassesTest {
 		expectLastCall().andReturn("2.0").anyTimes();
 		replay(s);
 		
-		Bukkit.setServer(s);
+		if (Bukkit.getServer() == null) // can only be set once, e.g. by another test
+			Bukkit.setServer(s);
 		
 		final Skript skript = (Skript) ObjenesisHelper.newInstance(Skript.class); // bypass the class loader check
 		final Field instance = Skript.class.getDeclaredField("instance");
@@ -149,4 +155,36 @@ public class ClassesTest {
 		}
 	}
 	
+	@Test
+	public void testCodecs() throws Exception {
+		final StringBuilder b = new StringBuilder();
+		while (b.length() <= 0x8000)
+			b.append("long string ");
+		final Object[] values = {
+				(byte) -1, (short) -2000, Integer.MIN_VALUE, Long.MAX_VALUE, Float.NaN, -0.0, true, false,
+				"", "String", "\u00fc\u20ac\ud83d\ude00", b.toString(),
+				new Timespan(0), new Timespan(Long.MAX_VALUE),
+		};
+		
+		for (final Object o : values) {
+			final ClassInfo<?> ci = Classes.getExactClassInfo(o.getClass());
+			assertNotNull(ci);
+			@SuppressWarnings("unchecked")
+			final Codec<Object> codec = (Codec<Object>) ci.getCodec();
+			assertNotNull(codec);
+			// every value is compared with Yggdrasil, not only the first one of each variant as in Classes
+			final byte[] yggdrasil = Classes.serializeYggdrasil(ci, o), encoded = codec.encode(o);
+			assertArrayEquals(yggdrasil, encoded);
+			assertEquals(o, codec.decode(yggdrasil));
+			assertEquals(o, Classes.deserializeYggdrasil(ci, new ByteArrayInputStream(encoded)));
+			// the first value verifies the codec, the second one uses it
+			final SerializedVariable.Value v1 = Classes.serialize(o), v2 = Classes.serialize(o);
+			assertNotNull(v1);
+			assertNotNull(v2);
+			assertArrayEquals(v1.data, v2.data);
+			assertEquals(o, Classes.deserialize(ci, v1.data));
+			assertEquals(o, Classes.deserialize(ci, v2.data));
+		}
+	}
+	
 }
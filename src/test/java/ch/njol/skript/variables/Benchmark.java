@@ -0,0 +1,114 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Locale;
+
+/**
+ * A minimal harness for the benchmarks of the variables package. Benchmarks are run manually through their main methods and are not part of the unit tests.
+ * <p>
+ * Every benchmark is run a few times first so that it gets compiled, and then timed over several rounds, of which the fastest is reported as it's the one least disturbed by
+ * garbage collections and other processes. If the JVM can count the bytes allocated by a thread, the allocations of that round are reported as well.
+ *
+ * @author Peter Güttinger
+ */
+abstract class Benchmark {
+	
+	private final static int WARMUP_ROUNDS = 5, ROUNDS = 10;
+	
+	/**
+	 * Written by benchmarks so that their results are used, i.e. so that the JIT cannot remove the work
+	 */
+	static volatile long sink;
+	
+	private final String name;
+	private final int operations;
+	
+	/**
+	 * @param operations The number of operations of a single {@link #run()}
+	 */
+	Benchmark(final String name, final int operations) {
+		this.name = name;
+		this.operations = operations;
+	}
+	
+	/**
+	 * Performs {@link #operations} operations.
+	 */
+	abstract void run() throws Exception;
+	
+	/**
+	 * Runs this benchmark and prints the time and allocated bytes per operation.
+	 */
+	final void measure() throws Exception {
+		for (int i = 0; i < WARMUP_ROUNDS; i++)
+			run();
+		long best = Long.MAX_VALUE, allocated = -1;
+		for (int i = 0; i < ROUNDS; i++) {
+			final long bytes = allocatedBytes();
+			final long start = System.nanoTime();
+			run();
+			final long time = System.nanoTime() - start;
+			if (time < best) {
+				best = time;
+				allocated = bytes == -1 ? -1 : allocatedBytes() - bytes;
+			}
+		}
+		System.out.println(String.format(Locale.ENGLISH, "%-50s %10.1f ns/op %10s", name, (double) best / operations,
+				allocated == -1 ? "" : String.format(Locale.ENGLISH, "%.1f B/op", (double) allocated / operations)));
+	}
+	
+	/**
+	 * @return The bytes used by objects that cannot be garbage collected
+	 */
+	final static long usedMemory() {
+		final Runtime r = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		// the used memory only settles after a few collections
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			try {
+				Thread.sleep(50);
+			} catch (final InterruptedException e) {}
+			used = Math.min(used, r.totalMemory() - r.freeMemory());
+		}
+		return used;
+	}
+	
+	/**
+	 * @return The bytes allocated by the current thread so far, or -1 if the JVM doesn't count them
+	 */
+	private final static long allocatedBytes() {
+		final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		try {
+			// com.sun.management.ThreadMXBean is not available on every JVM
+			final Method m = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+			return (Long) m.invoke(bean, Thread.currentThread().getId());
+		} catch (final Exception e) {
+			return -1;
+		}
+	}
+	
+}
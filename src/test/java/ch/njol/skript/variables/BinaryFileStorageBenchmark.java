@@ -0,0 +1,129 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+
+import ch.njol.skript.variables.BinaryFileStorage.MappedReader;
+
+/**
+ * Compares the time it takes to read a variables file in the CSV and in the binary format, i.e. everything the loading of a {@link FlatFileStorage} or
+ * {@link BinaryFileStorage} does before the values are deserialised (which is the same for both formats).
+ * 
+ * @author Peter Güttinger
+ */
+public class BinaryFileStorageBenchmark {
+	
+	private final static int VARIABLES = 500000;
+	
+	public static void main(final String[] args) throws Exception {
+		final File csv = File.createTempFile("skript-benchmark", ".csv"), binary = File.createTempFile("skript-benchmark", ".bin");
+		csv.deleteOnExit();
+		binary.deleteOnExit();
+		
+		// per-player numbers and strings, which make up most variables
+		final Random random = new Random(42);
+		final PrintWriter pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(csv), StandardCharsets.UTF_8));
+		pw.println("# version: 2.1.2");
+		pw.println();
+		for (int i = 0; i < VARIABLES; i++) {
+			final String name = "stats::" + new UUID(random.nextLong(), random.nextLong()) + (i % 2 == 0 ? "::kills" : "::name");
+			final byte[] value = new byte[i % 2 == 0 ? 8 : 20];
+			random.nextBytes(value);
+			pw.println(name + ", " + (i % 2 == 0 ? "long" : "string") + ", " + FlatFileStorage.encode(value));
+		}
+		pw.close();
+		BinaryFileStorage.convert(csv, binary, "2.1.2");
+		System.out.println(String.format(Locale.ENGLISH, "%d variables: CSV %.1f MiB, binary %.1f MiB", VARIABLES, csv.length() / 1048576.0, binary.length() / 1048576.0));
+		
+		new Benchmark("read CSV", VARIABLES) {
+			@Override
+			void run() throws Exception {
+				long n = 0;
+				final BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(csv), StandardCharsets.UTF_8));
+				try {
+					String line;
+					while ((line = r.readLine()) != null) {
+						line = line.trim();
+						if (line.isEmpty() || line.startsWith("#"))
+							continue;
+						final String[] split = FlatFileStorage.splitCSV(line);
+						assert split != null;
+						n += split[0].length() + split[1].length() + FlatFileStorage.decode("" + split[2]).length;
+					}
+				} finally {
+					r.close();
+				}
+				sink = n;
+			}
+		}.measure();
+		
+		new Benchmark("read binary", VARIABLES) {
+			@Override
+			void run() throws Exception {
+				long n = 0;
+				final RandomAccessFile raf = new RandomAccessFile(binary, "r");
+				try {
+					final MappedReader r = new MappedReader(raf.getChannel(), BinaryFileStorage.MAX_MAPPING);
+					while (r.hasRemaining()) {
+						final byte tag = r.getByte();
+						if (tag == BinaryFileStorage.HEADER) {
+							r.require(BinaryFileStorage.MAGIC.length);
+							r.buf.position(r.buf.position() + BinaryFileStorage.MAGIC.length); // the rest of the magic and the format version
+							r.getString();
+							r.getInt();
+						} else if (tag == BinaryFileStorage.TYPE) {
+							r.getShort();
+							n += r.getString().length();
+						} else if (tag == BinaryFileStorage.SET) {
+							n += r.getString().length() + r.getShort();
+							final int length = r.getInt();
+							r.require(length);
+							final ByteBuffer value = r.buf.slice(); // values are deserialised directly from the mapping
+							value.limit(length);
+							r.buf.position(r.buf.position() + length);
+							n += value.remaining();
+						} else {
+							n += r.getString().length();
+						}
+					}
+				} finally {
+					raf.close();
+				}
+				sink = n;
+			}
+		}.measure();
+	}
+	
+}
@@ -0,0 +1,193 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.njol.skript.variables.BinaryFileStorage.BinaryWriter;
+import ch.njol.skript.variables.BinaryFileStorage.MappedReader;
+
+/**
+ * @author Peter Güttinger
+ */
+public class BinaryFileStorageTest {
+	
+	/**
+	 * Small enough that some of the records written by these tests cross the end of a mapping
+	 */
+	private final static int MAPPING = 64;
+	
+	private File dir;
+	
+	@Before
+	public void before() throws IOException {
+		dir = File.createTempFile("skript-test", "");
+		dir.delete();
+		assertTrue(dir.mkdir());
+	}
+	
+	@After
+	public void after() {
+		final File[] files = dir.listFiles();
+		if (files != null) {
+			for (final File f : files)
+				f.delete();
+		}
+		dir.delete();
+	}
+	
+	/**
+	 * Reads all records of a binary file with a {@link MappedReader}.
+	 * 
+	 * @return The file's records in a readable form, e.g. "header 2", "set name type [1, 2]" or "delete name"
+	 */
+	private final static List<String> read(final File f) throws IOException {
+		final List<String> records = new ArrayList<String>();
+		final RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			final MappedReader r = new MappedReader(raf.getChannel(), MAPPING);
+			final HashMap<Short, String> types = new HashMap<Short, String>();
+			while (r.hasRemaining()) {
+				final byte tag = r.getByte();
+				if (tag == BinaryFileStorage.HEADER) {
+					r.require(BinaryFileStorage.MAGIC.length - 1);
+					for (int i = 1; i < BinaryFileStorage.MAGIC.length; i++)
+						assertEquals(BinaryFileStorage.MAGIC[i], r.buf.get());
+					assertEquals(BinaryFileStorage.FORMAT_VERSION, r.getByte());
+					assertEquals("2.1.2", r.getString());
+					records.add("header " + r.getInt());
+					types.clear();
+				} else if (tag == BinaryFileStorage.TYPE) {
+					final short code = r.getShort();
+					types.put(code, r.getString());
+				} else if (tag == BinaryFileStorage.SET) {
+					final String name = r.getString();
+					final String type = types.get(r.getShort());
+					assertNotNull(type);
+					final int length = r.getInt();
+					r.require(length);
+					final byte[] value = new byte[length];
+					r.buf.get(value);
+					records.add("set " + name + " " + type + " " + Arrays.toString(value));
+				} else if (tag == BinaryFileStorage.DELETE) {
+					records.add("delete " + r.getString());
+				} else {
+					fail("invalid record " + tag);
+				}
+			}
+		} finally {
+			raf.close();
+		}
+		return records;
+	}
+	
+	private final static byte[] bytes(final int length) {
+		final byte[] b = new byte[length];
+		for (int i = 0; i < length; i++)
+			b[i] = (byte) (i * 7);
+		return b;
+	}
+	
+	private final static void write(final File f, final String... lines) throws IOException {
+		final Writer w = new OutputStreamWriter(new FileOutputStream(f), StandardCharsets.UTF_8);
+		try {
+			for (final String line : lines)
+				w.write(line + "\n");
+		} finally {
+			w.close();
+		}
+	}
+	
+	@Test
+	public void testRecords() throws IOException {
+		final File f = new File(dir, "variables.bin");
+		final BinaryWriter w = new BinaryWriter(new FileOutputStream(f), "2.1.2");
+		w.writeHeader(3);
+		w.write("a", "integer", new byte[] {1, 2, 3});
+		w.write("list::ü€", "string", bytes(10));
+		w.write("large", "string", bytes(MAPPING - 20)); // crosses the end of the first mapping
+		w.write("a", null, null);
+		w.write("b", "integer", new byte[0]);
+		// backups are concatenations of files
+		w.writeHeader(5);
+		w.write("b", "integer", new byte[] {4});
+		w.close();
+		
+		assertEquals(Arrays.asList(
+				"header 3",
+				"set a integer [1, 2, 3]",
+				"set list::ü€ string " + Arrays.toString(bytes(10)),
+				"set large string " + Arrays.toString(bytes(MAPPING - 20)),
+				"delete a",
+				"set b integer []",
+				"header 5",
+				"set b integer [4]"), read(f));
+	}
+	
+	@Test
+	public void testConvert() throws IOException {
+		final File csv = new File(dir, "variables.csv");
+		write(csv,
+				"# === Skript's variable storage ===",
+				"# version: 2.1.2",
+				"# segment: 2",
+				"",
+				"a, integer, 010203",
+				"\"x, y\", string, " + FlatFileStorage.encode(bytes(MAPPING)),
+				"b, integer, 04");
+		// already contained in the main file
+		write(FlatFileStorage.getSegmentFile(csv, 2),
+				"# version: 2.1.2",
+				"a, null, ");
+		write(FlatFileStorage.getSegmentFile(csv, 3),
+				"# version: 2.1.2",
+				"a, null, ",
+				"\"ü\", integer, 05");
+		
+		final File binary = new File(dir, "variables.bin");
+		assertEquals(5, BinaryFileStorage.convert(csv, binary, "2.1.2"));
+		assertEquals(Arrays.asList(
+				"header 3",
+				"set a integer [1, 2, 3]",
+				"set x, y string " + Arrays.toString(bytes(MAPPING)),
+				"set b integer [4]",
+				"delete a",
+				"set ü integer [5]"), read(binary));
+	}
+	
+}
@@ -0,0 +1,116 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import ch.njol.skript.variables.SerializedVariable.Value;
+
+/**
+ * @author Peter Güttinger
+ */
+public class ChangesQueueTest {
+	
+	private final static SerializedVariable change(final String name, final int value) {
+		return new SerializedVariable(name, new Value("integer", new byte[] {(byte) value}));
+	}
+	
+	@Test
+	public void testSpill() throws IOException, InterruptedException {
+		final File file = File.createTempFile("skript-test", ".spill");
+		file.delete();
+		final ChangesQueue queue = new ChangesQueue(new SpillFile(file));
+		final int n = ChangesQueue.MAX_IN_MEMORY;
+		for (int i = 0; i < n; i++)
+			assertNull(queue.add(change("var::" + i, 0)));
+		assertFalse(file.exists());
+		// pending changes are still replaced in memory
+		assertNotNull(queue.add(change("var::0", 1)));
+		// these don't fit into memory anymore
+		assertNull(queue.add(change("x", 1)));
+		assertNull(queue.add(change("var::1", 2)));
+		assertNull(queue.add(change("x", 2)));
+		assertTrue(file.exists());
+		assertEquals(3, queue.getSpilled());
+		assertEquals(n + 3, queue.size());
+		
+		final List<SerializedVariable> batch = new ArrayList<SerializedVariable>();
+		queue.take(batch, n + 10);
+		assertEquals(n, batch.size());
+		assertEquals("var::0", batch.get(0).name);
+		assertEquals(1, batch.get(0).value.data[0]);
+		batch.clear();
+		// still spilled, as the older spilled changes must be written first
+		assertNull(queue.add(change("var::2", 3)));
+		assertEquals(4, queue.getSpilled());
+		
+		queue.take(batch, 3);
+		assertEquals(3, batch.size());
+		assertEquals("x", batch.get(0).name);
+		assertEquals(1, batch.get(0).value.data[0]);
+		assertEquals("var::1", batch.get(1).name);
+		assertEquals("x", batch.get(2).name);
+		assertEquals(2, batch.get(2).value.data[0]);
+		batch.clear();
+		queue.take(batch, 3);
+		assertEquals(1, batch.size());
+		assertEquals("var::2", batch.get(0).name);
+		assertEquals(0, queue.size());
+		assertFalse(file.exists());
+		
+		// changes are kept in memory again
+		assertNull(queue.add(change("y", 1)));
+		assertNotNull(queue.add(change("y", 2)));
+		assertEquals(0, queue.getSpilled());
+		assertFalse(file.exists());
+	}
+	
+	@Test
+	public void testSpillSync() throws IOException {
+		final File file = File.createTempFile("skript-test", ".spill");
+		file.delete();
+		final SpillFile spill = new SpillFile(file);
+		// the first change is synced immediately
+		spill.write(change("a", 1));
+		final long length = file.length();
+		assertTrue(length > 0);
+		spill.write(change("b", 2));
+		spill.sync();
+		assertTrue(file.length() > length);
+		
+		final SerializedVariable a = spill.read(), b = spill.read();
+		assertNotNull(a);
+		assertNotNull(b);
+		assertEquals("a", a.name);
+		assertEquals("b", b.name);
+		assertNull(spill.read());
+		assertFalse(file.exists());
+	}
+	
+}
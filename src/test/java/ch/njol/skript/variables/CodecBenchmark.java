@@ -0,0 +1,145 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+
+import ch.njol.skript.classes.Codec;
+import ch.njol.yggdrasil.Yggdrasil;
+import ch.njol.yggdrasil.YggdrasilInputStream;
+import ch.njol.yggdrasil.YggdrasilOutputStream;
+
+/**
+ * Compares the serialisation of single values with Yggdrasil, as {@link ch.njol.skript.registrations.Classes} does it for classes without a codec, to their {@link Codec}s.
+ * <p>
+ * Only the codecs that don't need any registered classes are included, i.e. those of numbers and strings.
+ * 
+ * @author Peter Güttinger
+ */
+public class CodecBenchmark {
+	
+	private final static int VALUES = 100000;
+	
+	private final static Yggdrasil yggdrasil = new Yggdrasil(Variables.YGGDRASIL_VERSION);
+	
+	public static void main(final String[] args) throws Exception {
+		final Long[] longs = new Long[VALUES];
+		final Double[] doubles = new Double[VALUES];
+		final String[] strings = new String[VALUES];
+		for (int i = 0; i < VALUES; i++) {
+			longs[i] = (long) i * 31;
+			doubles[i] = i / 7.0;
+			strings[i] = "player" + i;
+		}
+		compare("long", Codec.LONG, longs);
+		compare("double", Codec.DOUBLE, doubles);
+		compare("string", Codec.STRING, strings);
+	}
+	
+	/**
+	 * Like {@link ch.njol.skript.registrations.Classes#serialize(Object)} without a codec
+	 * 
+	 * @param start The number of bytes to remove from the start, i.e. the length of the stream header and the value's tag
+	 */
+	final static byte[] serialize(final Object o, final int start) throws Exception {
+		final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		final YggdrasilOutputStream yout = yggdrasil.newOutputStream(bout);
+		yout.writeObject(o);
+		yout.flush();
+		yout.close();
+		final byte[] r = bout.toByteArray();
+		final byte[] r2 = new byte[r.length - start];
+		System.arraycopy(r, start, r2, 0, r2.length);
+		return r2;
+	}
+	
+	/**
+	 * Like {@link ch.njol.skript.registrations.Classes#deserialize(ch.njol.skript.classes.ClassInfo, byte[])} without a codec
+	 */
+	private final static Object deserialize(final byte[] start, final byte[] data) throws Exception {
+		final YggdrasilInputStream in = yggdrasil.newInputStream(new SequenceInputStream(new ByteArrayInputStream(start), new ByteArrayInputStream(data)));
+		try {
+			return in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+	
+	private final static <T> void compare(final String type, final Codec<T> codec, final T[] values) throws Exception {
+		// the stream header and the value's tag, which are not saved
+		final byte[] full = serialize(values[0], 0), data = codec.encode(values[0]);
+		final byte[] start = Arrays.copyOf(full, full.length - data.length);
+		if (!Arrays.equals(serialize(values[0], start.length), data))
+			System.out.println("The " + type + " codec doesn't match Yggdrasil");
+		
+		final byte[][] serialized = new byte[values.length][];
+		for (int i = 0; i < values.length; i++)
+			serialized[i] = codec.encode(values[i]);
+		
+		new Benchmark(type + ": serialise with Yggdrasil", values.length) {
+			@Override
+			void run() throws Exception {
+				long n = 0;
+				for (final T o : values)
+					n += serialize(o, start.length).length;
+				sink = n;
+			}
+		}.measure();
+		
+		new Benchmark(type + ": serialise with the codec", values.length) {
+			@Override
+			void run() throws Exception {
+				long n = 0;
+				for (final T o : values)
+					n += codec.encode(o).length;
+				sink = n;
+			}
+		}.measure();
+		
+		new Benchmark(type + ": deserialise with Yggdrasil", values.length) {
+			@Override
+			void run() throws Exception {
+				long n = 0;
+				for (final byte[] d : serialized)
+					n += deserialize(start, d).hashCode();
+				sink = n;
+			}
+		}.measure();
+		
+		new Benchmark(type + ": deserialise with the codec", values.length) {
+			@Override
+			void run() throws Exception {
+				long n = 0;
+				for (final byte[] d : serialized) {
+					final T o = codec.decode(d);
+					assert o != null;
+					n += o.hashCode();
+				}
+				sink = n;
+			}
+		}.measure();
+	}
+	
+}
@@ -0,0 +1,69 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * @author Peter Güttinger
+ */
+public class LocalVariablesTest {
+	
+	@Test
+	public void testSlots() {
+		final LocalVariables.Slots slots = new LocalVariables.Slots(), other = new LocalVariables.Slots();
+		final int x = slots.slot("x"), y = slots.slot("y");
+		assertEquals(x, slots.slot("x"));
+		assertTrue(x != y);
+		final int z = other.slot("z");
+		
+		final LocalVariables frame = new LocalVariables(slots);
+		assertNull(frame.get(slots, x, "x"));
+		
+		frame.set(slots, x, "x", "a");
+		assertEquals("a", frame.get(slots, x, "x"));
+		assertEquals("a", frame.get("x")); // dynamic names use the same slot
+		frame.set("y", "b");
+		assertEquals("b", frame.get(slots, y, "y"));
+		
+		// variables of other triggers are looked up by name
+		frame.set(other, z, "z", "c");
+		assertEquals("c", frame.get(other, z, "z"));
+		assertEquals("c", frame.get("z"));
+		frame.set(other, z, "x", "d");
+		assertEquals("d", frame.get(slots, x, "x"));
+		
+		frame.set("l::1", 1);
+		frame.set("l::2", 2);
+		assertEquals(2, ((Map<?, ?>) frame.get("l::*")).size());
+		
+		frame.set(slots, x, "x", null);
+		assertNull(frame.get("x"));
+		
+		assertNull(new LocalVariables(slots).get(slots, y, "y"));
+	}
+	
+}
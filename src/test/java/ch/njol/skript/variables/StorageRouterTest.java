@@ -0,0 +1,97 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * @author Peter Güttinger
+ */
+public class StorageRouterTest {
+	
+	@Test
+	public void testLiteralPrefix() {
+		final Object[][] patterns = {
+				{"db_.*", "db_"},
+				{"a::b::.*", "a::b::"},
+				{"ab?c.*", "a"},
+				{"ab{2}.*", "a"},
+				{"a\\.b.*", "a\\.b"},
+				{"a\\d.*", "a"},
+				{"db_.*|x.*", ""},
+				{"db_(a|b).*", "db_"},
+				{"db_[|(].*|x", ""},
+				{"db_\\Q(\\E.*|x", ""},
+				{"db_[[(]].*|x", ""},
+				{"db_(?x)#(\n|x", ""},
+				{"(?i)db_.*", ""},
+				{"^db_.*", ""},
+				{".*", ""},
+		};
+		for (final Object[] p : patterns) {
+			final String pattern = (String) p[0];
+			assertEquals(pattern, p[1], pattern.substring(0, StorageRouter.literalPrefixEnd(pattern)));
+		}
+	}
+	
+	@Test
+	public void testRoute() {
+		final String[][] configs = {
+				{".*"},
+				{"db_.*", ".*"},
+				{".*", "db_.*"},
+				{"db_.*", "db_x.*", "(?!-).*"},
+				{"db_x.*", "db_.*", "x", "(?i)DB_Y.*"},
+				{"a.*|b.*", "a::1", "a::[0-9]+", "[^c].+"},
+				{"a\\.b.*", "a.*"},
+				{"pl::.*::home", "pl::.*"},
+		};
+		final String[] names = {"", "a", "b", "c", "x", "-x", "db_", "db_x", "db_x::1", "db_y::1", "db_\nx", "dbx", "a::1", "a::12", "a::x", "a.b", "axb", "pl::njol::home",
+				"pl::njol::homes", "pl::", "-", "\n"};
+		for (final String[] config : configs) {
+			final List<Pattern> patterns = new ArrayList<Pattern>();
+			for (final String p : config)
+				patterns.add(p.equals(".*") ? null : Pattern.compile(p));
+			final StorageRouter router = new StorageRouter(patterns);
+			for (int i = 0; i < 2; i++) { // the second time from the cache
+				for (final String name : names) {
+					int expected = -1;
+					for (int j = 0; j < patterns.size(); j++) {
+						final Pattern p = patterns.get(j);
+						if (p == null || p.matcher(name).matches()) {
+							expected = j;
+							break;
+						}
+					}
+					assertEquals(config[0] + "...: " + name, expected, router.route(name));
+				}
+			}
+		}
+	}
+	
+}
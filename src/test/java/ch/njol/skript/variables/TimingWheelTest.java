@@ -0,0 +1,113 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Peter Güttinger
+ */
+public class TimingWheelTest {
+	
+	@Test
+	public void testExpiry() {
+		final Random random = new Random(42);
+		final long start = 1000000007L;
+		final TimingWheel<Integer> wheel = new TimingWheel<Integer>(start);
+		final Map<Integer, Long> deadlines = new HashMap<Integer, Long>();
+		for (int i = 0; i < 5000; i++) {
+			// deadlines on all levels, including some that are already due
+			final long deadline = start - 10 + (long) Math.pow(2, random.nextDouble() * 26);
+			wheel.schedule(i, deadline);
+			deadlines.put(i, deadline);
+		}
+		for (int i = 0; i < 500; i++) {
+			final int key = random.nextInt(5000);
+			if (random.nextBoolean()) {
+				assertEquals(deadlines.containsKey(key), wheel.cancel(key));
+				deadlines.remove(key);
+			} else {
+				final long deadline = start + random.nextInt(100000);
+				wheel.schedule(key, deadline);
+				deadlines.put(key, deadline);
+			}
+		}
+		assertEquals(deadlines.size(), wheel.size());
+		long now = start;
+		while (!deadlines.isEmpty()) {
+			now += 1 + random.nextInt(random.nextBoolean() ? 3 : 5000);
+			wheel.advance(now);
+			Integer key;
+			while ((key = wheel.poll()) != null) {
+				final Long deadline = deadlines.remove(key);
+				assertNotNull(key.toString(), deadline);
+				assertTrue(key + ": " + deadline + " > " + now, deadline <= now);
+			}
+			for (final Entry<Integer, Long> e : deadlines.entrySet())
+				assertTrue(e.getKey() + ": " + e.getValue() + " <= " + now, e.getValue() > now);
+		}
+		assertEquals(0, wheel.size());
+		assertNull(wheel.poll());
+	}
+	
+	@Test
+	public void testOrder() {
+		final TimingWheel<String> wheel = new TimingWheel<String>(0);
+		wheel.schedule("c", 5000);
+		wheel.schedule("a", 3);
+		wheel.schedule("b", 70);
+		wheel.schedule("x", 70);
+		wheel.cancel("x");
+		assertEquals(70, wheel.getDeadline("b"));
+		assertEquals(-1, wheel.getDeadline("x"));
+		wheel.advance(10000);
+		assertEquals("a", wheel.poll());
+		assertEquals("b", wheel.poll());
+		assertEquals("c", wheel.poll());
+		assertNull(wheel.poll());
+	}
+	
+	@Test
+	public void testIdle() {
+		final TimingWheel<String> wheel = new TimingWheel<String>(0);
+		wheel.schedule("a", 10);
+		wheel.advance(10);
+		assertEquals("a", wheel.poll());
+		// a day of ticks without any keys
+		wheel.advance(1728000);
+		wheel.schedule("b", 1728005);
+		wheel.schedule("c", 1728000);
+		assertEquals("c", wheel.poll());
+		wheel.advance(1728004);
+		assertNull(wheel.poll());
+		wheel.advance(1728005);
+		assertEquals("b", wheel.poll());
+	}
+	
+}
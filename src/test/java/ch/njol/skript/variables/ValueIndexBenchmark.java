@@ -0,0 +1,113 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the time Bukkit's main thread spends per tick on checks like <tt>{online::*} contains player</tt> or <tt>remove player from {online::*}</tt>, which need the
+ * indices of the list's values that are equal to a given value, when every value of the list is compared as before the {@link ValueIndex}, to looking them up in the index.
+ * Also compares the time of setting the values of an indexed list to an unindexed one, as the index has to be updated by every change of the list.
+ * <p>
+ * The values are texts, which are compared ignoring case in place of {@link ch.njol.skript.registrations.Comparators}, as the comparators need registered classes.
+ * 
+ * @author Peter Güttinger
+ */
+public class ValueIndexBenchmark {
+	
+	private final static int LIST_SIZE = 10000, TICKS = 100, CHECKS_PER_TICK = 100;
+	
+	public static void main(final String[] args) throws Exception {
+		final Random random = new Random(42);
+		final String[] values = new String[LIST_SIZE];
+		for (int i = 0; i < LIST_SIZE; i++)
+			values[i] = "Player" + i;
+		final String[] checked = new String[CHECKS_PER_TICK];
+		for (int i = 0; i < CHECKS_PER_TICK; i++)
+			checked[i] = "player" + random.nextInt(2 * LIST_SIZE); // half of the checked values are not in the list
+		
+		final VariablesMap unindexed = new VariablesMap(), indexed = new VariablesMap();
+		indexed.indexedLists = Pattern.compile("online");
+		new Benchmark("set {online::<n>} (unindexed)", LIST_SIZE) {
+			@Override
+			void run() {
+				for (int i = 0; i < LIST_SIZE; i++)
+					unindexed.setVariable("online::" + (i + 1), values[i]);
+				sink = unindexed.hashCode();
+			}
+		}.measure();
+		new Benchmark("set {online::<n>} (indexed)", LIST_SIZE) {
+			@Override
+			void run() {
+				for (int i = 0; i < LIST_SIZE; i++)
+					indexed.setVariable("online::" + (i + 1), values[i]);
+				sink = indexed.hashCode();
+			}
+		}.measure();
+		
+		final VariableNode scanned = (VariableNode) unindexed.getVariable("online::*"), list = (VariableNode) indexed.getVariable("online::*");
+		final ValueIndex index = list.getIndex();
+		assert index != null;
+		new Benchmark(CHECKS_PER_TICK + " checks of a " + LIST_SIZE + " values list: compare all values (per tick)", TICKS) {
+			@Override
+			void run() {
+				long n = 0;
+				for (int t = 0; t < TICKS; t++) {
+					for (final String value : checked) {
+						final List<String> indices = new ArrayList<String>(1);
+						for (final Entry<String, Object> e : scanned.entrySet()) {
+							if (value.equalsIgnoreCase((String) e.getValue()))
+								indices.add(e.getKey());
+						}
+						n += indices.size();
+					}
+				}
+				sink = n;
+			}
+		}.measure();
+		new Benchmark(CHECKS_PER_TICK + " checks of a " + LIST_SIZE + " values list: look up the index (per tick)", TICKS) {
+			@Override
+			void run() {
+				long n = 0;
+				for (int t = 0; t < TICKS; t++) {
+					for (final String value : checked) {
+						// like Variables.getListIndicesOf
+						final List<String> indices = new ArrayList<String>(1);
+						index.getCandidates(value, indices);
+						for (int i = indices.size() - 1; i >= 0; i--) {
+							final Object v = list.getChild(indices.get(i));
+							if (v == null || !value.equalsIgnoreCase((String) v))
+								indices.remove(i);
+						}
+						n += indices.size();
+					}
+				}
+				sink = n;
+			}
+		}.measure();
+	}
+	
+}
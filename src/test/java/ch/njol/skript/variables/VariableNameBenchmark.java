@@ -0,0 +1,73 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.util.Locale;
+
+import ch.njol.skript.lang.Variable;
+
+/**
+ * Compares the two ways of accessing a variable like <tt>{stats::%player%::kills}</tt>: building, lowercasing and splitting its whole name as before, and building only
+ * the segment that contains the expression like the compiled variable names do (see <tt>ch.njol.skript.lang.VariableName</tt>). The player's conversion to a string is the
+ * same for both and thus done beforehand.
+ * 
+ * @author Peter Güttinger
+ */
+public class VariableNameBenchmark {
+	
+	private final static int PLAYERS = 100000;
+	
+	public static void main(final String[] args) throws Exception {
+		final String[] players = new String[PLAYERS];
+		final VariablesMap map = new VariablesMap();
+		for (int i = 0; i < PLAYERS; i++) {
+			players[i] = "Player" + i;
+			map.setVariable("stats::player" + i + "::kills", (long) i);
+		}
+		
+		// the segments of a compiled name, which are interned when the variable is parsed
+		final String stats = "stats".intern(), kills = "kills".intern();
+		
+		new Benchmark("get by the whole name", PLAYERS) {
+			@Override
+			void run() {
+				long n = 0;
+				for (final String p : players) {
+					final String name = ("stats" + Variable.SEPARATOR + p + Variable.SEPARATOR + "kills").toLowerCase(Locale.ENGLISH);
+					n += (Long) map.getVariable(VariablesMap.splitName("" + name)); // what Variables.splitVariableName does
+				}
+				sink = n;
+			}
+		}.measure();
+		
+		new Benchmark("get by the compiled name's segments", PLAYERS) {
+			@Override
+			void run() {
+				long n = 0;
+				for (final String p : players)
+					n += (Long) map.getVariable(new String[] {stats, "" + p.toLowerCase(Locale.ENGLISH), kills});
+				sink = n;
+			}
+		}.measure();
+	}
+	
+}
@@ -0,0 +1,89 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import ch.njol.skript.variables.VariablesMapBenchmark.BaselineMap;
+
+/**
+ * Compares {@link VariablesMap#variableNameComparator} with the comparator it replaced, which parsed substrings for every number it compared, by filling lists of
+ * {@value #LIST_SIZE} variables. The indices are of the form <tt>p&lt;number&gt;</tt> in random order so that the lists are sorted by the comparators instead of being
+ * stored as arrays.
+ * 
+ * @author Peter Güttinger
+ */
+public class VariableNameComparatorBenchmark {
+	
+	private final static int LIST_SIZE = 100000;
+	
+	public static void main(final String[] args) throws Exception {
+		final List<String> shuffled = new ArrayList<String>(LIST_SIZE);
+		for (int i = 1; i <= LIST_SIZE; i++)
+			shuffled.add("p" + i);
+		Collections.shuffle(shuffled, new Random(42));
+		final String[] indices = shuffled.toArray(new String[LIST_SIZE]), names = new String[LIST_SIZE];
+		for (int i = 0; i < LIST_SIZE; i++)
+			names[i] = "list::" + indices[i];
+		
+		measure("old comparator: put into a TreeMap", BaselineMap.comparator, indices);
+		measure("new comparator: put into a TreeMap", VariablesMap.variableNameComparator, indices);
+		
+		new Benchmark("HashMap + TreeMap: set {list::p<n>}", LIST_SIZE) {
+			@Override
+			void run() {
+				final BaselineMap map = new BaselineMap();
+				for (final String name : names)
+					map.setVariable(name, Boolean.TRUE);
+				sink = map.treeMap.size();
+			}
+		}.measure();
+		
+		new Benchmark("VariablesMap: set {list::p<n>}", LIST_SIZE) {
+			@Override
+			void run() {
+				final VariablesMap map = new VariablesMap();
+				for (final String name : names)
+					map.setVariable(name, Boolean.TRUE);
+				sink = map.size;
+			}
+		}.measure();
+	}
+	
+	private final static void measure(final String name, final Comparator<String> comparator, final String[] indices) throws Exception {
+		new Benchmark(name, indices.length) {
+			@Override
+			void run() {
+				final TreeMap<String, Object> map = new TreeMap<String, Object>(comparator);
+				for (final String index : indices)
+					map.put(index, Boolean.TRUE);
+				sink = map.size();
+			}
+		}.measure();
+	}
+	
+}
@@ -0,0 +1,98 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import ch.njol.skript.classes.Codec;
+import ch.njol.skript.variables.SerializedVariable.Value;
+
+/**
+ * Compares the time {@link Variables#saveChanges()} spends on Bukkit's main thread per tick when it serialises every changed value itself, as it did before
+ * {@link VariableSnapshot}s, to only queueing snapshots that are serialised by the storages' write threads.
+ * <p>
+ * Serialising on the main thread is measured both with Yggdrasil, which every value used before codecs were added, and with the {@link Codec}s of numbers and strings. The
+ * lookup of the values' serialisers is left out as it needs registered classes, and is the same in all cases. Note that the snapshots only move the serialisation to the write
+ * threads, which is not measured here, but values that are changed again before they are written are not serialised at all.
+ * 
+ * @author Peter Güttinger
+ */
+public class VariableSnapshotBenchmark {
+	
+	private final static int TICKS = 100, CHANGES_PER_TICK = 1000;
+	
+	public static void main(final String[] args) throws Exception {
+		final String[] names = new String[CHANGES_PER_TICK];
+		final Object[] values = new Object[CHANGES_PER_TICK];
+		for (int i = 0; i < CHANGES_PER_TICK; i++) {
+			names[i] = "stats::" + i + "::kills";
+			values[i] = i % 3 == 0 ? (Object) Long.valueOf(i) : i % 3 == 1 ? (Object) Double.valueOf(i / 7.0) : "player" + i;
+		}
+		final BlockingQueue<SerializedVariable> queue = new LinkedBlockingQueue<SerializedVariable>();
+		
+		new Benchmark(CHANGES_PER_TICK + " changes: serialise with Yggdrasil (per tick)", TICKS) {
+			@Override
+			void run() throws Exception {
+				for (int t = 0; t < TICKS; t++) {
+					for (int i = 0; i < CHANGES_PER_TICK; i++)
+						queue.add(new SerializedVariable(names[i], new Value("object", CodecBenchmark.serialize(values[i], 0))));
+					sink = queue.size();
+					queue.clear();
+				}
+			}
+		}.measure();
+		
+		new Benchmark(CHANGES_PER_TICK + " changes: serialise with codecs (per tick)", TICKS) {
+			@Override
+			void run() throws Exception {
+				for (int t = 0; t < TICKS; t++) {
+					for (int i = 0; i < CHANGES_PER_TICK; i++)
+						queue.add(new SerializedVariable(names[i], encode(values[i])));
+					sink = queue.size();
+					queue.clear();
+				}
+			}
+		}.measure();
+		
+		new Benchmark(CHANGES_PER_TICK + " changes: queue snapshots (per tick)", TICKS) {
+			@Override
+			void run() throws Exception {
+				for (int t = 0; t < TICKS; t++) {
+					for (int i = 0; i < CHANGES_PER_TICK; i++)
+						queue.add(new VariableSnapshot(names[i], values[i]));
+					sink = queue.size();
+					queue.clear();
+				}
+			}
+		}.measure();
+	}
+	
+	private final static Value encode(final Object o) {
+		if (o instanceof Long)
+			return new Value("long", Codec.LONG.encode((Long) o));
+		if (o instanceof Double)
+			return new Value("double", Codec.DOUBLE.encode((Double) o));
+		return new Value("string", Codec.STRING.encode((String) o));
+	}
+	
+}
@@ -0,0 +1,75 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import static org.junit.Assert.*;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.Test;
+
+/**
+ * @author Peter Güttinger
+ */
+public class VariableSubscriptionsTest {
+	
+	@Test
+	public void testSubscriptions() {
+		final VariableSubscriptions.Listener l = new VariableSubscriptions.Listener() {
+			@Override
+			public void changed(final String name, final @Nullable Object oldValue, final @Nullable Object newValue) {}
+		};
+		assertFalse(VariableSubscriptions.isSubscribed("a"));
+		VariableSubscriptions.subscribe("a::b::*", l);
+		VariableSubscriptions.subscribe("x", l);
+		try {
+			final String[] subscribed = {"a::b::c", "a::b::c::d", "x"};
+			final String[] notSubscribed = {"a", "a::b", "a::c", "a::bc", "x::y", "y", "b::c"};
+			for (final String name : subscribed)
+				assertTrue(name, VariableSubscriptions.isSubscribed(name));
+			for (final String name : notSubscribed)
+				assertFalse(name, VariableSubscriptions.isSubscribed(name));
+		} finally {
+			VariableSubscriptions.unsubscribe(l);
+		}
+		assertFalse(VariableSubscriptions.isSubscribed("x"));
+	}
+	
+	@Test
+	public void testManyChildren() {
+		final VariableSubscriptions.Listener l = new VariableSubscriptions.Listener() {
+			@Override
+			public void changed(final String name, final @Nullable Object oldValue, final @Nullable Object newValue) {}
+		};
+		for (int i = 0; i < 20; i++)
+			VariableSubscriptions.subscribe("homes::" + i, l);
+		try {
+			assertTrue(VariableSubscriptions.isSubscribed("homes::0"));
+			assertTrue(VariableSubscriptions.isSubscribed("homes::19::"));
+			assertFalse(VariableSubscriptions.isSubscribed("homes::20"));
+			assertFalse(VariableSubscriptions.isSubscribed("homes::1::2"));
+			assertFalse(VariableSubscriptions.isSubscribed("homes"));
+		} finally {
+			VariableSubscriptions.unsubscribe(l);
+		}
+	}
+	
+}
@@ -0,0 +1,177 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Peter Güttinger
+ */
+public class VariablesCacheTest {
+	
+	/**
+	 * The cache asserts that it's used on Bukkit's main thread
+	 */
+	@BeforeClass
+	public static void setServer() {
+		if (Bukkit.getServer() != null)
+			return;
+		final Server s = createMock(Server.class);
+		s.getLogger();
+		expectLastCall().andReturn(Logger.getLogger(VariablesCacheTest.class.getCanonicalName())).anyTimes();
+		s.isPrimaryThread();
+		expectLastCall().andReturn(true).anyTimes();
+		s.getName();
+		expectLastCall().andReturn("Whatever").anyTimes();
+		s.getVersion();
+		expectLastCall().andReturn("2.0").anyTimes();
+		s.getBukkitVersion();
+		expectLastCall().andReturn("2.0").anyTimes();
+		replay(s);
+		Bukkit.setServer(s);
+	}
+	
+	private final List<String> unloaded = new ArrayList<String>(), merged = new ArrayList<String>();
+	
+	/**
+	 * @return A cache that records the variables it puts into and removes from memory instead of changing the variables map. It cannot read from a database.
+	 */
+	private final VariablesCache cache(final int maxSize) {
+		return cache(maxSize, -1);
+	}
+	
+	/**
+	 * @param partitionDelay How long players' partitions are kept, or -1 to not partition variables
+	 * @see #cache(int)
+	 */
+	@SuppressWarnings("null")
+	private final VariablesCache cache(final int maxSize, final long partitionDelay) {
+		return new VariablesCache(null, maxSize, partitionDelay, true) {
+			@Override
+			boolean put(final String name, final Object value) {
+				merged.add(name);
+				return true;
+			}
+			
+			@Override
+			void unload(final String unit) {
+				unloaded.add(unit);
+			}
+		};
+	}
+	
+	@Test
+	public void testEvictionGuard() {
+		final VariablesCache cache = cache(1);
+		cache.changed("x");
+		cache.added("y");
+		// x is not written yet, and y was just added
+		assertEquals(0, unloaded.size());
+		assertEquals(2, cache.size());
+		cache.saved("x");
+		cache.added("z");
+		assertEquals(Arrays.asList("x", "y"), unloaded);
+		assertEquals(1, cache.size());
+	}
+	
+	@Test
+	public void testListEvictionGuard() {
+		final VariablesCache cache = cache(2);
+		cache.added("list::*");
+		cache.changed("list::sub::1"); // part of the list's unit
+		cache.changed("list::sub::2");
+		cache.added("a");
+		cache.added("b");
+		// the list contains changes that are not written yet
+		assertEquals(Arrays.asList("a"), unloaded);
+		cache.saved("list::sub::1");
+		cache.added("c");
+		assertEquals(Arrays.asList("a", "b"), unloaded);
+		cache.saved("list::sub::2");
+		cache.added("d");
+		assertEquals(Arrays.asList("a", "b", "list::*"), unloaded);
+	}
+	
+	@Test
+	public void testPartitions() {
+		// partitions of offline players can be removed as soon as they're not used anymore
+		final VariablesCache cache = cache(1, 0);
+		final String uuid = "01234567-89ab-cdef-0123-456789abcdef", homes = "homes::" + uuid + "::*";
+		cache.added(homes);
+		cache.added("a");
+		cache.added("b");
+		// partitions don't count towards the maximum size
+		assertEquals(Arrays.asList("a"), unloaded);
+		cache.changed("homes::" + uuid + "::1");
+		cache.evictPartitions();
+		assertEquals(Arrays.asList("a"), unloaded);
+		assertEquals(2, cache.size());
+		cache.saved("homes::" + uuid + "::1");
+		cache.evictPartitions();
+		assertEquals(Arrays.asList("a", homes), unloaded);
+		assertEquals(1, cache.size());
+	}
+	
+	@Test
+	public void testStaleLoad() {
+		final VariablesCache cache = cache(100);
+		// written before the load started, thus the database returns the new value
+		cache.changed("a");
+		cache.saved("a");
+		final long since = cache.startLoad();
+		// changed after the load started, i.e. the loaded value might be older than the one in memory
+		cache.changed("b");
+		cache.saved("b");
+		// not yet written
+		cache.changed("c");
+		assertTrue(cache.merge("a", 1, since));
+		assertFalse(cache.merge("b", 1, since));
+		assertFalse(cache.merge("c", 1, since));
+		assertTrue(cache.merge("d", 1, since));
+		cache.endLoad();
+		assertEquals(Arrays.asList("a", "d"), merged);
+		
+		final long since2 = cache.startLoad();
+		assertTrue(cache.merge("b", 2, since2));
+		// changed before the load started, but written while the variable might have been read
+		cache.saved("c");
+		assertFalse(cache.merge("c", 2, since2));
+		cache.endLoad();
+		
+		final long since3 = cache.startLoad();
+		assertTrue(cache.merge("c", 3, since3));
+		cache.endLoad();
+		assertEquals(Arrays.asList("a", "d", "b", "c"), merged);
+	}
+	
+}
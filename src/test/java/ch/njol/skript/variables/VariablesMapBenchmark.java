@@ -0,0 +1,217 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.skript.util.Utils;
+import ch.njol.util.StringUtils;
+
+/**
+ * Compares the heap used by {@link VariablesMap} and the time of its lookups with the HashMap + TreeMap structure it replaced, for variables shaped like
+ * <tt>{stats::%player's uuid%::kills}</tt> and a long list.
+ * 
+ * @author Peter Güttinger
+ */
+public class VariablesMapBenchmark {
+	
+	private final static int PLAYERS = 100000, LIST_SIZE = 100000;
+	
+	private final static String[] STATS = {"kills", "deaths", "joins"};
+	
+	/**
+	 * The structure used before the variables tree: every variable is stored both in a flat HashMap by its full name and in nested TreeMaps by the name's segments, with a
+	 * comparator that parses numbers from substrings.
+	 */
+	final static class BaselineMap {
+		
+		final static Comparator<String> comparator = new Comparator<String>() {
+			@Override
+			public int compare(final @Nullable String s1, final @Nullable String s2) {
+				if (s1 == null)
+					return s2 == null ? 0 : -1;
+				if (s2 == null)
+					return 1;
+				int i = 0, j = 0;
+				while (i < s1.length() && j < s2.length()) {
+					final char c1 = s1.charAt(i), c2 = s2.charAt(j);
+					if ('0' <= c1 && c1 <= '9' && '0' <= c2 && c2 <= '9') {
+						final int i2 = StringUtils.findLastDigit(s1, i), j2 = StringUtils.findLastDigit(s2, j);
+						final int n1 = Utils.parseInt("" + s1.substring(i, i2)), n2 = Utils.parseInt("" + s2.substring(j, j2));
+						if (n1 != n2)
+							return n1 > n2 ? 1 : -1;
+						i = i2;
+						j = j2;
+					} else {
+						if (c1 != c2)
+							return c1 > c2 ? 1 : -1;
+						i++;
+						j++;
+					}
+				}
+				if (i < s1.length())
+					return -1;
+				if (j < s2.length())
+					return 1;
+				return 0;
+			}
+		};
+		
+		final HashMap<String, Object> hashMap = new HashMap<String, Object>();
+		final TreeMap<String, Object> treeMap = new TreeMap<String, Object>(comparator);
+		
+		@SuppressWarnings("unchecked")
+		@Nullable
+		Object getVariable(final String name) {
+			if (!name.endsWith("*"))
+				return hashMap.get(name);
+			final String[] split = name.split("::");
+			Map<String, Object> current = treeMap;
+			for (int i = 0; i < split.length - 1; i++) {
+				final Object o = current.get(split[i]);
+				if (!(o instanceof Map))
+					return null;
+				current = (Map<String, Object>) o;
+			}
+			return current;
+		}
+		
+		/**
+		 * Only sets values, which is all this benchmark needs.
+		 */
+		@SuppressWarnings("unchecked")
+		void setVariable(final String name, final Object value) {
+			hashMap.put(name, value);
+			final String[] split = name.split("::");
+			TreeMap<String, Object> parent = treeMap;
+			for (int i = 0; i < split.length - 1; i++) {
+				final Object current = parent.get(split[i]);
+				if (current instanceof TreeMap) {
+					parent = (TreeMap<String, Object>) current;
+				} else {
+					final TreeMap<String, Object> c = new TreeMap<String, Object>(comparator);
+					if (current != null)
+						c.put(null, current);
+					parent.put(split[i], c);
+					parent = c;
+				}
+			}
+			final Object current = parent.get(split[split.length - 1]);
+			if (current instanceof TreeMap)
+				((TreeMap<String, Object>) current).put(null, value);
+			else
+				parent.put(split[split.length - 1], value);
+		}
+		
+	}
+	
+	public static void main(final String[] args) throws Exception {
+		final Random random = new Random(42);
+		final String[] players = new String[PLAYERS];
+		for (int i = 0; i < PLAYERS; i++)
+			players[i] = new UUID(random.nextLong(), random.nextLong()).toString();
+		final int variables = PLAYERS * STATS.length + LIST_SIZE;
+		
+		// the names are built anew for every variable, as they would be by scripts
+		long before = Benchmark.usedMemory();
+		BaselineMap baseline = new BaselineMap();
+		for (final String p : players) {
+			for (final String s : STATS)
+				baseline.setVariable("stats::" + p + "::" + s, Long.valueOf(s.length()));
+		}
+		for (int i = 1; i <= LIST_SIZE; i++)
+			baseline.setVariable("queue::" + i, Long.valueOf(i));
+		final long baselineUsed = Benchmark.usedMemory() - before;
+		printMemory("HashMap + TreeMap", variables, baselineUsed);
+		
+		final String[] names = new String[PLAYERS];
+		for (int i = 0; i < PLAYERS; i++)
+			names[i] = "stats::" + players[random.nextInt(PLAYERS)] + "::kills";
+		
+		final BaselineMap b = baseline;
+		new Benchmark("HashMap + TreeMap: get {stats::<uuid>::kills}", PLAYERS) {
+			@Override
+			void run() {
+				long n = 0;
+				for (final String name : names)
+					n += b.getVariable(name) == null ? 0 : 1;
+				sink = n;
+			}
+		}.measure();
+		new Benchmark("HashMap + TreeMap: iterate {queue::*}", LIST_SIZE) {
+			@Override
+			void run() {
+				long n = 0;
+				for (final Object o : ((Map<?, ?>) b.getVariable("queue::*")).values())
+					n += o instanceof Long ? (Long) o : 0;
+				sink = n;
+			}
+		}.measure();
+		baseline = null;
+		
+		before = Benchmark.usedMemory();
+		final VariablesMap map = new VariablesMap();
+		for (final String p : players) {
+			for (final String s : STATS)
+				map.setVariable("stats::" + p + "::" + s, Long.valueOf(s.length()));
+		}
+		for (int i = 1; i <= LIST_SIZE; i++)
+			map.setVariable("queue::" + i, Long.valueOf(i));
+		final long used = Benchmark.usedMemory() - before;
+		printMemory("VariablesMap", variables, used);
+		System.out.println(String.format(Locale.ENGLISH, "VariablesMap uses %.2f times the heap of HashMap + TreeMap", (double) used / baselineUsed));
+		
+		new Benchmark("VariablesMap: get {stats::<uuid>::kills}", PLAYERS) {
+			@Override
+			void run() {
+				long n = 0;
+				for (final String name : names)
+					n += map.getVariable(name) == null ? 0 : 1;
+				sink = n;
+			}
+		}.measure();
+		new Benchmark("VariablesMap: iterate {queue::*}", LIST_SIZE) {
+			@Override
+			void run() {
+				long n = 0;
+				for (final Object o : ((Map<?, ?>) map.getVariable("queue::*")).values())
+					n += o instanceof Long ? (Long) o : 0;
+				sink = n;
+			}
+		}.measure();
+		Benchmark.sink = map.hashCode();
+	}
+	
+	private final static void printMemory(final String structure, final int variables, final long used) {
+		System.out.println(String.format(Locale.ENGLISH, "%s: %d variables use %.1f MiB, %.1f bytes per variable (including the names and values)",
+				structure, variables, used / 1048576.0, (double) used / variables));
+	}
+	
+}
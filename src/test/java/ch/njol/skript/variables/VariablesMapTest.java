@@ -0,0 +1,277 @@
+/*
+ *   This file is part of Skript.
+ *
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import ch.njol.util.NonNullPair;
+
+/**
+ * @author Peter Güttinger
+ */
+public class VariablesMapTest {
+	
+	@Test
+	public void testSplit() {
+		final String[][] vs = {
+				{"a", "a"},
+				{"a::b", "a", "b"},
+				{"a::b::*", "a", "b", "*"},
+				{"a::", "a"},
+				{"a::::b", "a", "", "b"},
+				{"::a", "", "a"},
+				{"", ""},
+		};
+		for (final String[] v : vs) {
+			final String[] expected = Arrays.copyOfRange(v, 1, v.length);
+			assert Arrays.equals(expected, VariablesMap.splitName(v[0])) : v[0] + ": " + Arrays.toString(expected) + " != " + Arrays.toString(VariablesMap.splitName(v[0]));
+			assert Arrays.equals(v[0].split("::"), VariablesMap.splitName(v[0])) : v[0];
+		}
+	}
+	
+	@Test
+	public void testComparator() {
+		final String[][] less = {
+				{"1", "2"},
+				{"2", "10"},
+				{"9", "10"},
+				{"a2", "a10"},
+				{"a2b", "a2c"},
+				{"1a", "2"},
+				{"a", "b"},
+				{"2147483647", "2147483648"},
+				{"99999999999999999998", "99999999999999999999"},
+				{"0099", "100"},
+				{"ab", "a"}, // longer names come first if one is a prefix of the other
+		};
+		for (final String[] l : less) {
+			assertTrue(l[0] + " < " + l[1], VariablesMap.variableNameComparator.compare(l[0], l[1]) < 0);
+			assertTrue(l[1] + " > " + l[0], VariablesMap.variableNameComparator.compare(l[1], l[0]) > 0);
+		}
+		final String[][] equal = {
+				{"1", "01"},
+				{"0", "000"},
+				{"a01b", "a1b"},
+				{"", ""},
+		};
+		for (final String[] e : equal) {
+			assertEquals(e[0] + " = " + e[1], 0, VariablesMap.variableNameComparator.compare(e[0], e[1]));
+			assertEquals(e[1] + " = " + e[0], 0, VariablesMap.variableNameComparator.compare(e[1], e[0]));
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testVariables() {
+		final VariablesMap map = new VariablesMap();
+		
+		map.setVariable("a", "value");
+		assertEquals("value", map.getVariable("a"));
+		assertNull(map.getVariable("a::*"));
+		assertNull(map.getVariable("b"));
+		
+		map.setVariable("a::10", 10);
+		map.setVariable("a::2", 2);
+		map.setVariable("a::1::x", "x");
+		assertEquals("value", map.getVariable("a"));
+		assertEquals(10, map.getVariable("a::10"));
+		assertNull(map.getVariable("a::1"));
+		assertEquals("x", map.getVariable("a::1::x"));
+		assertEquals(4, map.size);
+		
+		final Map<String, Object> list = (Map<String, Object>) map.getVariable("a::*");
+		assertNotNull(list);
+		assertEquals("value", list.get(null));
+		assertEquals(Arrays.asList(null, "1", "2", "10"), new ArrayList<String>(list.keySet()));
+		assertTrue(list.get("1") instanceof Map);
+		
+		final List<NonNullPair<String, Object>> all = new ArrayList<NonNullPair<String, Object>>();
+		map.getAll(all);
+		final List<String> names = new ArrayList<String>();
+		for (final NonNullPair<String, Object> v : all)
+			names.add(v.first);
+		assertEquals(Arrays.asList("a", "a::1::x", "a::2", "a::10"), names);
+		
+		map.setVariable("a::*", null);
+		assertEquals("value", map.getVariable("a"));
+		assertNull(map.getVariable("a::*"));
+		assertNull(map.getVariable("a::2"));
+		assertEquals(1, map.size);
+		
+		map.setVariable("a::b", "b");
+		map.setVariable("a", null);
+		assertNull(map.getVariable("a"));
+		assertEquals("b", map.getVariable("a::b"));
+		map.setVariable("a::b", null);
+		assertNull(map.getVariable("a::*"));
+		assertEquals(0, map.size);
+		assertTrue(map.root.isEmpty());
+	}
+	
+	@Test
+	public void testNextIndex() {
+		final VariablesMap map = new VariablesMap();
+		for (int i = 1; i <= 100; i++)
+			map.setVariable("l::" + i, i);
+		final VariableNode list = (VariableNode) map.getVariable("l::*");
+		assertNotNull(list);
+		assertEquals(101, list.nextIndex(1));
+		assertEquals(200, list.nextIndex(200));
+		
+		map.setVariable("l::50", null);
+		assertEquals(50, list.nextIndex(1));
+		assertEquals(101, list.nextIndex(51));
+		map.setVariable("l::050", "x"); // same index as 50
+		assertEquals(101, list.nextIndex(1));
+		
+		map.setVariable("l::1", null);
+		map.setVariable("l::a", "a");
+		assertEquals(1, list.nextIndex(1));
+		assertEquals(100, list.getChildCount());
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testArrays() {
+		final VariablesMap map = new VariablesMap();
+		for (int i = 1; i <= 100; i++)
+			map.setVariable("l::" + i, i);
+		final VariableNode list = (VariableNode) map.getVariable("l::*");
+		assertNotNull(list);
+		assertTrue(list.isArray());
+		assertEquals(50, map.getVariable("l::50"));
+		assertEquals(50, map.getVariable("l::050"));
+		assertNull(map.getVariable("l::0"));
+		assertNull(map.getVariable("l::101"));
+		
+		map.setVariable("l::100", null);
+		map.setVariable("l::2", null);
+		map.setVariable("l::1::x", "x");
+		assertTrue(list.isArray());
+		assertEquals(98, list.getChildCount());
+		final List<String> keys = new ArrayList<String>(list.keySet());
+		assertEquals("1", keys.get(0));
+		assertEquals("3", keys.get(1));
+		assertEquals("99", keys.get(keys.size() - 1));
+		assertEquals("x", ((Map<String, Object>) list.get("1")).get("x"));
+		
+		// the same variables in a tree
+		map.setVariable("l::a", "a");
+		assertFalse(list.isArray());
+		map.setVariable("l::a", null);
+		assertEquals(keys, new ArrayList<String>(list.keySet()));
+		assertEquals(50, map.getVariable("l::050"));
+		
+		// sparse lists
+		final VariablesMap sparse = new VariablesMap();
+		sparse.setVariable("s::1", 1);
+		sparse.setVariable("s::1000", 1000);
+		assertFalse(((VariableNode) sparse.getVariable("s::*")).isArray());
+		sparse.setVariable("t::01", 1);
+		assertFalse(((VariableNode) sparse.getVariable("t::*")).isArray());
+		assertEquals(Arrays.asList("01"), new ArrayList<String>(((VariableNode) sparse.getVariable("t::*")).keySet()));
+		for (int i = 1; i <= 100; i++)
+			sparse.setVariable("u::" + i, i);
+		for (int i = 1; i <= 90; i++)
+			sparse.setVariable("u::" + i, null);
+		final VariableNode u = (VariableNode) sparse.getVariable("u::*");
+		assertFalse(u.isArray());
+		assertEquals(10, u.getChildCount());
+		assertEquals(1, u.nextIndex(1));
+	}
+	
+	@Test
+	public void testIndex() {
+		final VariablesMap map = new VariablesMap();
+		map.indexedLists = Pattern.compile("l");
+		map.setVariable("l::1", "a");
+		map.setVariable("l::2", "A");
+		map.setVariable("l::3", 1);
+		map.setVariable("l::4", 1 + 1e-11);
+		map.setVariable("l::5", 2);
+		map.setVariable("l::6", -0.0);
+		map.setVariable("l::7", new Object());
+		map.setVariable("m::1", "a");
+		assertNull(((VariableNode) map.getVariable("m::*")).getIndex());
+		final VariableNode list = (VariableNode) map.getVariable("l::*");
+		final ValueIndex index = list.getIndex();
+		assertNotNull(index);
+		assertEquals(new HashSet<String>(Arrays.asList("1", "2", "7")), candidates(index, "a"));
+		assertEquals(new HashSet<String>(Arrays.asList("3", "4", "7")), candidates(index, 1.0));
+		assertEquals(new HashSet<String>(Arrays.asList("6", "7")), candidates(index, 0));
+		assertNull(candidates(index, new Object()));
+		
+		// replaced values, sub-lists, and names with leading zeroes
+		map.setVariable("l::1", "b");
+		map.setVariable("l::05", "a");
+		map.setVariable("l::3::x", "x");
+		assertEquals(1, index.nodes);
+		assertEquals(new HashSet<String>(Arrays.asList("2", "5", "7")), candidates(index, "a"));
+		assertEquals(new HashSet<String>(Arrays.asList("4", "7")), candidates(index, 1.0));
+		map.setVariable("l::3::x", null);
+		assertEquals(0, index.nodes);
+		assertEquals(new HashSet<String>(Arrays.asList("3", "4", "7")), candidates(index, 1.0));
+		map.setVariable("l::z", "a");
+		map.setVariable("l::2", null);
+		assertFalse(list.isArray());
+		map.setVariable("l::005", "c");
+		assertEquals(new HashSet<String>(Arrays.asList("z", "7")), candidates(index, "A"));
+		assertEquals(new HashSet<String>(Arrays.asList("5", "7")), candidates(index, "C"));
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testCopy() {
+		final VariablesMap map = new VariablesMap();
+		map.setVariable("a", "value");
+		map.setVariable("a::2", 2);
+		map.setVariable("a::1::x", "x");
+		map.setVariable("a::b", "b");
+		final Map<String, Object> copy = ((VariableNode) map.getVariable("a::*")).copy();
+		assertEquals(Arrays.asList(null, "1", "2", "b"), new ArrayList<String>(copy.keySet()));
+		assertEquals("value", copy.get(null));
+		assertEquals(2, copy.get("2"));
+		assertEquals("x", ((Map<String, Object>) copy.get("1")).get("x"));
+		
+		// the copy is not modified with the variables
+		map.setVariable("a::*", null);
+		map.setVariable("a::3", 3);
+		assertEquals(4, copy.size());
+		assertEquals(2, copy.get("2"));
+		assertEquals("x", ((Map<String, Object>) copy.get("1")).get("x"));
+	}
+	
+	private final static HashSet<String> candidates(final ValueIndex index, final Object value) {
+		final HashSet<String> candidates = new HashSet<String>();
+		return index.getCandidates(value, candidates) ? candidates : null;
+	}
+	
+}